@@ -0,0 +1,77 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import com.marcofaccani.awss3.service.BucketServiceImpl;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+
+/**
+ * Cost of {@link BucketServiceImpl#doesBucketExist} when the bucket exists and when S3 answers it doesn't, the answer
+ * being signalled by an exception the SDK builds for each call. S3 answers instantly and logging is off, so only the
+ * overhead of the service and of the exception path is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DoesBucketExistBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+
+  @Param({"true", "false"})
+  public boolean bucketExists;
+
+  private BucketServiceImpl bucketService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    ((Logger) LoggerFactory.getLogger(BucketServiceImpl.class)).setLevel(ch.qos.logback.classic.Level.OFF);
+    final var headBucketResponse = HeadBucketResponse.builder().build();
+    final var s3Client = new S3Client() {
+
+      @Override
+      public HeadBucketResponse headBucket(final HeadBucketRequest headBucketRequest) {
+        if (bucketExists) {
+          return headBucketResponse;
+        }
+        throw NoSuchBucketException.builder()
+            .statusCode(404)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode("NoSuchBucket").build())
+            .build();
+      }
+
+      @Override
+      public String serviceName() {
+        return SERVICE_NAME;
+      }
+
+      @Override
+      public void close() {
+      }
+
+    };
+    bucketService = new BucketServiceImpl(s3Client, new S3OperationMetrics(new SimpleMeterRegistry()));
+  }
+
+  @Benchmark
+  public boolean doesBucketExist() {
+    return bucketService.doesBucketExist(BUCKET_NAME);
+  }
+
+}
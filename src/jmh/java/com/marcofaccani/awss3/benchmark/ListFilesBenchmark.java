@@ -0,0 +1,72 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Cost of {@link FileStorageServiceImpl#listFilesInBucket} mapping a list response of {@code keys} objects to their
+ * names, S3 answering instantly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListFilesBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int keys;
+
+  private FileStorageServiceImpl fileStorageService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    final var listResponse = ListObjectsV2Response.builder()
+        .contents(IntStream.range(0, keys)
+            .mapToObj(i -> S3Object.builder().key("folder/sub-folder/file-" + i + ".json").size(1024L).build())
+            .toList())
+        .build();
+    final var s3Client = new S3Client() {
+
+      @Override
+      public ListObjectsV2Response listObjectsV2(final ListObjectsV2Request listObjectsV2Request) {
+        return listResponse;
+      }
+
+      @Override
+      public String serviceName() {
+        return SERVICE_NAME;
+      }
+
+      @Override
+      public void close() {
+      }
+
+    };
+    fileStorageService = new FileStorageServiceImpl(new AwsS3ConfigProperties("benchmark"), s3Client, null,
+        null, null, null, new S3OperationMetrics(new SimpleMeterRegistry()), null);
+  }
+
+  @Benchmark
+  public List<String> listFilesInBucket() {
+    return fileStorageService.listFilesInBucket();
+  }
+
+}
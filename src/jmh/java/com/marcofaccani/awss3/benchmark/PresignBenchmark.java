@@ -0,0 +1,72 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+/**
+ * Cost of signing a GET URL, with the {@link S3Presigner} alone and through
+ * {@link FileStorageServiceImpl#generatePreSignedUrlOfFile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PresignBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+  private static final String FILE_NAME = "folder/file.json";
+
+  private S3Presigner s3Presigner;
+  private GetObjectPresignRequest presignRequest;
+  private FileStorageServiceImpl fileStorageService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    s3Presigner = S3Presigner.builder()
+        .region(Region.EU_WEST_3)
+        .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("key", "secret")))
+        .build();
+    presignRequest = GetObjectPresignRequest.builder()
+        .signatureDuration(Duration.ofMinutes(10))
+        .getObjectRequest(GetObjectRequest.builder().bucket(BUCKET_NAME).key(FILE_NAME).build())
+        .build();
+    fileStorageService = new FileStorageServiceImpl(new AwsS3ConfigProperties(BUCKET_NAME), null, s3Presigner,
+        null, null, null, new S3OperationMetrics(new SimpleMeterRegistry()), null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    s3Presigner.close();
+  }
+
+  @Benchmark
+  public PresignedGetObjectRequest presignGetObject() {
+    return s3Presigner.presignGetObject(presignRequest);
+  }
+
+  @Benchmark
+  public String generatePreSignedUrlOfFile() {
+    return fileStorageService.generatePreSignedUrlOfFile(FILE_NAME, 10);
+  }
+
+}
@@ -0,0 +1,99 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.HttpClientConfigProperties;
+import com.marcofaccani.awss3.config.S3ClientCustomizer;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+/**
+ * Throughput of 32 threads downloading 64KB objects through an {@code S3Client} whose HTTP pool holds
+ * {@code maxConnections} connections, from a local server answering after {@code latencyMillis} like S3 would. Below
+ * 32 connections the threads queue for a connection, which {@code s3.sdk.connection.acquire} shows in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class S3ClientPoolBenchmark {
+
+  private static final int OBJECT_SIZE = 64 * 1024;
+
+  @Param({"4", "16", "32", "64"})
+  public int maxConnections;
+
+  @Param({"5"})
+  public int latencyMillis;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private S3Client s3Client;
+  private GetObjectRequest request;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    final var content = new byte[OBJECT_SIZE];
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 256);
+    server.createContext("/", exchange -> {
+      try (exchange) {
+        exchange.getRequestBody().readAllBytes();
+        Thread.sleep(latencyMillis);
+        exchange.sendResponseHeaders(200, content.length);
+        exchange.getResponseBody().write(content);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    serverExecutor = Executors.newFixedThreadPool(128);
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    final var httpClientConfigProperties = new HttpClientConfigProperties(maxConnections, Duration.ofSeconds(2),
+        Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofSeconds(60), true, true, null, null, 0);
+    s3Client = S3Client.builder()
+        .region(Region.EU_WEST_3)
+        .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("key", "secret")))
+        .endpointOverride(URI.create("http://localhost:" + server.getAddress().getPort()))
+        .forcePathStyle(true)
+        .httpClientBuilder(S3ClientCustomizer.httpClientBuilder(httpClientConfigProperties))
+        .build();
+    request = GetObjectRequest.builder().bucket("benchmark").key("object").build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    s3Client.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public int getObject() throws IOException {
+    try (var inputStream = s3Client.getObject(request)) {
+      return inputStream.readAllBytes().length;
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the copy loop streaming a download to the client in {@code FileStorageController.getFile}, for several
+ * buffer sizes (1KB being the one in use), against {@link InputStream#transferTo} (whose buffer is fixed, so it doesn't
+ * depend on {@code bufferSize}), on a 16MB file. Divide the ops/s by 16 to get MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamCopyBenchmark {
+
+  private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+  @Param({"1024", "8192", "65536", "262144"})
+  public int bufferSize;
+
+  private byte[] content;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    content = new byte[FILE_SIZE];
+    new SplittableRandom(42).nextBytes(content);
+  }
+
+  @Benchmark
+  public void copyLoop(final Blackhole blackhole) throws IOException {
+    try (InputStream inputStream = source()) {
+      final var outputStream = new BlackholeOutputStream(blackhole);
+      int numberOfBytesToWrite;
+      byte[] data = new byte[bufferSize];
+      while ((numberOfBytesToWrite = inputStream.read(data, 0, data.length)) != -1) {
+        outputStream.write(data, 0, numberOfBytesToWrite);
+      }
+    }
+  }
+
+  @Benchmark
+  public long transferTo(final Blackhole blackhole) throws IOException {
+    try (InputStream inputStream = source()) {
+      return inputStream.transferTo(new BlackholeOutputStream(blackhole));
+    }
+  }
+
+  /**
+   * Hides the array behind the stream, which {@link ByteArrayInputStream#transferTo} would write at once, as the
+   * response stream of the SDK does.
+   */
+  private InputStream source() {
+    return new FilterInputStream(new ByteArrayInputStream(content)) {
+    };
+  }
+
+  private static class BlackholeOutputStream extends OutputStream {
+
+    private final Blackhole blackhole;
+
+    BlackholeOutputStream(final Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(final int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) {
+      blackhole.consume(bytes);
+      blackhole.consume(length);
+    }
+
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.marcofaccani.awss3.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.TransformConfigProperties;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Throughput of the transform pipeline for each combination of stages, on a 16MB file made of half compressible text
+ * and half random bytes. Divide the ops/s by 16 to get MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransformPipelineBenchmark {
+
+  private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+  @Param({"", "crc32c", "sha256", "gzip", "zstd", "aes-gcm", "crc32c,zstd", "crc32c,zstd,aes-gcm",
+      "sha256,gzip,aes-gcm"})
+  public String stages;
+
+  private TransformPipeline pipeline;
+  private byte[] content;
+  private byte[] encoded;
+  private Map<String, String> metadata;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    final var key = new byte[32];
+    final var random = new SplittableRandom(42);
+    random.nextBytes(key);
+    pipeline = new TransformPipeline(new TransformConfigProperties(
+        stages.isEmpty() ? List.of() : Arrays.asList(stages.split(",")),
+        DataSize.ofKilobytes(64), 64, DataSize.ofMegabytes(32), Base64.getEncoder().encodeToString(key)));
+
+    content = new byte[FILE_SIZE];
+    final var words = "the quick brown fox jumps over the lazy dog while s3 stores objects ".getBytes();
+    for (int i = 0; i < FILE_SIZE / 2; i++) {
+      content[i] = words[random.nextInt(words.length)];
+    }
+    final var noise = new byte[FILE_SIZE / 2];
+    random.nextBytes(noise);
+    System.arraycopy(noise, 0, content, FILE_SIZE / 2, noise.length);
+
+    try (var encodedContent = pipeline.encode(new ByteArrayInputStream(content))) {
+      encoded = encodedContent.newInputStream().readAllBytes();
+      metadata = encodedContent.metadata();
+    }
+  }
+
+  @Benchmark
+  public long encode() throws IOException {
+    try (var encodedContent = pipeline.encode(new ByteArrayInputStream(content))) {
+      return encodedContent.length();
+    }
+  }
+
+  @Benchmark
+  public void decode(final Blackhole blackhole) throws IOException {
+    try (InputStream decoded = pipeline.decode(new ByteArrayInputStream(encoded), metadata)) {
+      decoded.transferTo(new BlackholeOutputStream(blackhole));
+    }
+  }
+
+  private static class BlackholeOutputStream extends OutputStream {
+
+    private final Blackhole blackhole;
+
+    BlackholeOutputStream(final Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(final int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) {
+      blackhole.consume(bytes);
+      blackhole.consume(length);
+    }
+
+  }
+
+}
@@ -0,0 +1,19 @@
+package com.marcofaccani.awss3.config;
+
+import java.util.List;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.archive")
+public class ArchiveConfigProperties {
+
+  private final int prefetchFiles;
+  private final DataSize prefetchSize;
+  private final int prefetchThreads;
+  private final int maxEntries;
+  private final List<String> storedExtensions;
+
+}
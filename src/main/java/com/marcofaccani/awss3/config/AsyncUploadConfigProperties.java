@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.async-upload")
+public class AsyncUploadConfigProperties {
+
+  private final String spoolDirectory;
+  private final int workerThreads;
+  private final int queueCapacity;
+  private final int maxAttempts;
+  private final Duration retryBackoff;
+
+}
@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.bandwidth")
+public class BandwidthConfigProperties {
+
+  private final boolean enabled;
+  // Per second
+  private final DataSize globalRate;
+  private final DataSize clientRate;
+  private final DataSize quantum;
+  private final DataSize smallObjectSize;
+
+}
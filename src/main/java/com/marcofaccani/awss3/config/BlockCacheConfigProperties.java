@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.block-cache")
+public class BlockCacheConfigProperties {
+
+  private final boolean enabled;
+  private final DataSize blockSize;
+  private final DataSize capacity;
+  private final String backingFile;
+  private final int readAheadBlocks;
+  private final int fetchThreads;
+
+}
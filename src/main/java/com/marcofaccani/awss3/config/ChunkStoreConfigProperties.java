@@ -0,0 +1,22 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.chunk-store")
+public class ChunkStoreConfigProperties {
+
+  private final String prefix;
+  private final DataSize minChunkSize;
+  private final DataSize averageChunkSize;
+  private final DataSize maxChunkSize;
+  private final int transferThreads;
+  private final int readAheadChunks;
+  private final int segmentsPerCheckpoint;
+  private final Duration gcInterval;
+
+}
@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.config;
+
+import java.util.List;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.compression")
+public class CompressionConfigProperties {
+
+  private final boolean enabled;
+  private final String algorithm;
+  private final List<String> compressibleTypes;
+  private final DataSize minSize;
+
+}
@@ -0,0 +1,13 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.copy-jobs")
+public class CopyJobConfigProperties {
+
+  private final int jobThreads;
+  private final int copyThreads;
+
+}
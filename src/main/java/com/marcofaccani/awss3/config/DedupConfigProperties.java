@@ -0,0 +1,16 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.dedup")
+public class DedupConfigProperties {
+
+  private final String prefix;
+  private final int segmentsPerCheckpoint;
+  private final Duration gcInterval;
+
+}
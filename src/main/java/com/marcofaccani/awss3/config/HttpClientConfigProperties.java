@@ -0,0 +1,24 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.http-client")
+public class HttpClientConfigProperties {
+
+  private final int maxConnections;
+  private final Duration connectionTimeout;
+  private final Duration connectionAcquisitionTimeout;
+  private final Duration socketTimeout;
+  private final Duration connectionMaxIdleTime;
+  private final boolean tcpKeepAlive;
+  private final boolean expectContinueEnabled;
+  private final DataSize socketSendBufferSize;
+  private final DataSize socketReceiveBufferSize;
+  private final int warmupConnections;
+
+}
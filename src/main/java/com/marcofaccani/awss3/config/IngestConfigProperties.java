@@ -0,0 +1,15 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.ingest")
+public class IngestConfigProperties {
+
+  private final int uploadThreads;
+  private final DataSize memoryEntrySize;
+  private final DataSize inFlightSize;
+
+}
@@ -0,0 +1,19 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.invalidation")
+public class InvalidationConfigProperties {
+
+  private final String transport;
+  private final Duration heartbeatInterval;
+  private final String multicastGroup;
+  private final int multicastPort;
+  private final Duration httpTimeout;
+  private final int httpQueueSize;
+
+}
@@ -0,0 +1,19 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.key-analytics")
+public class KeyAnalyticsConfigProperties {
+
+  private final boolean enabled;
+  private final int topK;
+  private final int depth;
+  private final int width;
+  private final Duration window;
+  private final double decay;
+
+}
@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.multipart")
+public class MultipartConfigProperties {
+
+  private final DataSize threshold;
+  private final DataSize partSize;
+  private final int partsInFlight;
+  private final int uploadThreads;
+  private final DataSize copyThreshold;
+  private final DataSize copyPartSize;
+
+}
@@ -0,0 +1,20 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.packing")
+public class PackingConfigProperties {
+
+  private final DataSize smallObjectThreshold;
+  private final DataSize packTargetSize;
+  private final Duration maxBufferAge;
+  private final String packPrefix;
+  private final Duration compactionInterval;
+  private final double compactionGarbageRatio;
+
+}
@@ -0,0 +1,26 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+import java.util.List;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.peers")
+public class PeerCacheConfigProperties {
+
+  private final boolean enabled;
+  private final String self;
+  private final List<String> members;
+  private final String dnsName;
+  private final int dnsPort;
+  private final Duration dnsRefreshInterval;
+  private final int virtualNodes;
+  private final Duration timeout;
+  private final DataSize cacheSize;
+  private final DataSize maxObjectSize;
+  private final Duration ttl;
+
+}
@@ -0,0 +1,23 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.resilience")
+public class ResilienceConfigProperties {
+
+  private final boolean circuitBreakerEnabled;
+  private final double failureRateThreshold;
+  private final Duration slowCallDuration;
+  private final int slidingWindowSize;
+  private final int minimumCalls;
+  private final Duration openDuration;
+  private final int halfOpenCalls;
+  private final DataSize staleCacheSize;
+  private final DataSize staleMaxObjectSize;
+
+}
@@ -0,0 +1,116 @@
+package com.marcofaccani.awss3.config;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import com.marcofaccani.awss3.service.S3CircuitBreaker;
+import com.marcofaccani.awss3.service.S3WorkScheduler;
+import com.marcofaccani.awss3.service.SdkMetricsInterceptor;
+import com.marcofaccani.awss3.service.SdkMetricsPublisher;
+import io.awspring.cloud.autoconfigure.core.AwsClientCustomizer;
+import io.awspring.cloud.core.SpringCloudClientConfiguration;
+import lombok.RequiredArgsConstructor;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+/**
+ * Customizes the {@code S3Client} built by Spring Cloud AWS: its HTTP client is configured from
+ * {@link HttpClientConfigProperties}, its calls go through the {@link S3CircuitBreaker}, are admitted by the
+ * {@link S3WorkScheduler} and what the SDK does is reported to Micrometer.
+ */
+@Component
+@RequiredArgsConstructor
+public class S3ClientCustomizer implements AwsClientCustomizer<S3ClientBuilder> {
+
+  private final HttpClientConfigProperties httpClientConfigProperties;
+  private final S3CircuitBreaker s3CircuitBreaker;
+  private final S3WorkScheduler s3WorkScheduler;
+  private final SdkMetricsInterceptor sdkMetricsInterceptor;
+  private final SdkMetricsPublisher sdkMetricsPublisher;
+
+  @Override
+  public ClientOverrideConfiguration overrideConfiguration() {
+    // Replaces the configuration set by Spring Cloud AWS, so it is extended to keep its user agent
+    return new SpringCloudClientConfiguration().clientOverrideConfiguration().toBuilder()
+        .addExecutionInterceptor(s3CircuitBreaker)
+        // After the breaker, so that rejected calls don't wait for a slot
+        .addExecutionInterceptor(s3WorkScheduler)
+        .addExecutionInterceptor(sdkMetricsInterceptor)
+        .addMetricPublisher(sdkMetricsPublisher)
+        .build();
+  }
+
+  @Override
+  public SdkHttpClient.Builder<?> httpClientBuilder() {
+    return httpClientBuilder(httpClientConfigProperties);
+  }
+
+  public static ApacheHttpClient.Builder httpClientBuilder(final HttpClientConfigProperties properties) {
+    final var builder = ApacheHttpClient.builder()
+        .maxConnections(properties.getMaxConnections())
+        .connectionTimeout(properties.getConnectionTimeout())
+        .connectionAcquisitionTimeout(properties.getConnectionAcquisitionTimeout())
+        .socketTimeout(properties.getSocketTimeout())
+        .connectionMaxIdleTime(properties.getConnectionMaxIdleTime())
+        .tcpKeepAlive(properties.isTcpKeepAlive())
+        .expectContinueEnabled(properties.isExpectContinueEnabled());
+    if (properties.getSocketSendBufferSize() != null || properties.getSocketReceiveBufferSize() != null) {
+      builder.socketFactory(new BufferSizeSocketFactory(SSLConnectionSocketFactory.getSocketFactory(),
+          properties.getSocketSendBufferSize(), properties.getSocketReceiveBufferSize()));
+    }
+    return builder;
+  }
+
+  /**
+   * Sets the buffer sizes of the sockets before they connect, so that the TCP window scaling can make use of them.
+   */
+  private static class BufferSizeSocketFactory implements LayeredConnectionSocketFactory {
+
+    private final LayeredConnectionSocketFactory delegate;
+    private final DataSize sendBufferSize;
+    private final DataSize receiveBufferSize;
+
+    BufferSizeSocketFactory(final LayeredConnectionSocketFactory delegate, final DataSize sendBufferSize,
+        final DataSize receiveBufferSize) {
+      this.delegate = delegate;
+      this.sendBufferSize = sendBufferSize;
+      this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @Override
+    public Socket createSocket(final HttpContext context) throws IOException {
+      final var socket = delegate.createSocket(context);
+      if (sendBufferSize != null) {
+        socket.setSendBufferSize(Math.toIntExact(sendBufferSize.toBytes()));
+      }
+      if (receiveBufferSize != null) {
+        socket.setReceiveBufferSize(Math.toIntExact(receiveBufferSize.toBytes()));
+      }
+      return socket;
+    }
+
+    @Override
+    public Socket connectSocket(final int connectTimeout, final Socket socket, final HttpHost host,
+        final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpContext context)
+        throws IOException {
+      return delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+    }
+
+    @Override
+    public Socket createLayeredSocket(final Socket socket, final String target, final int port,
+        final HttpContext context) throws IOException {
+      return delegate.createLayeredSocket(socket, target, port, context);
+    }
+
+  }
+
+}
@@ -0,0 +1,17 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.scheduler")
+public class S3SchedulerConfigProperties {
+
+  private final boolean enabled;
+  private final int maxConcurrentCalls;
+  // Calls background work can never take
+  private final int reservedInteractiveCalls;
+  private final int interactiveWeight;
+  private final int backgroundWeight;
+
+}
@@ -0,0 +1,14 @@
+package com.marcofaccani.awss3.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.sync")
+public class SyncConfigProperties {
+
+  private final String rootDirectory;
+  private final int transferThreads;
+  private final String stateFileName;
+
+}
@@ -0,0 +1,19 @@
+package com.marcofaccani.awss3.config;
+
+import java.util.List;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.transform")
+public class TransformConfigProperties {
+
+  private final List<String> stages;
+  private final DataSize bufferSize;
+  private final int bufferPoolSize;
+  private final DataSize spoolMemoryThreshold;
+  private final String encryptionKey;
+
+}
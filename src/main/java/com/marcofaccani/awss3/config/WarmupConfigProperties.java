@@ -0,0 +1,22 @@
+package com.marcofaccani.awss3.config;
+
+import java.time.Duration;
+import java.util.List;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.aws.s3.warmup")
+public class WarmupConfigProperties {
+
+  private final boolean enabled;
+  private final String journalFile;
+  private final Duration journalInterval;
+  private final int topN;
+  private final int threads;
+  private final double rate;
+  private final Duration timeout;
+  private final List<String> acceptedEncodings;
+
+}
@@ -0,0 +1,72 @@
+package com.marcofaccani.awss3.controller;
+
+import java.io.InputStream;
+import java.util.List;
+
+import com.marcofaccani.awss3.model.ArchiveRequest;
+import com.marcofaccani.awss3.model.IngestReport;
+import com.marcofaccani.awss3.service.interfaces.ArchiveIngestService;
+import com.marcofaccani.awss3.service.interfaces.ArchiveService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@Log4j2
+@RestController
+@RequestMapping("/storage/archive")
+@RequiredArgsConstructor
+public class ArchiveController {
+
+  public static final String ARCHIVE_FILE_NAME = "files.zip";
+
+  private final ArchiveService archiveService;
+  private final ArchiveIngestService archiveIngestService;
+
+  @GetMapping
+  public ResponseEntity<StreamingResponseBody> downloadArchive(@RequestParam(required = false) List<String> fileNames,
+      @RequestParam(required = false) String prefix) {
+    return downloadArchive(new ArchiveRequest(fileNames, prefix));
+  }
+
+  // For lists of files too long for a query string
+  @PostMapping
+  public ResponseEntity<StreamingResponseBody> downloadArchive(@RequestBody ArchiveRequest archiveRequest) {
+    // Resolved upfront so that an invalid request gets an error status rather than a broken archive
+    final var fileNames = archiveService.resolveFileNames(archiveRequest);
+
+    StreamingResponseBody body = outputStream -> {
+      try {
+        archiveService.writeArchive(fileNames, outputStream);
+      } catch (Exception ex) {
+        // The status is already sent: aborting the response is the only way to tell the client the archive is broken
+        log.error("Error while streaming archive: " + ex.getMessage());
+        throw ex;
+      }
+    };
+
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType("application/zip"))
+        .header(HttpHeaders.CONTENT_DISPOSITION,
+            ContentDisposition.attachment().filename(ARCHIVE_FILE_NAME).build().toString())
+        .body(body);
+  }
+
+  // The archive is the raw request body, read as a stream
+  @PostMapping("/ingest")
+  public ResponseEntity<IngestReport> ingestArchive(@RequestParam(required = false) String prefix,
+      InputStream archive) {
+    final var ingestReport = archiveIngestService.ingest(archive, prefix);
+    return ResponseEntity.ok().body(ingestReport);
+  }
+
+}
@@ -2,18 +2,35 @@ package com.marcofaccani.awss3.controller;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
+import com.marcofaccani.awss3.model.AsyncUploadStatus;
+import com.marcofaccani.awss3.model.CopyJobRequest;
+import com.marcofaccani.awss3.model.CopyJobStatus;
+import com.marcofaccani.awss3.service.BandwidthScheduler;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.KeyAnalytics;
+import com.marcofaccani.awss3.service.StaleFileCache;
+import com.marcofaccani.awss3.service.interfaces.AsyncUploadService;
+import com.marcofaccani.awss3.service.interfaces.CopyJobService;
 import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
@@ -26,51 +43,172 @@ import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBo
 @RequiredArgsConstructor
 public class FileStorageController {
 
+  // Warning of the responses served from the cache as S3 failed (RFC 7234)
+  public static final String WARNING_STALE = "110 - \"Response is Stale\"";
+
   private final FileStorageService fileStorageService;
+  private final StaleFileCache staleFileCache;
+  private final AsyncUploadService asyncUploadService;
+  private final CopyJobService copyJobService;
+  private final FileChangeBus fileChangeBus;
+  private final KeyAnalytics keyAnalytics;
+  private final BandwidthScheduler bandwidthScheduler;
 
   @GetMapping
   public ResponseEntity<List<String>> listFilesInBucket() {
-    final var fileNamesList = fileStorageService.listFilesInBucket();
-    return ResponseEntity.ok().body(fileNamesList);
+    final var fileNamesList = staleFileCache.listFiles();
+    final var response = ResponseEntity.ok();
+    if (fileNamesList.stale()) {
+      response.header(HttpHeaders.WARNING, WARNING_STALE);
+    }
+    return response.body(fileNamesList.value());
 
   }
 
   @PostMapping("/upload")
   public ResponseEntity<HttpStatus> uploadFile(MultipartFile file) {
     fileStorageService.uploadFile(file);
+    fileChangeBus.publishWritten(file.getOriginalFilename());
+    keyAnalytics.recordUpload(file.getOriginalFilename(), file.getSize());
     return ResponseEntity.ok().build();
   }
 
+  @PostMapping("/upload/async")
+  public ResponseEntity<AsyncUploadStatus> uploadFileAsync(MultipartFile file) {
+    final var uploadStatus = asyncUploadService.submit(file);
+    keyAnalytics.recordUpload(file.getOriginalFilename(), file.getSize());
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(uploadStatus);
+  }
+
+  @GetMapping("/upload/async/{uploadId}")
+  public ResponseEntity<AsyncUploadStatus> getAsyncUploadStatus(@PathVariable String uploadId) {
+    final var uploadStatus = asyncUploadService.getStatus(uploadId);
+    return ResponseEntity.ok().body(uploadStatus);
+  }
+
   @DeleteMapping("/{fileName}")
   public ResponseEntity<HttpStatus> deleteFile(@PathVariable String fileName) {
     fileStorageService.deleteFile(fileName);
+    fileChangeBus.publishDeleted(fileName);
+    return ResponseEntity.ok().build();
+  }
+
+  @PostMapping("/{fileName}/copy")
+  public ResponseEntity<HttpStatus> copyFile(@PathVariable String fileName, @RequestParam String targetFileName) {
+    fileStorageService.copyFile(fileName, targetFileName);
+    fileChangeBus.publishWritten(targetFileName);
     return ResponseEntity.ok().build();
   }
 
+  @PostMapping("/{fileName}/move")
+  public ResponseEntity<HttpStatus> moveFile(@PathVariable String fileName, @RequestParam String targetFileName) {
+    fileStorageService.moveFile(fileName, targetFileName);
+    fileChangeBus.publishWritten(targetFileName);
+    fileChangeBus.publishDeleted(fileName);
+    return ResponseEntity.ok().build();
+  }
+
+  @PostMapping("/copy-jobs")
+  public ResponseEntity<CopyJobStatus> submitCopyJob(@RequestBody CopyJobRequest copyJobRequest) {
+    final var copyJobStatus = copyJobService.submit(copyJobRequest);
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(copyJobStatus);
+  }
+
+  @GetMapping("/copy-jobs/{jobId}")
+  public ResponseEntity<CopyJobStatus> getCopyJobStatus(@PathVariable String jobId) {
+    final var copyJobStatus = copyJobService.getStatus(jobId);
+    return ResponseEntity.ok().body(copyJobStatus);
+  }
+
   @GetMapping("/{fileName}")
-  public ResponseEntity<StreamingResponseBody> getFile(@PathVariable String fileName) {
-    final var responseInputStream = fileStorageService.getFile(fileName);
+  public ResponseEntity<StreamingResponseBody> getFile(@PathVariable String fileName,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range, HttpServletRequest request) {
+    final var fileRange = parseRange(range).flatMap(httpRange -> fileStorageService.getFileRange(fileName, httpRange));
+    if (fileRange.isPresent()) {
+      return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+          .header(HttpHeaders.CONTENT_RANGE, fileRange.get().contentRange())
+          .contentLength(fileRange.get().contentLength())
+          .body(streamingBody(fileName, fileRange.get().content(), request.getRemoteAddr(),
+              fileRange.get().contentLength()));
+    }
+
+    final var acceptedEncodings = parseAcceptEncoding(acceptEncoding);
+    final var servedFile = staleFileCache.getFile(fileName, acceptedEncodings);
+    final var responseInputStream = servedFile.value();
 
-    StreamingResponseBody body = outputStream -> {
-      try (InputStream inputStream = responseInputStream) {
+    final var response = ResponseEntity.ok();
+    if (servedFile.stale()) {
+      response.header(HttpHeaders.WARNING, WARNING_STALE);
+    }
+    final var contentEncoding = responseInputStream.response().contentEncoding();
+    if (contentEncoding != null) {
+      response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding)
+          .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    return response.body(streamingBody(fileName, responseInputStream, request.getRemoteAddr(),
+        responseInputStream.response().contentLength()));
+  }
+
+  @GetMapping("/{fileName}/share")
+  public ResponseEntity<String> getPreSignedUrlToFile(@PathVariable String fileName,
+      @RequestParam long expirationTimeInMinutes) {
+    final var preSignedUrlOfFile = fileStorageService.generatePreSignedUrlOfFile(fileName, expirationTimeInMinutes);
+    return new ResponseEntity<>(preSignedUrlOfFile, HttpStatus.OK);
+  }
+
+  /**
+   * Streams the content to the client at the pace {@link BandwidthScheduler} allows.
+   */
+  private StreamingResponseBody streamingBody(final String fileName, final InputStream content, final String client,
+      final Long contentLength) {
+    return outputStream -> {
+      long bytesWritten = 0;
+      try (var transfer = bandwidthScheduler.open(client, contentLength); InputStream inputStream = content) {
         int numberOfBytesToWrite;
         byte[] data = new byte[1024];
         while ((numberOfBytesToWrite = inputStream.read(data, 0, data.length)) != -1) {
+          transfer.acquire(numberOfBytesToWrite);
           outputStream.write(data, 0, numberOfBytesToWrite);
+          bytesWritten += numberOfBytesToWrite;
         }
       } catch (IOException e) {
         log.error("Error while reading stream from getFile");
       }
+      keyAnalytics.recordDownload(fileName, bytesWritten);
     };
+  }
 
-    return new ResponseEntity<>(body, HttpStatus.OK);
+  /**
+   * Returns the single byte range of a Range header; multiple or invalid ranges are ignored, the whole file being
+   * served, as HTTP allows.
+   */
+  private static Optional<HttpRange> parseRange(final String range) {
+    if (range == null || range.isBlank()) {
+      return Optional.empty();
+    }
+    try {
+      final var ranges = HttpRange.parseRanges(range);
+      return ranges.size() == 1 ? Optional.of(ranges.get(0)) : Optional.empty();
+    } catch (IllegalArgumentException ex) {
+      return Optional.empty();
+    }
   }
 
-  @GetMapping("/{fileName}/share")
-  public ResponseEntity<String> getPreSignedUrlToFile(@PathVariable String fileName,
-      @RequestParam long expirationTimeInMinutes) {
-    final var preSignedUrlOfFile = fileStorageService.generatePreSignedUrlOfFile(fileName, expirationTimeInMinutes);
-    return new ResponseEntity<>(preSignedUrlOfFile, HttpStatus.OK);
+  /**
+   * Returns the content codings of an Accept-Encoding header, leaving out the ones refused with q=0.
+   */
+  private static List<String> parseAcceptEncoding(final String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isBlank()) {
+      return List.of();
+    }
+    return Arrays.stream(acceptEncoding.split(","))
+        .map(coding -> coding.trim().split(";"))
+        .filter(parts -> Arrays.stream(parts).skip(1).map(String::trim)
+            .noneMatch(param -> param.matches("q=0(\\.0{0,3})?")))
+        .map(parts -> parts[0].trim().toLowerCase(Locale.ROOT))
+        .filter(coding -> !coding.isEmpty())
+        .toList();
   }
 
 }
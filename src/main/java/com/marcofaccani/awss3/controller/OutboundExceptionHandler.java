@@ -1,5 +1,12 @@
 package com.marcofaccani.awss3.controller;
 
+import com.marcofaccani.awss3.exceptions.AsyncUploadNotFoundException;
+import com.marcofaccani.awss3.exceptions.AsyncUploadRejectedException;
+import com.marcofaccani.awss3.exceptions.CopyJobNotFoundException;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.InvalidSyncRequestException;
+import com.marcofaccani.awss3.exceptions.RangeNotSatisfiableException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -24,6 +31,41 @@ public class OutboundExceptionHandler {
         .body(ERR_MSG_BUCKET_NOT_FOUND);
   }
 
+  @ExceptionHandler(AsyncUploadNotFoundException.class)
+  public ResponseEntity<String> handleAsyncUploadNotFound(AsyncUploadNotFoundException ex) {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(AsyncUploadRejectedException.class)
+  public ResponseEntity<String> handleAsyncUploadRejected(AsyncUploadRejectedException ex) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(InvalidArchiveRequestException.class)
+  public ResponseEntity<String> handleInvalidArchiveRequest(InvalidArchiveRequestException ex) {
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(CopyJobNotFoundException.class)
+  public ResponseEntity<String> handleCopyJobNotFound(CopyJobNotFoundException ex) {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(InvalidCopyRequestException.class)
+  public ResponseEntity<String> handleInvalidCopyRequest(InvalidCopyRequestException ex) {
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(InvalidSyncRequestException.class)
+  public ResponseEntity<String> handleInvalidSyncRequest(InvalidSyncRequestException ex) {
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+  }
+
+  @ExceptionHandler(RangeNotSatisfiableException.class)
+  public ResponseEntity<String> handleRangeNotSatisfiable(RangeNotSatisfiableException ex) {
+    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).body(ex.getMessage());
+  }
+
   @ExceptionHandler(Exception.class)
   public ResponseEntity<String> handleUnkownError(Exception ex) {
     return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ex.getMessage());
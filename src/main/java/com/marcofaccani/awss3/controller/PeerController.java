@@ -0,0 +1,90 @@
+package com.marcofaccani.awss3.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.HttpFileChangeTransport;
+import com.marcofaccani.awss3.service.PeerCache;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Serves the files this instance owns to the other instances of the cluster, see {@link PeerCache}, and receives the
+ * changes they publish, see {@link HttpFileChangeTransport}. Requests from addresses other than those of the members
+ * of the ring are forbidden.
+ */
+@Log4j2
+@RestController
+@RequiredArgsConstructor
+public class PeerController {
+
+  private final PeerCache peerCache;
+  private final FileChangeBus fileChangeBus;
+
+  @GetMapping(PeerCache.PEER_PATH + "{fileName}")
+  public ResponseEntity<StreamingResponseBody> getOwnedFile(@PathVariable String fileName,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      HttpServletRequest request) {
+    if (!peerCache.isMember(request.getRemoteAddr())) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    final List<String> acceptedEncodings = acceptEncoding == null || acceptEncoding.isBlank()
+        ? List.of()
+        : Arrays.stream(acceptEncoding.split(",")).map(String::trim).toList();
+    final var responseInputStream = peerCache.getOwnedFile(fileName, acceptedEncodings);
+
+    StreamingResponseBody body = outputStream -> {
+      try (InputStream inputStream = responseInputStream) {
+        inputStream.transferTo(outputStream);
+      } catch (IOException e) {
+        log.error("Error while reading stream from getOwnedFile");
+      }
+    };
+
+    final var response = ResponseEntity.ok();
+    final var objectResponse = responseInputStream.response();
+    if (objectResponse.contentLength() != null) {
+      response.contentLength(objectResponse.contentLength());
+    }
+    if (objectResponse.contentEncoding() != null) {
+      response.header(HttpHeaders.CONTENT_ENCODING, objectResponse.contentEncoding());
+    }
+    if (objectResponse.contentType() != null) {
+      response.header(HttpHeaders.CONTENT_TYPE, objectResponse.contentType());
+    }
+    return response.body(body);
+  }
+
+  @PostMapping(HttpFileChangeTransport.CHANGES_PATH)
+  public ResponseEntity<HttpStatus> receiveChange(@RequestBody FileChange change, HttpServletRequest request) {
+    if (!peerCache.isMember(request.getRemoteAddr())) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    fileChangeBus.receive(change);
+    return ResponseEntity.ok().build();
+  }
+
+  // Unlike the public endpoints, a missing file is told apart from a failure for the peer to rethrow it
+  @ExceptionHandler(NoSuchKeyException.class)
+  public ResponseEntity<String> handleFileNotFound(NoSuchKeyException ex) {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+  }
+
+}
@@ -0,0 +1,28 @@
+package com.marcofaccani.awss3.controller;
+
+import com.marcofaccani.awss3.model.SyncReport;
+import com.marcofaccani.awss3.model.SyncRequest;
+import com.marcofaccani.awss3.service.interfaces.SyncService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@Log4j2
+@RestController
+@RequestMapping("/storage/sync")
+@RequiredArgsConstructor
+public class SyncController {
+
+  private final SyncService syncService;
+
+  @PostMapping
+  public ResponseEntity<SyncReport> sync(@RequestBody SyncRequest syncRequest) {
+    final var syncReport = syncService.sync(syncRequest);
+    return ResponseEntity.ok().body(syncReport);
+  }
+
+}
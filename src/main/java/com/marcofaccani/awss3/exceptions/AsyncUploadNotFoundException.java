@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class AsyncUploadNotFoundException extends RuntimeException {
+
+  public AsyncUploadNotFoundException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class AsyncUploadRejectedException extends RuntimeException {
+
+  public AsyncUploadRejectedException(String message) {
+    super(message);
+  }
+
+}
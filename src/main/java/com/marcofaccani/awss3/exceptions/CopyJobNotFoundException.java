@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class CopyJobNotFoundException extends RuntimeException {
+
+  public CopyJobNotFoundException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class IndexJournalException extends RuntimeException {
+
+  public IndexJournalException(String message) {
+    super(message);
+  }
+
+}
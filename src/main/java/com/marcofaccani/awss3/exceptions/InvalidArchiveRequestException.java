@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class InvalidArchiveRequestException extends RuntimeException {
+
+  public InvalidArchiveRequestException(String message) {
+    super(message);
+  }
+
+}
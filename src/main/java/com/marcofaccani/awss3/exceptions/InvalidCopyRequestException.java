@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class InvalidCopyRequestException extends RuntimeException {
+
+  public InvalidCopyRequestException(String message) {
+    super(message);
+  }
+
+}
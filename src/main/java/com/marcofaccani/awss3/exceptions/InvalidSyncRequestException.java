@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class InvalidSyncRequestException extends RuntimeException {
+
+  public InvalidSyncRequestException(String message) {
+    super(message);
+  }
+
+}
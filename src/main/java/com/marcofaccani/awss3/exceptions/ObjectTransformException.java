@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class ObjectTransformException extends RuntimeException {
+
+  public ObjectTransformException(String message) {
+    super(message);
+  }
+
+}
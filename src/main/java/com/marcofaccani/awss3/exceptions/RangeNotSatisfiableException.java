@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class RangeNotSatisfiableException extends RuntimeException {
+
+  public RangeNotSatisfiableException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class S3CircuitOpenException extends RuntimeException {
+
+  public S3CircuitOpenException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class S3CopyObjectException extends RuntimeException {
+
+  public S3CopyObjectException(String message) {
+    super(message);
+  }
+
+}
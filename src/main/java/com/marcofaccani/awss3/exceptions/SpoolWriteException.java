@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class SpoolWriteException extends RuntimeException {
+
+  public SpoolWriteException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.exceptions;
+
+public class SyncFailedException extends RuntimeException {
+
+  public SyncFailedException(String message) {
+    super(message);
+  }
+
+}
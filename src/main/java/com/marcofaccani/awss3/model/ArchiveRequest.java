@@ -0,0 +1,10 @@
+package com.marcofaccani.awss3.model;
+
+import java.util.List;
+
+/**
+ * Files to put in an archive: the listed ones, or else all the files whose name starts with the prefix.
+ */
+public record ArchiveRequest(List<String> fileNames, String prefix) {
+
+}
@@ -0,0 +1,13 @@
+package com.marcofaccani.awss3.model;
+
+public record AsyncUploadStatus(String uploadId, String fileName, State state, int attempts, String errorMessage) {
+
+  public enum State {
+    QUEUED,
+    IN_PROGRESS,
+    RETRYING,
+    COMPLETED,
+    FAILED
+  }
+
+}
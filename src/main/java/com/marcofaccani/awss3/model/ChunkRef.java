@@ -0,0 +1,8 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * A chunk of a file stored in the chunk store, identified by the SHA-256 of its content.
+ */
+public record ChunkRef(String hash, int size) {
+
+}
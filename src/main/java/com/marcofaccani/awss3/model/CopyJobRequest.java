@@ -0,0 +1,9 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * Copy, or move when {@code move} is set, of all the files whose name starts with {@code sourcePrefix} to the same
+ * names with {@code targetPrefix} instead.
+ */
+public record CopyJobRequest(String sourcePrefix, String targetPrefix, boolean move) {
+
+}
@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.model;
+
+public record CopyJobStatus(String jobId, CopyJobRequest request, State state, int files, int copied, int failed,
+                            String errorMessage) {
+
+  public enum State {
+    QUEUED,
+    IN_PROGRESS,
+    COMPLETED,
+    FAILED
+  }
+
+  public CopyJobStatus withProgress(State newState, int newFiles, int newCopied, int newFailed,
+      String newErrorMessage) {
+    return new CopyJobStatus(jobId, request, newState, newFiles, newCopied, newFailed, newErrorMessage);
+  }
+
+}
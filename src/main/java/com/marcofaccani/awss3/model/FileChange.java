@@ -0,0 +1,13 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * A file written or deleted through instance {@code origin}, the {@code sequence}-th change it published. Heartbeats
+ * carry no file, but the sequence of the last change published, for the other instances to tell they missed some.
+ */
+public record FileChange(String origin, long sequence, Type type, String fileName) {
+
+  public enum Type {
+    WRITTEN, DELETED, HEARTBEAT
+  }
+
+}
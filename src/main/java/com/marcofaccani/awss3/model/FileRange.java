@@ -0,0 +1,18 @@
+package com.marcofaccani.awss3.model;
+
+import java.io.InputStream;
+
+/**
+ * Bytes {@code start} to {@code end}, both included, of a file of {@code length} bytes.
+ */
+public record FileRange(long start, long end, long length, InputStream content) {
+
+  public long contentLength() {
+    return end - start + 1;
+  }
+
+  public String contentRange() {
+    return "bytes " + start + "-" + end + "/" + length;
+  }
+
+}
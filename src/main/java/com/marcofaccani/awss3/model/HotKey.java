@@ -0,0 +1,8 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * A key among the most requested ones, with its estimated, time-decayed, count of requests or bytes.
+ */
+public record HotKey(String key, long estimate) {
+
+}
@@ -0,0 +1,5 @@
+package com.marcofaccani.awss3.model;
+
+public record IngestEntryResult(String fileName, long size, boolean uploaded, String errorMessage) {
+
+}
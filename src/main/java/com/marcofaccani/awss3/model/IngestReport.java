@@ -0,0 +1,11 @@
+package com.marcofaccani.awss3.model;
+
+import java.util.List;
+
+/**
+ * Outcome of an archive ingest. {@code error} is set when the archive itself could not be read to the end, in which
+ * case only the entries read before the error are reported.
+ */
+public record IngestReport(int entries, int uploaded, int failed, String error, List<IngestEntryResult> results) {
+
+}
@@ -0,0 +1,12 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * Location of a logical file inside a pack object.
+ */
+public record PackEntry(String packKey, long offset, long length) {
+
+  public String range() {
+    return "bytes=" + offset + "-" + (offset + length - 1);
+  }
+
+}
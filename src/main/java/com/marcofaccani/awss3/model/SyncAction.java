@@ -0,0 +1,16 @@
+package com.marcofaccani.awss3.model;
+
+public record SyncAction(String path, Type type, long size, boolean done, String errorMessage) {
+
+  public enum Type {
+    UPLOAD,
+    DOWNLOAD,
+    DELETE_LOCAL,
+    DELETE_REMOTE
+  }
+
+  public SyncAction withResult(boolean newDone, String newErrorMessage) {
+    return new SyncAction(path, type, size, newDone, newErrorMessage);
+  }
+
+}
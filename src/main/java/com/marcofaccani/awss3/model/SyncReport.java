@@ -0,0 +1,8 @@
+package com.marcofaccani.awss3.model;
+
+import java.util.List;
+
+public record SyncReport(boolean dryRun, int unchanged, int transferred, int deleted, int failed,
+                         long bytesTransferred, List<SyncAction> actions) {
+
+}
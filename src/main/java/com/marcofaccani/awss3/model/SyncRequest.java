@@ -0,0 +1,15 @@
+package com.marcofaccani.awss3.model;
+
+/**
+ * Sync of a local directory, relative to the configured sync root, with the files of the bucket under a prefix.
+ */
+public record SyncRequest(String localDirectory, String prefix, Direction direction, boolean dryRun,
+                          boolean deleteExtraneous) {
+
+  public enum Direction {
+    UPLOAD,
+    DOWNLOAD,
+    BOTH
+  }
+
+}
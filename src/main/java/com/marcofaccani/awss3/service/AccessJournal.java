@@ -0,0 +1,131 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.WarmupConfigProperties;
+import com.marcofaccani.awss3.model.HotKey;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the most downloaded keys, as ranked by {@link KeyAnalytics}, to {@code journal-file} every
+ * {@code journal-interval} and at shutdown, for {@link CacheWarmer} to read them at next start. The file is written
+ * aside then renamed, a crash never leaving it half written, and holds a version, the number of keys and, hottest
+ * first, the estimated requests and the key of each.
+ * <p>
+ * No journal is kept if {@code journal-file} is blank or warm-up disabled.
+ */
+@Log4j2
+@Component
+public class AccessJournal {
+
+  public static final String ERR_MSG_WRITE_FAILED = "Writing access journal %s failed: %s";
+  public static final String ERR_MSG_READ_FAILED = "Reading access journal %s failed, no cache is warmed up: %s";
+  private static final int VERSION = 1;
+
+  private final KeyAnalytics keyAnalytics;
+  private final Path journalFile;
+  private final ScheduledExecutorService recorder;
+
+  public AccessJournal(final WarmupConfigProperties warmupConfigProperties, final KeyAnalytics keyAnalytics) {
+    this.keyAnalytics = keyAnalytics;
+    final var journalFileName = warmupConfigProperties.getJournalFile();
+    if (!warmupConfigProperties.isEnabled() || journalFileName == null || journalFileName.isBlank()) {
+      this.journalFile = null;
+      this.recorder = null;
+      return;
+    }
+    this.journalFile = Path.of(journalFileName);
+    this.recorder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable, "access-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final var interval = warmupConfigProperties.getJournalInterval().toMillis();
+    recorder.scheduleWithFixedDelay(this::record, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    if (recorder != null) {
+      recorder.shutdownNow();
+      record();
+    }
+  }
+
+  /**
+   * Writes the keys most downloaded lately; an instance which served no download keeps the previous journal.
+   */
+  public void record() {
+    if (journalFile == null) {
+      return;
+    }
+    final var hotKeys = keyAnalytics.hotKeys(KeyAnalytics.OPERATION_DOWNLOAD, KeyAnalytics.METRIC_REQUESTS);
+    if (hotKeys.isEmpty()) {
+      return;
+    }
+    final var tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+    try {
+      if (journalFile.getParent() != null) {
+        Files.createDirectories(journalFile.getParent());
+      }
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(VERSION);
+        out.writeInt(hotKeys.size());
+        for (final var hotKey : hotKeys) {
+          out.writeLong(hotKey.estimate());
+          out.writeUTF(hotKey.key());
+        }
+      }
+      try {
+        Files.move(tempFile, journalFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException ex) {
+      log.warn(String.format(ERR_MSG_WRITE_FAILED, journalFile, ex.getMessage()));
+    }
+  }
+
+  /**
+   * The keys of the journal, hottest first; none if there is no journal or it cannot be read.
+   */
+  public List<HotKey> read() {
+    if (journalFile == null) {
+      return List.of();
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+      if (in.readInt() != VERSION) {
+        throw new IOException("unknown version");
+      }
+      final var size = in.readInt();
+      final var hotKeys = new ArrayList<HotKey>();
+      for (int i = 0; i < size; i++) {
+        final var estimate = in.readLong();
+        hotKeys.add(new HotKey(in.readUTF(), estimate));
+      }
+      return hotKeys;
+    } catch (NoSuchFileException ex) {
+      return List.of();
+    } catch (IOException ex) {
+      log.warn(String.format(ERR_MSG_READ_FAILED, journalFile, ex.getMessage()));
+      return List.of();
+    }
+  }
+
+}
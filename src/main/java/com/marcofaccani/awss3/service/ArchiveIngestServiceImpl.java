@@ -0,0 +1,232 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marcofaccani.awss3.config.IngestConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.model.IngestEntryResult;
+import com.marcofaccani.awss3.model.IngestReport;
+import com.marcofaccani.awss3.service.interfaces.ArchiveIngestService;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Imports the entries of a ZIP or TAR archive (possibly compressed, e.g. .tar.gz) as files. The archive is read as a
+ * stream, entry after entry: entries up to {@code memory-entry-size} are read in memory and uploaded concurrently by
+ * {@code upload-threads} uploaders, while reading goes on (at most {@code in-flight-size} bytes waiting for or being
+ * uploaded); larger entries are streamed straight from the archive to S3, as multipart uploads.
+ */
+@Log4j2
+@Service
+public class ArchiveIngestServiceImpl implements ArchiveIngestService {
+
+  public static final String ERR_MSG_UNSUPPORTED_ARCHIVE = "Unsupported archive: expected a ZIP or TAR stream. %s";
+  public static final String ERR_MSG_ARCHIVE_READ_FAILED = "Error while reading archive: %s";
+  public static final String ERR_MSG_UNREADABLE_ENTRY = "Entry cannot be read (encrypted or unsupported compression)";
+  public static final String MSG_INGEST_COMPLETED = "Archive ingested: %d entries, %d uploaded, %d failed";
+
+  private final FileStorageService fileStorageService;
+  private final FileChangeBus fileChangeBus;
+  private final int memoryEntrySize;
+  private final Semaphore inFlightBytes;
+  private final ExecutorService uploadExecutor;
+
+  public ArchiveIngestServiceImpl(final IngestConfigProperties ingestConfigProperties,
+      final FileStorageService fileStorageService, final FileChangeBus fileChangeBus) {
+    this.fileStorageService = fileStorageService;
+    this.fileChangeBus = fileChangeBus;
+    final var inFlightSize = (int) Math.min(Integer.MAX_VALUE, ingestConfigProperties.getInFlightSize().toBytes());
+    this.memoryEntrySize = (int) Math.min(inFlightSize, ingestConfigProperties.getMemoryEntrySize().toBytes());
+    this.inFlightBytes = new Semaphore(inFlightSize);
+    final var threadCounter = new AtomicInteger();
+    this.uploadExecutor = Executors.newFixedThreadPool(ingestConfigProperties.getUploadThreads(), runnable -> {
+      final var thread = new Thread(runnable, "archive-ingest-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    uploadExecutor.shutdownNow();
+  }
+
+  @Override
+  public IngestReport ingest(final InputStream archive, final String prefix) {
+    final var namePrefix = prefix == null ? "" : prefix;
+    final var entries = openArchive(archive);
+    // Results in archive order, filled in by the uploaders
+    final var results = new ArrayList<IngestEntryResult>();
+    final var uploads = new ArrayList<Future<?>>();
+    String error = null;
+
+    try (entries) {
+      ArchiveEntry entry;
+      while ((entry = entries.getNextEntry()) != null) {
+        if (entry.isDirectory() || (entry instanceof TarArchiveEntry tarEntry && !tarEntry.isFile())) {
+          continue;
+        }
+        final var fileName = namePrefix + ArchiveServiceImpl.entryName(entry.getName());
+        final int index;
+        synchronized (results) {
+          index = results.size();
+          results.add(new IngestEntryResult(fileName, entry.getSize(), false, null));
+        }
+        if (!entries.canReadEntryData(entry)) {
+          setResult(results, index, new IngestEntryResult(fileName, entry.getSize(), false, ERR_MSG_UNREADABLE_ENTRY));
+          continue;
+        }
+        try {
+          ingestEntry(entries, entry.getSize(), fileName, index, results, uploads);
+        } catch (IOException ex) {
+          setResult(results, index, new IngestEntryResult(fileName, entry.getSize(), false, ex.getMessage()));
+          throw ex;
+        }
+      }
+    } catch (IOException ex) {
+      error = String.format(ERR_MSG_ARCHIVE_READ_FAILED, ex.getMessage());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      error = String.format(ERR_MSG_ARCHIVE_READ_FAILED, "interrupted");
+    } finally {
+      awaitAll(uploads);
+    }
+
+    synchronized (results) {
+      final var uploaded = (int) results.stream().filter(IngestEntryResult::uploaded).count();
+      log.info(String.format(MSG_INGEST_COMPLETED, results.size(), uploaded, results.size() - uploaded));
+      return new IngestReport(results.size(), uploaded, results.size() - uploaded, error, List.copyOf(results));
+    }
+  }
+
+  private void ingestEntry(final InputStream entryStream, final long size, final String fileName, final int index,
+      final List<IngestEntryResult> results, final List<Future<?>> uploads) throws IOException, InterruptedException {
+    if (size > memoryEntrySize) {
+      // Large entry: streamed to S3 from the reading thread, which keeps the archive stream positioned on it
+      upload(fileName, new NonClosingInputStream(entryStream), size, index, results);
+      return;
+    }
+
+    final var head = entryStream.readNBytes(memoryEntrySize + 1);
+    if (head.length <= memoryEntrySize) {
+      inFlightBytes.acquire(head.length);
+      uploads.add(uploadExecutor.submit(() -> {
+        try {
+          upload(fileName, new ByteArrayInputStream(head), head.length, index, results);
+        } finally {
+          inFlightBytes.release(head.length);
+        }
+      }));
+      return;
+    }
+
+    // Large entry of unknown size (ZIP entry followed by a data descriptor): its size is needed to upload it
+    final var spool = Files.createTempFile("ingest-", ".entry");
+    try {
+      try (var out = Files.newOutputStream(spool)) {
+        out.write(head);
+        entryStream.transferTo(out);
+      }
+      try (var in = Files.newInputStream(spool)) {
+        upload(fileName, in, Files.size(spool), index, results);
+      }
+    } finally {
+      Files.deleteIfExists(spool);
+    }
+  }
+
+  private void upload(final String fileName, final InputStream inputStream, final long size, final int index,
+      final List<IngestEntryResult> results) {
+    try {
+      fileStorageService.uploadFile(fileName, inputStream, size);
+      fileChangeBus.publishWritten(fileName);
+      setResult(results, index, new IngestEntryResult(fileName, size, true, null));
+    } catch (RuntimeException ex) {
+      setResult(results, index, new IngestEntryResult(fileName, size, false, ex.getMessage()));
+    }
+  }
+
+  private static void setResult(final List<IngestEntryResult> results, final int index,
+      final IngestEntryResult result) {
+    synchronized (results) {
+      results.set(index, result);
+    }
+  }
+
+  private static void awaitAll(final List<Future<?>> uploads) {
+    for (final var upload : uploads) {
+      try {
+        upload.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException ex) {
+        // Recorded in the entry result by the upload itself
+      }
+    }
+  }
+
+  private static ArchiveInputStream<? extends ArchiveEntry> openArchive(final InputStream archive) {
+    try {
+      var in = new BufferedInputStream(archive);
+      try {
+        final var compression = CompressorStreamFactory.detect(in);
+        in = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(compression, in));
+      } catch (CompressorException ex) {
+        // Not compressed
+      }
+      final var format = ArchiveStreamFactory.detect(in);
+      return switch (format) {
+        // Entries stored with a data descriptor are common in ZIPs written as streams
+        case ArchiveStreamFactory.ZIP -> new ZipArchiveInputStream(in, StandardCharsets.UTF_8.name(), true, true);
+        case ArchiveStreamFactory.TAR -> new TarArchiveInputStream(in);
+        default -> throw new InvalidArchiveRequestException(
+            String.format(ERR_MSG_UNSUPPORTED_ARCHIVE, "Detected format: " + format));
+      };
+    } catch (ArchiveException ex) {
+      throw new InvalidArchiveRequestException(String.format(ERR_MSG_UNSUPPORTED_ARCHIVE, ex.getMessage()));
+    }
+  }
+
+  /**
+   * Keeps uploads from closing the archive stream when they are done with an entry.
+   */
+  private static class NonClosingInputStream extends FilterInputStream {
+
+    NonClosingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+      // The archive stream is closed once all its entries are read
+    }
+
+  }
+
+}
@@ -0,0 +1,241 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.marcofaccani.awss3.config.ArchiveConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.model.ArchiveRequest;
+import com.marcofaccani.awss3.service.interfaces.ArchiveService;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+/**
+ * Streams ZIP archives of stored files. The archive is written to the response as the files are read, and only the
+ * next {@code prefetch-files} files are fetched ahead, concurrently: at most their first {@code prefetch-size} bytes are
+ * held in memory, so small files are downloaded in parallel while large ones are streamed.
+ * <p>
+ * Files of an already compressed type (by extension) are not compressed again. Java can only write STORED entries whose CRC is known
+ * beforehand, so files fully prefetched are STORED and larger ones are DEFLATED without compression.
+ */
+@Log4j2
+@Service
+public class ArchiveServiceImpl implements ArchiveService {
+
+  public static final String ERR_MSG_NO_FILES = "No file to archive: provide file names or a prefix matching files";
+  public static final String ERR_MSG_TOO_MANY_FILES = "Cannot archive %d files, the limit is %d";
+  public static final String ERR_MSG_TOO_MANY_MATCHING_FILES = "Cannot archive the files starting with %s: more than %d";
+  public static final String ERR_MSG_FETCH_FAILED = "Error while fetching file %s for the archive: %s";
+  public static final String MSG_ARCHIVE_WRITTEN = "Archive of %d files written";
+
+  private final ArchiveConfigProperties archiveConfigProperties;
+  private final FileStorageService fileStorageService;
+  private final Set<String> storedExtensions;
+  private final ExecutorService prefetchExecutor;
+
+  public ArchiveServiceImpl(final ArchiveConfigProperties archiveConfigProperties,
+      final FileStorageService fileStorageService) {
+    this.archiveConfigProperties = archiveConfigProperties;
+    this.fileStorageService = fileStorageService;
+    this.storedExtensions = archiveConfigProperties.getStoredExtensions().stream()
+        .map(extension -> extension.toLowerCase(Locale.ROOT))
+        .collect(Collectors.toSet());
+    final var threadCounter = new AtomicInteger();
+    this.prefetchExecutor = Executors.newFixedThreadPool(archiveConfigProperties.getPrefetchThreads(), runnable -> {
+      final var thread = new Thread(runnable, "archive-prefetch-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    prefetchExecutor.shutdownNow();
+  }
+
+  @Override
+  public List<String> resolveFileNames(final ArchiveRequest archiveRequest) {
+    final List<String> fileNames;
+    if (archiveRequest.fileNames() != null && !archiveRequest.fileNames().isEmpty()) {
+      fileNames = List.copyOf(new LinkedHashSet<>(archiveRequest.fileNames()));
+    } else if (archiveRequest.prefix() != null) {
+      // One file past the limit tells the prefix matches too many of them
+      fileNames = fileStorageService.listFiles(archiveRequest.prefix(), archiveConfigProperties.getMaxEntries() + 1);
+      if (fileNames.size() > archiveConfigProperties.getMaxEntries()) {
+        throw new InvalidArchiveRequestException(String.format(ERR_MSG_TOO_MANY_MATCHING_FILES,
+            archiveRequest.prefix(), archiveConfigProperties.getMaxEntries()));
+      }
+    } else {
+      fileNames = List.of();
+    }
+
+    if (fileNames.isEmpty()) {
+      throw new InvalidArchiveRequestException(ERR_MSG_NO_FILES);
+    }
+    if (fileNames.size() > archiveConfigProperties.getMaxEntries()) {
+      throw new InvalidArchiveRequestException(
+          String.format(ERR_MSG_TOO_MANY_FILES, fileNames.size(), archiveConfigProperties.getMaxEntries()));
+    }
+    return fileNames;
+  }
+
+  @Override
+  public void writeArchive(final List<String> fileNames, final OutputStream outputStream) throws IOException {
+    final var pending = fileNames.iterator();
+    final Deque<Future<PrefetchedFile>> window = new ArrayDeque<>();
+    final Set<String> entryNames = new HashSet<>();
+    try (var zip = new ZipOutputStream(outputStream)) {
+      fillWindow(window, pending);
+      while (!window.isEmpty()) {
+        final var next = window.poll();
+        fillWindow(window, pending);
+        writeEntry(zip, await(next), entryNames);
+      }
+      zip.finish();
+      log.info(String.format(MSG_ARCHIVE_WRITTEN, fileNames.size()));
+    } finally {
+      // Only left when the archive failed: release the connections of the files fetched ahead
+      window.forEach(this::discard);
+    }
+  }
+
+  private void fillWindow(final Deque<Future<PrefetchedFile>> window, final Iterator<String> pending) {
+    while (window.size() < archiveConfigProperties.getPrefetchFiles() && pending.hasNext()) {
+      final var fileName = pending.next();
+      window.add(prefetchExecutor.submit(() -> prefetch(fileName)));
+    }
+  }
+
+  private PrefetchedFile prefetch(final String fileName) throws IOException {
+    final var prefetchSize = (int) archiveConfigProperties.getPrefetchSize().toBytes();
+    try {
+      final var object = fileStorageService.getFile(fileName);
+      try {
+        final var head = object.readNBytes(prefetchSize);
+        if (head.length < prefetchSize || Thread.currentThread().isInterrupted()) {
+          // Complete, or not to be read anyway as the archive was abandoned
+          object.close();
+          return new PrefetchedFile(fileName, head, null);
+        }
+        return new PrefetchedFile(fileName, head, object);
+      } catch (IOException | RuntimeException ex) {
+        object.close();
+        throw ex;
+      }
+    } catch (IOException | RuntimeException ex) {
+      throw new IOException(String.format(ERR_MSG_FETCH_FAILED, fileName, ex.getMessage()), ex);
+    }
+  }
+
+  private void writeEntry(final ZipOutputStream zip, final PrefetchedFile file, final Set<String> entryNames)
+      throws IOException {
+    final var entry = new ZipEntry(uniqueEntryName(entryName(file.fileName()), entryNames));
+    final var alreadyCompressed = isAlreadyCompressed(file.fileName());
+    if (alreadyCompressed && file.rest() == null) {
+      final var crc = new CRC32();
+      crc.update(file.head());
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(file.head().length);
+      entry.setCompressedSize(file.head().length);
+      entry.setCrc(crc.getValue());
+    } else {
+      entry.setMethod(ZipEntry.DEFLATED);
+      zip.setLevel(alreadyCompressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+    }
+
+    zip.putNextEntry(entry);
+    zip.write(file.head());
+    if (file.rest() != null) {
+      try (var rest = file.rest()) {
+        rest.transferTo(zip);
+      }
+    }
+    zip.closeEntry();
+  }
+
+  private boolean isAlreadyCompressed(final String fileName) {
+    final var extension = StringUtils.getFilenameExtension(fileName);
+    return extension != null && storedExtensions.contains(extension.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Turns a file name into a relative entry path, so that extracting the archive cannot write outside its target
+   * directory.
+   */
+  static String entryName(final String fileName) {
+    final var entryName = Arrays.stream(fileName.replace('\\', '/').split("/"))
+        .filter(segment -> !segment.isEmpty() && !segment.equals(".") && !segment.equals(".."))
+        .collect(Collectors.joining("/"));
+    return entryName.isEmpty() ? "_" : entryName;
+  }
+
+  /**
+   * Suffixes the entry name with a counter (as in {@code report (1).pdf}) when distinct file names map to the same
+   * entry, ZIP archives not allowing duplicate entries.
+   */
+  static String uniqueEntryName(final String entryName, final Set<String> entryNames) {
+    var uniqueName = entryName;
+    final var extensionStart = entryName.lastIndexOf('.');
+    final var stem = extensionStart > entryName.lastIndexOf('/') + 1
+        ? entryName.substring(0, extensionStart)
+        : entryName;
+    final var extension = entryName.substring(stem.length());
+    for (int counter = 1; !entryNames.add(uniqueName); counter++) {
+      uniqueName = stem + " (" + counter + ")" + extension;
+    }
+    return uniqueName;
+  }
+
+  private PrefetchedFile await(final Future<PrefetchedFile> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching file for the archive", ex);
+    } catch (ExecutionException ex) {
+      throw new IOException(ex.getCause().getMessage(), ex.getCause());
+    }
+  }
+
+  private void discard(final Future<PrefetchedFile> future) {
+    if (future.cancel(true)) {
+      return;
+    }
+    try {
+      final var rest = future.get().rest();
+      if (rest != null) {
+        rest.close();
+      }
+    } catch (Exception ex) {
+      // Nothing to release
+    }
+  }
+
+  private record PrefetchedFile(String fileName, byte[] head, InputStream rest) {
+
+  }
+
+}
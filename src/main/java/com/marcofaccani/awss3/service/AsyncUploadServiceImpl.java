@@ -0,0 +1,325 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marcofaccani.awss3.config.AsyncUploadConfigProperties;
+import com.marcofaccani.awss3.exceptions.AsyncUploadNotFoundException;
+import com.marcofaccani.awss3.exceptions.AsyncUploadRejectedException;
+import com.marcofaccani.awss3.exceptions.SpoolWriteException;
+import com.marcofaccani.awss3.model.AsyncUploadStatus;
+import com.marcofaccani.awss3.model.AsyncUploadStatus.State;
+import com.marcofaccani.awss3.service.interfaces.AsyncUploadService;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Accepts uploads by persisting them to a local spool directory and pushing them to S3 from a bounded worker pool.
+ * Every spooled upload is made of a data file and a metadata file; both are fsync-ed before the upload is
+ * acknowledged, so whatever is left in the spool directory at boot time is resubmitted.
+ */
+@Log4j2
+@Service
+public class AsyncUploadServiceImpl implements AsyncUploadService {
+
+  public static final String DATA_FILE_SUFFIX = ".data";
+  public static final String METADATA_FILE_SUFFIX = ".properties";
+  public static final String PARTIAL_FILE_SUFFIX = ".part";
+  public static final String METADATA_FILE_NAME = "fileName";
+  public static final String MSG_UPLOAD_RECOVERED = "Resuming spooled upload %s of file %s";
+  public static final String MSG_UPLOAD_COMPLETED = "Spooled upload %s of file %s completed after %d attempt(s)";
+  public static final String ERR_MSG_SPOOL_FAILED = "Error while spooling file %s. Exception message: %s";
+  public static final String ERR_MSG_QUEUE_FULL = "Upload of file %s rejected: the async upload queue is full";
+  public static final String ERR_MSG_UPLOAD_NOT_FOUND = "No async upload found with id %s";
+  public static final String ERR_MSG_ATTEMPT_FAILED = "Attempt %d/%d of spooled upload %s failed. Exception message: %s";
+
+  private static final int MAX_TRACKED_UPLOADS = 10_000;
+  private static final long RECOVERY_RETRY_MILLIS = 100;
+
+  private final AsyncUploadConfigProperties asyncUploadConfigProperties;
+  private final FileStorageService fileStorageService;
+  private final FileChangeBus fileChangeBus;
+  private final Path spoolDirectory;
+  private final ThreadPoolExecutor executor;
+  private final Map<String, AsyncUploadStatus> statuses = Collections.synchronizedMap(
+      new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AsyncUploadStatus> eldest) {
+          // Only finished uploads are forgotten: the workers keep updating the statuses of the others
+          if (size() > MAX_TRACKED_UPLOADS) {
+            values().stream().filter(AsyncUploadServiceImpl::isFinished).findFirst()
+                .ifPresent(status -> remove(status.uploadId()));
+          }
+          return false;
+        }
+      });
+
+  public AsyncUploadServiceImpl(final AsyncUploadConfigProperties asyncUploadConfigProperties,
+      final FileStorageService fileStorageService, final FileChangeBus fileChangeBus) {
+    this.asyncUploadConfigProperties = asyncUploadConfigProperties;
+    this.fileStorageService = fileStorageService;
+    this.fileChangeBus = fileChangeBus;
+    this.spoolDirectory = Path.of(asyncUploadConfigProperties.getSpoolDirectory());
+    final var threadCounter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        asyncUploadConfigProperties.getWorkerThreads(),
+        asyncUploadConfigProperties.getWorkerThreads(),
+        0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(asyncUploadConfigProperties.getQueueCapacity()),
+        runnable -> new Thread(S3WorkScheduler.background(runnable), "async-upload-" + threadCounter.incrementAndGet()));
+  }
+
+  @PostConstruct
+  public void postConstruct() throws IOException {
+    Files.createDirectories(spoolDirectory);
+    recoverSpooledUploads();
+  }
+
+  @PreDestroy
+  public void preDestroy() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      // Whatever did not complete is still in the spool directory and will be resumed at next boot
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public AsyncUploadStatus submit(final MultipartFile file) {
+    final var fileName = file.getOriginalFilename();
+    if (executor.getQueue().remainingCapacity() == 0) {
+      throw new AsyncUploadRejectedException(String.format(ERR_MSG_QUEUE_FULL, fileName));
+    }
+
+    final var uploadId = UUID.randomUUID().toString();
+    try (InputStream inputStream = file.getInputStream()) {
+      spool(uploadId, fileName, inputStream);
+    } catch (IOException ex) {
+      deleteSpoolFiles(uploadId);
+      throw new SpoolWriteException(String.format(ERR_MSG_SPOOL_FAILED, fileName, ex.getMessage()));
+    }
+    return enqueue(uploadId, fileName);
+  }
+
+  @Override
+  public AsyncUploadStatus getStatus(final String uploadId) {
+    final var status = statuses.get(uploadId);
+    if (status == null) {
+      throw new AsyncUploadNotFoundException(String.format(ERR_MSG_UPLOAD_NOT_FOUND, uploadId));
+    }
+    return status;
+  }
+
+  private void spool(final String uploadId, final String fileName, final InputStream inputStream)
+      throws IOException {
+    final var partialFile = spoolDirectory.resolve(uploadId + PARTIAL_FILE_SUFFIX);
+    writeDurably(partialFile, inputStream);
+
+    final var metadata = new Properties();
+    metadata.setProperty(METADATA_FILE_NAME, fileName);
+    try (FileChannel channel = FileChannel.open(metadataFile(uploadId),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      metadata.store(Channels.newOutputStream(channel), null);
+      channel.force(true);
+    }
+
+    // The data file only gets its final name once fully on disk: a crash before this point leaves a .part file
+    // which is discarded at recovery time, as the client never received an acknowledgement for it.
+    moveAtomically(partialFile, dataFile(uploadId));
+    forceDirectory();
+  }
+
+  private void writeDurably(final Path target, final InputStream inputStream) throws IOException {
+    try (FileChannel channel = FileChannel.open(target,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final OutputStream outputStream = Channels.newOutputStream(channel);
+      inputStream.transferTo(outputStream);
+      channel.force(true);
+    }
+  }
+
+  private void moveAtomically(final Path source, final Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void forceDirectory() {
+    // Persists the directory entries of the renamed files; not supported on every platform
+    try (FileChannel channel = FileChannel.open(spoolDirectory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException ex) {
+      log.debug(String.format("Unable to fsync spool directory %s: %s", spoolDirectory, ex.getMessage()));
+    }
+  }
+
+  private AsyncUploadStatus enqueue(final String uploadId, final String fileName) {
+    final var status = new AsyncUploadStatus(uploadId, fileName, State.QUEUED, 0, null);
+    statuses.put(uploadId, status);
+    try {
+      executor.execute(() -> transfer(uploadId, fileName));
+    } catch (RejectedExecutionException ex) {
+      statuses.remove(uploadId);
+      deleteSpoolFiles(uploadId);
+      throw new AsyncUploadRejectedException(String.format(ERR_MSG_QUEUE_FULL, fileName));
+    }
+    return status;
+  }
+
+  private void transfer(final String uploadId, final String fileName) {
+    final var maxAttempts = asyncUploadConfigProperties.getMaxAttempts();
+    final var dataFile = dataFile(uploadId);
+    var backoffMillis = asyncUploadConfigProperties.getRetryBackoff().toMillis();
+
+    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+      updateStatus(uploadId, fileName, State.IN_PROGRESS, attempt, null);
+      try (InputStream inputStream = Files.newInputStream(dataFile)) {
+        fileStorageService.uploadFile(fileName, inputStream, Files.size(dataFile));
+        fileChangeBus.publishWritten(fileName);
+        deleteSpoolFiles(uploadId);
+        updateStatus(uploadId, fileName, State.COMPLETED, attempt, null);
+        log.info(String.format(MSG_UPLOAD_COMPLETED, uploadId, fileName, attempt));
+        return;
+      } catch (Exception ex) {
+        final var errMsg = String.format(ERR_MSG_ATTEMPT_FAILED, attempt, maxAttempts, uploadId, ex.getMessage());
+        log.warn(errMsg);
+        updateStatus(uploadId, fileName, attempt < maxAttempts ? State.RETRYING : State.FAILED, attempt, errMsg);
+      }
+
+      if (attempt < maxAttempts && !sleep(backoffMillis)) {
+        return;
+      }
+      backoffMillis *= 2;
+    }
+    // The spool files are kept on purpose: the upload will be attempted again at next boot
+  }
+
+  private void updateStatus(final String uploadId, final String fileName, final State state, final int attempts,
+      final String errorMessage) {
+    // Built from scratch, so that a transfer never depends on its status still being tracked
+    statuses.put(uploadId, new AsyncUploadStatus(uploadId, fileName, state, attempts, errorMessage));
+  }
+
+  private static boolean isFinished(final AsyncUploadStatus status) {
+    return status.state() == State.COMPLETED || status.state() == State.FAILED;
+  }
+
+  private boolean sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void recoverSpooledUploads() throws IOException {
+    final var recovered = new ArrayList<AsyncUploadStatus>();
+    try (var spoolFiles = Files.list(spoolDirectory)) {
+      for (Path path : spoolFiles.toList()) {
+        final var name = path.getFileName().toString();
+        if (name.endsWith(PARTIAL_FILE_SUFFIX)) {
+          Files.deleteIfExists(path);
+        } else if (name.endsWith(DATA_FILE_SUFFIX)) {
+          recoverSpooledUpload(name.substring(0, name.length() - DATA_FILE_SUFFIX.length()))
+              .ifPresent(recovered::add);
+        }
+      }
+    }
+    if (recovered.isEmpty()) {
+      return;
+    }
+
+    // Recovered uploads were already acknowledged to the clients, so rather than being rejected when they exceed
+    // the queue capacity they are fed to the workers as room becomes available, without blocking the boot.
+    final var recoveryThread = new Thread(() -> {
+      for (AsyncUploadStatus status : recovered) {
+        if (!resubmit(status)) {
+          // Left in the spool directory for the next boot
+          return;
+        }
+      }
+    }, "async-upload-recovery");
+    recoveryThread.setDaemon(true);
+    recoveryThread.start();
+  }
+
+  private boolean resubmit(final AsyncUploadStatus status) {
+    while (!executor.isShutdown()) {
+      try {
+        executor.execute(() -> transfer(status.uploadId(), status.fileName()));
+        return true;
+      } catch (RejectedExecutionException ex) {
+        if (!sleep(RECOVERY_RETRY_MILLIS)) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Optional<AsyncUploadStatus> recoverSpooledUpload(final String uploadId) throws IOException {
+    final var metadataFile = metadataFile(uploadId);
+    if (!Files.exists(metadataFile)) {
+      // Only reachable after a crash between writing the data and its metadata, i.e. before the upload was acknowledged
+      deleteSpoolFiles(uploadId);
+      return Optional.empty();
+    }
+
+    final var metadata = new Properties();
+    try (InputStream inputStream = Files.newInputStream(metadataFile)) {
+      metadata.load(inputStream);
+    }
+    final var fileName = metadata.getProperty(METADATA_FILE_NAME);
+    log.info(String.format(MSG_UPLOAD_RECOVERED, uploadId, fileName));
+    final var status = new AsyncUploadStatus(uploadId, fileName, State.QUEUED, 0, null);
+    statuses.put(uploadId, status);
+    return Optional.of(status);
+  }
+
+  private void deleteSpoolFiles(final String uploadId) {
+    try {
+      Files.deleteIfExists(spoolDirectory.resolve(uploadId + PARTIAL_FILE_SUFFIX));
+      Files.deleteIfExists(dataFile(uploadId));
+      Files.deleteIfExists(metadataFile(uploadId));
+    } catch (IOException ex) {
+      log.warn(String.format("Unable to delete spool files of upload %s: %s", uploadId, ex.getMessage()));
+    }
+  }
+
+  private Path dataFile(final String uploadId) {
+    return spoolDirectory.resolve(uploadId + DATA_FILE_SUFFIX);
+  }
+
+  private Path metadataFile(final String uploadId) {
+    return spoolDirectory.resolve(uploadId + METADATA_FILE_SUFFIX);
+  }
+
+}
@@ -0,0 +1,301 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.marcofaccani.awss3.config.BandwidthConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shares the egress of the instance among the files being downloaded: each {@link Transfer} asks for the bytes it is
+ * about to write, granted {@code quantum} at a time by a dispatcher thread within a global token bucket of
+ * {@code global-rate} bytes per second and a token bucket of {@code client-rate} per client.
+ * <p>
+ * Transfers of files up to {@code small-object-size} are served first, so that a few large downloads don't hold the
+ * latency of small ones; within a class, waiting transfers are served in deficit round-robin, each receiving the same
+ * share of the bandwidth whatever the size of its grants.
+ * <p>
+ * When disabled, transfers are only counted.
+ */
+@Component
+public class BandwidthScheduler {
+
+  public static final String METRIC_BYTES = "s3.bandwidth.bytes";
+  public static final String METRIC_WAIT = "s3.bandwidth.wait";
+  public static final String METRIC_TRANSFERS = "s3.bandwidth.transfers";
+
+  public enum TrafficClass {
+    SMALL, LARGE
+  }
+
+  private final BandwidthConfigProperties bandwidthConfigProperties;
+  private final long quantum;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition work = lock.newCondition();
+  // Guarded by the lock
+  private final Map<TrafficClass, ArrayDeque<Transfer>> waiting = new EnumMap<>(TrafficClass.class);
+  private final Map<String, ClientBucket> clients = new HashMap<>();
+  private final Map<TrafficClass, Integer> active = new EnumMap<>(TrafficClass.class);
+  private final TokenBucket global;
+  private final Map<TrafficClass, Counter> bytes = new EnumMap<>(TrafficClass.class);
+  private final Map<TrafficClass, Timer> waits = new EnumMap<>(TrafficClass.class);
+  private final Thread dispatcher;
+  private volatile boolean stopped;
+
+  private record ClientBucket(TokenBucket bucket, int[] transfers) {
+
+  }
+
+  public BandwidthScheduler(final BandwidthConfigProperties bandwidthConfigProperties,
+      final MeterRegistry meterRegistry) {
+    this.bandwidthConfigProperties = bandwidthConfigProperties;
+    this.quantum = bandwidthConfigProperties.getQuantum().toBytes();
+    for (final var trafficClass : TrafficClass.values()) {
+      final var tag = trafficClass.name().toLowerCase(Locale.ROOT);
+      waiting.put(trafficClass, new ArrayDeque<>());
+      active.put(trafficClass, 0);
+      bytes.put(trafficClass, Counter.builder(METRIC_BYTES)
+          .description("Bytes of the files downloaded")
+          .baseUnit("bytes")
+          .tag("class", tag)
+          .register(meterRegistry));
+      waits.put(trafficClass, Timer.builder(METRIC_WAIT)
+          .description("Time downloads waited for bandwidth")
+          .tag("class", tag)
+          .register(meterRegistry));
+      Gauge.builder(METRIC_TRANSFERS, this, scheduler -> scheduler.activeTransfers(trafficClass))
+          .description("Files being downloaded")
+          .tag("class", tag)
+          .register(meterRegistry);
+    }
+    if (!bandwidthConfigProperties.isEnabled()) {
+      this.global = null;
+      this.dispatcher = null;
+      return;
+    }
+    this.global = new TokenBucket(bandwidthConfigProperties.getGlobalRate().toBytes(), quantum);
+    this.dispatcher = new Thread(this::dispatch, "bandwidth-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    if (dispatcher != null) {
+      stopped = true;
+      dispatcher.interrupt();
+    }
+  }
+
+  /**
+   * Starts a transfer of {@code contentLength} bytes, unknown if null, to {@code client}.
+   */
+  public Transfer open(final String client, final Long contentLength) {
+    final var trafficClass = contentLength != null
+        && contentLength <= bandwidthConfigProperties.getSmallObjectSize().toBytes()
+        ? TrafficClass.SMALL
+        : TrafficClass.LARGE;
+    final var transfer = new Transfer(client == null ? "" : client, trafficClass, contentLength);
+    lock.lock();
+    try {
+      active.merge(trafficClass, 1, Integer::sum);
+      if (bandwidthConfigProperties.isEnabled()) {
+        clients.computeIfAbsent(transfer.client, key -> new ClientBucket(
+            new TokenBucket(bandwidthConfigProperties.getClientRate().toBytes(), quantum), new int[1]))
+            .transfers()[0]++;
+      }
+    } finally {
+      lock.unlock();
+    }
+    return transfer;
+  }
+
+  private int activeTransfers(final TrafficClass trafficClass) {
+    lock.lock();
+    try {
+      return active.get(trafficClass);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void dispatch() {
+    lock.lock();
+    try {
+      while (!stopped) {
+        final var waitNanos = grant(System.nanoTime());
+        if (waitNanos > 0) {
+          work.awaitNanos(waitNanos);
+        }
+      }
+    } catch (InterruptedException ex) {
+      // Stopped
+    } finally {
+      // Whatever is waiting is let through
+      waiting.values().forEach(queue -> queue.forEach(transfer -> {
+        transfer.granted = true;
+        transfer.wakeUp.signal();
+      }));
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Grants bytes to the next transfer able to write them, small ones first; returns 0 if one was granted, else how long
+   * to wait for tokens, or for a transfer to ask for bytes.
+   */
+  private long grant(final long now) {
+    global.refill(now);
+    var waitNanos = Long.MAX_VALUE;
+    for (final var trafficClass : TrafficClass.values()) {
+      final var queue = waiting.get(trafficClass);
+      for (int visited = 0, size = queue.size(); visited < size; visited++) {
+        final var transfer = queue.pollFirst();
+        if (transfer.deficit < transfer.requested) {
+          transfer.deficit += quantum;
+        }
+        final var clientBucket = clients.get(transfer.client).bucket();
+        clientBucket.refill(now);
+        if (transfer.deficit >= transfer.requested && global.has(transfer.requested)
+            && clientBucket.has(transfer.requested)) {
+          global.take(transfer.requested);
+          clientBucket.take(transfer.requested);
+          transfer.deficit -= transfer.requested;
+          transfer.granted = true;
+          transfer.wakeUp.signal();
+          return 0;
+        }
+        waitNanos = Math.min(waitNanos, Math.max(global.nanosUntil(transfer.requested),
+            clientBucket.nanosUntil(transfer.requested)));
+        queue.addLast(transfer);
+      }
+    }
+    return waitNanos == Long.MAX_VALUE ? TimeUnit.SECONDS.toNanos(1) : Math.max(waitNanos, 1);
+  }
+
+  /**
+   * A file being downloaded: {@link #acquire(int)} before writing bytes, {@link #close()} once done.
+   */
+  public final class Transfer implements AutoCloseable {
+
+    private final String client;
+    private final TrafficClass trafficClass;
+    private final Long contentLength;
+    private final Condition wakeUp = lock.newCondition();
+    private long written;
+    private long allowance;
+    // Guarded by the lock
+    private long requested;
+    private long deficit;
+    private boolean granted;
+
+    private Transfer(final String client, final TrafficClass trafficClass, final Long contentLength) {
+      this.client = client;
+      this.trafficClass = trafficClass;
+      this.contentLength = contentLength;
+    }
+
+    public TrafficClass getTrafficClass() {
+      return trafficClass;
+    }
+
+    /**
+     * Waits until {@code length} bytes may be written.
+     */
+    public void acquire(final int length) throws InterruptedIOException {
+      bytes.get(trafficClass).increment(length);
+      written += length;
+      if (!bandwidthConfigProperties.isEnabled() || stopped || allowance >= length) {
+        allowance -= Math.min(allowance, length);
+        return;
+      }
+      // A grant fits the rest of the file, the last one being smaller
+      final var remaining = contentLength == null ? quantum : contentLength - written + length - allowance;
+      final var grant = Math.max(length - allowance, Math.min(quantum, remaining));
+      final var start = System.nanoTime();
+      lock.lock();
+      try {
+        requested = grant;
+        granted = false;
+        waiting.get(trafficClass).addLast(this);
+        work.signal();
+        while (!granted) {
+          wakeUp.await();
+        }
+      } catch (InterruptedException ex) {
+        waiting.get(trafficClass).remove(this);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+      } finally {
+        lock.unlock();
+      }
+      waits.get(trafficClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      allowance += grant - length;
+    }
+
+    @Override
+    public void close() {
+      lock.lock();
+      try {
+        waiting.get(trafficClass).remove(this);
+        active.merge(trafficClass, -1, Integer::sum);
+        final var clientBucket = clients.get(client);
+        if (clientBucket != null && --clientBucket.transfers()[0] == 0) {
+          clients.remove(client);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+  }
+
+  /**
+   * Tokens of {@code rate} bytes per second, up to a tenth of a second worth of them (at least a quantum).
+   */
+  private static final class TokenBucket {
+
+    private final long rate;
+    private final long capacity;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private TokenBucket(final long rate, final long quantum) {
+      this.rate = rate;
+      this.capacity = Math.max(quantum, rate / 10);
+      this.tokens = capacity;
+    }
+
+    private void refill(final long now) {
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * rate / 1e9);
+      refilledAt = now;
+    }
+
+    // An amount larger than the capacity is granted once the bucket is full, the tokens going negative
+    private boolean has(final long amount) {
+      return tokens >= Math.min(amount, capacity);
+    }
+
+    private void take(final long amount) {
+      tokens -= amount;
+    }
+
+    private long nanosUntil(final long amount) {
+      return has(amount) ? 0 : (long) ((Math.min(amount, capacity) - tokens) * 1e9 / rate);
+    }
+
+  }
+
+}
@@ -0,0 +1,256 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.marcofaccani.awss3.config.BlockCacheConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fixed size blocks of S3 objects, kept off the heap: in direct buffers, or in a memory-mapped {@code backing-file} if
+ * set. Up to {@code capacity / block-size} blocks are kept, the least recently read evicted first; the memory of a
+ * block is allocated the first time it is needed and then reused.
+ * <p>
+ * Blocks handed out are pinned until {@link #release(Block) released}, so that they are not evicted, and their memory
+ * reused, while being read.
+ */
+@Log4j2
+@Component
+public class BlockCache {
+
+  public static final String METRIC_EVICTIONS = "s3.block.cache.evictions";
+  public static final String METRIC_SIZE = "s3.block.cache.size";
+  public static final String MSG_BACKING_FILE = "Blocks are cached in memory-mapped file %s";
+  public static final String ERR_MSG_BACKING_FILE_FAILED = "Error while mapping block cache file %s. Exception message: %s";
+
+  /**
+   * Block {@code index} of version {@code eTag} of an object.
+   */
+  public record BlockKey(String bucket, String key, String eTag, long index) {
+
+  }
+
+  /**
+   * Fills the buffer given, up to its limit.
+   */
+  @FunctionalInterface
+  public interface BlockLoader {
+
+    void load(ByteBuffer target) throws IOException;
+
+  }
+
+  /**
+   * The content of a block, in the cache or, when every block was pinned, on the heap.
+   */
+  public static final class Block {
+
+    private final int slot;
+    private final ByteBuffer buffer;
+    private BlockKey key;
+    private int length;
+    private int pins;
+
+    private Block(final int slot, final ByteBuffer buffer) {
+      this.slot = slot;
+      this.buffer = buffer;
+    }
+
+    static Block onHeap(final int length, final BlockLoader loader) throws IOException {
+      final var block = new Block(-1, ByteBuffer.allocate(length));
+      block.length = length;
+      loader.load(block.buffer.clear().limit(length));
+      return block;
+    }
+
+    /**
+     * A read-only view of the content, positioned at its start.
+     */
+    public ByteBuffer content() {
+      return buffer.asReadOnlyBuffer().position(0).limit(length);
+    }
+
+    public int length() {
+      return length;
+    }
+
+  }
+
+  private final int blockSize;
+  private final int maxBlocks;
+  private final Path backingPath;
+  private final FileChannel backingFile;
+  private final Counter evictions;
+  // Access ordered, guarded by itself as the rest of the state of the cache
+  private final Map<BlockKey, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+  private final Deque<Block> free = new ArrayDeque<>();
+  private int allocated;
+  private long size;
+
+  public BlockCache(final BlockCacheConfigProperties blockCacheConfigProperties, final MeterRegistry meterRegistry) {
+    this.blockSize = Math.toIntExact(blockCacheConfigProperties.getBlockSize().toBytes());
+    this.maxBlocks = blockCacheConfigProperties.isEnabled()
+        ? Math.toIntExact(blockCacheConfigProperties.getCapacity().toBytes() / blockSize)
+        : 0;
+    final var configuredFile = blockCacheConfigProperties.getBackingFile();
+    this.backingPath = maxBlocks > 0 && configuredFile != null && !configuredFile.isBlank()
+        ? Path.of(configuredFile)
+        : null;
+    this.backingFile = backingPath != null ? openBackingFile(backingPath) : null;
+    this.evictions = Counter.builder(METRIC_EVICTIONS)
+        .description("Blocks evicted from the cache to make room for others")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_SIZE, this, BlockCache::cacheSize)
+        .description("Bytes of the blocks of S3 objects cached")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  private static FileChannel openBackingFile(final Path path) {
+    try {
+      if (path.getParent() != null) {
+        path.getParent().toFile().mkdirs();
+      }
+      log.info(String.format(MSG_BACKING_FILE, path));
+      return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(String.format(ERR_MSG_BACKING_FILE_FAILED, path, ex.getMessage()), ex);
+    }
+  }
+
+  @PreDestroy
+  public void preDestroy() throws IOException {
+    if (backingFile != null) {
+      backingFile.close();
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Returns the block, pinned, or null if not cached.
+   */
+  public Block get(final BlockKey key) {
+    synchronized (blocks) {
+      final var block = blocks.get(key);
+      if (block != null) {
+        block.pins++;
+      }
+      return block;
+    }
+  }
+
+  public boolean contains(final BlockKey key) {
+    synchronized (blocks) {
+      return blocks.containsKey(key);
+    }
+  }
+
+  /**
+   * Loads a block of {@code length} bytes into the cache and returns it, pinned; if every block is pinned, it is loaded
+   * on the heap instead, without being cached.
+   */
+  public Block put(final BlockKey key, final int length, final BlockLoader loader) throws IOException {
+    final var block = allocate();
+    if (block == null) {
+      return Block.onHeap(length, loader);
+    }
+    try {
+      loader.load(block.buffer.clear().limit(length));
+    } catch (IOException | RuntimeException ex) {
+      release(block);
+      throw ex;
+    }
+    synchronized (blocks) {
+      block.key = key;
+      block.length = length;
+      final var previous = blocks.put(key, block);
+      size += length;
+      if (previous != null) {
+        // Loaded concurrently: the previous copy is reused once released
+        unlink(previous);
+        if (previous.pins == 0) {
+          free.push(previous);
+        }
+      }
+    }
+    return block;
+  }
+
+  public void release(final Block block) {
+    if (block.slot < 0) {
+      return;
+    }
+    synchronized (blocks) {
+      if (--block.pins == 0 && block.key == null) {
+        free.push(block);
+      }
+    }
+  }
+
+  /**
+   * Returns a block to load, pinned and out of the index, or null if every block is pinned.
+   */
+  private Block allocate() {
+    final Block block;
+    synchronized (blocks) {
+      if (!free.isEmpty()) {
+        block = free.pop();
+      } else if (allocated < maxBlocks) {
+        block = new Block(allocated, newBuffer(allocated));
+        allocated++;
+      } else {
+        block = blocks.values().stream().filter(cached -> cached.pins == 0).findFirst().orElse(null);
+        if (block == null) {
+          return null;
+        }
+        blocks.remove(block.key);
+        unlink(block);
+        evictions.increment();
+      }
+      block.pins = 1;
+    }
+    return block;
+  }
+
+  private void unlink(final Block block) {
+    size -= block.length;
+    block.key = null;
+    block.length = 0;
+  }
+
+  private ByteBuffer newBuffer(final int slot) {
+    if (backingFile == null) {
+      return ByteBuffer.allocateDirect(blockSize);
+    }
+    try {
+      return backingFile.map(MapMode.READ_WRITE, (long) slot * blockSize, blockSize);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(String.format(ERR_MSG_BACKING_FILE_FAILED, backingPath, ex.getMessage()), ex);
+    }
+  }
+
+  private double cacheSize() {
+    synchronized (blocks) {
+      return size;
+    }
+  }
+
+}
@@ -0,0 +1,362 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.BlockCacheConfigProperties;
+import com.marcofaccani.awss3.exceptions.RangeNotSatisfiableException;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.model.FileRange;
+import com.marcofaccani.awss3.service.BlockCache.Block;
+import com.marcofaccani.awss3.service.BlockCache.BlockKey;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Reads byte ranges of plain objects, i.e. stored as they were uploaded, through the {@link BlockCache}: the range is
+ * assembled from the cached blocks of the current version (ETag) of the object, the missing ones fetched with ranged
+ * GETs. As blocks are read, the next {@code read-ahead-blocks} ones of the range are fetched in background; when a
+ * range starts right where the previous one of the same object ended, i.e. the object is read sequentially, the read
+ * ahead goes on past the end of the range.
+ * <p>
+ * With the cache disabled, the range is read with a single ranged GET.
+ */
+@Log4j2
+@Component
+public class BlockRangeReader {
+
+  public static final String METRIC_BLOCKS = "s3.block.cache.requests";
+  public static final String METRIC_READ_AHEAD = "s3.block.cache.read.ahead";
+  public static final String ERR_MSG_RANGE_NOT_SATISFIABLE = "Range %s not satisfiable for file %s of %d bytes";
+  public static final String ERR_MSG_SHORT_BLOCK = "Block %d of file %s ended after %d of %d bytes";
+  public static final String MSG_READ_AHEAD_FAILED = "Read ahead of block %d of file %s failed. Exception message: %s";
+
+  // Objects whose last range is remembered to detect sequential reads
+  private static final int TRACKED_OBJECTS = 1024;
+
+  private record ObjectVersion(String bucket, String key, String eTag, long length) {
+
+    BlockKey block(final long index) {
+      return new BlockKey(bucket, key, eTag, index);
+    }
+
+  }
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final BlockCacheConfigProperties blockCacheConfigProperties;
+  private final S3Client s3Client;
+  private final S3OperationMetrics s3OperationMetrics;
+  private final BlockCache blockCache;
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter readAhead;
+  private final Map<BlockKey, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+  // Access ordered, guarded by itself
+  private final Map<ObjectVersion, Long> lastRangeEnds = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<ObjectVersion, Long> eldest) {
+      return size() > TRACKED_OBJECTS;
+    }
+  };
+  // Read ahead is best effort: blocks are dropped rather than queued once the fetchers are behind
+  private final ThreadPoolExecutor fetchExecutor;
+
+  public BlockRangeReader(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final BlockCacheConfigProperties blockCacheConfigProperties, final S3Client s3Client,
+      final S3OperationMetrics s3OperationMetrics, final BlockCache blockCache, final MeterRegistry meterRegistry) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.blockCacheConfigProperties = blockCacheConfigProperties;
+    this.s3Client = s3Client;
+    this.s3OperationMetrics = s3OperationMetrics;
+    this.blockCache = blockCache;
+    this.hits = blocksCounter("hit", meterRegistry);
+    this.misses = blocksCounter("miss", meterRegistry);
+    this.readAhead = Counter.builder(METRIC_READ_AHEAD)
+        .description("Blocks fetched ahead of the ranges read")
+        .register(meterRegistry);
+    final var threads = Math.max(1, blockCacheConfigProperties.getFetchThreads());
+    final var threadNumber = new AtomicInteger();
+    this.fetchExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(threads * Math.max(1, blockCacheConfigProperties.getReadAheadBlocks())), runnable -> {
+          final var thread = new Thread(S3WorkScheduler.background(runnable), "block-fetch-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  private static Counter blocksCounter(final String result, final MeterRegistry meterRegistry) {
+    return Counter.builder(METRIC_BLOCKS)
+        .description("Blocks of ranges read, found in the cache or fetched from S3")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    fetchExecutor.shutdownNow();
+  }
+
+  /**
+   * Reads a range of a file, or returns empty if the file is stored transformed (e.g. compressed), its stored bytes
+   * not being the ones of the file.
+   */
+  public Optional<FileRange> read(final String fileName, final HttpRange range) {
+    final var bucketName = awsS3ConfigProperties.getBucketName();
+    final var headRequest = HeadObjectRequest.builder()
+        .bucket(bucketName)
+        .key(fileName)
+        .build();
+    final ObjectVersion object;
+    try {
+      final var head = s3OperationMetrics.record(S3OperationMetrics.OPERATION_HEAD,
+          () -> s3Client.headObject(headRequest));
+      if (head.metadata().containsKey(TransformPipeline.METADATA_STAGES)) {
+        return Optional.empty();
+      }
+      object = new ObjectVersion(bucketName, fileName, head.eTag(), head.contentLength());
+    } catch (NoSuchKeyException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, fileName,
+          ex.getMessage()));
+    }
+
+    final long start;
+    final long end;
+    try {
+      start = range.getRangeStart(object.length());
+      end = range.getRangeEnd(object.length());
+    } catch (IllegalArgumentException ex) {
+      throw new RangeNotSatisfiableException(String.format(ERR_MSG_RANGE_NOT_SATISFIABLE, range, fileName,
+          object.length()));
+    }
+    if (start > end) {
+      throw new RangeNotSatisfiableException(String.format(ERR_MSG_RANGE_NOT_SATISFIABLE, range, fileName,
+          object.length()));
+    }
+
+    if (!blockCacheConfigProperties.isEnabled()) {
+      return Optional.of(new FileRange(start, end, object.length(), getRange(object, start, end)));
+    }
+    final var lastBlock = (object.length() - 1) / blockCache.getBlockSize();
+    final var readAheadBlocks = blockCacheConfigProperties.getReadAheadBlocks();
+    final var readAheadLimit = isSequential(object, start, end)
+        ? Math.min(lastBlock, end / blockCache.getBlockSize() + readAheadBlocks)
+        : end / blockCache.getBlockSize();
+    return Optional.of(new FileRange(start, end, object.length(),
+        new BlockRangeInputStream(object, start, end, readAheadLimit)));
+  }
+
+  private boolean isSequential(final ObjectVersion object, final long start, final long end) {
+    synchronized (lastRangeEnds) {
+      final var previousEnd = lastRangeEnds.put(object, end);
+      return previousEnd != null && previousEnd + 1 == start;
+    }
+  }
+
+  private InputStream getRange(final ObjectVersion object, final long start, final long end) {
+    final var request = GetObjectRequest.builder()
+        .bucket(object.bucket())
+        .key(object.key())
+        .range("bytes=" + start + "-" + end)
+        // Fails rather than mixing versions if the object was overwritten since the HEAD
+        .ifMatch(object.eTag())
+        .build();
+    try {
+      return s3OperationMetrics.recordDownload(() -> s3Client.getObject(request));
+    } catch (NoSuchKeyException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, object.key(),
+          ex.getMessage()));
+    }
+  }
+
+  private Block acquire(final ObjectVersion object, final long index) throws IOException {
+    final var key = object.block(index);
+    var block = blockCache.get(key);
+    if (block != null) {
+      hits.increment();
+      return block;
+    }
+    misses.increment();
+    while (true) {
+      final var loading = new CompletableFuture<Void>();
+      final var pending = inFlight.putIfAbsent(key, loading);
+      if (pending == null) {
+        // The block may have been loaded since it was looked up
+        block = blockCache.get(key);
+        if (block != null) {
+          unclaim(key, loading);
+          return block;
+        }
+        return load(object, index, loading);
+      }
+      pending.join();
+      block = blockCache.get(key);
+      if (block != null) {
+        return block;
+      }
+    }
+  }
+
+  /**
+   * Fetches a block whose loading was claimed in {@code inFlight} by the caller.
+   */
+  private Block load(final ObjectVersion object, final long index, final CompletableFuture<Void> loading)
+      throws IOException {
+    final var key = object.block(index);
+    final var blockSize = blockCache.getBlockSize();
+    final var start = index * blockSize;
+    final var length = (int) Math.min(blockSize, object.length() - start);
+    try {
+      return blockCache.put(key, length, target -> {
+        try (var channel = Channels.newChannel(getRange(object, start, start + length - 1))) {
+          while (target.hasRemaining() && channel.read(target) >= 0) {
+            // Reads until the block is full or the object ends
+          }
+        }
+        if (target.hasRemaining()) {
+          throw new IOException(String.format(ERR_MSG_SHORT_BLOCK, index, object.key(), target.position(), length));
+        }
+      });
+    } finally {
+      unclaim(key, loading);
+    }
+  }
+
+  private void unclaim(final BlockKey key, final CompletableFuture<Void> loading) {
+    inFlight.remove(key, loading);
+    loading.complete(null);
+  }
+
+  private void readAhead(final ObjectVersion object, final long index) {
+    final var key = object.block(index);
+    if (inFlight.containsKey(key) || blockCache.contains(key)) {
+      return;
+    }
+    fetchExecutor.execute(() -> {
+      final var loading = new CompletableFuture<Void>();
+      if (inFlight.putIfAbsent(key, loading) != null) {
+        return;
+      }
+      if (blockCache.contains(key)) {
+        unclaim(key, loading);
+        return;
+      }
+      try {
+        blockCache.release(load(object, index, loading));
+        readAhead.increment();
+      } catch (IOException | RuntimeException ex) {
+        log.debug(String.format(MSG_READ_AHEAD_FAILED, index, object.key(), ex.getMessage()));
+      }
+    });
+  }
+
+  /**
+   * Streams bytes {@code start} to {@code end} of an object block by block, holding the block being read pinned.
+   */
+  private class BlockRangeInputStream extends InputStream {
+
+    private final ObjectVersion object;
+    private final long end;
+    private final long readAheadLimit;
+    private long position;
+    private Block block;
+    private ByteBuffer current;
+
+    BlockRangeInputStream(final ObjectVersion object, final long start, final long end, final long readAheadLimit) {
+      this.object = object;
+      this.position = start;
+      this.end = end;
+      this.readAheadLimit = readAheadLimit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      position++;
+      return current.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      final var read = Math.min(length, current.remaining());
+      current.get(bytes, offset, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() {
+      releaseBlock();
+      position = end + 1;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+      if (current != null && current.hasRemaining()) {
+        return true;
+      }
+      releaseBlock();
+      if (position > end) {
+        return false;
+      }
+      final var blockSize = blockCache.getBlockSize();
+      final var index = position / blockSize;
+      block = acquire(object, index);
+      final var blockStart = index * blockSize;
+      current = block.content()
+          .position((int) (position - blockStart))
+          .limit((int) (Math.min(end + 1, blockStart + block.length()) - blockStart));
+      for (var next = index + 1; next <= Math.min(readAheadLimit, index + blockCacheConfigProperties
+          .getReadAheadBlocks()); next++) {
+        readAhead(object, next);
+      }
+      return true;
+    }
+
+    private void releaseBlock() {
+      if (block != null) {
+        blockCache.release(block);
+        block = null;
+        current = null;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.marcofaccani.awss3.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.BootstrapConfigProperties;
+import com.marcofaccani.awss3.service.interfaces.BucketService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes sure the bucket exists, creating it if needed, in background once the application has started, so that a slow
+ * or unreachable S3 doesn't hold the startup: until it succeeds, {@link BucketHealthIndicator} keeps the app out of
+ * the readiness probe. Failed attempts are retried with an exponential backoff; once the bucket is verified, the
+ * connections of the HTTP pool and then the caches are warmed up.
+ * <p>
+ * The S3 clients are resolved on the bootstrap thread, so that with lazy initialization (the {@code startup} profile)
+ * they are built off the startup path as well.
+ */
+@Log4j2
+@Component
+public class BucketBootstrap {
+
+  public static final String METRIC_READY_TIME = "s3.bucket.ready.time";
+  public static final String MSG_BUCKET_READY = "Bucket %s ready %d ms after the JVM start, %d ms after the application started (%d attempt(s))";
+  public static final String ERR_MSG_ATTEMPT_FAILED = "Attempt %d to verify bucket %s failed, retrying in %d ms. Exception message: %s";
+  public static final String ERR_MSG_WARMUP_FAILED = "Warming up the %s failed, the app is ready anyway. Exception message: %s";
+
+  public enum State {
+    PENDING, READY
+  }
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final BootstrapConfigProperties bootstrapConfigProperties;
+  private final ObjectProvider<BucketService> bucketService;
+  private final ObjectProvider<S3ConnectionWarmer> connectionWarmer;
+  private final ObjectProvider<CacheWarmer> cacheWarmer;
+  private final ApplicationContext applicationContext;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final var thread = new Thread(runnable, "bucket-bootstrap");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private long startedAt;
+  @Getter
+  private volatile State state = State.PENDING;
+  @Getter
+  private volatile int attempts;
+  @Getter
+  private volatile String lastError;
+  // Milliseconds from the JVM start to the bucket being ready, NaN until then
+  @Getter
+  private volatile double readyTime = Double.NaN;
+
+  public BucketBootstrap(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final BootstrapConfigProperties bootstrapConfigProperties, final ObjectProvider<BucketService> bucketService,
+      final ObjectProvider<S3ConnectionWarmer> connectionWarmer, final ObjectProvider<CacheWarmer> cacheWarmer,
+      final ApplicationContext applicationContext, final MeterRegistry meterRegistry) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.bootstrapConfigProperties = bootstrapConfigProperties;
+    this.bucketService = bucketService;
+    this.connectionWarmer = connectionWarmer;
+    this.cacheWarmer = cacheWarmer;
+    this.applicationContext = applicationContext;
+    TimeGauge.builder(METRIC_READY_TIME, this, TimeUnit.MILLISECONDS, BucketBootstrap::getReadyTime)
+        .description("Time from the JVM start to the bucket being verified, i.e. to the app being ready")
+        .register(meterRegistry);
+  }
+
+  @EventListener(ApplicationStartedEvent.class)
+  public void start() {
+    startedAt = System.nanoTime();
+    executor.execute(() -> attempt(bootstrapConfigProperties.getRetryInitialDelay().toMillis()));
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    executor.shutdownNow();
+  }
+
+  private void attempt(final long retryDelay) {
+    attempts++;
+    final var bucketName = awsS3ConfigProperties.getBucketName();
+    try {
+      final var buckets = bucketService.getObject();
+      if (!buckets.doesBucketExist(bucketName)) {
+        buckets.createBucket(bucketName);
+      }
+    } catch (Exception ex) {
+      lastError = ex.getMessage();
+      log.warn(String.format(ERR_MSG_ATTEMPT_FAILED, attempts, bucketName, retryDelay, ex.getMessage()));
+      final var nextDelay = Math.min(retryDelay * 2, bootstrapConfigProperties.getRetryMaxDelay().toMillis());
+      executor.schedule(() -> attempt(nextDelay), retryDelay, TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    warmUp("connections", () -> connectionWarmer.getObject().warmUp());
+    warmUp("caches", () -> cacheWarmer.getObject().warmUp());
+    lastError = null;
+    readyTime = ManagementFactory.getRuntimeMXBean().getUptime();
+    state = State.READY;
+    log.info(String.format(MSG_BUCKET_READY, bucketName, (long) readyTime,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), attempts));
+
+    if (bootstrapConfigProperties.isExitWhenReady()) {
+      // Ends the training run of the class data sharing archive, see cdsArchive in build.gradle
+      System.exit(SpringApplication.exit(applicationContext));
+    }
+  }
+
+  // Without warm-up the first requests are only slower: a failure must not keep the app out of service
+  private static void warmUp(final String what, final Runnable warmer) {
+    try {
+      warmer.run();
+    } catch (RuntimeException ex) {
+      log.warn(String.format(ERR_MSG_WARMUP_FAILED, what, ex.getMessage()));
+    }
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.marcofaccani.awss3.service;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Health of the bucket, part of the readiness group: out of service until {@link BucketBootstrap} verified it, down
+ * while its attempts fail.
+ */
+@Component
+@RequiredArgsConstructor
+public class BucketHealthIndicator implements HealthIndicator {
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final BucketBootstrap bucketBootstrap;
+
+  @Override
+  public Health health() {
+    final var lastError = bucketBootstrap.getLastError();
+    final Health.Builder health;
+    if (bucketBootstrap.getState() == BucketBootstrap.State.READY) {
+      health = Health.up().withDetail("readyTimeMs", (long) bucketBootstrap.getReadyTime());
+    } else if (lastError == null) {
+      health = Health.outOfService();
+    } else {
+      health = Health.down().withDetail("error", lastError);
+    }
+    return health
+        .withDetail("bucket", awsS3ConfigProperties.getBucketName())
+        .withDetail("attempts", bucketBootstrap.getAttempts())
+        .build();
+  }
+
+}
@@ -28,11 +28,12 @@ public class BucketServiceImpl implements BucketService {
   public static final String ERR_MSG_BUCKET_CREATION = "Error while creating bucket %s. Error message: %s";
   public static final String ERR_MSG_UNAUTHORIZED = "Application not authorized to access bucket %s. Potentially, the bucket exists but is not within company's AWS account domain or AWS account lacks the permissions to access it";
   private final S3Client s3Client;
+  private final S3OperationMetrics s3OperationMetrics;
 
   public boolean doesBucketExist(final String bucketName) {
     final var request = HeadBucketRequest.builder().bucket(bucketName).build();
     try {
-      s3Client.headBucket(request);
+      s3OperationMetrics.record(S3OperationMetrics.OPERATION_HEAD_BUCKET, () -> s3Client.headBucket(request));
     } catch (NoSuchBucketException ex) {
       log.info(String.format(MSG_BUCKET_NOT_EXISTS, bucketName));
       return false;
@@ -52,7 +53,7 @@ public class BucketServiceImpl implements BucketService {
     if (!doesBucketExist(bucketName)) {
       final var request = CreateBucketRequest.builder().bucket(bucketName).build();
       try {
-        s3Client.createBucket(request);
+        s3OperationMetrics.record(S3OperationMetrics.OPERATION_CREATE_BUCKET, () -> s3Client.createBucket(request));
         log.info(String.format(MSG_BUCKET_CREATED, bucketName));
       } catch (Exception ex) {
         final var errMsg = String.format(ERR_MSG_BUCKET_CREATION, bucketName, ex.getMessage());
@@ -65,7 +66,7 @@ public class BucketServiceImpl implements BucketService {
   public void deleteBucket(String bucketName) {
     if (doesBucketExist(bucketName)) {
       final var request = DeleteBucketRequest.builder().bucket(bucketName).build();
-      s3Client.deleteBucket(request);
+      s3OperationMetrics.record(S3OperationMetrics.OPERATION_DELETE_BUCKET, () -> s3Client.deleteBucket(request));
       log.info(String.format(MSG_BUCKET_DELETED, bucketName));
     }
   }
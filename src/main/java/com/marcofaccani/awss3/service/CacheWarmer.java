@@ -0,0 +1,115 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marcofaccani.awss3.config.WarmupConfigProperties;
+import com.marcofaccani.awss3.model.HotKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the {@code top-n} files of the {@link AccessJournal} this instance owns in the {@link PeerCache} ring once
+ * {@link BucketBootstrap} verified the bucket, before the app is reported ready, so that a new instance doesn't start
+ * with a cold cache: the files are kept by the peer cache of their owner, where the reads of every instance look for
+ * them. They are read with {@code threads} concurrent reads started at most {@code rate} per second so as not to be
+ * throttled by S3. Warm-up gives up after {@code timeout}.
+ * <p>
+ * The files owned by the other instances are warm in their cache already, and without peer cache the files are not
+ * cached: nothing is read then.
+ */
+@Log4j2
+@Component
+public class CacheWarmer {
+
+  public static final String METRIC_OBJECTS = "s3.warmup.objects";
+  public static final String MSG_WARMED_UP = "Warmed up caches with %d file(s) in %d ms, %d failed";
+  public static final String ERR_MSG_READ_FAILED = "Warming up file %s failed: %s";
+
+  private final WarmupConfigProperties warmupConfigProperties;
+  private final AccessJournal accessJournal;
+  private final PeerCache peerCache;
+  private final Counter loaded;
+  private final Counter failed;
+
+  public CacheWarmer(final WarmupConfigProperties warmupConfigProperties, final AccessJournal accessJournal,
+      final PeerCache peerCache, final MeterRegistry meterRegistry) {
+    this.warmupConfigProperties = warmupConfigProperties;
+    this.accessJournal = accessJournal;
+    this.peerCache = peerCache;
+    this.loaded = objectsCounter("loaded", meterRegistry);
+    this.failed = objectsCounter("failed", meterRegistry);
+  }
+
+  public void warmUp() {
+    if (!warmupConfigProperties.isEnabled()) {
+      return;
+    }
+    final var fileNames = accessJournal.read().stream()
+        .map(HotKey::key)
+        .filter(peerCache::isOwner)
+        .limit(warmupConfigProperties.getTopN())
+        .toList();
+    if (fileNames.isEmpty()) {
+      return;
+    }
+    final var start = System.nanoTime();
+    final var interval = (long) (TimeUnit.SECONDS.toNanos(1) / warmupConfigProperties.getRate());
+    final var nextStart = new AtomicLong(start);
+    final var loadedFiles = new AtomicInteger();
+    final var failedFiles = new AtomicInteger();
+    final var threadCounter = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(warmupConfigProperties.getThreads(), runnable -> {
+      final var thread = new Thread(S3WorkScheduler.background(runnable), "cache-warmup-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      for (final var fileName : fileNames) {
+        executor.execute(() -> {
+          try {
+            // Reads are spread evenly, whatever the number of threads
+            TimeUnit.NANOSECONDS.sleep(nextStart.getAndAdd(interval) - System.nanoTime());
+            read(fileName);
+            loaded.increment();
+            loadedFiles.incrementAndGet();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          } catch (RuntimeException ex) {
+            log.debug(String.format(ERR_MSG_READ_FAILED, fileName, ex.getMessage()));
+            failed.increment();
+            failedFiles.incrementAndGet();
+          }
+        });
+      }
+      executor.shutdown();
+      if (!executor.awaitTermination(warmupConfigProperties.getTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    log.info(String.format(MSG_WARMED_UP, loadedFiles.get(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failedFiles.get()));
+  }
+
+  private void read(final String fileName) {
+    final var object = peerCache.getOwnedFile(fileName, warmupConfigProperties.getAcceptedEncodings());
+    // The cache kept a copy as the file was read, unless too large for it, in which case it is not downloaded
+    object.abort();
+  }
+
+  private static Counter objectsCounter(final String result, final MeterRegistry meterRegistry) {
+    return Counter.builder(METRIC_OBJECTS)
+        .description("Files read at startup to warm up the caches")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+}
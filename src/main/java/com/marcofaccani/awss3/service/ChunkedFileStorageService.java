@@ -0,0 +1,578 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.ChunkStoreConfigProperties;
+import com.marcofaccani.awss3.exceptions.IndexJournalException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.exceptions.S3ObjectDeleteException;
+import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
+import com.marcofaccani.awss3.exceptions.S3PutObjectException;
+import com.marcofaccani.awss3.model.ChunkRef;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+/**
+ * Storage mode meant for large files that change little between versions (VM images, database dumps...).
+ *
+ * <p>Files are split by a {@link ContentDefinedChunker} and each chunk is stored once, named after its SHA-256: when a
+ * new version of a file is uploaded only the chunks that changed are sent to S3. Every file is described by a manifest
+ * object listing its chunks; the file name to manifest mapping is persisted in an {@link S3IndexJournal}. Downloads
+ * reassemble the file by fetching its chunks in parallel, a few chunks ahead of the one being streamed. Chunks no
+ * manifest lists any more are deleted by a periodic mark-and-sweep, run by the holder of the journal's maintenance
+ * lease.
+ */
+@Log4j2
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "app.aws.s3", name = "storage-mode", havingValue = "chunked")
+public class ChunkedFileStorageService implements FileStorageService {
+
+  public static final String HASH_ALGORITHM = "SHA-256";
+  public static final String METRIC_CHUNKS = "storage.chunks.uploaded";
+  public static final String METRIC_BYTES_SAVED = "storage.chunks.bytes.saved";
+  public static final String ERR_MSG_CHUNKED_FILE_NOT_SHAREABLE = "File %s is stored as chunks and cannot be shared through a pre-signed URL";
+  public static final String MSG_INDEX_LOADED = "Chunk store index loaded: %d files made of %d distinct chunks";
+  public static final String MSG_MANIFEST_MISSING = "Manifest %s of file %s not found, file skipped";
+  public static final String MSG_CHUNKS_COLLECTED = "Deleted %d chunks no file references";
+  public static final String ERR_MSG_GC_FAILED = "Error while deleting unreferenced chunks. Exception message: %s";
+
+  private static final String FILE = "F";
+  private static final String DELETE = "D";
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final ChunkStoreConfigProperties chunkStoreConfigProperties;
+  private final FileStorageServiceImpl plainFileStorageService;
+  private final S3Client s3Client;
+  private final S3IndexJournal journal;
+  private final ContentDefinedChunker chunker;
+  private final ExecutorService transferExecutor;
+  private final FileChangeBus fileChangeBus;
+  private final ScheduledExecutorService indexRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final var thread = new Thread(S3WorkScheduler.background(runnable), "chunk-index-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Map<String, Manifest> files = new ConcurrentHashMap<>();
+  // Guarded by this
+  private final Map<String, ChunkState> chunks = new HashMap<>();
+  // Only accessed from the index refresher thread
+  private Set<String> orphanChunks = Set.of();
+
+  private final Counter newChunks;
+  private final Counter reusedChunks;
+  private final Counter bytesSaved;
+
+  public ChunkedFileStorageService(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final ChunkStoreConfigProperties chunkStoreConfigProperties,
+      final FileStorageServiceImpl plainFileStorageService,
+      final S3Client s3Client,
+      final FileChangeBus fileChangeBus,
+      final MeterRegistry meterRegistry) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.chunkStoreConfigProperties = chunkStoreConfigProperties;
+    this.plainFileStorageService = plainFileStorageService;
+    this.s3Client = s3Client;
+    this.fileChangeBus = fileChangeBus;
+    this.journal = new S3IndexJournal(s3Client, awsS3ConfigProperties.getBucketName(),
+        chunkStoreConfigProperties.getPrefix() + "index/");
+    this.chunker = new ContentDefinedChunker(
+        (int) chunkStoreConfigProperties.getMinChunkSize().toBytes(),
+        (int) chunkStoreConfigProperties.getAverageChunkSize().toBytes(),
+        (int) chunkStoreConfigProperties.getMaxChunkSize().toBytes());
+    final var threadCounter = new AtomicInteger();
+    this.transferExecutor = Executors.newFixedThreadPool(chunkStoreConfigProperties.getTransferThreads(),
+        runnable -> {
+          final var thread = new Thread(runnable, "chunk-transfer-" + threadCounter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    this.newChunks = Counter.builder(METRIC_CHUNKS)
+        .description("Chunks of uploaded files, by whether they had to be sent to S3")
+        .tag("result", "new")
+        .register(meterRegistry);
+    this.reusedChunks = Counter.builder(METRIC_CHUNKS)
+        .description("Chunks of uploaded files, by whether they had to be sent to S3")
+        .tag("result", "reused")
+        .register(meterRegistry);
+    this.bytesSaved = Counter.builder(METRIC_BYTES_SAVED)
+        .description("Bytes not uploaded because their chunk was already stored")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void postConstruct() {
+    final var manifestKeys = new LinkedHashMap<String, String>();
+    journal.load(record -> {
+      final var fields = record.split("\t");
+      switch (fields[0]) {
+        case FILE -> manifestKeys.put(decode(fields[1]), fields[2]);
+        case DELETE -> manifestKeys.remove(decode(fields[1]));
+        default -> throw new IndexJournalException("Unknown chunk store index record type " + fields[0]);
+      }
+    });
+    manifestKeys.forEach((fileName, manifestKey) -> {
+      final Manifest manifest;
+      try {
+        manifest = readManifest(manifestKey);
+      } catch (NoSuchKeyException ex) {
+        // Left by a record whose append failed after all, its manifest being deleted meanwhile
+        log.warn(String.format(MSG_MANIFEST_MISSING, manifestKey, fileName));
+        return;
+      }
+      files.put(fileName, manifest);
+      synchronized (this) {
+        manifest.chunks().forEach(chunk -> chunks.computeIfAbsent(chunk.hash(), key -> new ChunkState()).references++);
+      }
+    });
+    log.info(String.format(MSG_INDEX_LOADED, files.size(), chunks.size()));
+    fileChangeBus.addRemoteChangeListener(() -> journal.requestRefresh(indexRefresher, this::resetIndex,
+        this::applyRecord));
+    final var gcInterval = chunkStoreConfigProperties.getGcInterval().toMillis();
+    indexRefresher.scheduleWithFixedDelay(this::collectGarbage, gcInterval, gcInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    transferExecutor.shutdownNow();
+    indexRefresher.shutdownNow();
+  }
+
+  @Override
+  public void uploadFile(final MultipartFile file) {
+    try {
+      uploadFile(file.getOriginalFilename(), file.getInputStream(), file.getSize());
+    } catch (IOException ex) {
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED,
+          file.getOriginalFilename(), ex.getMessage()));
+    }
+  }
+
+  @Override
+  public void uploadFile(final String fileName, final InputStream inputStream, final long contentLength) {
+    final var fileChunks = new ArrayList<ChunkRef>();
+    final var uploads = new ArrayList<Future<?>>();
+    final var uploadedHashes = new HashSet<String>();
+    // Bounds the memory held by the chunks waiting to be uploaded
+    final var inFlight = new Semaphore(chunkStoreConfigProperties.getTransferThreads());
+    try {
+      final var reader = chunker.reader(inputStream);
+      byte[] chunk;
+      while ((chunk = reader.nextChunk()) != null) {
+        final var chunkRef = new ChunkRef(sha256(chunk), chunk.length);
+        fileChunks.add(chunkRef);
+
+        final boolean alreadyStored;
+        synchronized (this) {
+          final var state = chunks.computeIfAbsent(chunkRef.hash(), key -> new ChunkState());
+          // A chunk being uploaded by another request is sent again: that request may still fail
+          alreadyStored = state.references > 0 || !uploadedHashes.add(chunkRef.hash());
+          state.pendingUploads++;
+        }
+        if (alreadyStored) {
+          reusedChunks.increment();
+          bytesSaved.increment(chunk.length);
+          continue;
+        }
+
+        newChunks.increment();
+        inFlight.acquire();
+        final var content = chunk;
+        uploads.add(transferExecutor.submit(S3WorkScheduler.inCurrentClass(() -> {
+          try {
+            putObject(chunkKey(chunkRef.hash()), RequestBody.fromBytes(content));
+          } finally {
+            inFlight.release();
+          }
+        })));
+      }
+      for (Future<?> upload : uploads) {
+        upload.get();
+      }
+
+      final var manifest = new Manifest(chunkStoreConfigProperties.getPrefix() + "manifests/" + UUID.randomUUID(),
+          List.copyOf(fileChunks));
+      writeManifest(manifest);
+      record(fileName, FILE + '\t' + encode(fileName) + '\t' + manifest.key() + '\n', manifest);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName,
+          ex.getMessage()));
+    } catch (Exception ex) {
+      uploads.forEach(upload -> upload.cancel(true));
+      final var cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName,
+          cause.getMessage()));
+    } finally {
+      endPendingUploads(fileChunks);
+    }
+  }
+
+  @Override
+  public void deleteFile(final String fileName) {
+    if (files.containsKey(fileName)) {
+      try {
+        record(fileName, DELETE + '\t' + encode(fileName) + '\n', null);
+      } catch (Exception ex) {
+        throw new S3ObjectDeleteException(String.format(FileStorageServiceImpl.ERR_MSG_DELETE_FAILED, fileName,
+            ex.getMessage()));
+      }
+    }
+    plainFileStorageService.deleteFile(fileName);
+  }
+
+  @Override
+  public void copyFile(final String sourceFileName, final String targetFileName) {
+    if (sourceFileName.equals(targetFileName)) {
+      throw new InvalidCopyRequestException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_ONTO_ITSELF, sourceFileName));
+    }
+    final Manifest manifest;
+    synchronized (this) {
+      manifest = files.get(sourceFileName);
+      if (manifest != null) {
+        manifest.chunks().forEach(chunkRef -> chunks.get(chunkRef.hash()).pendingUploads++);
+      }
+    }
+    if (manifest == null) {
+      plainFileStorageService.copyFile(sourceFileName, targetFileName);
+      if (files.containsKey(targetFileName)) {
+        record(targetFileName, DELETE + '\t' + encode(targetFileName) + '\n', null);
+      }
+      return;
+    }
+
+    try {
+      final var copy = new Manifest(chunkStoreConfigProperties.getPrefix() + "manifests/" + UUID.randomUUID(),
+          manifest.chunks());
+      writeManifest(copy);
+      record(targetFileName, FILE + '\t' + encode(targetFileName) + '\t' + copy.key() + '\n', copy);
+    } catch (Exception ex) {
+      throw new S3CopyObjectException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, sourceFileName,
+          targetFileName, ex.getMessage()));
+    } finally {
+      endPendingUploads(manifest.chunks());
+    }
+  }
+
+  @Override
+  public ResponseInputStream<GetObjectResponse> getFile(final String fileName) {
+    final var manifest = files.get(fileName);
+    if (manifest == null) {
+      return plainFileStorageService.getFile(fileName);
+    }
+
+    try {
+      final var inputStream = new ReadAheadChunkInputStream<>(manifest.chunks().iterator(),
+          chunkRef -> getObjectBytes(chunkKey(chunkRef.hash())), transferExecutor,
+          chunkStoreConfigProperties.getReadAheadChunks());
+      final var response = GetObjectResponse.builder()
+          .contentLength(manifest.size())
+          .build();
+      return new ResponseInputStream<>(response, AbortableInputStream.create(inputStream));
+    } catch (Exception ex) {
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, fileName,
+          ex.getMessage()));
+    }
+  }
+
+  @Override
+  public String generatePreSignedUrlOfFile(final String fileName, final long expirationTimeInMinutes) {
+    if (files.containsKey(fileName)) {
+      throw new S3PresignedUrlException(String.format(ERR_MSG_CHUNKED_FILE_NOT_SHAREABLE, fileName));
+    }
+    return plainFileStorageService.generatePreSignedUrlOfFile(fileName, expirationTimeInMinutes);
+  }
+
+  @Override
+  public List<String> listFilesInBucket() {
+    final var fileNames = new TreeSet<>(files.keySet());
+    fileNames.addAll(plainFileStorageService.listFilesInBucket(chunkStoreConfigProperties.getPrefix()));
+    return List.copyOf(fileNames);
+  }
+
+  @Override
+  public List<String> listFiles(final String prefix, final int maxFiles) {
+    final var fileNames = new TreeSet<>(plainFileStorageService.listFiles(prefix, chunkStoreConfigProperties.getPrefix(), maxFiles));
+    files.keySet().stream()
+        .filter(fileName -> fileName.startsWith(prefix))
+        .forEach(fileNames::add);
+    return fileNames.stream().limit(maxFiles).toList();
+  }
+
+  /**
+   * Persists the given record, applies it to the in-memory index and deletes the manifest it replaced, the chunks
+   * being left to the garbage collection. The new manifest is deleted when the record cannot be persisted.
+   */
+  private void record(final String fileName, final String record, final Manifest manifest) {
+    final Manifest[] previous = new Manifest[1];
+    try {
+      journal.append(record, () -> previous[0] = applyManifest(fileName, manifest));
+    } catch (RuntimeException ex) {
+      if (manifest != null) {
+        deleteObjectQuietly(manifest.key());
+      }
+      throw ex;
+    }
+
+    if (previous[0] != null) {
+      deleteObject(previous[0].key());
+    }
+    if (journal.segmentsSinceCheckpoint() >= chunkStoreConfigProperties.getSegmentsPerCheckpoint()) {
+      journal.checkpoint(this::snapshot);
+    }
+  }
+
+  /**
+   * Sets the manifest of a file, a null one meaning the file is deleted, and returns the manifest it replaced.
+   */
+  private synchronized Manifest applyManifest(final String fileName, final Manifest manifest) {
+    final var previous = manifest == null ? files.remove(fileName) : files.put(fileName, manifest);
+    if (manifest != null) {
+      manifest.chunks().forEach(chunk -> chunks.computeIfAbsent(chunk.hash(), key -> new ChunkState()).references++);
+    }
+    if (previous != null) {
+      previous.chunks().forEach(chunk -> chunks.get(chunk.hash()).references--);
+      previous.chunks().forEach(chunk -> forgetIfUnused(chunk.hash()));
+    }
+    return previous;
+  }
+
+  // Records of other instances: the manifests they replace are deleted by the instance that wrote them, the chunks
+  // they orphan by the garbage collection
+  private void applyRecord(final String record) {
+    final var fields = record.split("\t");
+    final var fileName = decode(fields[1]);
+    switch (fields[0]) {
+      case FILE -> {
+        try {
+          applyManifest(fileName, readManifest(fields[2]));
+        } catch (NoSuchKeyException ex) {
+          log.warn(String.format(MSG_MANIFEST_MISSING, fields[2], fileName));
+        }
+      }
+      case DELETE -> applyManifest(fileName, null);
+      default -> throw new IndexJournalException("Unknown chunk store index record type " + fields[0]);
+    }
+  }
+
+  /**
+   * Drops the manifests before the index is replayed, keeping the chunks being uploaded.
+   */
+  private synchronized void resetIndex() {
+    files.clear();
+    final var iterator = chunks.values().iterator();
+    while (iterator.hasNext()) {
+      final var state = iterator.next();
+      state.references = 0;
+      if (state.pendingUploads == 0) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private String snapshot() {
+    final var lines = new StringBuilder();
+    files.forEach((fileName, manifest) ->
+        lines.append(FILE).append('\t').append(encode(fileName)).append('\t').append(manifest.key()).append('\n'));
+    return lines.toString();
+  }
+
+  private synchronized void endPendingUploads(final List<ChunkRef> chunkRefs) {
+    chunkRefs.forEach(chunkRef -> chunks.get(chunkRef.hash()).pendingUploads--);
+    chunkRefs.forEach(chunkRef -> forgetIfUnused(chunkRef.hash()));
+  }
+
+  // Called with the lock held: the chunk itself is left to the garbage collection
+  private void forgetIfUnused(final String hash) {
+    final var state = chunks.get(hash);
+    if (state != null && state.references == 0 && state.pendingUploads == 0) {
+      chunks.remove(hash);
+    }
+  }
+
+  /**
+   * Deletes the chunks no file references, provided they were already unreferenced at the previous run: another
+   * instance uploads the chunks of a file before recording it, and may reuse a chunk whose last reference it has not
+   * seen deleted yet. Only the holder of the maintenance lease collects, after refreshing the index so that the files
+   * recorded by every instance are known.
+   */
+  private void collectGarbage() {
+    try {
+      if (!journal.acquireLease()) {
+        orphanChunks = Set.of();
+        return;
+      }
+      journal.refresh(this::resetIndex, this::applyRecord);
+      final var chunkPrefix = chunkKey("");
+      final var request = ListObjectsV2Request.builder()
+          .bucket(awsS3ConfigProperties.getBucketName())
+          .prefix(chunkPrefix)
+          .build();
+      final var orphans = s3Client.listObjectsV2Paginator(request).contents().stream()
+          .map(object -> object.key().substring(chunkPrefix.length()))
+          .filter(hash -> !isInUse(hash))
+          .collect(Collectors.toCollection(HashSet::new));
+      var deleted = 0;
+      for (final var iterator = orphans.iterator(); iterator.hasNext(); ) {
+        final var hash = iterator.next();
+        // Either deleted or referenced again meanwhile: not to be marked again
+        if (orphanChunks.contains(hash)) {
+          iterator.remove();
+          deleted += deleteChunkIfOrphan(hash) ? 1 : 0;
+        }
+      }
+      orphanChunks = orphans;
+      if (deleted > 0) {
+        log.info(String.format(MSG_CHUNKS_COLLECTED, deleted));
+      }
+    } catch (Exception ex) {
+      log.warn(String.format(ERR_MSG_GC_FAILED, ex.getMessage()));
+    }
+  }
+
+  private synchronized boolean isInUse(final String hash) {
+    return chunks.containsKey(hash);
+  }
+
+  private synchronized boolean deleteChunkIfOrphan(final String hash) {
+    if (chunks.containsKey(hash)) {
+      return false;
+    }
+    // Deleting while holding the lock guarantees no upload can meanwhile decide the chunk is already stored
+    deleteObject(chunkKey(hash));
+    return true;
+  }
+
+  private void writeManifest(final Manifest manifest) {
+    final var lines = new StringBuilder();
+    manifest.chunks().forEach(chunk -> lines.append(chunk.hash()).append('\t').append(chunk.size()).append('\n'));
+    putObject(manifest.key(), RequestBody.fromString(lines.toString(), StandardCharsets.UTF_8));
+  }
+
+  private Manifest readManifest(final String manifestKey) {
+    final var chunkRefs = new String(getObjectBytes(manifestKey), StandardCharsets.UTF_8).lines()
+        .filter(line -> !line.isEmpty())
+        .map(line -> line.split("\t"))
+        .map(fields -> new ChunkRef(fields[0], Integer.parseInt(fields[1])))
+        .toList();
+    return new Manifest(manifestKey, chunkRefs);
+  }
+
+  private void putObject(final String key, final RequestBody requestBody) {
+    final var request = PutObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    s3Client.putObject(request, requestBody);
+  }
+
+  private byte[] getObjectBytes(final String key) {
+    final var request = GetObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    return s3Client.getObjectAsBytes(request).asByteArray();
+  }
+
+  private void deleteObject(final String key) {
+    final var request = DeleteObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    s3Client.deleteObject(request);
+  }
+
+  private void deleteObjectQuietly(final String key) {
+    try {
+      deleteObject(key);
+    } catch (Exception ex) {
+      log.warn(String.format("Unable to delete object %s: %s", key, ex.getMessage()));
+    }
+  }
+
+  private String chunkKey(final String hash) {
+    return chunkStoreConfigProperties.getPrefix() + "chunks/" + hash;
+  }
+
+  private static String sha256(final byte[] content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance(HASH_ALGORITHM).digest(content));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static String encode(final String fileName) {
+    return URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(final String encodedFileName) {
+    return URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+  }
+
+  private record Manifest(String key, List<ChunkRef> chunks) {
+
+    private long size() {
+      return chunks.stream().mapToLong(ChunkRef::size).sum();
+    }
+
+  }
+
+  private static final class ChunkState {
+
+    private int references;
+    private int pendingUploads;
+
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.marcofaccani.awss3.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring of nodes, each placed at {@code virtualNodes} points so that keys spread evenly: a key is owned
+ * by the first node clockwise from its hash. Adding or removing a node only moves the keys it gains or owned.
+ */
+public class ConsistentHashRing {
+
+  private final NavigableMap<Long, String> ring = new TreeMap<>();
+  private final Set<String> nodes;
+
+  public ConsistentHashRing(final Collection<String> nodes, final int virtualNodes) {
+    this.nodes = Set.copyOf(new TreeSet<>(nodes));
+    for (var node : this.nodes) {
+      for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+        ring.put(hash(node + "#" + i), node);
+      }
+    }
+  }
+
+  public Set<String> nodes() {
+    return nodes;
+  }
+
+  /**
+   * Returns the node owning the key, or null if the ring is empty.
+   */
+  public String owner(final String key) {
+    if (ring.isEmpty()) {
+      return null;
+    }
+    final var entry = ring.ceilingEntry(hash(key));
+    return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+  }
+
+  private static long hash(final String value) {
+    try {
+      final var digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+      return ByteBuffer.wrap(digest).getLong();
+    } catch (NoSuchAlgorithmException ex) {
+      // MD5 is available on every JVM
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content rather than on offsets, using a Gear rolling
+ * hash (as in FastCDC): inserting or removing bytes in a file only changes the chunks around the edit, so the other
+ * chunks keep the same hash from one version of the file to the next.
+ */
+public class ContentDefinedChunker {
+
+  // Must never change: chunk boundaries, hence deduplication across uploads, depend on it
+  private static final long GEAR_SEED = 0x5DEECE66DL;
+  private static final long[] GEAR = new SplittableRandom(GEAR_SEED).longs(256).toArray();
+
+  private final int minChunkSize;
+  private final int maxChunkSize;
+  private final long boundaryMask;
+
+  public ContentDefinedChunker(final int minChunkSize, final int averageChunkSize, final int maxChunkSize) {
+    if (minChunkSize <= 0 || minChunkSize > averageChunkSize || averageChunkSize > maxChunkSize) {
+      throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= average <= max");
+    }
+    this.minChunkSize = minChunkSize;
+    this.maxChunkSize = maxChunkSize;
+    // The high bits of a Gear hash depend on the last 64 bytes, the low ones only on the very last bytes
+    final var maskBits = 63 - Long.numberOfLeadingZeros(Math.max(1, averageChunkSize - minChunkSize));
+    this.boundaryMask = maskBits == 0 ? 0 : -1L << (64 - maskBits);
+  }
+
+  public Reader reader(final InputStream inputStream) {
+    return new Reader(inputStream);
+  }
+
+  /**
+   * Returns the length of the first chunk of the given data, which must either be at least max chunk size long or
+   * be the end of the stream.
+   */
+  int boundary(final byte[] data, final int length) {
+    if (length <= minChunkSize) {
+      return length;
+    }
+    final var limit = Math.min(length, maxChunkSize);
+    long hash = 0;
+    for (int i = minChunkSize; i < limit; i++) {
+      hash = (hash << 1) + GEAR[data[i] & 0xff];
+      if ((hash & boundaryMask) == 0) {
+        return i + 1;
+      }
+    }
+    return limit;
+  }
+
+  public class Reader {
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[maxChunkSize];
+    private int length;
+    private boolean endOfStream;
+
+    private Reader(final InputStream inputStream) {
+      this.inputStream = inputStream;
+    }
+
+    /**
+     * Returns the next chunk, or null at the end of the stream.
+     */
+    public byte[] nextChunk() throws IOException {
+      while (!endOfStream && length < buffer.length) {
+        final var read = inputStream.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          endOfStream = true;
+        } else {
+          length += read;
+        }
+      }
+      if (length == 0) {
+        return null;
+      }
+
+      final var chunkLength = boundary(buffer, length);
+      final var chunk = Arrays.copyOf(buffer, chunkLength);
+      System.arraycopy(buffer, chunkLength, buffer, 0, length - chunkLength);
+      length -= chunkLength;
+      return chunk;
+    }
+
+  }
+
+}
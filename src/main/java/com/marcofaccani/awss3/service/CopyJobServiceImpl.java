@@ -0,0 +1,165 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marcofaccani.awss3.config.CopyJobConfigProperties;
+import com.marcofaccani.awss3.exceptions.CopyJobNotFoundException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.model.CopyJobRequest;
+import com.marcofaccani.awss3.model.CopyJobStatus;
+import com.marcofaccani.awss3.model.CopyJobStatus.State;
+import com.marcofaccani.awss3.service.interfaces.CopyJobService;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies or moves all the files under a prefix in background. Jobs run on {@code job-threads} threads, each copying
+ * its files concurrently on a shared pool of {@code copy-threads} threads; files are copied server side, so a job
+ * costs requests to S3 rather than bandwidth.
+ */
+@Log4j2
+@Service
+public class CopyJobServiceImpl implements CopyJobService {
+
+  public static final String ERR_MSG_INVALID_PREFIXES = "Source prefix must not be empty nor overlap target prefix";
+  public static final String ERR_MSG_JOB_NOT_FOUND = "No copy job found with id %s";
+  public static final String ERR_MSG_FILES_FAILED = "%d file(s) could not be copied, first error: %s";
+  public static final String MSG_JOB_COMPLETED = "Copy job %s of %s to %s completed: %d copied, %d failed";
+
+  private static final int MAX_TRACKED_JOBS = 10_000;
+
+  private final FileStorageService fileStorageService;
+  private final FileChangeBus fileChangeBus;
+  private final ExecutorService jobExecutor;
+  private final ExecutorService copyExecutor;
+  private final Map<String, CopyJobStatus> statuses = Collections.synchronizedMap(
+      new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CopyJobStatus> eldest) {
+          return size() > MAX_TRACKED_JOBS;
+        }
+      });
+
+  public CopyJobServiceImpl(final CopyJobConfigProperties copyJobConfigProperties,
+      final FileStorageService fileStorageService, final FileChangeBus fileChangeBus) {
+    this.fileStorageService = fileStorageService;
+    this.fileChangeBus = fileChangeBus;
+    final var jobCounter = new AtomicInteger();
+    this.jobExecutor = Executors.newFixedThreadPool(copyJobConfigProperties.getJobThreads(),
+        runnable -> new Thread(S3WorkScheduler.background(runnable), "copy-job-" + jobCounter.incrementAndGet()));
+    final var copyCounter = new AtomicInteger();
+    this.copyExecutor = Executors.newFixedThreadPool(copyJobConfigProperties.getCopyThreads(),
+        runnable -> new Thread(S3WorkScheduler.background(runnable), "copy-" + copyCounter.incrementAndGet()));
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    jobExecutor.shutdownNow();
+    copyExecutor.shutdownNow();
+  }
+
+  @Override
+  public CopyJobStatus submit(final CopyJobRequest copyJobRequest) {
+    final var sourcePrefix = copyJobRequest.sourcePrefix();
+    final var targetPrefix = copyJobRequest.targetPrefix() == null ? "" : copyJobRequest.targetPrefix();
+    // Overlapping prefixes would map files onto themselves or onto other files of the job
+    if (sourcePrefix == null || sourcePrefix.isEmpty() || sourcePrefix.startsWith(targetPrefix)
+        || targetPrefix.startsWith(sourcePrefix)) {
+      throw new InvalidCopyRequestException(ERR_MSG_INVALID_PREFIXES);
+    }
+
+    final var request = new CopyJobRequest(sourcePrefix, targetPrefix, copyJobRequest.move());
+    final var status = new CopyJobStatus(UUID.randomUUID().toString(), request, State.QUEUED, 0, 0, 0, null);
+    statuses.put(status.jobId(), status);
+    jobExecutor.execute(() -> run(status.jobId(), request));
+    return status;
+  }
+
+  @Override
+  public CopyJobStatus getStatus(final String jobId) {
+    final var status = statuses.get(jobId);
+    if (status == null) {
+      throw new CopyJobNotFoundException(String.format(ERR_MSG_JOB_NOT_FOUND, jobId));
+    }
+    return status;
+  }
+
+  private void run(final String jobId, final CopyJobRequest request) {
+    try {
+      // Listed upfront, through every page of the prefix, so that the progress tells the number of files
+      final var fileNames = fileStorageService.listFiles(request.sourcePrefix(), Integer.MAX_VALUE);
+      update(jobId, State.IN_PROGRESS, fileNames.size(), 0, 0, null);
+
+      final var copies = new ArrayList<Future<?>>(fileNames.size());
+      final var copied = new AtomicInteger();
+      final var failed = new AtomicInteger();
+      final var firstError = new String[1];
+      for (final var fileName : fileNames) {
+        final var targetFileName = request.targetPrefix() + fileName.substring(request.sourcePrefix().length());
+        copies.add(copyExecutor.submit(() -> {
+          try {
+            if (request.move()) {
+              fileStorageService.moveFile(fileName, targetFileName);
+              fileChangeBus.publishWritten(targetFileName);
+              fileChangeBus.publishDeleted(fileName);
+            } else {
+              fileStorageService.copyFile(fileName, targetFileName);
+              fileChangeBus.publishWritten(targetFileName);
+            }
+            copied.incrementAndGet();
+          } catch (RuntimeException ex) {
+            synchronized (firstError) {
+              if (firstError[0] == null) {
+                firstError[0] = ex.getMessage();
+              }
+            }
+            failed.incrementAndGet();
+          }
+          // Counters read under the map lock, so that a slow thread does not publish stale counts
+          statuses.computeIfPresent(jobId, (id, status) -> status.withProgress(State.IN_PROGRESS, fileNames.size(),
+              copied.get(), failed.get(), null));
+        }));
+      }
+      for (final var copy : copies) {
+        copy.get();
+      }
+
+      final var errorMessage = failed.get() == 0 ? null
+          : String.format(ERR_MSG_FILES_FAILED, failed.get(), firstError[0]);
+      update(jobId, failed.get() == 0 ? State.COMPLETED : State.FAILED, fileNames.size(), copied.get(), failed.get(),
+          errorMessage);
+      log.info(String.format(MSG_JOB_COMPLETED, jobId, request.sourcePrefix(), request.targetPrefix(), copied.get(),
+          failed.get()));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      fail(jobId, "interrupted");
+    } catch (ExecutionException ex) {
+      fail(jobId, ex.getCause().getMessage());
+    } catch (RuntimeException ex) {
+      fail(jobId, ex.getMessage());
+    }
+  }
+
+  private void update(final String jobId, final State state, final int files, final int copied, final int failed,
+      final String errorMessage) {
+    statuses.computeIfPresent(jobId, (id, status) -> status.withProgress(state, files, copied, failed,
+        errorMessage));
+  }
+
+  private void fail(final String jobId, final String errorMessage) {
+    statuses.computeIfPresent(jobId, (id, status) -> status.withProgress(State.FAILED, status.files(),
+        status.copied(), status.failed(), errorMessage));
+  }
+
+}
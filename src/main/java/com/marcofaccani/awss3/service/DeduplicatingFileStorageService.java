@@ -0,0 +1,477 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.DedupConfigProperties;
+import com.marcofaccani.awss3.exceptions.IndexJournalException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.exceptions.S3ObjectDeleteException;
+import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
+import com.marcofaccani.awss3.exceptions.S3PutObjectException;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+/**
+ * Storage mode that stores each distinct content once, whatever the number of file names it is uploaded under.
+ *
+ * <p>Uploads are hashed (SHA-256) while being spooled to a temporary file; the content is then stored as a blob named
+ * after its hash, unless a blob with the same hash is already referenced, in which case only the reference from the
+ * file name to the blob is recorded. References are persisted in an {@link S3IndexJournal}; blobs no file references
+ * any more are deleted by a periodic mark-and-sweep, run by the holder of the journal's maintenance lease.
+ */
+@Log4j2
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "app.aws.s3", name = "storage-mode", havingValue = "dedup")
+public class DeduplicatingFileStorageService implements FileStorageService {
+
+  public static final String HASH_ALGORITHM = "SHA-256";
+  public static final String METRIC_UPLOADS = "storage.dedup.uploads";
+  public static final String METRIC_BYTES_SAVED = "storage.dedup.bytes.saved";
+  public static final String METRIC_BLOBS = "storage.dedup.blobs";
+  public static final String MSG_INDEX_LOADED = "Dedup index loaded: %d files referencing %d blobs";
+  public static final String MSG_BLOBS_COLLECTED = "Deleted %d blobs no file references";
+  public static final String ERR_MSG_GC_FAILED = "Error while deleting unreferenced blobs. Exception message: %s";
+
+  private static final String REFERENCE = "R";
+  private static final String DELETE = "D";
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final DedupConfigProperties dedupConfigProperties;
+  private final FileStorageServiceImpl plainFileStorageService;
+  private final S3Client s3Client;
+  private final S3Presigner s3Presigner;
+  private final S3IndexJournal journal;
+  private final FileChangeBus fileChangeBus;
+  private final ScheduledExecutorService indexRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final var thread = new Thread(S3WorkScheduler.background(runnable), "dedup-index-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Map<String, String> references = new ConcurrentHashMap<>();
+  // Guarded by this
+  private final Map<String, Blob> blobs = new HashMap<>();
+  // Only accessed from the index refresher thread
+  private Set<String> orphanBlobs = Set.of();
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter bytesSaved;
+
+  public DeduplicatingFileStorageService(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final DedupConfigProperties dedupConfigProperties,
+      final FileStorageServiceImpl plainFileStorageService,
+      final S3Client s3Client,
+      final S3Presigner s3Presigner,
+      final FileChangeBus fileChangeBus,
+      final MeterRegistry meterRegistry) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.dedupConfigProperties = dedupConfigProperties;
+    this.plainFileStorageService = plainFileStorageService;
+    this.s3Client = s3Client;
+    this.s3Presigner = s3Presigner;
+    this.fileChangeBus = fileChangeBus;
+    this.journal = new S3IndexJournal(s3Client, awsS3ConfigProperties.getBucketName(),
+        dedupConfigProperties.getPrefix() + "index/");
+
+    this.hits = Counter.builder(METRIC_UPLOADS)
+        .description("Uploads whose content was already stored")
+        .tag("result", "hit")
+        .register(meterRegistry);
+    this.misses = Counter.builder(METRIC_UPLOADS)
+        .description("Uploads whose content was not stored yet")
+        .tag("result", "miss")
+        .register(meterRegistry);
+    this.bytesSaved = Counter.builder(METRIC_BYTES_SAVED)
+        .description("Bytes not uploaded thanks to deduplication")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_BLOBS, this, DeduplicatingFileStorageService::blobCount)
+        .description("Distinct contents stored")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void postConstruct() {
+    journal.load(this::applyRecord);
+    log.info(String.format(MSG_INDEX_LOADED, references.size(), blobCount()));
+    fileChangeBus.addRemoteChangeListener(() -> journal.requestRefresh(indexRefresher, this::resetIndex,
+        this::applyRecord));
+    final var gcInterval = dedupConfigProperties.getGcInterval().toMillis();
+    indexRefresher.scheduleWithFixedDelay(this::collectGarbage, gcInterval, gcInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    indexRefresher.shutdownNow();
+  }
+
+  @Override
+  public void uploadFile(final MultipartFile file) {
+    try {
+      uploadFile(file.getOriginalFilename(), file.getInputStream(), file.getSize());
+    } catch (IOException ex) {
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED,
+          file.getOriginalFilename(), ex.getMessage()));
+    }
+  }
+
+  @Override
+  public void uploadFile(final String fileName, final InputStream inputStream, final long contentLength) {
+    Path spoolFile = null;
+    try {
+      spoolFile = Files.createTempFile("dedup-", ".upload");
+      final var hash = spoolAndHash(inputStream, spoolFile);
+      final var size = Files.size(spoolFile);
+
+      final boolean alreadyStored;
+      synchronized (this) {
+        final var blob = blobs.computeIfAbsent(hash, key -> new Blob());
+        alreadyStored = blob.references > 0;
+        blob.pendingUploads++;
+      }
+
+      try {
+        if (alreadyStored) {
+          hits.increment();
+          bytesSaved.increment(size);
+        } else {
+          misses.increment();
+          final var request = PutObjectRequest.builder()
+              .bucket(awsS3ConfigProperties.getBucketName())
+              .key(blobKey(hash))
+              .build();
+          s3Client.putObject(request, RequestBody.fromFile(spoolFile));
+        }
+        record(fileName, REFERENCE + '\t' + encode(fileName) + '\t' + hash + '\n');
+      } finally {
+        endPendingUpload(hash);
+      }
+    } catch (Exception ex) {
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName,
+          ex.getMessage()));
+    } finally {
+      deleteQuietly(spoolFile);
+    }
+  }
+
+  private String spoolAndHash(final InputStream inputStream, final Path spoolFile) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    try (InputStream digestInputStream = new DigestInputStream(inputStream, digest);
+        OutputStream outputStream = Files.newOutputStream(spoolFile)) {
+      digestInputStream.transferTo(outputStream);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  @Override
+  public void deleteFile(final String fileName) {
+    if (references.containsKey(fileName)) {
+      try {
+        record(fileName, DELETE + '\t' + encode(fileName) + '\n');
+      } catch (Exception ex) {
+        throw new S3ObjectDeleteException(String.format(FileStorageServiceImpl.ERR_MSG_DELETE_FAILED, fileName,
+            ex.getMessage()));
+      }
+    }
+    plainFileStorageService.deleteFile(fileName);
+  }
+
+  @Override
+  public void copyFile(final String sourceFileName, final String targetFileName) {
+    if (sourceFileName.equals(targetFileName)) {
+      throw new InvalidCopyRequestException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_ONTO_ITSELF, sourceFileName));
+    }
+    final String hash;
+    synchronized (this) {
+      hash = references.get(sourceFileName);
+      if (hash != null) {
+        blobs.get(hash).pendingUploads++;
+      }
+    }
+    if (hash == null) {
+      plainFileStorageService.copyFile(sourceFileName, targetFileName);
+      if (references.containsKey(targetFileName)) {
+        record(targetFileName, DELETE + '\t' + encode(targetFileName) + '\n');
+      }
+      return;
+    }
+
+    try {
+      record(targetFileName, REFERENCE + '\t' + encode(targetFileName) + '\t' + hash + '\n');
+    } catch (Exception ex) {
+      throw new S3CopyObjectException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, sourceFileName,
+          targetFileName, ex.getMessage()));
+    } finally {
+      endPendingUpload(hash);
+    }
+  }
+
+  @Override
+  public ResponseInputStream<GetObjectResponse> getFile(final String fileName) {
+    final var hash = references.get(fileName);
+    if (hash == null) {
+      return plainFileStorageService.getFile(fileName);
+    }
+
+    final var request = GetObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(blobKey(hash))
+        .build();
+    try {
+      return s3Client.getObject(request);
+    } catch (NoSuchKeyException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, fileName,
+          ex.getMessage()));
+    }
+  }
+
+  @Override
+  public String generatePreSignedUrlOfFile(final String fileName, final long expirationTimeInMinutes) {
+    final var hash = references.get(fileName);
+    if (hash == null) {
+      return plainFileStorageService.generatePreSignedUrlOfFile(fileName, expirationTimeInMinutes);
+    }
+
+    final var getObjectPresignRequest = GetObjectPresignRequest.builder()
+        .signatureDuration(Duration.ofMinutes(expirationTimeInMinutes))
+        .getObjectRequest(
+            GetObjectRequest.builder()
+                .bucket(awsS3ConfigProperties.getBucketName())
+                .key(blobKey(hash))
+                .responseContentDisposition("attachment; filename=\"" + fileName + "\"")
+                .build())
+        .build();
+    try {
+      return s3Presigner.presignGetObject(getObjectPresignRequest).url().toString();
+    } catch (Exception ex) {
+      throw new S3PresignedUrlException(String.format(FileStorageServiceImpl.ERR_MSG_GENERATE_PRESIGNEDURL_FAILED,
+          fileName, ex.getMessage()));
+    }
+  }
+
+  @Override
+  public List<String> listFilesInBucket() {
+    final var fileNames = new TreeSet<>(references.keySet());
+    fileNames.addAll(plainFileStorageService.listFilesInBucket(dedupConfigProperties.getPrefix()));
+    return List.copyOf(fileNames);
+  }
+
+  @Override
+  public List<String> listFiles(final String prefix, final int maxFiles) {
+    final var fileNames = new TreeSet<>(plainFileStorageService.listFiles(prefix, dedupConfigProperties.getPrefix(), maxFiles));
+    references.keySet().stream()
+        .filter(fileName -> fileName.startsWith(prefix))
+        .forEach(fileNames::add);
+    return fileNames.stream().limit(maxFiles).toList();
+  }
+
+  /**
+   * Persists the given record and applies it to the in-memory index.
+   */
+  private void record(final String fileName, final String record) {
+    journal.append(record, () -> applyRecord(record.strip()));
+
+    if (journal.segmentsSinceCheckpoint() >= dedupConfigProperties.getSegmentsPerCheckpoint()) {
+      journal.checkpoint(this::snapshot);
+    }
+  }
+
+  private synchronized void applyRecord(final String record) {
+    final var fields = record.split("\t");
+    final var fileName = decode(fields[1]);
+    final String previousHash = switch (fields[0]) {
+      case REFERENCE -> {
+        blobs.computeIfAbsent(fields[2], key -> new Blob()).references++;
+        yield references.put(fileName, fields[2]);
+      }
+      case DELETE -> references.remove(fileName);
+      default -> throw new IndexJournalException("Unknown dedup index record type " + fields[0]);
+    };
+    if (previousHash != null) {
+      blobs.get(previousHash).references--;
+      forgetIfUnused(previousHash);
+    }
+  }
+
+  /**
+   * Drops the references before the index is replayed, keeping the blobs being uploaded.
+   */
+  private synchronized void resetIndex() {
+    references.clear();
+    final var iterator = blobs.values().iterator();
+    while (iterator.hasNext()) {
+      final var blob = iterator.next();
+      blob.references = 0;
+      if (blob.pendingUploads == 0) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private synchronized String snapshot() {
+    final var lines = new StringBuilder();
+    references.forEach((fileName, hash) ->
+        lines.append(REFERENCE).append('\t').append(encode(fileName)).append('\t').append(hash).append('\n'));
+    return lines.toString();
+  }
+
+  private synchronized void endPendingUpload(final String hash) {
+    blobs.get(hash).pendingUploads--;
+    forgetIfUnused(hash);
+  }
+
+  // Called with the lock held: the blob itself is left to the garbage collection
+  private void forgetIfUnused(final String hash) {
+    final var blob = blobs.get(hash);
+    if (blob.references == 0 && blob.pendingUploads == 0) {
+      blobs.remove(hash);
+    }
+  }
+
+  /**
+   * Deletes the blobs no file references, provided they were already unreferenced at the previous run: another
+   * instance writes a blob before recording the reference to it, and may reuse a blob whose last reference it has not
+   * seen deleted yet. Only the holder of the maintenance lease collects, after refreshing the index so that the
+   * references recorded by every instance are known.
+   */
+  private void collectGarbage() {
+    try {
+      if (!journal.acquireLease()) {
+        orphanBlobs = Set.of();
+        return;
+      }
+      journal.refresh(this::resetIndex, this::applyRecord);
+      final var blobPrefix = blobKey("");
+      final var request = ListObjectsV2Request.builder()
+          .bucket(awsS3ConfigProperties.getBucketName())
+          .prefix(blobPrefix)
+          .build();
+      final var orphans = s3Client.listObjectsV2Paginator(request).contents().stream()
+          .map(object -> object.key().substring(blobPrefix.length()))
+          .filter(hash -> !isInUse(hash))
+          .collect(Collectors.toCollection(HashSet::new));
+      var deleted = 0;
+      for (final var iterator = orphans.iterator(); iterator.hasNext(); ) {
+        final var hash = iterator.next();
+        // Either deleted or referenced again meanwhile: not to be marked again
+        if (orphanBlobs.contains(hash)) {
+          iterator.remove();
+          deleted += deleteBlobIfOrphan(hash) ? 1 : 0;
+        }
+      }
+      orphanBlobs = orphans;
+      if (deleted > 0) {
+        log.info(String.format(MSG_BLOBS_COLLECTED, deleted));
+      }
+    } catch (Exception ex) {
+      log.warn(String.format(ERR_MSG_GC_FAILED, ex.getMessage()));
+    }
+  }
+
+  private synchronized boolean isInUse(final String hash) {
+    return blobs.containsKey(hash);
+  }
+
+  private synchronized boolean deleteBlobIfOrphan(final String hash) {
+    if (blobs.containsKey(hash)) {
+      return false;
+    }
+    // Deleting while holding the lock guarantees no upload can meanwhile decide the blob is already stored
+    final var request = DeleteObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(blobKey(hash))
+        .build();
+    s3Client.deleteObject(request);
+    return true;
+  }
+
+  private synchronized int blobCount() {
+    return (int) blobs.values().stream().filter(blob -> blob.references > 0).count();
+  }
+
+  private String blobKey(final String hash) {
+    return dedupConfigProperties.getPrefix() + "blobs/" + hash;
+  }
+
+  private void deleteQuietly(final Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ex) {
+      log.warn(String.format("Unable to delete temporary file %s: %s", path, ex.getMessage()));
+    }
+  }
+
+  private static String encode(final String fileName) {
+    return URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(final String encodedFileName) {
+    return URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+  }
+
+  private static final class Blob {
+
+    private int references;
+    private int pendingUploads;
+
+  }
+
+}
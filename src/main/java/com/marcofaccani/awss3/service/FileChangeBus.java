@@ -0,0 +1,191 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.InvalidationConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.model.FileChange.Type;
+import com.marcofaccani.awss3.service.interfaces.FileChangeTransport;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams the files written or deleted through any instance to the caches of every instance: the changes are applied
+ * by the listeners of this instance right away, and sent to the other instances through the
+ * {@link FileChangeTransport}.
+ * <p>
+ * Each instance numbers the changes it publishes, and sends the number of the last one every
+ * {@code heartbeat-interval}: a gap in the sequence of an instance, be it seen on the next change or on the next
+ * heartbeat, tells changes were missed, and the listeners drop whatever they may hold of the files changed. Changes
+ * are thus applied, or their loss detected, within a heartbeat interval plus the delay of the transport.
+ */
+@Log4j2
+@Component
+public class FileChangeBus {
+
+  public static final String METRIC_PUBLISHED = "s3.changes.published";
+  public static final String METRIC_RECEIVED = "s3.changes.received";
+  public static final String METRIC_MISSED = "s3.changes.missed";
+  public static final String MSG_CHANGES_MISSED = "Missed changes %d to %d of instance %s";
+  private static final int MAX_TRACKED_ORIGINS = 1024;
+
+  /**
+   * Called with the changes of this instance, under the lock of the bus, and with those of the others, from the
+   * thread of the transport: it must return quickly.
+   */
+  public interface Listener {
+
+    void onChange(FileChange change);
+
+    /**
+     * Changes of another instance were lost: any file may have changed.
+     */
+    void onChangesMissed();
+
+  }
+
+  // A new one at each start, the sequence starting over
+  private final String origin = UUID.randomUUID().toString();
+  private final FileChangeTransport fileChangeTransport;
+  private final MeterRegistry meterRegistry;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  // Last sequence received from each instance, guarded by itself
+  private final Map<String, Long> lastSequences = new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > MAX_TRACKED_ORIGINS;
+    }
+  };
+  private long sequence;
+  private final ScheduledExecutorService heartbeat;
+  private final Counter missed;
+
+  public FileChangeBus(final InvalidationConfigProperties invalidationConfigProperties,
+      final FileChangeTransport fileChangeTransport, final MeterRegistry meterRegistry) {
+    this.fileChangeTransport = fileChangeTransport;
+    this.meterRegistry = meterRegistry;
+    this.missed = Counter.builder(METRIC_MISSED)
+        .description("Changes of the other instances lost on the way, every cached file being dropped")
+        .register(meterRegistry);
+    fileChangeTransport.start(this::receive);
+    this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable, "file-change-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final var interval = invalidationConfigProperties.getHeartbeatInterval().toMillis();
+    heartbeat.scheduleAtFixedRate(this::sendHeartbeat, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    heartbeat.shutdownNow();
+  }
+
+  public void addListener(final Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Calls {@code listener} whenever another instance changed a file, or changes of another instance were missed.
+   */
+  public void addRemoteChangeListener(final Runnable listener) {
+    addListener(new Listener() {
+      @Override
+      public void onChange(final FileChange change) {
+        if (!origin.equals(change.origin())) {
+          listener.run();
+        }
+      }
+
+      @Override
+      public void onChangesMissed() {
+        listener.run();
+      }
+    });
+  }
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public void publishWritten(final String fileName) {
+    publish(Type.WRITTEN, fileName);
+  }
+
+  public void publishDeleted(final String fileName) {
+    publish(Type.DELETED, fileName);
+  }
+
+  // Numbered and sent under the lock, for the changes to leave in sequence
+  private synchronized void publish(final Type type, final String fileName) {
+    final var change = new FileChange(origin, ++sequence, type, fileName);
+    listeners.forEach(listener -> listener.onChange(change));
+    fileChangeTransport.send(change);
+    Counter.builder(METRIC_PUBLISHED)
+        .description("Files written or deleted through this instance")
+        .tag("type", type.name().toLowerCase(Locale.ROOT))
+        .register(meterRegistry)
+        .increment();
+  }
+
+  private synchronized void sendHeartbeat() {
+    try {
+      fileChangeTransport.send(new FileChange(origin, sequence, Type.HEARTBEAT, null));
+    } catch (RuntimeException ex) {
+      // Sent again at next interval
+      log.debug(String.format("Sending heartbeat failed: %s", ex.getMessage()));
+    }
+  }
+
+  /**
+   * Applies a change received from another instance; those of this instance, or received twice, are ignored.
+   */
+  public void receive(final FileChange change) {
+    if (change.origin() == null || change.type() == null || origin.equals(change.origin())) {
+      return;
+    }
+    final Long previous;
+    synchronized (lastSequences) {
+      previous = lastSequences.get(change.origin());
+      if (previous != null && change.sequence() <= previous) {
+        if (change.type() != Type.HEARTBEAT) {
+          receivedCounter("duplicate").increment();
+        }
+        return;
+      }
+      lastSequences.put(change.origin(), change.sequence());
+    }
+    // An instance first heard of: this one holds nothing it changed before
+    final var firstMissed = previous == null ? change.sequence() : previous + 1;
+    final var lastMissed = change.type() == Type.HEARTBEAT ? change.sequence() : change.sequence() - 1;
+    if (previous != null && lastMissed >= firstMissed) {
+      log.warn(String.format(MSG_CHANGES_MISSED, firstMissed, lastMissed, change.origin()));
+      missed.increment(lastMissed - firstMissed + 1);
+      listeners.forEach(Listener::onChangesMissed);
+    }
+    if (change.type() != Type.HEARTBEAT) {
+      receivedCounter("applied").increment();
+      listeners.forEach(listener -> listener.onChange(change));
+    }
+  }
+
+  private Counter receivedCounter(final String result) {
+    return Counter.builder(METRIC_RECEIVED)
+        .description("Changes received from the other instances")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+}
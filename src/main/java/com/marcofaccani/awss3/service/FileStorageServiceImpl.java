@@ -1,27 +1,38 @@
 package com.marcofaccani.awss3.service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
 import com.marcofaccani.awss3.exceptions.S3GetObjectException;
 import com.marcofaccani.awss3.exceptions.S3ListObjectsException;
 import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
 import com.marcofaccani.awss3.exceptions.S3ObjectDeleteException;
 import com.marcofaccani.awss3.exceptions.S3PutObjectException;
-import com.marcofaccani.awss3.service.interfaces.BucketService;
+import com.marcofaccani.awss3.model.FileRange;
 import com.marcofaccani.awss3.service.interfaces.FileStorageService;
-import jakarta.annotation.PostConstruct;
+import com.marcofaccani.awss3.service.transform.CompressionPolicy;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
@@ -38,35 +49,93 @@ public class FileStorageServiceImpl implements FileStorageService {
   public static final String ERR_MSG_DELETE_FAILED = "Error while deleting file %s from AWS S3. Exception message: %s";
   public static final String ERR_MSG_RETRIEVE_FAILED = "Error while retrieving file %s from AWS S3. Exception message: %s";
   public static final String ERR_MSG_LIST_BUCKET_CONTENT_FAILED = "Error while listing bucket %s content from AWS S3. Exception message: %s";
+  public static final String ERR_MSG_COPY_FAILED = "Error while copying file %s to %s in AWS S3. Exception message: %s";
+  public static final String ERR_MSG_COPY_ONTO_ITSELF = "Cannot copy or move file %s onto itself";
   public static final String ERR_MSG_GENERATE_PRESIGNEDURL_FAILED = "Error while generating pre-signed url for file with name %s. Exception message: %s";
 
+  // As many as a single page of a listing
+  private static final int MAX_LISTED_FILES = 1000;
+
   private final AwsS3ConfigProperties awsS3ConfigProperties;
-  private final BucketService bucketService;
   private final S3Client s3Client;
   private final S3Presigner s3Presigner;
+  private final TransformPipeline transformPipeline;
+  private final CompressionPolicy compressionPolicy;
+  private final MultipartUploader multipartUploader;
+  private final S3OperationMetrics s3OperationMetrics;
+  private final BlockRangeReader blockRangeReader;
 
 
-  @PostConstruct
-  public void postConstruct() {
-    createBucketIfNotExists(awsS3ConfigProperties.getBucketName());
-  }
+  @Override
+  public List<String> listFilesInBucket() {
+    final var listRequest = ListObjectsV2Request.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .build();
 
-  private void createBucketIfNotExists(final String bucketName) {
-    if (!bucketService.doesBucketExist(bucketName)) {
-      bucketService.createBucket(bucketName);
+    try {
+      final var listResponse = s3OperationMetrics.record(S3OperationMetrics.OPERATION_LIST,
+          () -> s3Client.listObjectsV2(listRequest));
+      return listResponse.contents().stream().map(S3Object::key).toList();
+    } catch (Exception ex) {
+      final var errMsg = String.format(ERR_MSG_LIST_BUCKET_CONTENT_FAILED, awsS3ConfigProperties.getBucketName(),
+          ex.getMessage());
+      throw new S3ListObjectsException(errMsg);
     }
   }
 
-
   @Override
-  public List<String> listFilesInBucket() {
+  public List<String> listFiles(final String prefix, final int maxFiles) {
     final var listRequest = ListObjectsV2Request.builder()
         .bucket(awsS3ConfigProperties.getBucketName())
+        .prefix(prefix)
         .build();
 
     try {
-      final var listResponse = s3Client.listObjectsV2(listRequest);
-      return listResponse.contents().stream().map(S3Object::key).toList();
+      return s3OperationMetrics.record(S3OperationMetrics.OPERATION_LIST, () ->
+          s3Client.listObjectsV2Paginator(listRequest).contents().stream()
+              .map(S3Object::key)
+              .limit(maxFiles)
+              .toList());
+    } catch (Exception ex) {
+      final var errMsg = String.format(ERR_MSG_LIST_BUCKET_CONTENT_FAILED, awsS3ConfigProperties.getBucketName(),
+          ex.getMessage());
+      throw new S3ListObjectsException(errMsg);
+    }
+  }
+
+  /**
+   * Same as {@link #listFilesInBucket()}, leaving out the objects under the given prefix, where the other storage modes
+   * keep their internal objects: the listing resumes past them rather than paging through them, so that they never
+   * take the room of the files.
+   */
+  public List<String> listFilesInBucket(final String internalPrefix) {
+    return listFiles("", internalPrefix, MAX_LISTED_FILES);
+  }
+
+  /**
+   * Same as {@link #listFiles(String, int)}, leaving out the objects under the given internal prefix.
+   */
+  public List<String> listFiles(final String prefix, final String internalPrefix, final int maxFiles) {
+    final var beforeRequest = ListObjectsV2Request.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .prefix(prefix)
+        .build();
+    // No key under the internal prefix sorts after it followed by the greatest code point
+    final var afterRequest = ListObjectsV2Request.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .prefix(prefix)
+        .startAfter(internalPrefix + Character.toString(Character.MAX_CODE_POINT))
+        .build();
+
+    try {
+      return s3OperationMetrics.record(S3OperationMetrics.OPERATION_LIST, () -> Stream.concat(
+              s3Client.listObjectsV2Paginator(beforeRequest).contents().stream()
+                  .map(S3Object::key)
+                  .takeWhile(key -> key.compareTo(internalPrefix) < 0),
+              s3Client.listObjectsV2Paginator(afterRequest).contents().stream()
+                  .map(S3Object::key))
+          .limit(maxFiles)
+          .toList());
     } catch (Exception ex) {
       final var errMsg = String.format(ERR_MSG_LIST_BUCKET_CONTENT_FAILED, awsS3ConfigProperties.getBucketName(),
           ex.getMessage());
@@ -76,15 +145,68 @@ public class FileStorageServiceImpl implements FileStorageService {
 
   @Override
   public void uploadFile(final MultipartFile file) {
+    try {
+      uploadFile(file.getOriginalFilename(), file.getInputStream(), file.getSize(), file.getContentType());
+    } catch (IOException ex) {
+      throw new S3PutObjectException(String.format(ERR_MSG_UPLOAD_FAILED, file.getOriginalFilename(), ex.getMessage()));
+    }
+  }
+
+  @Override
+  public void uploadFile(final String fileName, final InputStream inputStream, final long contentLength) {
+    uploadFile(fileName, inputStream, contentLength, null);
+  }
+
+  private void uploadFile(final String fileName, final InputStream inputStream, final long contentLength,
+      final String declaredContentType) {
+    final var contentType = compressionPolicy.contentType(fileName, declaredContentType);
+    final var stages = compressionPolicy.stagesFor(contentType, contentLength, transformPipeline.stageNames());
+    if (!stages.isEmpty()) {
+      uploadTransformedFile(fileName, inputStream, stages, contentType);
+      return;
+    }
+
     final var request = PutObjectRequest.builder()
         .bucket(awsS3ConfigProperties.getBucketName())
-        .key(file.getOriginalFilename())
+        .key(fileName)
         .build();
 
     try {
-      s3Client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
+      s3OperationMetrics.recordUpload(contentLength, () -> {
+        if (multipartUploader.isMultipart(contentLength)) {
+          multipartUploader.upload(request, inputStream);
+        } else {
+          s3Client.putObject(request, RequestBody.fromInputStream(inputStream, contentLength));
+        }
+        return null;
+      });
     } catch (Exception ex) {
-      throw new S3PutObjectException(String.format(ERR_MSG_UPLOAD_FAILED, file.getOriginalFilename(), ex.getMessage()));
+      throw new S3PutObjectException(String.format(ERR_MSG_UPLOAD_FAILED, fileName, ex.getMessage()));
+    }
+  }
+
+  private void uploadTransformedFile(final String fileName, final InputStream inputStream, final List<String> stages,
+      final Optional<MediaType> contentType) {
+    try (var encodedContent = transformPipeline.encode(inputStream, stages)) {
+      final var request = PutObjectRequest.builder()
+          .bucket(awsS3ConfigProperties.getBucketName())
+          .key(fileName)
+          .metadata(encodedContent.metadata())
+          // Lets S3 serve compressed objects through pre-signed URLs with the right headers
+          .contentType(contentType.map(MediaType::toString).orElse(null))
+          .contentEncoding(TransformPipeline.contentCoding(encodedContent.metadata()).orElse(null))
+          .build();
+      s3OperationMetrics.recordUpload(encodedContent.length(), () -> {
+        if (multipartUploader.isMultipart(encodedContent.length())) {
+          multipartUploader.upload(request, encodedContent.newInputStream());
+        } else {
+          s3Client.putObject(request, RequestBody.fromContentProvider(encodedContent::newInputStream,
+              encodedContent.length(), MediaType.APPLICATION_OCTET_STREAM_VALUE));
+        }
+        return null;
+      });
+    } catch (Exception ex) {
+      throw new S3PutObjectException(String.format(ERR_MSG_UPLOAD_FAILED, fileName, ex.getMessage()));
     }
   }
 
@@ -96,21 +218,64 @@ public class FileStorageServiceImpl implements FileStorageService {
         .build();
 
     try {
-      s3Client.deleteObject(request);
+      s3OperationMetrics.record(S3OperationMetrics.OPERATION_DELETE, () -> s3Client.deleteObject(request));
     } catch (Exception ex) {
       throw new S3ObjectDeleteException(String.format(ERR_MSG_DELETE_FAILED, fileName, ex.getMessage()));
     }
   }
 
+  @Override
+  public void copyFile(final String sourceFileName, final String targetFileName) {
+    if (sourceFileName.equals(targetFileName)) {
+      throw new InvalidCopyRequestException(String.format(ERR_MSG_COPY_ONTO_ITSELF, sourceFileName));
+    }
+    final var bucketName = awsS3ConfigProperties.getBucketName();
+    final var headRequest = HeadObjectRequest.builder()
+        .bucket(bucketName)
+        .key(sourceFileName)
+        .build();
+
+    try {
+      final var source = s3OperationMetrics.record(S3OperationMetrics.OPERATION_HEAD,
+          () -> s3Client.headObject(headRequest));
+      // The object, its metadata included, is copied by S3 itself; CopyObject is limited to 5GB objects
+      if (multipartUploader.isMultipartCopy(source.contentLength())) {
+        s3OperationMetrics.record(S3OperationMetrics.OPERATION_COPY, () -> {
+          multipartUploader.copy(bucketName, sourceFileName, source, targetFileName);
+          return null;
+        });
+        return;
+      }
+      final var request = CopyObjectRequest.builder()
+          .sourceBucket(bucketName)
+          .sourceKey(sourceFileName)
+          .destinationBucket(bucketName)
+          .destinationKey(targetFileName)
+          .build();
+      s3OperationMetrics.record(S3OperationMetrics.OPERATION_COPY, () -> s3Client.copyObject(request));
+    } catch (NoSuchKeyException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new S3CopyObjectException(String.format(ERR_MSG_COPY_FAILED, sourceFileName, targetFileName,
+          ex.getMessage()));
+    }
+  }
+
   @Override
   public ResponseInputStream<GetObjectResponse> getFile(final String fileName) {
+    return getFile(fileName, List.of());
+  }
+
+  @Override
+  public ResponseInputStream<GetObjectResponse> getFile(final String fileName, final List<String> acceptedEncodings) {
     final var request = GetObjectRequest.builder()
         .bucket(awsS3ConfigProperties.getBucketName())
         .key(fileName)
         .build();
 
     try {
-      return s3Client.getObject(request);
+      return transformPipeline.decode(s3OperationMetrics.recordDownload(() -> s3Client.getObject(request)),
+          acceptedEncodings);
     } catch (NoSuchKeyException ex) {
       throw ex;
     } catch (Exception ex) {
@@ -118,6 +283,11 @@ public class FileStorageServiceImpl implements FileStorageService {
     }
   }
 
+  @Override
+  public Optional<FileRange> getFileRange(final String fileName, final HttpRange range) {
+    return blockRangeReader.read(fileName, range);
+  }
+
   @Override
   public String generatePreSignedUrlOfFile(final String fileName, final long expirationTimeInMinutes) {
     final var getObjectPresignRequest = GetObjectPresignRequest.builder()
@@ -130,7 +300,8 @@ public class FileStorageServiceImpl implements FileStorageService {
         .build();
 
     try {
-      final var presignedGetObjectResponse = s3Presigner.presignGetObject(getObjectPresignRequest);
+      final var presignedGetObjectResponse = s3OperationMetrics.record(S3OperationMetrics.OPERATION_PRESIGN,
+          () -> s3Presigner.presignGetObject(getObjectPresignRequest));
       return presignedGetObjectResponse.url().toString();
     } catch (Exception ex) {
       final var errMsg = String.format(ERR_MSG_GENERATE_PRESIGNEDURL_FAILED, fileName, ex.getMessage());
@@ -0,0 +1,97 @@
+package com.marcofaccani.awss3.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.marcofaccani.awss3.model.HotKey;
+
+/**
+ * Estimates the heaviest keys of a stream in bounded memory, whatever the number of keys: a Count-Min sketch of
+ * {@code depth} rows of {@code width} counters overestimates the weight of any key by at most a fraction of the total
+ * weight, and a min-heap keeps the {@code topK} keys of highest estimate seen so far.
+ * <p>
+ * {@link #decay(double)} scales every count down, for the keys heavy a while ago to give way to the ones heavy now.
+ */
+public class HeavyHitterSketch {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int topK;
+  private final int width;
+  private final double[][] counters;
+  // Lightest key first, guarded by this
+  private final PriorityQueue<Map.Entry<String, Double>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+  private final Map<String, Map.Entry<String, Double>> heapEntries = new HashMap<>();
+
+  public HeavyHitterSketch(final int topK, final int depth, final int width) {
+    this.topK = topK;
+    this.width = width;
+    this.counters = new double[depth][width];
+  }
+
+  public synchronized void add(final String key, final double weight) {
+    final var hash = hash(key);
+    // Row hashes derived from two halves of the hash (Kirsch-Mitzenmacher)
+    final var hash1 = (int) hash;
+    final var hash2 = (int) (hash >>> 32);
+    var estimate = Double.MAX_VALUE;
+    for (int row = 0; row < counters.length; row++) {
+      final var column = Math.floorMod(hash1 + row * hash2, width);
+      counters[row][column] += weight;
+      estimate = Math.min(estimate, counters[row][column]);
+    }
+
+    final var entry = heapEntries.get(key);
+    if (entry != null) {
+      heap.remove(entry);
+    } else if (heap.size() >= topK) {
+      if (topK == 0 || heap.peek().getValue() >= estimate) {
+        return;
+      }
+      heapEntries.remove(heap.poll().getKey());
+    }
+    final var updated = Map.entry(key, estimate);
+    heap.add(updated);
+    heapEntries.put(key, updated);
+  }
+
+  public synchronized void decay(final double factor) {
+    for (final var row : counters) {
+      for (int column = 0; column < row.length; column++) {
+        row[column] *= factor;
+      }
+    }
+    final var decayed = heap.stream().map(entry -> Map.entry(entry.getKey(), entry.getValue() * factor)).toList();
+    heap.clear();
+    heapEntries.clear();
+    decayed.forEach(entry -> {
+      heap.add(entry);
+      heapEntries.put(entry.getKey(), entry);
+    });
+  }
+
+  /**
+   * The heaviest keys, heaviest first.
+   */
+  public synchronized List<HotKey> top() {
+    return heap.stream()
+        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+        .map(entry -> new HotKey(entry.getKey(), Math.round(entry.getValue())))
+        .toList();
+  }
+
+  // 64-bit FNV-1a of the UTF-8 bytes, String.hashCode() colliding too easily
+  private static long hash(final String key) {
+    var hash = FNV_OFFSET_BASIS;
+    for (final var b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+}
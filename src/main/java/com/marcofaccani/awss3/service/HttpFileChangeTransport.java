@@ -0,0 +1,129 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marcofaccani.awss3.config.InvalidationConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.interfaces.FileChangeTransport;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.Level;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Posts the changes to every other member of the {@link PeerCache} ring ({@code app.aws.s3.peers}). Each peer has its
+ * own sender, posting one change after the other to keep them in sequence, so that a peer down or slow only delays its
+ * own changes. A peer failing to answer within {@code http-timeout}, or more than {@code http-queue-size} changes
+ * behind, misses the changes, which it tells from the next one or the next heartbeat.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "app.aws.s3.invalidation", name = "transport", havingValue = "http")
+public class HttpFileChangeTransport implements FileChangeTransport {
+
+  public static final String CHANGES_PATH = "/internal/peer/changes";
+  public static final String ERR_MSG_SEND_FAILED = "Sending change %s to peer %s failed: %s";
+  public static final String ERR_MSG_QUEUE_FULL = "too many changes waiting to be sent";
+
+  private final InvalidationConfigProperties invalidationConfigProperties;
+  // Lazily, the peer cache listening to the bus this transport is part of
+  private final ObjectProvider<PeerCache> peerCache;
+  private final ObjectMapper objectMapper;
+  private final HttpClient httpClient;
+  // By URL of the peer
+  private final Map<String, ThreadPoolExecutor> senders = new ConcurrentHashMap<>();
+
+  public HttpFileChangeTransport(final InvalidationConfigProperties invalidationConfigProperties,
+      final ObjectProvider<PeerCache> peerCache, final ObjectMapper objectMapper) {
+    this.invalidationConfigProperties = invalidationConfigProperties;
+    this.peerCache = peerCache;
+    this.objectMapper = objectMapper;
+    this.httpClient = HttpClient.newBuilder()
+        .connectTimeout(invalidationConfigProperties.getHttpTimeout())
+        .build();
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    senders.values().forEach(ThreadPoolExecutor::shutdownNow);
+  }
+
+  @Override
+  public void send(final FileChange change) {
+    final String body;
+    try {
+      body = objectMapper.writeValueAsString(change);
+    } catch (JsonProcessingException ex) {
+      throw new IllegalStateException(ex);
+    }
+    final var peers = peerCache.getObject().getOtherMembers();
+    // Members removed from the ring
+    senders.keySet().stream().filter(peer -> !peers.contains(peer)).toList()
+        .forEach(peer -> senders.remove(peer).shutdownNow());
+    for (final var peer : peers) {
+      try {
+        senders.computeIfAbsent(peer, this::newSender).execute(() -> post(peer, change, body));
+      } catch (RejectedExecutionException ex) {
+        // Dropped: the peer tells it missed the change from the next one it receives
+        log.log(level(change), String.format(ERR_MSG_SEND_FAILED, change, peer, ERR_MSG_QUEUE_FULL));
+      }
+    }
+  }
+
+  @Override
+  public void start(final Consumer<FileChange> receiver) {
+    // Received by PeerController
+  }
+
+  private ThreadPoolExecutor newSender(final String peer) {
+    final var queueSize = Math.max(1, invalidationConfigProperties.getHttpQueueSize());
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+        runnable -> {
+          final var thread = new Thread(runnable, "file-change-fan-out-" + URI.create(peer).getAuthority());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private void post(final String peer, final FileChange change, final String body) {
+    final var request = HttpRequest.newBuilder(URI.create(peer + CHANGES_PATH))
+        .timeout(invalidationConfigProperties.getHttpTimeout())
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    try {
+      final var response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+      if (response.statusCode() / 100 != 2) {
+        log.log(level(change), String.format(ERR_MSG_SEND_FAILED, change, peer,
+            String.format(PeerCache.ERR_MSG_PEER_STATUS, response.statusCode())));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (IOException ex) {
+      log.log(level(change), String.format(ERR_MSG_SEND_FAILED, change, peer, ex.getMessage()));
+    }
+  }
+
+  // Heartbeats are sent again and again to a peer down
+  private static Level level(final FileChange change) {
+    return change.type() == FileChange.Type.HEARTBEAT ? Level.DEBUG : Level.WARN;
+  }
+
+}
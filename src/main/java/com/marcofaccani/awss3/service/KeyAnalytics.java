@@ -0,0 +1,112 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.KeyAnalyticsConfigProperties;
+import com.marcofaccani.awss3.model.HotKey;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells which keys drive the load: each download and upload is added to a {@link HeavyHitterSketch} of requests and
+ * one of bytes, per operation. Every {@code window} the counts are multiplied by {@code decay}, the weight of a request
+ * thus halving every {@code window * ln(2) / -ln(decay)}.
+ * <p>
+ * The heaviest keys are exposed on {@code /actuator/hotkeys}.
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class KeyAnalytics {
+
+  public static final String OPERATION_DOWNLOAD = "download";
+  public static final String OPERATION_UPLOAD = "upload";
+  public static final String METRIC_REQUESTS = "requests";
+  public static final String METRIC_BYTES = "bytes";
+
+  private final KeyAnalyticsConfigProperties keyAnalyticsConfigProperties;
+  // By operation, then by metric
+  private final Map<String, Map<String, HeavyHitterSketch>> sketches = new LinkedHashMap<>();
+  private final ScheduledExecutorService decayer;
+
+  public KeyAnalytics(final KeyAnalyticsConfigProperties keyAnalyticsConfigProperties) {
+    this.keyAnalyticsConfigProperties = keyAnalyticsConfigProperties;
+    if (!keyAnalyticsConfigProperties.isEnabled()) {
+      this.decayer = null;
+      return;
+    }
+    for (final var operation : List.of(OPERATION_DOWNLOAD, OPERATION_UPLOAD)) {
+      final var operationSketches = new LinkedHashMap<String, HeavyHitterSketch>();
+      for (final var metric : List.of(METRIC_REQUESTS, METRIC_BYTES)) {
+        operationSketches.put(metric, new HeavyHitterSketch(keyAnalyticsConfigProperties.getTopK(),
+            keyAnalyticsConfigProperties.getDepth(), keyAnalyticsConfigProperties.getWidth()));
+      }
+      sketches.put(operation, operationSketches);
+    }
+    this.decayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable, "key-analytics-decay");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final var window = keyAnalyticsConfigProperties.getWindow().toMillis();
+    decayer.scheduleAtFixedRate(this::decay, window, window, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    if (decayer != null) {
+      decayer.shutdownNow();
+    }
+  }
+
+  public void recordDownload(final String fileName, final long bytes) {
+    record(OPERATION_DOWNLOAD, fileName, bytes);
+  }
+
+  public void recordUpload(final String fileName, final long bytes) {
+    record(OPERATION_UPLOAD, fileName, bytes);
+  }
+
+  private void record(final String operation, final String fileName, final long bytes) {
+    if (!keyAnalyticsConfigProperties.isEnabled() || fileName == null) {
+      return;
+    }
+    final var operationSketches = sketches.get(operation);
+    operationSketches.get(METRIC_REQUESTS).add(fileName, 1);
+    operationSketches.get(METRIC_BYTES).add(fileName, bytes);
+  }
+
+  /**
+   * The heaviest keys, by operation then by metric, heaviest first.
+   */
+  @ReadOperation
+  public Map<String, Map<String, List<HotKey>>> hotKeys() {
+    final var hotKeys = new LinkedHashMap<String, Map<String, List<HotKey>>>();
+    sketches.forEach((operation, operationSketches) -> {
+      final var operationHotKeys = new LinkedHashMap<String, List<HotKey>>();
+      operationSketches.forEach((metric, sketch) -> operationHotKeys.put(metric, sketch.top()));
+      hotKeys.put(operation, operationHotKeys);
+    });
+    return hotKeys;
+  }
+
+  /**
+   * The heaviest keys of {@code operation} by {@code metric}, heaviest first; none when disabled.
+   */
+  public List<HotKey> hotKeys(final String operation, final String metric) {
+    final var operationSketches = sketches.get(operation);
+    return operationSketches == null ? List.of() : operationSketches.get(metric).top();
+  }
+
+  private void decay() {
+    sketches.values().forEach(operationSketches -> operationSketches.values()
+        .forEach(sketch -> sketch.decay(keyAnalyticsConfigProperties.getDecay())));
+  }
+
+}
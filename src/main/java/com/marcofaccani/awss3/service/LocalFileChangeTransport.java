@@ -0,0 +1,28 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.function.Consumer;
+
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.interfaces.FileChangeTransport;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the changes within the instance publishing them, for a single instance deployment.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.aws.s3.invalidation", name = "transport", havingValue = "local",
+    matchIfMissing = true)
+public class LocalFileChangeTransport implements FileChangeTransport {
+
+  @Override
+  public void send(final FileChange change) {
+    // Applied by the listeners of this instance only
+  }
+
+  @Override
+  public void start(final Consumer<FileChange> receiver) {
+    // Nothing is ever received
+  }
+
+}
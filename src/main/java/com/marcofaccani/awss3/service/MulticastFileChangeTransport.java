@@ -0,0 +1,100 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import com.marcofaccani.awss3.config.InvalidationConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.interfaces.FileChangeTransport;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the changes as UDP datagrams to the {@code multicast-group}, joined by every instance of the network: no peer
+ * is to be configured, but datagrams may be lost, which the sequence of the changes tells.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "app.aws.s3.invalidation", name = "transport", havingValue = "multicast")
+public class MulticastFileChangeTransport implements FileChangeTransport {
+
+  public static final String ERR_MSG_SEND_FAILED = "Sending change %s failed: %s";
+  public static final String ERR_MSG_INVALID_DATAGRAM = "Ignoring invalid change datagram: %s";
+  // Fits a file name of the maximum S3 key length
+  private static final int MAX_DATAGRAM_SIZE = 2048;
+
+  private final InetSocketAddress group;
+  private final MulticastSocket socket;
+
+  public MulticastFileChangeTransport(final InvalidationConfigProperties invalidationConfigProperties) {
+    try {
+      this.group = new InetSocketAddress(InetAddress.getByName(invalidationConfigProperties.getMulticastGroup()),
+          invalidationConfigProperties.getMulticastPort());
+      this.socket = new MulticastSocket(invalidationConfigProperties.getMulticastPort());
+      socket.joinGroup(group, null);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    socket.close();
+  }
+
+  @Override
+  public void send(final FileChange change) {
+    final var datagram = encode(change);
+    try {
+      socket.send(new DatagramPacket(datagram, datagram.length, group));
+    } catch (IOException ex) {
+      log.warn(String.format(ERR_MSG_SEND_FAILED, change, ex.getMessage()));
+    }
+  }
+
+  @Override
+  public void start(final Consumer<FileChange> receiver) {
+    final var thread = new Thread(() -> {
+      final var packet = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+      while (!socket.isClosed()) {
+        try {
+          socket.receive(packet);
+          receiver.accept(decode(packet.getData(), packet.getLength()));
+        } catch (IOException ex) {
+          // Closed on shutdown
+        } catch (RuntimeException ex) {
+          log.warn(String.format(ERR_MSG_INVALID_DATAGRAM, ex.getMessage()));
+        }
+      }
+    }, "file-change-multicast");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * One line each for the origin, the sequence and the type of the change, followed by the file name if any.
+   */
+  public static byte[] encode(final FileChange change) {
+    return String.join("\n", change.origin(), Long.toString(change.sequence()), change.type().name(),
+        change.fileName() == null ? "" : change.fileName()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  public static FileChange decode(final byte[] datagram, final int length) {
+    final var fields = new String(datagram, 0, length, StandardCharsets.UTF_8).split("\n", 4);
+    if (fields.length != 4) {
+      throw new IllegalArgumentException(String.format("expected 4 fields, got %d", fields.length));
+    }
+    final var type = FileChange.Type.valueOf(fields[2]);
+    return new FileChange(fields[0], Long.parseLong(fields[1]), type,
+        type == FileChange.Type.HEARTBEAT ? null : fields[3]);
+  }
+
+}
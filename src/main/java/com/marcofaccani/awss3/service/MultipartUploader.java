@@ -0,0 +1,240 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marcofaccani.awss3.config.MultipartConfigProperties;
+import com.marcofaccani.awss3.service.transform.BufferPool;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * Uploads large objects as S3 multipart uploads: parts are read one after the other from the stream and sent
+ * concurrently, at most {@code parts-in-flight} at a time per upload, so memory use is bounded by the part size times
+ * the parts in flight whatever the size of the object, and a failed part does not fail the whole transfer on retry.
+ * Objects too large for a single CopyObject are copied the same way, with parts copied by S3 from byte ranges of the
+ * source object.
+ */
+@Log4j2
+@Component
+public class MultipartUploader {
+
+  // S3 rejects smaller parts, except for the last one
+  public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+  public static final long MAX_PARTS = 10_000;
+  public static final String MSG_UPLOAD_ABORTED = "Multipart upload %s of %s aborted: %s";
+
+  private final MultipartConfigProperties multipartConfigProperties;
+  private final S3Client s3Client;
+  private final BufferPool bufferPool;
+  private final ExecutorService uploadExecutor;
+
+  public MultipartUploader(final MultipartConfigProperties multipartConfigProperties, final S3Client s3Client) {
+    this.multipartConfigProperties = multipartConfigProperties;
+    this.s3Client = s3Client;
+    final var partSize = Math.max(MIN_PART_SIZE, multipartConfigProperties.getPartSize().toBytes());
+    this.bufferPool = new BufferPool((int) partSize, multipartConfigProperties.getUploadThreads());
+    final var threadCounter = new AtomicInteger();
+    this.uploadExecutor = Executors.newFixedThreadPool(multipartConfigProperties.getUploadThreads(), runnable -> {
+      final var thread = new Thread(runnable, "multipart-upload-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    uploadExecutor.shutdownNow();
+  }
+
+  public long partSize() {
+    return bufferPool.bufferSize();
+  }
+
+  public boolean isMultipart(final long contentLength) {
+    return contentLength < 0 || contentLength >= multipartConfigProperties.getThreshold().toBytes();
+  }
+
+  public boolean isMultipartCopy(final long contentLength) {
+    return contentLength >= multipartConfigProperties.getCopyThreshold().toBytes();
+  }
+
+  /**
+   * Uploads the stream, of any length, with the bucket, key and headers of the given request.
+   */
+  public void upload(final PutObjectRequest request, final InputStream inputStream) throws IOException {
+    final var uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+        .bucket(request.bucket())
+        .key(request.key())
+        .contentType(request.contentType())
+        .contentEncoding(request.contentEncoding())
+        .metadata(request.metadata())
+        .build()).uploadId();
+
+    final var partsInFlight = new Semaphore(Math.max(1, multipartConfigProperties.getPartsInFlight()));
+    final var parts = new ArrayList<Future<CompletedPart>>();
+    try {
+      var partNumber = 1;
+      while (true) {
+        partsInFlight.acquire();
+        final var buffer = bufferPool.acquire();
+        final var length = inputStream.readNBytes(buffer, 0, buffer.length);
+        // An empty object still needs one (empty) part
+        if (length == 0 && partNumber > 1) {
+          bufferPool.release(buffer);
+          partsInFlight.release();
+          break;
+        }
+        final var part = partNumber++;
+        parts.add(uploadExecutor.submit(S3WorkScheduler.inCurrentClass(() -> {
+          try {
+            return uploadPart(request, uploadId, part, buffer, length);
+          } finally {
+            bufferPool.release(buffer);
+            partsInFlight.release();
+          }
+        })));
+        if (length < buffer.length) {
+          break;
+        }
+      }
+
+      s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+          .bucket(request.bucket())
+          .key(request.key())
+          .uploadId(uploadId)
+          .multipartUpload(CompletedMultipartUpload.builder().parts(await(parts)).build())
+          .build());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      abort(request.bucket(), request.key(), uploadId, parts, ex);
+      throw new IOException("Interrupted while uploading " + request.key(), ex);
+    } catch (IOException | RuntimeException ex) {
+      abort(request.bucket(), request.key(), uploadId, parts, ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * Copies an object of the bucket, whose HEAD response is given, to another key of the same bucket. No byte of the
+   * object flows through this service: every part is copied by S3 from a range of the source object.
+   */
+  public void copy(final String bucketName, final String sourceKey, final HeadObjectResponse source,
+      final String targetKey) throws IOException {
+    final var uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+        .bucket(bucketName)
+        .key(targetKey)
+        .contentType(source.contentType())
+        .contentEncoding(source.contentEncoding())
+        .metadata(source.metadata())
+        .build()).uploadId();
+
+    final var size = source.contentLength();
+    final var partSize = Math.max(multipartConfigProperties.getCopyPartSize().toBytes(),
+        Math.max(MIN_PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS));
+    final var parts = new ArrayList<Future<CompletedPart>>();
+    try {
+      var partNumber = 1;
+      for (long offset = 0; offset < size; offset += partSize) {
+        final var part = partNumber++;
+        final var range = "bytes=" + offset + "-" + (Math.min(offset + partSize, size) - 1);
+        parts.add(uploadExecutor.submit(
+            S3WorkScheduler.inCurrentClass(() -> copyPart(bucketName, sourceKey, targetKey, uploadId, part, range))));
+      }
+
+      s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+          .bucket(bucketName)
+          .key(targetKey)
+          .uploadId(uploadId)
+          .multipartUpload(CompletedMultipartUpload.builder().parts(await(parts)).build())
+          .build());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      abort(bucketName, targetKey, uploadId, parts, ex);
+      throw new IOException("Interrupted while copying " + sourceKey, ex);
+    } catch (IOException | RuntimeException ex) {
+      abort(bucketName, targetKey, uploadId, parts, ex);
+      throw ex;
+    }
+  }
+
+  private CompletedPart copyPart(final String bucketName, final String sourceKey, final String targetKey,
+      final String uploadId, final int partNumber, final String range) {
+    final var response = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+        .sourceBucket(bucketName)
+        .sourceKey(sourceKey)
+        .destinationBucket(bucketName)
+        .destinationKey(targetKey)
+        .uploadId(uploadId)
+        .partNumber(partNumber)
+        .copySourceRange(range)
+        .build());
+    return CompletedPart.builder().partNumber(partNumber).eTag(response.copyPartResult().eTag()).build();
+  }
+
+  private CompletedPart uploadPart(final PutObjectRequest request, final String uploadId, final int partNumber,
+      final byte[] buffer, final int length) {
+    final var response = s3Client.uploadPart(UploadPartRequest.builder()
+            .bucket(request.bucket())
+            .key(request.key())
+            .uploadId(uploadId)
+            .partNumber(partNumber)
+            .contentLength((long) length)
+            .build(),
+        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, 0, length), length,
+            MediaType.APPLICATION_OCTET_STREAM_VALUE));
+    return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+  }
+
+  private static List<CompletedPart> await(final List<Future<CompletedPart>> parts)
+      throws IOException, InterruptedException {
+    final var completedParts = new ArrayList<CompletedPart>(parts.size());
+    for (final var part : parts) {
+      try {
+        completedParts.add(part.get());
+      } catch (ExecutionException ex) {
+        throw new IOException(ex.getCause().getMessage(), ex.getCause());
+      }
+    }
+    return completedParts;
+  }
+
+  private void abort(final String bucketName, final String key, final String uploadId,
+      final List<Future<CompletedPart>> parts, final Exception cause) {
+    parts.forEach(part -> part.cancel(true));
+    log.warn(String.format(MSG_UPLOAD_ABORTED, uploadId, key, cause.getMessage()));
+    try {
+      s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+          .bucket(bucketName)
+          .key(key)
+          .uploadId(uploadId)
+          .build());
+    } catch (Exception ex) {
+      // Left to the bucket lifecycle rule on incomplete multipart uploads
+      log.warn(String.format(MSG_UPLOAD_ABORTED, uploadId, key, ex.getMessage()));
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * In-memory copies of the files read, up to {@code maxObjectSize} each and {@code maxSize} in total, the least recently
+ * read evicted first, and, if a {@code ttl} is given, dropped once older than it.
+ * <p>
+ * Copies of a file are only kept if it did not change since it was fetched: the {@link #generation()} read before
+ * fetching is bumped by {@link #evict(String)} and {@link #clear()}.
+ */
+public class ObjectCopyCache {
+
+  /**
+   * A file as read with the given accepted encodings, as its content may be encoded with one of them.
+   */
+  public record Key(String fileName, List<String> acceptedEncodings) {
+
+  }
+
+  private record CachedObject(GetObjectResponse response, byte[] content, long fetchedAt) {
+
+    ResponseInputStream<GetObjectResponse> toStream() {
+      return new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(content)));
+    }
+
+  }
+
+  private final long maxSize;
+  private final long maxObjectSize;
+  private final long ttlNanos;
+  // Access ordered, guarded by itself
+  private final Map<Key, CachedObject> objects = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  private long generation;
+
+  public ObjectCopyCache(final long maxSize, final long maxObjectSize) {
+    this(maxSize, maxObjectSize, null);
+  }
+
+  public ObjectCopyCache(final long maxSize, final long maxObjectSize, final Duration ttl) {
+    this.maxSize = maxSize;
+    this.maxObjectSize = Math.min(maxObjectSize, maxSize);
+    this.ttlNanos = ttl == null ? Long.MAX_VALUE : ttl.toNanos();
+  }
+
+  /**
+   * Returns a stream over the copy of the file, or null if none is kept.
+   */
+  public ResponseInputStream<GetObjectResponse> get(final Key key) {
+    synchronized (objects) {
+      final var cachedObject = objects.get(key);
+      if (cachedObject == null) {
+        return null;
+      }
+      if (System.nanoTime() - cachedObject.fetchedAt() > ttlNanos) {
+        remove(key);
+        return null;
+      }
+      return cachedObject.toStream();
+    }
+  }
+
+  public long generation() {
+    synchronized (objects) {
+      return generation;
+    }
+  }
+
+  /**
+   * Reads a file fetched at {@code fetchGeneration} to keep a copy of it and returns a stream over that copy; a file
+   * larger than the maximum object size, or turning out larger once decoded, is returned to be streamed instead.
+   */
+  public ResponseInputStream<GetObjectResponse> keepCopy(final Key key,
+      final ResponseInputStream<GetObjectResponse> object, final long fetchGeneration) {
+    final var contentLength = object.response().contentLength();
+    if (contentLength == null || contentLength > maxObjectSize) {
+      evict(key);
+      return object;
+    }
+    final byte[] content;
+    try {
+      content = object.readNBytes(Math.toIntExact(maxObjectSize + 1));
+    } catch (IOException ex) {
+      object.abort();
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, key.fileName(),
+          ex.getMessage()));
+    }
+    if (content.length > maxObjectSize) {
+      evict(key);
+      return new ResponseInputStream<>(object.response(),
+          AbortableInputStream.create(new SequenceInputStream(new ByteArrayInputStream(content), object), object));
+    }
+    try {
+      object.close();
+    } catch (IOException ex) {
+      // The content was fully read
+    }
+    final var cachedObject = new CachedObject(object.response(), content, System.nanoTime());
+    put(key, cachedObject, fetchGeneration);
+    return cachedObject.toStream();
+  }
+
+  private void put(final Key key, final CachedObject cachedObject, final long fetchGeneration) {
+    synchronized (objects) {
+      if (generation != fetchGeneration) {
+        return;
+      }
+      final var previous = objects.put(key, cachedObject);
+      size += cachedObject.content().length - (previous == null ? 0 : previous.content().length);
+      final var eldest = objects.values().iterator();
+      while (size > maxSize && eldest.hasNext()) {
+        size -= eldest.next().content().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  public void evict(final Key key) {
+    synchronized (objects) {
+      remove(key);
+    }
+  }
+
+  /**
+   * Drops the copies of a file, whatever the encodings it was read with.
+   */
+  public void evict(final String fileName) {
+    synchronized (objects) {
+      generation++;
+      final var cachedObjects = objects.entrySet().iterator();
+      while (cachedObjects.hasNext()) {
+        final var cachedObject = cachedObjects.next();
+        if (cachedObject.getKey().fileName().equals(fileName)) {
+          size -= cachedObject.getValue().content().length;
+          cachedObjects.remove();
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized (objects) {
+      generation++;
+      objects.clear();
+      size = 0;
+    }
+  }
+
+  public long size() {
+    synchronized (objects) {
+      return size;
+    }
+  }
+
+  // Called with the lock held
+  private void remove(final Key key) {
+    final var previous = objects.remove(key);
+    if (previous != null) {
+      size -= previous.content().length;
+    }
+  }
+
+}
@@ -0,0 +1,524 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.PackingConfigProperties;
+import com.marcofaccani.awss3.exceptions.IndexJournalException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.exceptions.S3ObjectDeleteException;
+import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
+import com.marcofaccani.awss3.exceptions.S3PutObjectException;
+import com.marcofaccani.awss3.model.FileRange;
+import com.marcofaccani.awss3.model.PackEntry;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+/**
+ * Storage mode that packs small files into large aggregate objects to save on per-request costs.
+ *
+ * <p>Small uploads are appended to an in-memory pack which is written to S3 either when it reaches the target size or
+ * when it gets older than the configured max buffer age; the upload call only returns once its pack is persisted
+ * (group commit). Every written pack comes with an {@link S3IndexJournal} entry listing the changes it carries; the
+ * journal is replayed at boot time to rebuild the in-memory index, and a periodic compaction rewrites the live entries
+ * of packs mostly made of deleted or overwritten data, then checkpoints the whole index. Compaction is run by the
+ * holder of the journal's maintenance lease only, and records its moves conditionally: a file another instance
+ * changed meanwhile keeps its newer entry.
+ *
+ * <p>Files above the small object threshold are stored as plain objects through {@link FileStorageServiceImpl}.
+ */
+@Log4j2
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "app.aws.s3", name = "storage-mode", havingValue = "packed")
+public class PackedFileStorageService implements FileStorageService {
+
+  public static final String PACK_SUFFIX = ".pack";
+  public static final String ERR_MSG_PACKED_FILE_NOT_SHAREABLE = "File %s is stored in a pack and cannot be shared through a pre-signed URL";
+  public static final String MSG_INDEX_LOADED = "Pack index loaded: %d files in %d packs";
+  public static final String MSG_PACKS_COMPACTED = "Compacted %d packs, %d live files rewritten";
+
+  private static final String PUT = "P";
+  private static final String MOVE = "M";
+  private static final String DELETE = "D";
+  private static final String PACK_SIZE = "S";
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final PackingConfigProperties packingConfigProperties;
+  private final FileStorageServiceImpl plainFileStorageService;
+  private final S3Client s3Client;
+  private final FileChangeBus fileChangeBus;
+
+  private final Map<String, PackEntry> index = new ConcurrentHashMap<>();
+  // Only accessed from the pack writer thread once the index is loaded
+  private final Map<String, PackStats> packStats = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService packWriter = Executors.newSingleThreadScheduledExecutor(
+      runnable -> new Thread(S3WorkScheduler.background(runnable), "pack-writer"));
+  private final S3IndexJournal journal;
+
+  // Guarded by this
+  private Batch currentBatch = new Batch();
+
+  public PackedFileStorageService(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final PackingConfigProperties packingConfigProperties,
+      final FileStorageServiceImpl plainFileStorageService,
+      final S3Client s3Client,
+      final FileChangeBus fileChangeBus) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.packingConfigProperties = packingConfigProperties;
+    this.plainFileStorageService = plainFileStorageService;
+    this.s3Client = s3Client;
+    this.fileChangeBus = fileChangeBus;
+    this.journal = new S3IndexJournal(s3Client, awsS3ConfigProperties.getBucketName(),
+        packingConfigProperties.getPackPrefix() + "index/");
+  }
+
+  @PostConstruct
+  public void postConstruct() {
+    journal.load(this::applyRecord);
+    log.info(String.format(MSG_INDEX_LOADED, index.size(), packStats.size()));
+    // Files packed, deleted or moved by compaction through other instances
+    fileChangeBus.addRemoteChangeListener(() -> journal.requestRefresh(packWriter, this::resetIndex,
+        this::applyRecord));
+    final var flushInterval = packingConfigProperties.getMaxBufferAge().toMillis();
+    packWriter.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    final var compactionInterval = packingConfigProperties.getCompactionInterval().toMillis();
+    packWriter.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() throws InterruptedException {
+    packWriter.execute(this::flush);
+    packWriter.shutdown();
+    packWriter.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void uploadFile(final MultipartFile file) {
+    try {
+      uploadFile(file.getOriginalFilename(), file.getInputStream(), file.getSize());
+    } catch (IOException ex) {
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED,
+          file.getOriginalFilename(), ex.getMessage()));
+    }
+  }
+
+  @Override
+  public void uploadFile(final String fileName, final InputStream inputStream, final long contentLength) {
+    if (contentLength > packingConfigProperties.getSmallObjectThreshold().toBytes()) {
+      plainFileStorageService.uploadFile(fileName, inputStream, contentLength);
+      if (index.containsKey(fileName)) {
+        awaitCommit(stage(fileName, null), errMsg -> new S3PutObjectException(
+            String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName, errMsg)));
+      }
+      return;
+    }
+
+    final byte[] content;
+    try {
+      content = inputStream.readAllBytes();
+    } catch (IOException ex) {
+      throw new S3PutObjectException(String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName,
+          ex.getMessage()));
+    }
+    awaitCommit(stage(fileName, content), errMsg -> new S3PutObjectException(
+        String.format(FileStorageServiceImpl.ERR_MSG_UPLOAD_FAILED, fileName, errMsg)));
+  }
+
+  @Override
+  public void deleteFile(final String fileName) {
+    if (index.containsKey(fileName)) {
+      awaitCommit(stage(fileName, null), errMsg -> new S3ObjectDeleteException(
+          String.format(FileStorageServiceImpl.ERR_MSG_DELETE_FAILED, fileName, errMsg)));
+    }
+    // A plain object with the same name may exist as well, e.g. written before the file was re-uploaded as small
+    plainFileStorageService.deleteFile(fileName);
+  }
+
+  @Override
+  public void copyFile(final String sourceFileName, final String targetFileName) {
+    if (sourceFileName.equals(targetFileName)) {
+      throw new InvalidCopyRequestException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_ONTO_ITSELF, sourceFileName));
+    }
+    if (!index.containsKey(sourceFileName)) {
+      plainFileStorageService.copyFile(sourceFileName, targetFileName);
+      if (index.containsKey(targetFileName)) {
+        awaitCommit(stage(targetFileName, null), errMsg -> new S3CopyObjectException(
+            String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, sourceFileName, targetFileName, errMsg)));
+      }
+      return;
+    }
+
+    // Packed files are small by definition: the copy is packed again like any small upload
+    final byte[] content;
+    try (var inputStream = getFile(sourceFileName)) {
+      content = inputStream.readAllBytes();
+    } catch (IOException ex) {
+      throw new S3CopyObjectException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, sourceFileName,
+          targetFileName, ex.getMessage()));
+    }
+    awaitCommit(stage(targetFileName, content), errMsg -> new S3CopyObjectException(
+        String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, sourceFileName, targetFileName, errMsg)));
+  }
+
+  @Override
+  public ResponseInputStream<GetObjectResponse> getFile(final String fileName) {
+    var entry = index.get(fileName);
+    if (entry == null) {
+      return plainFileStorageService.getFile(fileName);
+    }
+
+    try {
+      return getPackedFile(entry);
+    } catch (NoSuchKeyException ex) {
+      // The pack may have been compacted between the index lookup and the GET: retry once with the new location,
+      // looked up in the journal if the pack was compacted by another instance
+      var newEntry = index.get(fileName);
+      if (newEntry != null && newEntry.equals(entry) && refreshIndex()) {
+        newEntry = index.get(fileName);
+      }
+      if (newEntry == null || newEntry.equals(entry)) {
+        throw ex;
+      }
+      return getPackedFile(newEntry);
+    } catch (Exception ex) {
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, fileName,
+          ex.getMessage()));
+    }
+  }
+
+  private ResponseInputStream<GetObjectResponse> getPackedFile(final PackEntry entry) {
+    final var request = GetObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(entry.packKey())
+        .range(entry.range())
+        .build();
+    return s3Client.getObject(request);
+  }
+
+  @Override
+  public Optional<FileRange> getFileRange(final String fileName, final HttpRange range) {
+    // Packed files are small, they are served whole
+    if (index.containsKey(fileName)) {
+      return Optional.empty();
+    }
+    return plainFileStorageService.getFileRange(fileName, range);
+  }
+
+  @Override
+  public String generatePreSignedUrlOfFile(final String fileName, final long expirationTimeInMinutes) {
+    if (index.containsKey(fileName)) {
+      throw new S3PresignedUrlException(String.format(ERR_MSG_PACKED_FILE_NOT_SHAREABLE, fileName));
+    }
+    return plainFileStorageService.generatePreSignedUrlOfFile(fileName, expirationTimeInMinutes);
+  }
+
+  @Override
+  public List<String> listFilesInBucket() {
+    final var fileNames = new TreeSet<>(index.keySet());
+    fileNames.addAll(plainFileStorageService.listFilesInBucket(packingConfigProperties.getPackPrefix()));
+    return List.copyOf(fileNames);
+  }
+
+  @Override
+  public List<String> listFiles(final String prefix, final int maxFiles) {
+    final var fileNames = new TreeSet<>(plainFileStorageService.listFiles(prefix, packingConfigProperties.getPackPrefix(), maxFiles));
+    index.keySet().stream()
+        .filter(fileName -> fileName.startsWith(prefix))
+        .forEach(fileNames::add);
+    return fileNames.stream().limit(maxFiles).toList();
+  }
+
+  /**
+   * Appends a change to the current batch, a null content meaning the file is deleted.
+   */
+  private synchronized CompletableFuture<Void> stage(final String fileName, final byte[] content) {
+    final var batch = currentBatch;
+    if (content == null) {
+      batch.changes.add(new Change(fileName, -1, 0));
+    } else {
+      batch.changes.add(new Change(fileName, batch.data.size(), content.length));
+      batch.data.writeBytes(content);
+      if (batch.data.size() >= packingConfigProperties.getPackTargetSize().toBytes()) {
+        packWriter.execute(this::flush);
+      }
+    }
+    return batch.committed;
+  }
+
+  private void awaitCommit(final CompletableFuture<Void> commit,
+      final Function<String, RuntimeException> exceptionFactory) {
+    try {
+      commit.join();
+    } catch (CompletionException ex) {
+      throw exceptionFactory.apply(ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+    }
+  }
+
+  private void flush() {
+    final Batch batch;
+    synchronized (this) {
+      if (currentBatch.changes.isEmpty()) {
+        return;
+      }
+      batch = currentBatch;
+      currentBatch = new Batch();
+    }
+
+    try {
+      final var packKey = batch.data.size() > 0 ? newPackKey() : null;
+      if (packKey != null) {
+        putObject(packKey, batch.data.toByteArray());
+      }
+
+      final var lines = new StringBuilder();
+      for (Change change : batch.changes) {
+        if (change.offset() < 0) {
+          lines.append(DELETE).append('\t').append(encode(change.fileName())).append('\n');
+        } else {
+          lines.append(PUT).append('\t').append(encode(change.fileName())).append('\t').append(packKey)
+              .append('\t').append(change.offset()).append('\t').append(change.length()).append('\n');
+        }
+      }
+      final var records = lines.toString();
+      journal.append(records, () -> records.lines().forEach(this::applyRecord));
+      batch.committed.complete(null);
+    } catch (Exception ex) {
+      log.error(String.format("Error while writing pack. Exception message: %s", ex.getMessage()));
+      batch.committed.completeExceptionally(ex);
+    }
+  }
+
+  private void compact() {
+    try {
+      flush();
+      if (!journal.acquireLease()) {
+        return;
+      }
+      // The live entries are those of the whole journal, not only of the records this instance applied so far
+      journal.refresh(this::resetIndex, this::applyRecord);
+      final var targetSize = packingConfigProperties.getPackTargetSize().toBytes();
+      final var candidates = packStats.entrySet().stream()
+          .filter(entry -> entry.getValue().garbageRatio() >= packingConfigProperties.getCompactionGarbageRatio())
+          .map(Map.Entry::getKey)
+          .sorted()
+          .toList();
+      if (candidates.isEmpty()) {
+        return;
+      }
+
+      final var liveEntriesByPack = index.entrySet().stream()
+          .filter(entry -> candidates.contains(entry.getValue().packKey()))
+          .collect(Collectors.groupingBy(entry -> entry.getValue().packKey()));
+
+      final var data = new ByteArrayOutputStream();
+      final var lines = new StringBuilder();
+      final var compactedPacks = new ArrayList<String>();
+      final var newPackKey = newPackKey();
+      var movedFiles = 0;
+      for (String packKey : candidates) {
+        if (data.size() >= targetSize) {
+          break;
+        }
+        final var liveEntries = liveEntriesByPack.getOrDefault(packKey, List.of());
+        if (!liveEntries.isEmpty()) {
+          final var packContent = getObjectBytes(packKey);
+          for (Map.Entry<String, PackEntry> liveEntry : liveEntries) {
+            // Only applied if the file is still at its old location, whatever was recorded meanwhile by others
+            final var entry = liveEntry.getValue();
+            lines.append(MOVE).append('\t').append(encode(liveEntry.getKey())).append('\t').append(entry.packKey())
+                .append('\t').append(entry.offset()).append('\t').append(newPackKey)
+                .append('\t').append(data.size()).append('\t').append(entry.length()).append('\n');
+            data.write(packContent, (int) entry.offset(), (int) entry.length());
+            movedFiles++;
+          }
+        }
+        compactedPacks.add(packKey);
+      }
+
+      if (data.size() > 0) {
+        putObject(newPackKey, data.toByteArray());
+        final var records = lines.toString();
+        journal.append(records, () -> records.lines().forEach(this::applyRecord));
+      }
+      compactedPacks.forEach(packStats::remove);
+      journal.checkpoint(this::snapshot);
+      // Instances still reading a deleted pack find the new location of their file in the journal
+      compactedPacks.forEach(this::deleteObject);
+      log.info(String.format(MSG_PACKS_COMPACTED, compactedPacks.size(), movedFiles));
+    } catch (Exception ex) {
+      log.error(String.format("Error while compacting packs. Exception message: %s", ex.getMessage()));
+    }
+  }
+
+  /**
+   * Refreshes the index from the journal on the pack writer thread, the only one to update the pack stats once the
+   * index is loaded, and returns whether it could.
+   */
+  private boolean refreshIndex() {
+    try {
+      packWriter.submit(S3WorkScheduler.inCurrentClass(() -> journal.refresh(this::resetIndex, this::applyRecord)))
+          .get();
+      return true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException ex) {
+      log.warn(String.format(S3IndexJournal.ERR_MSG_REFRESH_FAILED, packingConfigProperties.getPackPrefix(),
+          ex.getCause().getMessage()));
+      return false;
+    }
+  }
+
+  // Called on the pack writer thread
+  private void resetIndex() {
+    index.clear();
+    packStats.clear();
+  }
+
+  private String snapshot() {
+    final var lines = new StringBuilder();
+    packStats.forEach((packKey, stats) ->
+        lines.append(PACK_SIZE).append('\t').append(packKey).append('\t').append(stats.totalBytes).append('\n'));
+    index.forEach((fileName, entry) ->
+        lines.append(PUT).append('\t').append(encode(fileName)).append('\t').append(entry.packKey())
+            .append('\t').append(entry.offset()).append('\t').append(entry.length()).append('\n'));
+    return lines.toString();
+  }
+
+  private void applyRecord(final String record) {
+    final var fields = record.split("\t");
+    switch (fields[0]) {
+      case PACK_SIZE -> packStats.computeIfAbsent(fields[1], key -> new PackStats()).totalBytes =
+          Long.parseLong(fields[2]);
+      case PUT -> put(decode(fields[1]), new PackEntry(fields[2], Long.parseLong(fields[3]),
+          Long.parseLong(fields[4])), true);
+      case MOVE -> {
+        final var fileName = decode(fields[1]);
+        final var length = Long.parseLong(fields[6]);
+        final var current = index.get(fileName);
+        put(fileName, new PackEntry(fields[4], Long.parseLong(fields[5]), length), current != null
+            && current.equals(new PackEntry(fields[2], Long.parseLong(fields[3]), length)));
+      }
+      case DELETE -> release(index.remove(decode(fields[1])));
+      default -> throw new IndexJournalException("Unknown pack index record type " + fields[0]);
+    }
+  }
+
+  private void put(final String fileName, final PackEntry entry, final boolean live) {
+    final var stats = packStats.computeIfAbsent(entry.packKey(), key -> new PackStats());
+    // Pack sizes are only listed in snapshots: for regular segments they derive from the entries' positions
+    stats.totalBytes = Math.max(stats.totalBytes, entry.offset() + entry.length());
+    if (live) {
+      stats.liveBytes += entry.length();
+      release(index.put(fileName, entry));
+    }
+  }
+
+  private void release(final PackEntry previous) {
+    if (previous == null) {
+      return;
+    }
+    final var stats = packStats.get(previous.packKey());
+    if (stats != null) {
+      stats.liveBytes -= previous.length();
+    }
+  }
+
+  private void putObject(final String key, final byte[] content) {
+    final var request = PutObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    s3Client.putObject(request, RequestBody.fromBytes(content));
+  }
+
+  private byte[] getObjectBytes(final String key) {
+    final var request = GetObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    return s3Client.getObjectAsBytes(request).asByteArray();
+  }
+
+  private void deleteObject(final String key) {
+    final var request = DeleteObjectRequest.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .key(key)
+        .build();
+    s3Client.deleteObject(request);
+  }
+
+  private String newPackKey() {
+    return packingConfigProperties.getPackPrefix() + "data/" + UUID.randomUUID() + PACK_SUFFIX;
+  }
+
+  private static String encode(final String fileName) {
+    return URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(final String encodedFileName) {
+    return URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+  }
+
+  private record Change(String fileName, long offset, long length) {
+
+  }
+
+  private static final class Batch {
+
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private final List<Change> changes = new ArrayList<>();
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+  }
+
+  private static final class PackStats {
+
+    private long totalBytes;
+    private long liveBytes;
+
+    private double garbageRatio() {
+      return totalBytes == 0 ? 1 : (double) (totalBytes - liveBytes) / totalBytes;
+    }
+
+  }
+
+}
@@ -0,0 +1,349 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.marcofaccani.awss3.config.PeerCacheConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.ObjectCopyCache.Key;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Shares the files read across the instances of the service: the instances ({@code members}, and the addresses
+ * {@code dns-name} resolves to) form a {@link ConsistentHashRing}, the owner of a file reading it from S3 and keeping a
+ * copy of it for {@code ttl} if not larger than {@code max-object-size} ({@code cache-size} in total, least recently
+ * read evicted first), while the other instances read it from the owner over HTTP. Concurrent reads of a file missing
+ * on its owner wait for a single S3 GET. Should the owner fail, the file is read from S3.
+ * <p>
+ * The copies of the files written or deleted through any instance are dropped as the {@link FileChangeBus} tells so,
+ * every copy if changes were missed.
+ * <p>
+ * When disabled, files are read from S3 right away.
+ */
+@Log4j2
+@Component
+public class PeerCache {
+
+  public static final String PEER_PATH = "/internal/peer/files/";
+  public static final String METRIC_GETS = "s3.peer.cache.gets";
+  public static final String METRIC_REQUESTS = "s3.peer.cache.requests";
+  public static final String METRIC_SIZE = "s3.peer.cache.size";
+  public static final String METRIC_MEMBERS = "s3.peer.ring.members";
+  public static final String ROUTE_OWNED = "owned";
+  public static final String ROUTE_PEER = "peer";
+  public static final String ROUTE_FALLBACK = "fallback";
+  public static final String MSG_RING_CHANGED = "Peer ring members changed to %s";
+  public static final String ERR_MSG_SELF_REQUIRED = "app.aws.s3.peers.self must be set to the URL the other instances reach this one at";
+  public static final String ERR_MSG_PEER_FAILED = "Reading file %s from peer %s failed, reading it from S3. Exception message: %s";
+  public static final String ERR_MSG_PEER_STATUS = "Peer answered with status %d";
+  public static final String ERR_MSG_MEMBER_UNRESOLVED = "Resolving peer %s failed, its requests are refused. Exception message: %s";
+  public static final String ERR_MSG_DNS_FAILED = "Resolving peers %s failed, keeping the members %s. Exception message: %s";
+
+  private final FileStorageService fileStorageService;
+  private final PeerCacheConfigProperties peerCacheConfigProperties;
+  private final MeterRegistry meterRegistry;
+  private final HttpClient httpClient;
+  private final ScheduledExecutorService dnsRefresher;
+  private volatile ConsistentHashRing ring;
+  private volatile Set<InetAddress> memberAddresses = Set.of();
+  private final ObjectCopyCache objects;
+  private final Map<Key, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+  private final Counter hits;
+  private final Counter misses;
+
+  public PeerCache(final FileStorageService fileStorageService,
+      final PeerCacheConfigProperties peerCacheConfigProperties, final FileChangeBus fileChangeBus,
+      final MeterRegistry meterRegistry) {
+    this.fileStorageService = fileStorageService;
+    this.peerCacheConfigProperties = peerCacheConfigProperties;
+    this.meterRegistry = meterRegistry;
+    this.hits = requestsCounter("hit");
+    this.misses = requestsCounter("miss");
+    if (!peerCacheConfigProperties.isEnabled()) {
+      this.httpClient = null;
+      this.dnsRefresher = null;
+      this.objects = null;
+      return;
+    }
+    final var self = peerCacheConfigProperties.getSelf();
+    if (self == null || self.isBlank()) {
+      throw new IllegalArgumentException(ERR_MSG_SELF_REQUIRED);
+    }
+    this.objects = new ObjectCopyCache(peerCacheConfigProperties.getCacheSize().toBytes(),
+        peerCacheConfigProperties.getMaxObjectSize().toBytes(), peerCacheConfigProperties.getTtl());
+    this.httpClient = HttpClient.newBuilder()
+        .connectTimeout(peerCacheConfigProperties.getTimeout())
+        .build();
+    updateRing(Set.of());
+    fileChangeBus.addListener(new FileChangeBus.Listener() {
+      @Override
+      public void onChange(final FileChange change) {
+        objects.evict(change.fileName());
+      }
+
+      @Override
+      public void onChangesMissed() {
+        objects.clear();
+      }
+    });
+    Gauge.builder(METRIC_MEMBERS, this, peerCache -> peerCache.ring.nodes().size())
+        .description("Instances sharing their cache of files, this one included")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_SIZE, objects, ObjectCopyCache::size)
+        .description("Bytes of the files kept by their owner instance")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    final var dnsName = peerCacheConfigProperties.getDnsName();
+    if (dnsName == null || dnsName.isBlank()) {
+      this.dnsRefresher = null;
+      return;
+    }
+    this.dnsRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable, "peer-dns-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dnsRefresher.scheduleWithFixedDelay(this::resolveMembers, 0,
+        peerCacheConfigProperties.getDnsRefreshInterval().toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    if (dnsRefresher != null) {
+      dnsRefresher.shutdownNow();
+    }
+  }
+
+  /**
+   * Same as {@link FileStorageService#getFile(String, List)}, the accepted encodings being ignored if empty, the file
+   * being read from its owner instance.
+   */
+  public ResponseInputStream<GetObjectResponse> getFile(final String fileName, final List<String> acceptedEncodings) {
+    final var key = new Key(fileName, List.copyOf(acceptedEncodings));
+    if (!peerCacheConfigProperties.isEnabled()) {
+      return fetch(key);
+    }
+    final var owner = ring.owner(fileName);
+    if (owner.equals(peerCacheConfigProperties.getSelf())) {
+      getsCounter(ROUTE_OWNED).increment();
+      return getOwned(key);
+    }
+    try {
+      final var object = fetchFromPeer(owner, key);
+      getsCounter(ROUTE_PEER).increment();
+      return object;
+    } catch (NoSuchKeyException ex) {
+      throw ex;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new S3GetObjectException(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, fileName,
+          ex.getMessage()));
+    } catch (IOException | RuntimeException ex) {
+      log.warn(String.format(ERR_MSG_PEER_FAILED, fileName, owner, ex.getMessage()));
+      getsCounter(ROUTE_FALLBACK).increment();
+      return fetch(key);
+    }
+  }
+
+  /**
+   * Tells whether this instance owns a file, i.e. is the one keeping a copy of it as it is read; never if disabled.
+   */
+  public boolean isOwner(final String fileName) {
+    return peerCacheConfigProperties.isEnabled() && ring.owner(fileName).equals(peerCacheConfigProperties.getSelf());
+  }
+
+  /**
+   * The URLs of the other instances of the ring, none if disabled.
+   */
+  public Set<String> getOtherMembers() {
+    if (!peerCacheConfigProperties.isEnabled()) {
+      return Set.of();
+    }
+    return ring.nodes().stream()
+        .filter(member -> !member.equals(peerCacheConfigProperties.getSelf()))
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Tells whether a request comes from an instance of the ring, by its remote address; never if disabled.
+   */
+  public boolean isMember(final String remoteAddress) {
+    if (!peerCacheConfigProperties.isEnabled() || remoteAddress == null) {
+      return false;
+    }
+    try {
+      return memberAddresses.contains(InetAddress.getByName(remoteAddress));
+    } catch (UnknownHostException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads a file this instance is asked for by the other ones, as its owner.
+   */
+  public ResponseInputStream<GetObjectResponse> getOwnedFile(final String fileName,
+      final List<String> acceptedEncodings) {
+    final var key = new Key(fileName, List.copyOf(acceptedEncodings));
+    return peerCacheConfigProperties.isEnabled() ? getOwned(key) : fetch(key);
+  }
+
+  private ResponseInputStream<GetObjectResponse> getOwned(final Key key) {
+    final var cachedObject = objects.get(key);
+    if (cachedObject != null) {
+      hits.increment();
+      return cachedObject;
+    }
+    misses.increment();
+
+    final var load = new CompletableFuture<Void>();
+    final var pending = loading.putIfAbsent(key, load);
+    if (pending != null) {
+      try {
+        pending.join();
+        final var loaded = objects.get(key);
+        if (loaded != null) {
+          return loaded;
+        }
+      } catch (CompletionException ex) {
+        // Read it again, failing with the error of this read
+      }
+      return fetch(key);
+    }
+    try {
+      final var fetchGeneration = objects.generation();
+      return objects.keepCopy(key, fetch(key), fetchGeneration);
+    } catch (RuntimeException ex) {
+      load.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      load.complete(null);
+      loading.remove(key, load);
+    }
+  }
+
+  private ResponseInputStream<GetObjectResponse> fetch(final Key key) {
+    return key.acceptedEncodings().isEmpty()
+        ? fileStorageService.getFile(key.fileName())
+        : fileStorageService.getFile(key.fileName(), key.acceptedEncodings());
+  }
+
+  private ResponseInputStream<GetObjectResponse> fetchFromPeer(final String peer, final Key key)
+      throws IOException, InterruptedException {
+    final var path = URLEncoder.encode(key.fileName(), StandardCharsets.UTF_8).replace("+", "%20");
+    final var request = HttpRequest.newBuilder(URI.create(peer + PEER_PATH + path))
+        .timeout(peerCacheConfigProperties.getTimeout())
+        .GET();
+    if (!key.acceptedEncodings().isEmpty()) {
+      request.header(HttpHeaders.ACCEPT_ENCODING, String.join(", ", key.acceptedEncodings()));
+    }
+    final var response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    if (response.statusCode() != 200) {
+      response.body().close();
+      if (response.statusCode() == 404) {
+        throw NoSuchKeyException.builder()
+            .message(String.format(FileStorageServiceImpl.ERR_MSG_RETRIEVE_FAILED, key.fileName(),
+                String.format(ERR_MSG_PEER_STATUS, 404)))
+            .build();
+      }
+      throw new IOException(String.format(ERR_MSG_PEER_STATUS, response.statusCode()));
+    }
+    final var headers = response.headers();
+    final var objectResponse = GetObjectResponse.builder()
+        .contentLength(headers.firstValueAsLong(HttpHeaders.CONTENT_LENGTH).stream().boxed().findFirst()
+            .orElse(null))
+        .contentEncoding(headers.firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null))
+        .contentType(headers.firstValue(HttpHeaders.CONTENT_TYPE).orElse(null))
+        .build();
+    return new ResponseInputStream<>(objectResponse, AbortableInputStream.create(response.body()));
+  }
+
+  private void resolveMembers() {
+    final var dnsName = peerCacheConfigProperties.getDnsName();
+    try {
+      updateRing(Arrays.stream(InetAddress.getAllByName(dnsName))
+          .map(address -> address instanceof Inet6Address
+              ? "[" + address.getHostAddress() + "]"
+              : address.getHostAddress())
+          .map(host -> "http://" + host + ":" + peerCacheConfigProperties.getDnsPort())
+          .collect(Collectors.toSet()));
+    } catch (UnknownHostException ex) {
+      log.warn(String.format(ERR_MSG_DNS_FAILED, dnsName, ring.nodes(), ex.getMessage()));
+    }
+  }
+
+  private synchronized void updateRing(final Set<String> resolvedMembers) {
+    final var staticMembers = peerCacheConfigProperties.getMembers() == null
+        ? List.<String>of()
+        : peerCacheConfigProperties.getMembers();
+    final var members = Stream.of(Stream.of(peerCacheConfigProperties.getSelf()), staticMembers.stream(),
+            resolvedMembers.stream())
+        .flatMap(stream -> stream)
+        .filter(member -> !member.isBlank())
+        .collect(Collectors.toSet());
+    if (ring == null || !ring.nodes().equals(members)) {
+      ring = new ConsistentHashRing(members, peerCacheConfigProperties.getVirtualNodes());
+      memberAddresses = resolveAddresses(members);
+      log.info(String.format(MSG_RING_CHANGED, ring.nodes()));
+    }
+  }
+
+  private static Set<InetAddress> resolveAddresses(final Set<String> members) {
+    final var addresses = new HashSet<InetAddress>();
+    for (var member : members) {
+      try {
+        addresses.addAll(Arrays.asList(InetAddress.getAllByName(URI.create(member).getHost())));
+      } catch (UnknownHostException | IllegalArgumentException ex) {
+        log.warn(String.format(ERR_MSG_MEMBER_UNRESOLVED, member, ex.getMessage()));
+      }
+    }
+    return Set.copyOf(addresses);
+  }
+
+  private Counter getsCounter(final String route) {
+    return Counter.builder(METRIC_GETS)
+        .description("Files read, by the instance owning them or from their owner")
+        .tag("route", route)
+        .register(meterRegistry);
+  }
+
+  private Counter requestsCounter(final String result) {
+    return Counter.builder(METRIC_REQUESTS)
+        .description("Files read by their owner instance, found in its cache or not")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Streams the concatenation of a sequence of chunks, fetching up to {@code readAhead} chunks in parallel ahead of the
+ * one being read.
+ */
+public class ReadAheadChunkInputStream<T> extends InputStream {
+
+  private final Iterator<T> chunks;
+  private final Function<T, byte[]> fetcher;
+  private final ExecutorService executor;
+  private final int readAhead;
+  private final Deque<Future<byte[]>> window = new ArrayDeque<>();
+
+  private byte[] current = new byte[0];
+  private int position;
+
+  public ReadAheadChunkInputStream(final Iterator<T> chunks, final Function<T, byte[]> fetcher,
+      final ExecutorService executor, final int readAhead) {
+    this.chunks = chunks;
+    this.fetcher = fetcher;
+    this.executor = executor;
+    this.readAhead = Math.max(1, readAhead);
+    fillWindow();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    final var read = Math.min(length, current.length - position);
+    System.arraycopy(current, position, bytes, offset, read);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() {
+    window.forEach(future -> future.cancel(true));
+    window.clear();
+  }
+
+  private boolean ensureAvailable() throws IOException {
+    while (position == current.length) {
+      final var next = window.poll();
+      if (next == null) {
+        return false;
+      }
+      fillWindow();
+      try {
+        current = next.get();
+        position = 0;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while fetching chunk", ex);
+      } catch (ExecutionException ex) {
+        close();
+        throw new IOException("Error while fetching chunk: " + ex.getCause().getMessage(), ex.getCause());
+      }
+    }
+    return true;
+  }
+
+  private void fillWindow() {
+    while (window.size() < readAhead && chunks.hasNext()) {
+      final var chunk = chunks.next();
+      window.add(executor.submit(S3WorkScheduler.inCurrentClass(() -> fetcher.apply(chunk))));
+    }
+  }
+
+}
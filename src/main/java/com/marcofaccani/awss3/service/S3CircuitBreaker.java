@@ -0,0 +1,262 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLException;
+
+import com.marcofaccani.awss3.config.ResilienceConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3CircuitOpenException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+/**
+ * Circuit breaker around the calls of the {@code S3Client}, as an interceptor of the SDK.
+ * <p>
+ * While closed, the outcome of the last {@code sliding-window-size} calls is recorded; once {@code minimum-calls} were
+ * and the ratio of failed or slow calls reaches {@code failure-rate-threshold}, the circuit opens: for
+ * {@code open-duration}, calls fail right away with {@link S3CircuitOpenException} rather than waiting on S3 and
+ * adding to its load. Then {@code half-open-calls} trial calls are let through, closing the circuit if they all succeed
+ * and opening it again otherwise. Server errors, throttling, timeouts and network errors of the HTTP client are
+ * failures; client errors such as a missing key mean that S3 works.
+ * <p>
+ * Calls are timed from their first transmission, the time they wait to be admitted by the {@link S3WorkScheduler} or
+ * for a connection of the HTTP pool not making them slow; calls failing before being transmitted, or timing out waiting
+ * for a connection, are not recorded: they are local errors telling nothing of S3.
+ */
+@Log4j2
+@Component
+public class S3CircuitBreaker implements ExecutionInterceptor {
+
+  public static final String METRIC_STATE = "s3.circuit.breaker.state";
+  public static final String METRIC_REJECTED = "s3.circuit.breaker.rejected";
+  public static final String MSG_STATE_CHANGED = "S3 circuit breaker %s -> %s";
+  public static final String ERR_MSG_CIRCUIT_OPEN = "S3 call %s rejected: the circuit breaker is open";
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final ExecutionAttribute<Boolean> PERMITTED = new ExecutionAttribute<>("S3CircuitBreakerPermitted");
+  private static final ExecutionAttribute<Long> CALL_START = new ExecutionAttribute<>("S3CircuitBreakerCallStart");
+  private static final ExecutionAttribute<Long> CONNECTION_WAIT = new ExecutionAttribute<>(
+      "S3CircuitBreakerConnectionWait");
+  private static final ExecutionAttribute<MetricCollector> ATTEMPT_METRICS = new ExecutionAttribute<>(
+      "S3CircuitBreakerAttemptMetrics");
+
+  private final ResilienceConfigProperties resilienceConfigProperties;
+  private final Counter rejected;
+  private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+  // Outcomes of the last calls while closed, true for a failure
+  private final boolean[] window;
+  private int windowCalls;
+  private int windowFailures;
+  private int windowNext;
+  private volatile State state = State.CLOSED;
+  private long openedAt;
+  private int halfOpenPermits;
+  private int halfOpenSuccesses;
+
+  public S3CircuitBreaker(final ResilienceConfigProperties resilienceConfigProperties,
+      final MeterRegistry meterRegistry) {
+    this.resilienceConfigProperties = resilienceConfigProperties;
+    this.window = new boolean[Math.max(1, resilienceConfigProperties.getSlidingWindowSize())];
+    this.rejected = Counter.builder(METRIC_REJECTED)
+        .description("S3 calls failed right away as the circuit breaker was open")
+        .register(meterRegistry);
+    for (var gaugeState : State.values()) {
+      Gauge.builder(METRIC_STATE, this, breaker -> breaker.state == gaugeState ? 1 : 0)
+          .description("State of the circuit breaker around the S3 calls, 1 for the current one")
+          .tag("state", gaugeState.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry);
+    }
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Registers a listener called on each state change, under the lock of the breaker: it must return quickly.
+   */
+  public void addListener(final Consumer<State> listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void beforeExecution(final Context.BeforeExecution context, final ExecutionAttributes executionAttributes) {
+    if (!resilienceConfigProperties.isCircuitBreakerEnabled()) {
+      return;
+    }
+    if (!tryAcquirePermission()) {
+      rejected.increment();
+      throw new S3CircuitOpenException(String.format(ERR_MSG_CIRCUIT_OPEN,
+          executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME)));
+    }
+    executionAttributes.putAttribute(PERMITTED, true);
+  }
+
+  @Override
+  public void beforeTransmission(final Context.BeforeTransmission context,
+      final ExecutionAttributes executionAttributes) {
+    if (executionAttributes.getAttribute(PERMITTED) == null) {
+      return;
+    }
+    // Retries are part of the call
+    if (executionAttributes.getAttribute(CALL_START) == null) {
+      executionAttributes.putAttribute(CALL_START, System.nanoTime());
+    }
+    executionAttributes.putAttribute(CONNECTION_WAIT, connectionWait(executionAttributes));
+    executionAttributes.putAttribute(ATTEMPT_METRICS,
+        executionAttributes.getAttribute(SdkExecutionAttribute.API_CALL_ATTEMPT_METRIC_COLLECTOR));
+  }
+
+  @Override
+  public void afterExecution(final Context.AfterExecution context, final ExecutionAttributes executionAttributes) {
+    final var callStart = executionAttributes.getAttribute(CALL_START);
+    if (callStart != null) {
+      final var duration = System.nanoTime() - callStart - connectionWait(executionAttributes);
+      onResult(duration > resilienceConfigProperties.getSlowCallDuration().toNanos());
+    }
+  }
+
+  @Override
+  public void onExecutionFailure(final Context.FailedExecution context,
+      final ExecutionAttributes executionAttributes) {
+    // Calls rejected by the breaker are not recorded, nor those failing before being sent, e.g. while waiting to be
+    // admitted by the scheduler or for a connection of the pool, which then give their trial permission back
+    if (executionAttributes.getAttribute(CALL_START) != null && !isConnectionPoolTimeout(context.exception())) {
+      onResult(isFailure(context.exception()));
+    } else if (executionAttributes.getAttribute(PERMITTED) != null) {
+      releasePermission();
+    }
+  }
+
+  /**
+   * Time the attempts of the call transmitted so far waited for a connection of the HTTP pool, as reported by the HTTP
+   * client in the metrics of each attempt.
+   */
+  private static long connectionWait(final ExecutionAttributes executionAttributes) {
+    final var previousAttempts = executionAttributes.getAttribute(CONNECTION_WAIT);
+    final var attemptMetrics = executionAttributes.getAttribute(ATTEMPT_METRICS);
+    final var lastAttempt = attemptMetrics == null ? 0 : SdkMetricsPublisher.values(attemptMetrics.collect(),
+        HttpMetric.CONCURRENCY_ACQUIRE_DURATION).mapToLong(Duration::toNanos).sum();
+    return (previousAttempts == null ? 0 : previousAttempts) + lastAttempt;
+  }
+
+  private static boolean isConnectionPoolTimeout(final Throwable exception) {
+    for (var cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ConnectionPoolTimeoutException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isFailure(final Throwable exception) {
+    if (exception instanceof SdkServiceException serviceException) {
+      return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+    }
+    var cause = exception;
+    while (cause instanceof SdkClientException) {
+      if (cause instanceof ApiCallTimeoutException || cause instanceof ApiCallAttemptTimeoutException) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    // Other exceptions, such as an upload body failing to be read, are errors of the caller
+    return cause != exception && (cause instanceof SocketException || cause instanceof InterruptedIOException
+        || cause instanceof UnknownHostException || cause instanceof SSLException
+        || cause instanceof NoHttpResponseException);
+  }
+
+  private synchronized boolean tryAcquirePermission() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openedAt < resilienceConfigProperties.getOpenDuration().toNanos()) {
+        return false;
+      }
+      halfOpenPermits = resilienceConfigProperties.getHalfOpenCalls();
+      halfOpenSuccesses = 0;
+      transition(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (halfOpenPermits == 0) {
+        return false;
+      }
+      halfOpenPermits--;
+    }
+    return true;
+  }
+
+  private synchronized void releasePermission() {
+    if (state == State.HALF_OPEN) {
+      halfOpenPermits = Math.min(halfOpenPermits + 1,
+          resilienceConfigProperties.getHalfOpenCalls() - halfOpenSuccesses);
+    }
+  }
+
+  private synchronized void onResult(final boolean failure) {
+    switch (state) {
+      case CLOSED -> {
+        if (windowCalls == window.length) {
+          windowFailures -= window[windowNext] ? 1 : 0;
+        } else {
+          windowCalls++;
+        }
+        window[windowNext] = failure;
+        windowFailures += failure ? 1 : 0;
+        windowNext = (windowNext + 1) % window.length;
+        if (windowCalls >= resilienceConfigProperties.getMinimumCalls()
+            && windowFailures >= resilienceConfigProperties.getFailureRateThreshold() * windowCalls) {
+          open();
+        }
+      }
+      case HALF_OPEN -> {
+        if (failure) {
+          open();
+        } else if (++halfOpenSuccesses >= resilienceConfigProperties.getHalfOpenCalls()) {
+          windowCalls = 0;
+          windowFailures = 0;
+          windowNext = 0;
+          transition(State.CLOSED);
+        }
+      }
+      // Calls let through before the circuit opened
+      case OPEN -> {
+      }
+    }
+  }
+
+  private void open() {
+    openedAt = System.nanoTime();
+    transition(State.OPEN);
+  }
+
+  private void transition(final State newState) {
+    log.warn(String.format(MSG_STATE_CHANGED, state, newState));
+    state = newState;
+    listeners.forEach(listener -> listener.accept(newState));
+  }
+
+}
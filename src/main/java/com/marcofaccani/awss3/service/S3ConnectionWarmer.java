@@ -0,0 +1,58 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.HttpClientConfigProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+
+/**
+ * Opens {@code warmup-connections} connections of the HTTP pool once {@link BucketBootstrap} verified the bucket, with
+ * concurrent HEAD requests on it, so that the first requests served don't pay for the TCP and TLS handshakes.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class S3ConnectionWarmer {
+
+  public static final String MSG_WARMED_UP = "Warmed up %d connection(s) to S3 in %d ms, %d request(s) failed";
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final HttpClientConfigProperties httpClientConfigProperties;
+  private final S3Client s3Client;
+
+  public void warmUp() {
+    final var connections = Math.min(httpClientConfigProperties.getWarmupConnections(),
+        httpClientConfigProperties.getMaxConnections());
+    if (connections <= 0) {
+      return;
+    }
+    final var request = HeadBucketRequest.builder().bucket(awsS3ConfigProperties.getBucketName()).build();
+    final var failures = new AtomicInteger();
+    final var start = System.currentTimeMillis();
+    final var executor = Executors.newFixedThreadPool(connections);
+    try {
+      // Each request holds a connection of its own as long as they all run at once
+      CompletableFuture.allOf(IntStream.range(0, connections)
+          .mapToObj(i -> CompletableFuture.runAsync(() -> {
+            try {
+              s3Client.headBucket(request);
+            } catch (Exception ex) {
+              failures.incrementAndGet();
+            }
+          }, executor))
+          .toArray(CompletableFuture[]::new)).join();
+    } finally {
+      executor.shutdown();
+    }
+    log.info(String.format(MSG_WARMED_UP, connections, System.currentTimeMillis() - start, failures.get()));
+  }
+
+}
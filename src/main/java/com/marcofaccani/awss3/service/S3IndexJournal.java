@@ -0,0 +1,385 @@
+package com.marcofaccani.awss3.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.marcofaccani.awss3.exceptions.IndexJournalException;
+import lombok.extern.log4j.Log4j2;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Append-only journal of text records stored in S3, used by the storage modes to persist their indexes.
+ *
+ * <p>Each append is written as a new segment object named after an increasing sequence number and the id of the
+ * writing instance, so that instances sharing a bucket never overwrite each other's segments; concurrent appends are
+ * grouped in the same segment (the first caller writes the records of everybody waiting behind it). A checkpoint
+ * writes a snapshot holding the whole state along with the keys of the segments it covers, then deletes them; loading
+ * the journal means replaying the latest snapshot and every segment it does not cover, including those another
+ * instance wrote meanwhile with a lower sequence number. Records must therefore be idempotent.
+ *
+ * <p>Instances sharing the journal pick up the records of each other by {@link #refresh(Runnable, Consumer) refreshing}
+ * it, typically when told by the {@link FileChangeBus} that another instance changed a file. Only the holder of the
+ * {@link #acquireLease() maintenance lease} checkpoints the journal, so that no two snapshots ever supersede each other.
+ */
+@Log4j2
+public class S3IndexJournal {
+
+  public static final String SEGMENT_SUFFIX = ".idx";
+  public static final String SNAPSHOT_SUFFIX = ".snapshot";
+  public static final String ERR_MSG_LOAD_FAILED = "Error while loading index segment %s. Exception message: %s";
+  public static final String ERR_MSG_REFRESH_FAILED = "Error while refreshing index %s. Exception message: %s";
+  public static final String LEASE_KEY = "maintenance.lease";
+  public static final Duration LEASE_DURATION = Duration.ofMinutes(10);
+  public static final String MSG_LEASE_ACQUIRED = "Maintenance lease of index %s acquired";
+
+  private static final int SEQUENCE_DIGITS = 20;
+
+  private final S3Client s3Client;
+  private final String bucketName;
+  private final String prefix;
+  private final String instanceId = UUID.randomUUID().toString();
+  private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  // Guarded by writeLock
+  private final List<String> segmentKeys = new ArrayList<>();
+  private Set<String> coveredKeys = Set.of();
+  private long nextSequence;
+  private int segmentsSinceCheckpoint;
+
+  private final Object leaseLock = new Object();
+  // Guarded by leaseLock: the lease as last read or written
+  private boolean leaseHeld;
+  private long leaseExpiry;
+
+  // Guarded by this
+  private StringBuilder pendingRecords = new StringBuilder();
+  private List<Runnable> pendingActions = new ArrayList<>();
+  private CompletableFuture<Void> pendingCommit = new CompletableFuture<>();
+
+  public S3IndexJournal(final S3Client s3Client, final String bucketName, final String prefix) {
+    this.s3Client = s3Client;
+    this.bucketName = bucketName;
+    this.prefix = prefix;
+  }
+
+  public void load(final Consumer<String> recordConsumer) {
+    final var keys = listKeys();
+    writeLock.lock();
+    try {
+      replay(keys, () -> {
+      }, recordConsumer);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Applies the records other instances sharing the journal appended since it was loaded or last refreshed. When they
+   * cannot simply follow the records applied so far (another instance wrote a snapshot, or a segment sorting before the
+   * last one applied), {@code reset} is run and the whole journal replayed, as {@link #load(Consumer)} would.
+   */
+  public void refresh(final Runnable reset, final Consumer<String> recordConsumer) {
+    final var keys = listKeys();
+    writeLock.lock();
+    try {
+      final var snapshotKey = latestSnapshot(keys);
+      final var newKeys = keys.stream()
+          .filter(key -> key.endsWith(SEGMENT_SUFFIX) || key.equals(snapshotKey))
+          .filter(key -> !segmentKeys.contains(key) && !coveredKeys.contains(key))
+          .toList();
+      if (newKeys.isEmpty()) {
+        return;
+      }
+      final var lastAppliedKey = segmentKeys.isEmpty() ? "" : segmentKeys.get(segmentKeys.size() - 1);
+      if (newKeys.contains(snapshotKey) || newKeys.get(0).compareTo(lastAppliedKey) < 0) {
+        replay(keys, reset, recordConsumer);
+        return;
+      }
+      final var records = newKeys.stream().map(this::readRecords).toList();
+      records.forEach(segmentRecords -> segmentRecords.forEach(recordConsumer));
+      segmentKeys.addAll(newKeys);
+      segmentsSinceCheckpoint += newKeys.size();
+      advanceSequence(keys);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // Called with the write lock held: replays the latest snapshot, then the segments it does not cover in key order
+  private void replay(final List<String> keys, final Runnable reset, final Consumer<String> recordConsumer) {
+    final var snapshotKey = latestSnapshot(keys);
+    final var snapshot = snapshotKey == null ? List.<String>of() : readRecords(snapshotKey);
+    final var coveredCount = snapshot.isEmpty() ? 0 : Integer.parseInt(snapshot.get(0));
+    final var covered = snapshot.isEmpty() ? Set.<String>of() : Set.copyOf(snapshot.subList(1, 1 + coveredCount));
+    final var segments = keys.stream()
+        .filter(key -> key.endsWith(SEGMENT_SUFFIX) && !covered.contains(key))
+        .toList();
+    // Read before applying any, for the state not to be left half reset if one cannot be read
+    final var records = new ArrayList<List<String>>();
+    records.add(snapshot.isEmpty() ? snapshot : snapshot.subList(1 + coveredCount, snapshot.size()));
+    segments.forEach(key -> records.add(readRecords(key)));
+
+    reset.run();
+    segmentKeys.clear();
+    if (snapshotKey != null) {
+      segmentKeys.add(snapshotKey);
+    }
+    segmentKeys.addAll(segments);
+    segmentKeys.sort(null);
+    coveredKeys = covered;
+    segmentsSinceCheckpoint = segments.size();
+    records.forEach(segmentRecords -> segmentRecords.forEach(recordConsumer));
+    advanceSequence(keys);
+  }
+
+  /**
+   * Runs {@link #refresh(Runnable, Consumer)} as background work on {@code executor}, unless a refresh is already
+   * waiting to run there, the records appended meanwhile being applied by that one.
+   */
+  public void requestRefresh(final Executor executor, final Runnable reset, final Consumer<String> recordConsumer) {
+    if (!refreshRequested.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(S3WorkScheduler.background(() -> {
+        refreshRequested.set(false);
+        try {
+          refresh(reset, recordConsumer);
+        } catch (Exception ex) {
+          // Refreshed again on the next change of another instance
+          log.warn(String.format(ERR_MSG_REFRESH_FAILED, prefix, ex.getMessage()));
+        }
+      }));
+    } catch (RejectedExecutionException ex) {
+      // Shutting down
+      refreshRequested.set(false);
+    }
+  }
+
+  private List<String> listKeys() {
+    final var request = ListObjectsV2Request.builder()
+        .bucket(bucketName)
+        .prefix(prefix)
+        .build();
+    return s3Client.listObjectsV2Paginator(request).contents().stream()
+        .map(S3Object::key)
+        .filter(key -> key.endsWith(SEGMENT_SUFFIX) || key.endsWith(SNAPSHOT_SUFFIX))
+        .sorted()
+        .toList();
+  }
+
+  private static String latestSnapshot(final List<String> keys) {
+    String latestSnapshot = null;
+    for (String key : keys) {
+      if (key.endsWith(SNAPSHOT_SUFFIX)) {
+        latestSnapshot = key;
+      }
+    }
+    return latestSnapshot;
+  }
+
+  private List<String> readRecords(final String key) {
+    try {
+      final var getRequest = GetObjectRequest.builder().bucket(bucketName).key(key).build();
+      return s3Client.getObjectAsBytes(getRequest).asString(StandardCharsets.UTF_8).lines()
+          .filter(line -> !line.isEmpty())
+          .toList();
+    } catch (Exception ex) {
+      throw new IndexJournalException(String.format(ERR_MSG_LOAD_FAILED, key, ex.getMessage()));
+    }
+  }
+
+  // Called with the write lock held: the segments written next sort after those of the other instances
+  private void advanceSequence(final List<String> keys) {
+    if (!keys.isEmpty()) {
+      final var lastKey = keys.get(keys.size() - 1);
+      nextSequence = Math.max(nextSequence,
+          Long.parseLong(lastKey.substring(prefix.length(), prefix.length() + SEQUENCE_DIGITS)) + 1);
+    }
+  }
+
+  /**
+   * Appends the given records, one per line, and returns once they are persisted.
+   */
+  public void append(final String records) {
+    append(records, () -> {
+    });
+  }
+
+  /**
+   * Same as {@link #append(String)}, running the given action (typically the update of the in-memory state described
+   * by the records) once the records are persisted, in journal order and before any checkpoint. The action is not run
+   * when the records could not be persisted.
+   */
+  public void append(final String records, final Runnable onCommit) {
+    final CompletableFuture<Void> commit;
+    synchronized (this) {
+      pendingRecords.append(records);
+      pendingActions.add(onCommit);
+      commit = pendingCommit;
+    }
+
+    writeLock.lock();
+    try {
+      if (!commit.isDone()) {
+        writePending();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+
+    try {
+      commit.join();
+    } catch (CompletionException ex) {
+      throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+    }
+  }
+
+  private void writePending() {
+    final String records;
+    final List<Runnable> actions;
+    final CompletableFuture<Void> commit;
+    synchronized (this) {
+      records = pendingRecords.toString();
+      actions = pendingActions;
+      commit = pendingCommit;
+      pendingRecords = new StringBuilder();
+      pendingActions = new ArrayList<>();
+      pendingCommit = new CompletableFuture<>();
+    }
+
+    try {
+      write(SEGMENT_SUFFIX, records);
+      segmentsSinceCheckpoint++;
+      actions.forEach(Runnable::run);
+      commit.complete(null);
+    } catch (Exception ex) {
+      commit.completeExceptionally(ex);
+    }
+  }
+
+  /**
+   * Writes a snapshot of the whole state and deletes the segments and snapshots it supersedes, returning whether it
+   * did: nothing is written unless this instance holds the {@link #acquireLease() maintenance lease}. The snapshot is
+   * taken while no segment can be written, so that every deleted segment is covered by it; segments of other instances
+   * not applied yet are neither covered nor deleted, and replayed after the snapshot.
+   */
+  public boolean checkpoint(final Supplier<String> snapshot) {
+    if (!acquireLease()) {
+      return false;
+    }
+    final var keys = listKeys();
+    writeLock.lock();
+    try {
+      // Also covers what a previous checkpoint failed to delete, for it not to be replayed after the new snapshot
+      final var obsoleteKeys = keys.stream()
+          .filter(coveredKeys::contains)
+          .collect(Collectors.toCollection(TreeSet::new));
+      obsoleteKeys.addAll(segmentKeys);
+      final var content = new StringBuilder().append(obsoleteKeys.size()).append('\n');
+      obsoleteKeys.forEach(key -> content.append(key).append('\n'));
+      write(SNAPSHOT_SUFFIX, content.append(snapshot.get()).toString());
+      segmentKeys.removeAll(obsoleteKeys);
+      coveredKeys = Set.copyOf(obsoleteKeys);
+      segmentsSinceCheckpoint = 0;
+      obsoleteKeys.forEach(key -> s3Client.deleteObject(
+          DeleteObjectRequest.builder().bucket(bucketName).key(key).build()));
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns whether this instance holds the maintenance lease of the journal, acquiring it when free or expired and
+   * renewing it once half of {@link #LEASE_DURATION} elapsed. Only the holder is to checkpoint the journal or delete
+   * the objects its records no longer reference, so that instances sharing the bucket never delete what another one
+   * still needs. S3 offering no conditional write, instances racing for a free lease read it back to tell which one
+   * won; the lease expiring at a wall clock time, the clocks of the instances are expected to be synchronized.
+   */
+  public boolean acquireLease() {
+    synchronized (leaseLock) {
+      final var now = System.currentTimeMillis();
+      if (now < leaseExpiry - (leaseHeld ? LEASE_DURATION.toMillis() / 2 : 0)) {
+        return leaseHeld;
+      }
+
+      final var lease = readLease();
+      if (lease != null && !lease.holder().equals(instanceId) && lease.expiry() > now) {
+        leaseHeld = false;
+        leaseExpiry = lease.expiry();
+        return false;
+      }
+      final var request = PutObjectRequest.builder()
+          .bucket(bucketName)
+          .key(prefix + LEASE_KEY)
+          .build();
+      s3Client.putObject(request, RequestBody.fromString(instanceId + '\t' + (now + LEASE_DURATION.toMillis()),
+          StandardCharsets.UTF_8));
+      final var written = readLease();
+      final var wasHeld = leaseHeld;
+      leaseHeld = written != null && written.holder().equals(instanceId);
+      leaseExpiry = written != null ? written.expiry() : now;
+      if (leaseHeld && !wasHeld) {
+        log.info(String.format(MSG_LEASE_ACQUIRED, prefix));
+      }
+      return leaseHeld;
+    }
+  }
+
+  private Lease readLease() {
+    try {
+      final var getRequest = GetObjectRequest.builder().bucket(bucketName).key(prefix + LEASE_KEY).build();
+      final var fields = s3Client.getObjectAsBytes(getRequest).asString(StandardCharsets.UTF_8).split("\t");
+      return new Lease(fields[0], Long.parseLong(fields[1].strip()));
+    } catch (NoSuchKeyException ex) {
+      return null;
+    }
+  }
+
+  public int segmentsSinceCheckpoint() {
+    writeLock.lock();
+    try {
+      return segmentsSinceCheckpoint;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void write(final String suffix, final String records) {
+    final var key = prefix + String.format("%0" + SEQUENCE_DIGITS + "d", nextSequence++) + '-' + instanceId + suffix;
+    final var request = PutObjectRequest.builder()
+        .bucket(bucketName)
+        .key(key)
+        .build();
+    s3Client.putObject(request, RequestBody.fromString(records, StandardCharsets.UTF_8));
+    segmentKeys.add(key);
+  }
+
+  private record Lease(String holder, long expiry) {
+
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * Records the latency of the S3 calls of the service layer, by operation, outcome and error code, along with the bytes
+ * sent and received, the transfers in progress and the time to first byte of downloads.
+ */
+@Component
+public class S3OperationMetrics {
+
+  public static final String METRIC_REQUESTS = "s3.requests";
+  public static final String METRIC_BYTES = "s3.bytes";
+  public static final String METRIC_ACTIVE_TRANSFERS = "s3.transfers.active";
+  public static final String METRIC_FIRST_BYTE = "s3.download.first.byte";
+
+  public static final String OPERATION_GET = "get";
+  public static final String OPERATION_PUT = "put";
+  public static final String OPERATION_LIST = "list";
+  public static final String OPERATION_DELETE = "delete";
+  public static final String OPERATION_HEAD = "head";
+  public static final String OPERATION_COPY = "copy";
+  public static final String OPERATION_PRESIGN = "presign";
+  public static final String OPERATION_HEAD_BUCKET = "head-bucket";
+  public static final String OPERATION_CREATE_BUCKET = "create-bucket";
+  public static final String OPERATION_DELETE_BUCKET = "delete-bucket";
+
+  private static final String NO_ERROR = "none";
+
+  private final MeterRegistry meterRegistry;
+  private final DistributionSummary bytesIn;
+  private final DistributionSummary bytesOut;
+  private final Timer firstByte;
+  private final AtomicInteger activeTransfers = new AtomicInteger();
+
+  @FunctionalInterface
+  public interface S3Call<T, E extends Exception> {
+
+    T call() throws E;
+
+  }
+
+  public S3OperationMetrics(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.bytesIn = bytesSummary("in", "Bytes downloaded from S3 per object");
+    this.bytesOut = bytesSummary("out", "Bytes uploaded to S3 per object");
+    this.firstByte = Timer.builder(METRIC_FIRST_BYTE)
+        .description("Time from a GET request to the first byte of the object read")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    Gauge.builder(METRIC_ACTIVE_TRANSFERS, activeTransfers, AtomicInteger::get)
+        .description("Uploads and downloads in progress")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Times a call to S3, tagged with its outcome.
+   */
+  public <T, E extends Exception> T record(final String operation, final S3Call<T, E> call) throws E {
+    final var start = System.nanoTime();
+    try {
+      final var result = call.call();
+      timer(operation, "success", NO_ERROR).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return result;
+    } catch (Exception ex) {
+      timer(operation, "error", errorCode(ex)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      throw ex;
+    }
+  }
+
+  /**
+   * Times an upload of the given size, counted as a transfer in progress meanwhile.
+   */
+  public <T, E extends Exception> T recordUpload(final long contentLength, final S3Call<T, E> call) throws E {
+    activeTransfers.incrementAndGet();
+    try {
+      final var result = record(OPERATION_PUT, call);
+      bytesOut.record(contentLength);
+      return result;
+    } finally {
+      activeTransfers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Times a GET request and returns its response stream, metered: the download is counted as in progress until the
+   * stream is closed, when the bytes read are recorded, and the first byte read records the time to first byte.
+   */
+  public <E extends Exception> ResponseInputStream<GetObjectResponse> recordDownload(
+      final S3Call<ResponseInputStream<GetObjectResponse>, E> call) throws E {
+    final var start = System.nanoTime();
+    activeTransfers.incrementAndGet();
+    final ResponseInputStream<GetObjectResponse> responseInputStream;
+    try {
+      responseInputStream = record(OPERATION_GET, call);
+    } catch (Exception ex) {
+      activeTransfers.decrementAndGet();
+      throw ex;
+    }
+    return new ResponseInputStream<>(responseInputStream.response(), AbortableInputStream.create(
+        new MeteredInputStream(responseInputStream, start), responseInputStream::abort));
+  }
+
+  private Timer timer(final String operation, final String outcome, final String errorCode) {
+    return Timer.builder(METRIC_REQUESTS)
+        .description("Latency of the S3 calls")
+        .tag("operation", operation)
+        .tag("outcome", outcome)
+        .tag("error.code", errorCode)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  private DistributionSummary bytesSummary(final String direction, final String description) {
+    return DistributionSummary.builder(METRIC_BYTES)
+        .description(description)
+        .baseUnit("bytes")
+        .tag("direction", direction)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  private static String errorCode(final Exception ex) {
+    if (ex instanceof AwsServiceException serviceException && serviceException.awsErrorDetails() != null
+        && serviceException.awsErrorDetails().errorCode() != null) {
+      return serviceException.awsErrorDetails().errorCode();
+    }
+    if (ex instanceof AwsServiceException serviceException) {
+      return String.valueOf(serviceException.statusCode());
+    }
+    // Timeouts, connection failures...
+    return ex instanceof SdkClientException ? "client" : ex.getClass().getSimpleName();
+  }
+
+  private class MeteredInputStream extends FilterInputStream {
+
+    private final long start;
+    private long bytesRead;
+    private boolean firstByteRead;
+    private boolean closed;
+
+    MeteredInputStream(final InputStream in, final long start) {
+      super(in);
+      this.start = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final var read = super.read();
+      if (read >= 0) {
+        counted(1);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+      final var read = super.read(bytes, offset, length);
+      if (read > 0) {
+        counted(read);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!closed) {
+          closed = true;
+          activeTransfers.decrementAndGet();
+          bytesIn.record(bytesRead);
+        }
+      }
+    }
+
+    private void counted(final int read) {
+      if (!firstByteRead) {
+        firstByteRead = true;
+        firstByte.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      bytesRead += read;
+    }
+
+  }
+
+}
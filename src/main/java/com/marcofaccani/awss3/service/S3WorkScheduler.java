@@ -0,0 +1,302 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.marcofaccani.awss3.config.S3SchedulerConfigProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Admits the S3 calls, at most {@code max-concurrent-calls} at a time, so that background work (copy jobs, syncs,
+ * asynchronous uploads, read-ahead, cache warm-up and revalidation) does not take the connections and the time of the
+ * requests clients are waiting for.
+ * <p>
+ * Calls are interactive unless made from a thread running {@link #background(Runnable)}, tasks handed to the shared
+ * transfer pools keeping the class of the caller through {@link #inCurrentClass(Callable)}. Background calls can never
+ * take the {@code reserved-interactive-calls} last slots; when both classes are waiting, the free slots are shared in
+ * proportion of their weights, so that background work keeps progressing under a steady interactive load.
+ * <p>
+ * A call holds its slot until the SDK returns: for the downloads, until the headers of the response are read, the
+ * body then being streamed outside of the scheduler.
+ */
+@Component
+public class S3WorkScheduler implements ExecutionInterceptor {
+
+  public static final String METRIC_QUEUE_TIME = "s3.scheduler.queue.time";
+  public static final String METRIC_CALLS = "s3.scheduler.calls";
+  public static final String METRIC_WAITING = "s3.scheduler.waiting";
+
+  public static final String ERR_MSG_INVALID_RESERVED_CALLS =
+      "app.aws.s3.scheduler.reserved-interactive-calls (%d) must be at least 0 and less than max-concurrent-calls (%d)";
+
+  private static final String ERR_MSG_INTERRUPTED = "Interrupted while waiting to call S3";
+  private static final ExecutionAttribute<Permit> PERMIT = new ExecutionAttribute<>("S3WorkSchedulerPermit");
+  private static final ThreadLocal<WorkClass> WORK_CLASS = ThreadLocal.withInitial(() -> WorkClass.INTERACTIVE);
+
+  public enum WorkClass {
+    INTERACTIVE, BACKGROUND
+  }
+
+  private final S3SchedulerConfigProperties schedulerConfigProperties;
+  private final ReentrantLock lock = new ReentrantLock();
+  // Guarded by the lock
+  private final Map<WorkClass, ArrayDeque<Waiter>> waiting = new EnumMap<>(WorkClass.class);
+  private final Map<WorkClass, Integer> calls = new EnumMap<>(WorkClass.class);
+  // Virtual time at which each class is next served, advanced by the inverse of its weight at each call admitted
+  private final Map<WorkClass, Double> pass = new EnumMap<>(WorkClass.class);
+  private double virtualTime;
+  private final Map<WorkClass, Timer> queueTimes = new EnumMap<>(WorkClass.class);
+
+  private static final class Waiter {
+
+    private final Condition admitted;
+    private boolean granted;
+
+    private Waiter(final Condition admitted) {
+      this.admitted = admitted;
+    }
+
+  }
+
+  public S3WorkScheduler(final S3SchedulerConfigProperties schedulerConfigProperties,
+      final MeterRegistry meterRegistry) {
+    final var maxCalls = Math.max(1, schedulerConfigProperties.getMaxConcurrentCalls());
+    final var reservedCalls = schedulerConfigProperties.getReservedInteractiveCalls();
+    // Background calls would otherwise never be admitted
+    if (schedulerConfigProperties.isEnabled() && (reservedCalls < 0 || reservedCalls >= maxCalls)) {
+      throw new IllegalArgumentException(String.format(ERR_MSG_INVALID_RESERVED_CALLS, reservedCalls, maxCalls));
+    }
+    this.schedulerConfigProperties = schedulerConfigProperties;
+    for (final var workClass : WorkClass.values()) {
+      final var tag = workClass.name().toLowerCase(Locale.ROOT);
+      waiting.put(workClass, new ArrayDeque<>());
+      calls.put(workClass, 0);
+      pass.put(workClass, 0d);
+      queueTimes.put(workClass, Timer.builder(METRIC_QUEUE_TIME)
+          .description("Time S3 calls waited to be admitted")
+          .tag("class", tag)
+          .register(meterRegistry));
+      Gauge.builder(METRIC_CALLS, this, scheduler -> scheduler.calls(workClass))
+          .description("S3 calls in flight")
+          .tag("class", tag)
+          .register(meterRegistry);
+      Gauge.builder(METRIC_WAITING, this, scheduler -> scheduler.waiting(workClass))
+          .description("S3 calls waiting to be admitted")
+          .tag("class", tag)
+          .register(meterRegistry);
+    }
+  }
+
+  /**
+   * Makes the S3 calls of {@code runnable} background work, meant to wrap the runnable of the threads of background
+   * executors.
+   */
+  public static Runnable background(final Runnable runnable) {
+    return () -> {
+      WORK_CLASS.set(WorkClass.BACKGROUND);
+      try {
+        runnable.run();
+      } finally {
+        WORK_CLASS.remove();
+      }
+    };
+  }
+
+  /**
+   * Makes the S3 calls of a task handed to a shared pool (multipart parts, chunks) work of the class of the caller.
+   */
+  public static <T> Callable<T> inCurrentClass(final Callable<T> task) {
+    final var workClass = currentWorkClass();
+    return () -> {
+      final var poolClass = currentWorkClass();
+      WORK_CLASS.set(workClass);
+      try {
+        return task.call();
+      } finally {
+        WORK_CLASS.set(poolClass);
+      }
+    };
+  }
+
+  public static Runnable inCurrentClass(final Runnable task) {
+    final var workClass = currentWorkClass();
+    return () -> {
+      final var poolClass = currentWorkClass();
+      WORK_CLASS.set(workClass);
+      try {
+        task.run();
+      } finally {
+        WORK_CLASS.set(poolClass);
+      }
+    };
+  }
+
+  public static WorkClass currentWorkClass() {
+    return WORK_CLASS.get();
+  }
+
+  @Override
+  public void beforeExecution(final Context.BeforeExecution context, final ExecutionAttributes executionAttributes) {
+    if (schedulerConfigProperties.isEnabled()) {
+      executionAttributes.putAttribute(PERMIT, acquire(currentWorkClass()));
+    }
+  }
+
+  @Override
+  public void afterExecution(final Context.AfterExecution context, final ExecutionAttributes executionAttributes) {
+    release(executionAttributes);
+  }
+
+  @Override
+  public void onExecutionFailure(final Context.FailedExecution context,
+      final ExecutionAttributes executionAttributes) {
+    release(executionAttributes);
+  }
+
+  private static void release(final ExecutionAttributes executionAttributes) {
+    final var permit = executionAttributes.getAttribute(PERMIT);
+    if (permit != null) {
+      permit.release();
+    }
+  }
+
+  /**
+   * Waits for a call of {@code workClass} to be admitted.
+   *
+   * @throws AbortedException if interrupted while waiting
+   */
+  public Permit acquire(final WorkClass workClass) {
+    final var start = System.nanoTime();
+    lock.lock();
+    try {
+      final var queue = waiting.get(workClass);
+      if (queue.isEmpty()) {
+        // An idle class does not bank the turns it did not take
+        pass.put(workClass, Math.max(pass.get(workClass), virtualTime));
+      }
+      final var waiter = new Waiter(lock.newCondition());
+      queue.add(waiter);
+      dispatch();
+      while (!waiter.granted) {
+        try {
+          waiter.admitted.await();
+        } catch (InterruptedException ex) {
+          if (waiter.granted) {
+            finish(workClass);
+          } else {
+            queue.remove(waiter);
+          }
+          Thread.currentThread().interrupt();
+          throw AbortedException.builder().message(ERR_MSG_INTERRUPTED).cause(ex).build();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    queueTimes.get(workClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return new Permit(workClass);
+  }
+
+  // Called with the lock held
+  private void dispatch() {
+    while (true) {
+      WorkClass next = null;
+      for (final var workClass : WorkClass.values()) {
+        if (!waiting.get(workClass).isEmpty() && admissible(workClass)
+            && (next == null || pass.get(workClass) < pass.get(next))) {
+          next = workClass;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      final var waiter = waiting.get(next).poll();
+      calls.merge(next, 1, Integer::sum);
+      virtualTime = pass.get(next);
+      pass.put(next, virtualTime + 1d / weight(next));
+      waiter.granted = true;
+      waiter.admitted.signal();
+    }
+  }
+
+  private boolean admissible(final WorkClass workClass) {
+    final var maxCalls = Math.max(1, schedulerConfigProperties.getMaxConcurrentCalls());
+    if (calls.get(WorkClass.INTERACTIVE) + calls.get(WorkClass.BACKGROUND) >= maxCalls) {
+      return false;
+    }
+    return workClass == WorkClass.INTERACTIVE
+        || calls.get(WorkClass.BACKGROUND) < maxCalls - schedulerConfigProperties.getReservedInteractiveCalls();
+  }
+
+  private int weight(final WorkClass workClass) {
+    return Math.max(1, workClass == WorkClass.INTERACTIVE
+        ? schedulerConfigProperties.getInteractiveWeight()
+        : schedulerConfigProperties.getBackgroundWeight());
+  }
+
+  // Called with the lock held
+  private void finish(final WorkClass workClass) {
+    calls.merge(workClass, -1, Integer::sum);
+    dispatch();
+  }
+
+  private int calls(final WorkClass workClass) {
+    lock.lock();
+    try {
+      return calls.get(workClass);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int waiting(final WorkClass workClass) {
+    lock.lock();
+    try {
+      return waiting.get(workClass).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Slot of an admitted call, released once.
+   */
+  public final class Permit {
+
+    private final WorkClass workClass;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(final WorkClass workClass) {
+      this.workClass = workClass;
+    }
+
+    public void release() {
+      if (!released.compareAndSet(false, true)) {
+        return;
+      }
+      lock.lock();
+      try {
+        finish(workClass);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Records what the SDK does underneath each S3 call: the latency of every HTTP attempt, tagged by response status, the
+ * retries and the throttling responses (503 SlowDown, 429).
+ */
+@Component
+@RequiredArgsConstructor
+public class SdkMetricsInterceptor implements ExecutionInterceptor {
+
+  public static final String METRIC_ATTEMPTS = "s3.sdk.attempts";
+  public static final String METRIC_RETRIES = "s3.sdk.retries";
+  public static final String METRIC_THROTTLES = "s3.sdk.throttles";
+
+  // Attempts failed before getting a response (connection reset, timeout...)
+  private static final String STATUS_IO_ERROR = "io";
+  private static final ExecutionAttribute<Execution> EXECUTION = new ExecutionAttribute<>("S3SdkMetricsExecution");
+
+  private final MeterRegistry meterRegistry;
+
+  @Override
+  public void beforeExecution(final Context.BeforeExecution context, final ExecutionAttributes executionAttributes) {
+    executionAttributes.putAttribute(EXECUTION, new Execution());
+  }
+
+  @Override
+  public void beforeTransmission(final Context.BeforeTransmission context,
+      final ExecutionAttributes executionAttributes) {
+    final var execution = executionAttributes.getAttribute(EXECUTION);
+    if (execution.attemptInFlight) {
+      finishAttempt(executionAttributes, execution, STATUS_IO_ERROR);
+    }
+    execution.attempts++;
+    execution.attemptInFlight = true;
+    execution.attemptStart = System.nanoTime();
+  }
+
+  @Override
+  public void afterTransmission(final Context.AfterTransmission context,
+      final ExecutionAttributes executionAttributes) {
+    final var statusCode = context.httpResponse().statusCode();
+    finishAttempt(executionAttributes, executionAttributes.getAttribute(EXECUTION), String.valueOf(statusCode));
+    if (statusCode == 503 || statusCode == 429) {
+      counter(METRIC_THROTTLES, "S3 responses asking to slow down", executionAttributes).increment();
+    }
+  }
+
+  @Override
+  public void afterExecution(final Context.AfterExecution context, final ExecutionAttributes executionAttributes) {
+    finishExecution(executionAttributes);
+  }
+
+  @Override
+  public void onExecutionFailure(final Context.FailedExecution context,
+      final ExecutionAttributes executionAttributes) {
+    finishExecution(executionAttributes);
+  }
+
+  private void finishExecution(final ExecutionAttributes executionAttributes) {
+    final var execution = executionAttributes.getAttribute(EXECUTION);
+    if (execution == null) {
+      return;
+    }
+    if (execution.attemptInFlight) {
+      finishAttempt(executionAttributes, execution, STATUS_IO_ERROR);
+    }
+    if (execution.attempts > 1) {
+      counter(METRIC_RETRIES, "Attempts retried by the SDK", executionAttributes).increment(execution.attempts - 1);
+    }
+  }
+
+  private void finishAttempt(final ExecutionAttributes executionAttributes, final Execution execution,
+      final String status) {
+    execution.attemptInFlight = false;
+    Timer.builder(METRIC_ATTEMPTS)
+        .description("Latency of each HTTP attempt made by the SDK")
+        .tag("operation", operationName(executionAttributes))
+        .tag("status", status)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(System.nanoTime() - execution.attemptStart, TimeUnit.NANOSECONDS);
+  }
+
+  private Counter counter(final String name, final String description,
+      final ExecutionAttributes executionAttributes) {
+    return Counter.builder(name)
+        .description(description)
+        .tag("operation", operationName(executionAttributes))
+        .register(meterRegistry);
+  }
+
+  private static String operationName(final ExecutionAttributes executionAttributes) {
+    final var operationName = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+    return operationName == null ? "unknown" : operationName;
+  }
+
+  /**
+   * State of a call across its attempts, which the SDK runs one at a time.
+   */
+  private static class Execution {
+
+    private int attempts;
+    private boolean attemptInFlight;
+    private long attemptStart;
+
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.marcofaccani.awss3.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+/**
+ * Feeds the HTTP client metrics the SDK collects on each call to Micrometer: the time spent waiting for a connection
+ * of the pool and the state of the pool as last seen (connections leased, available, maximum and requests waiting for
+ * one).
+ */
+@Component
+public class SdkMetricsPublisher implements MetricPublisher {
+
+  public static final String METRIC_CONNECTION_ACQUIRE = "s3.sdk.connection.acquire";
+  public static final String METRIC_POOL = "s3.sdk.pool";
+
+  private final Timer connectionAcquire;
+  private final AtomicInteger leased = new AtomicInteger();
+  private final AtomicInteger available = new AtomicInteger();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger max = new AtomicInteger();
+
+  public SdkMetricsPublisher(final MeterRegistry meterRegistry) {
+    this.connectionAcquire = Timer.builder(METRIC_CONNECTION_ACQUIRE)
+        .description("Time spent waiting for a connection of the HTTP pool")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    poolGauge(meterRegistry, "leased", leased);
+    poolGauge(meterRegistry, "available", available);
+    poolGauge(meterRegistry, "pending", pending);
+    poolGauge(meterRegistry, "max", max);
+  }
+
+  @Override
+  public void publish(final MetricCollection metricCollection) {
+    values(metricCollection, HttpMetric.CONCURRENCY_ACQUIRE_DURATION).forEach(connectionAcquire::record);
+    latest(metricCollection, HttpMetric.LEASED_CONCURRENCY, leased);
+    latest(metricCollection, HttpMetric.AVAILABLE_CONCURRENCY, available);
+    latest(metricCollection, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+    latest(metricCollection, HttpMetric.MAX_CONCURRENCY, max);
+  }
+
+  @Override
+  public void close() {
+    // Nothing buffered, metrics are recorded as they are published
+  }
+
+  private static void poolGauge(final MeterRegistry meterRegistry, final String state, final AtomicInteger value) {
+    Gauge.builder(METRIC_POOL, value, AtomicInteger::get)
+        .description("Connections of the SDK HTTP pool, as of the last call")
+        .tag("state", state)
+        .register(meterRegistry);
+  }
+
+  private static void latest(final MetricCollection metricCollection, final SdkMetric<Integer> metric,
+      final AtomicInteger value) {
+    values(metricCollection, metric).reduce((first, second) -> second).ifPresent(value::set);
+  }
+
+  /**
+   * Values of a metric in the collection of a call and in the nested ones (attempts, HTTP client).
+   */
+  static <T> Stream<T> values(final MetricCollection metricCollection, final SdkMetric<T> metric) {
+    return Stream.concat(metricCollection.metricValues(metric).stream(),
+        metricCollection.children().stream().flatMap(child -> values(child, metric)));
+  }
+
+}
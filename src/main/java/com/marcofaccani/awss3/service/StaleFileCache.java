@@ -0,0 +1,209 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.marcofaccani.awss3.config.ResilienceConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.ObjectCopyCache.Key;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Reads files through the {@link PeerCache} and the listing through the {@link FileStorageService}, keeping a copy of
+ * the listing and of the files up to {@code stale-max-object-size} (up to {@code stale-cache-size} in total, least
+ * recently read evicted first), to serve them, marked stale, when S3 fails or the {@link S3CircuitBreaker} is open
+ * rather than failing the request.
+ * What was served stale is revalidated in background once the circuit closes again: refreshed, or evicted if the file
+ * is gone. The copies of a file written or deleted through any instance, as the {@link FileChangeBus} tells, are
+ * dropped: such a version is not stale but superseded.
+ */
+@Log4j2
+@Component
+public class StaleFileCache {
+
+  public static final String METRIC_STALE_SERVED = "s3.stale.served";
+  public static final String METRIC_REVALIDATIONS = "s3.stale.revalidations";
+  public static final String METRIC_CACHE_SIZE = "s3.stale.cache.size";
+  public static final String OPERATION_GET = "get";
+  public static final String OPERATION_LIST = "list";
+  public static final String MSG_SERVED_STALE = "Serving stale %s of %s, S3 failed with: %s";
+  public static final String MSG_REVALIDATED = "Revalidated %d stale entries, %d failed";
+
+  /**
+   * A value read from S3, or from the cache if {@code stale}.
+   */
+  public record Served<T>(T value, boolean stale) {
+
+  }
+
+  private final FileStorageService fileStorageService;
+  private final PeerCache peerCache;
+  private final S3CircuitBreaker s3CircuitBreaker;
+  private final long maxSize;
+  private final ObjectCopyCache objects;
+  private final MeterRegistry meterRegistry;
+  private volatile List<String> listing;
+  private volatile boolean listingServedStale;
+  private final Set<Key> servedStale = ConcurrentHashMap.newKeySet();
+  private final ExecutorService revalidator = Executors.newSingleThreadExecutor(runnable -> {
+    final var thread = new Thread(S3WorkScheduler.background(runnable), "stale-revalidation");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public StaleFileCache(final FileStorageService fileStorageService, final PeerCache peerCache,
+      final S3CircuitBreaker s3CircuitBreaker, final FileChangeBus fileChangeBus,
+      final ResilienceConfigProperties resilienceConfigProperties, final MeterRegistry meterRegistry) {
+    this.fileStorageService = fileStorageService;
+    this.peerCache = peerCache;
+    this.s3CircuitBreaker = s3CircuitBreaker;
+    this.maxSize = resilienceConfigProperties.getStaleCacheSize().toBytes();
+    this.objects = new ObjectCopyCache(maxSize, resilienceConfigProperties.getStaleMaxObjectSize().toBytes());
+    this.meterRegistry = meterRegistry;
+    Gauge.builder(METRIC_CACHE_SIZE, objects, ObjectCopyCache::size)
+        .description("Bytes of the files kept to be served stale")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    s3CircuitBreaker.addListener(state -> {
+      if (state == S3CircuitBreaker.State.CLOSED) {
+        revalidator.execute(this::revalidate);
+      }
+    });
+    fileChangeBus.addListener(new FileChangeBus.Listener() {
+      @Override
+      public void onChange(final FileChange change) {
+        evict(change.fileName());
+      }
+
+      @Override
+      public void onChangesMissed() {
+        // Kept: which files changed is unknown, and dropping them all would leave nothing to serve should S3 fail
+      }
+    });
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    revalidator.shutdownNow();
+  }
+
+  public Served<List<String>> listFiles() {
+    try {
+      final var files = fileStorageService.listFilesInBucket();
+      if (maxSize > 0) {
+        listing = files;
+      }
+      return new Served<>(files, false);
+    } catch (RuntimeException ex) {
+      final var staleListing = listing;
+      if (staleListing == null) {
+        throw ex;
+      }
+      log.warn(String.format(MSG_SERVED_STALE, OPERATION_LIST, "the bucket", ex.getMessage()));
+      staleServedCounter(OPERATION_LIST).increment();
+      listingServedStale = true;
+      return new Served<>(staleListing, true);
+    }
+  }
+
+  /**
+   * Same as {@link PeerCache#getFile(String, List)}.
+   */
+  public Served<ResponseInputStream<GetObjectResponse>> getFile(final String fileName,
+      final List<String> acceptedEncodings) {
+    final var key = new Key(fileName, List.copyOf(acceptedEncodings));
+    final var fetchGeneration = objects.generation();
+    final ResponseInputStream<GetObjectResponse> object;
+    try {
+      object = fetch(key);
+    } catch (NoSuchKeyException ex) {
+      objects.evict(key);
+      throw ex;
+    } catch (RuntimeException ex) {
+      final var staleObject = objects.get(key);
+      if (staleObject == null) {
+        throw ex;
+      }
+      log.warn(String.format(MSG_SERVED_STALE, OPERATION_GET, fileName, ex.getMessage()));
+      staleServedCounter(OPERATION_GET).increment();
+      servedStale.add(key);
+      return new Served<>(staleObject, true);
+    }
+    return new Served<>(objects.keepCopy(key, object, fetchGeneration), false);
+  }
+
+  private ResponseInputStream<GetObjectResponse> fetch(final Key key) {
+    return peerCache.getFile(key.fileName(), key.acceptedEncodings());
+  }
+
+  private void revalidate() {
+    var revalidated = 0;
+    var failed = 0;
+    if (listingServedStale) {
+      try {
+        listing = fileStorageService.listFilesInBucket();
+        listingServedStale = false;
+        revalidationCounter("refreshed").increment();
+        revalidated++;
+      } catch (RuntimeException ex) {
+        revalidationCounter("failed").increment();
+        failed++;
+      }
+    }
+    for (var key : List.copyOf(servedStale)) {
+      if (s3CircuitBreaker.getState() != S3CircuitBreaker.State.CLOSED) {
+        // S3 fails again, the rest is revalidated when the circuit closes next time
+        break;
+      }
+      try {
+        final var fetchGeneration = objects.generation();
+        objects.keepCopy(key, fetch(key), fetchGeneration).close();
+        servedStale.remove(key);
+        revalidationCounter("refreshed").increment();
+        revalidated++;
+      } catch (NoSuchKeyException ex) {
+        objects.evict(key);
+        servedStale.remove(key);
+        revalidationCounter("evicted").increment();
+        revalidated++;
+      } catch (IOException | RuntimeException ex) {
+        revalidationCounter("failed").increment();
+        failed++;
+      }
+    }
+    log.info(String.format(MSG_REVALIDATED, revalidated, failed));
+  }
+
+  private void evict(final String fileName) {
+    objects.evict(fileName);
+    servedStale.removeIf(key -> key.fileName().equals(fileName));
+  }
+
+  private Counter staleServedCounter(final String operation) {
+    return Counter.builder(METRIC_STALE_SERVED)
+        .description("Reads served from the cache, marked stale, as S3 failed")
+        .tag("operation", operation)
+        .register(meterRegistry);
+  }
+
+  private Counter revalidationCounter(final String result) {
+    return Counter.builder(METRIC_REVALIDATIONS)
+        .description("Entries served stale revalidated once S3 recovered")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+}
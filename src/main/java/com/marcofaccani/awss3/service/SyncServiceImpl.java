@@ -0,0 +1,493 @@
+package com.marcofaccani.awss3.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.SyncConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidSyncRequestException;
+import com.marcofaccani.awss3.exceptions.SyncFailedException;
+import com.marcofaccani.awss3.model.SyncAction;
+import com.marcofaccani.awss3.model.SyncAction.Type;
+import com.marcofaccani.awss3.model.SyncReport;
+import com.marcofaccani.awss3.model.SyncRequest;
+import com.marcofaccani.awss3.model.SyncRequest.Direction;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import com.marcofaccani.awss3.service.interfaces.SyncService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+
+/**
+ * Syncs a local directory tree with the objects of the bucket under a prefix, transferring only the files that differ.
+ * The local tree is walked while the bucket is listed; files are compared by size and ETag, the ETag of a local file
+ * being its MD5 (or, for files large enough to be multipart uploads, the MD5 of the MD5s of its parts). Since objects
+ * stored transformed (compressed, encrypted...) have neither the size nor the ETag of their content, the size,
+ * modification time and ETag of each file are saved at the end of every sync in a state file at the root of the
+ * directory: a file whose local and remote versions both match the saved state is unchanged without being hashed, and
+ * when both sides changed the most recently modified one wins. Files uploaded or deleted in the bucket are published on
+ * the {@link FileChangeBus}, for the caches of every instance to drop them.
+ * <p>
+ * Syncs are refused in the packed, dedup and chunked storage modes, whose files are stored inside internal objects
+ * (packs, blobs, chunks) and have no ETag of their own.
+ */
+@Log4j2
+@Service
+public class SyncServiceImpl implements SyncService {
+
+  public static final String METRIC_BYTES = "storage.sync.bytes";
+  public static final String METRIC_FILES = "storage.sync.files";
+  public static final String METRIC_REMAINING_BYTES = "storage.sync.remaining.bytes";
+  public static final String PARTIAL_FILE_SUFFIX = ".sync-part";
+  public static final String ERR_MSG_INVALID_DIRECTORY = "Invalid sync directory %s: %s";
+  public static final String ERR_MSG_UNSUPPORTED_STORAGE_MODE = "Sync requires the plain storage mode: files of the active mode have no ETag to compare";
+  public static final String ERR_MSG_SYNC_FAILED = "Error while syncing %s with %s: %s";
+  public static final String MSG_SYNC_COMPLETED =
+      "Sync of %s with %s completed: %d unchanged, %d transferred (%d bytes, %.1f MB/s), %d deleted, %d failed";
+
+  private final AwsS3ConfigProperties awsS3ConfigProperties;
+  private final SyncConfigProperties syncConfigProperties;
+  private final FileStorageService fileStorageService;
+  private final FileChangeBus fileChangeBus;
+  private final MultipartUploader multipartUploader;
+  private final S3Client s3Client;
+  private final MeterRegistry meterRegistry;
+  private final Path rootDirectory;
+  private final ExecutorService transferExecutor;
+  private final AtomicLong remainingBytes = new AtomicLong();
+
+  public SyncServiceImpl(final AwsS3ConfigProperties awsS3ConfigProperties,
+      final SyncConfigProperties syncConfigProperties,
+      final FileStorageService fileStorageService,
+      final FileChangeBus fileChangeBus,
+      final MultipartUploader multipartUploader,
+      final S3Client s3Client,
+      final MeterRegistry meterRegistry) {
+    this.awsS3ConfigProperties = awsS3ConfigProperties;
+    this.syncConfigProperties = syncConfigProperties;
+    this.fileStorageService = fileStorageService;
+    this.fileChangeBus = fileChangeBus;
+    this.multipartUploader = multipartUploader;
+    this.s3Client = s3Client;
+    this.meterRegistry = meterRegistry;
+    this.rootDirectory = Path.of(syncConfigProperties.getRootDirectory()).toAbsolutePath().normalize();
+    final var threadCounter = new AtomicInteger();
+    this.transferExecutor = Executors.newFixedThreadPool(syncConfigProperties.getTransferThreads(), runnable -> {
+      final var thread = new Thread(S3WorkScheduler.background(runnable), "sync-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Gauge.builder(METRIC_REMAINING_BYTES, remainingBytes, AtomicLong::get)
+        .description("Bytes left to transfer by the running syncs")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void preDestroy() {
+    transferExecutor.shutdownNow();
+  }
+
+  @Override
+  public SyncReport sync(final SyncRequest syncRequest) {
+    if (!(fileStorageService instanceof FileStorageServiceImpl)) {
+      throw new InvalidSyncRequestException(ERR_MSG_UNSUPPORTED_STORAGE_MODE);
+    }
+    final var direction = syncRequest.direction() == null ? Direction.BOTH : syncRequest.direction();
+    final var prefix = syncRequest.prefix() == null ? "" : syncRequest.prefix();
+    final var directory = resolveDirectory(syncRequest.localDirectory(), direction, syncRequest.dryRun());
+    final var startNanos = System.nanoTime();
+
+    try {
+      final var remoteListing = CompletableFuture.supplyAsync(() -> listRemoteFiles(prefix), transferExecutor);
+      final var localFiles = listLocalFiles(directory);
+      final var remoteFiles = remoteListing.get();
+      final var syncedFiles = loadState(directory);
+
+      // Hashing local files may be needed to plan: done in parallel as well
+      final var paths = new TreeSet<>(localFiles.keySet());
+      paths.addAll(remoteFiles.keySet());
+      final var plans = new ArrayList<Future<Plan>>(paths.size());
+      for (final var path : paths) {
+        plans.add(transferExecutor.submit(() -> plan(path, localFiles.get(path), remoteFiles.get(path),
+            syncedFiles.get(path), direction, syncRequest.deleteExtraneous())));
+      }
+
+      final var newState = new ConcurrentHashMap<String, SyncedFile>();
+      final var actions = new ArrayList<SyncAction>();
+      var unchanged = 0;
+      for (final var future : plans) {
+        final var plan = future.get();
+        if (plan.synced() != null) {
+          unchanged++;
+          newState.put(plan.path(), plan.synced());
+        } else if (plan.type() != null) {
+          actions.add(new SyncAction(plan.path(), plan.type(), plan.size(), false, null));
+        }
+      }
+      if (syncRequest.dryRun()) {
+        return new SyncReport(true, unchanged, 0, 0, 0, 0, actions);
+      }
+
+      final var transferBytes = actions.stream()
+          .filter(action -> action.type() == Type.UPLOAD || action.type() == Type.DOWNLOAD)
+          .mapToLong(SyncAction::size)
+          .sum();
+      remainingBytes.addAndGet(transferBytes);
+      final var executions = new ArrayList<Future<SyncAction>>(actions.size());
+      for (final var action : actions) {
+        executions.add(transferExecutor.submit(() -> execute(action, directory, prefix, localFiles.get(action.path()),
+            remoteFiles.get(action.path()), newState)));
+      }
+      final var results = new ArrayList<SyncAction>(actions.size());
+      for (final var execution : executions) {
+        results.add(execution.get());
+      }
+      saveState(directory, newState);
+
+      final var report = report(unchanged, results);
+      final var seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+      log.info(String.format(Locale.ROOT, MSG_SYNC_COMPLETED, directory, prefix, report.unchanged(),
+          report.transferred(), report.bytesTransferred(), report.bytesTransferred() / seconds / (1024 * 1024),
+          report.deleted(), report.failed()));
+      return report;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SyncFailedException(String.format(ERR_MSG_SYNC_FAILED, directory, prefix, "interrupted"));
+    } catch (ExecutionException ex) {
+      throw new SyncFailedException(String.format(ERR_MSG_SYNC_FAILED, directory, prefix,
+          ex.getCause().getMessage()));
+    } catch (IOException ex) {
+      throw new SyncFailedException(String.format(ERR_MSG_SYNC_FAILED, directory, prefix, ex.getMessage()));
+    }
+  }
+
+  private Path resolveDirectory(final String localDirectory, final Direction direction, final boolean dryRun) {
+    final var directory = rootDirectory.resolve(localDirectory == null ? "" : localDirectory).normalize();
+    if (!directory.startsWith(rootDirectory)) {
+      throw new InvalidSyncRequestException(String.format(ERR_MSG_INVALID_DIRECTORY, localDirectory,
+          "outside of the sync root directory"));
+    }
+    if (Files.isDirectory(directory)) {
+      return directory;
+    }
+    if (direction != Direction.DOWNLOAD) {
+      throw new InvalidSyncRequestException(String.format(ERR_MSG_INVALID_DIRECTORY, localDirectory,
+          "not a directory"));
+    }
+    if (!dryRun) {
+      try {
+        Files.createDirectories(directory);
+      } catch (IOException ex) {
+        throw new InvalidSyncRequestException(String.format(ERR_MSG_INVALID_DIRECTORY, localDirectory,
+            ex.getMessage()));
+      }
+    }
+    return directory;
+  }
+
+  private Map<String, LocalFile> listLocalFiles(final Path directory) throws IOException {
+    final var localFiles = new HashMap<String, LocalFile>();
+    if (!Files.isDirectory(directory)) {
+      return localFiles;
+    }
+    final var stateFile = directory.resolve(syncConfigProperties.getStateFileName());
+    try (var paths = Files.walk(directory)) {
+      for (final var path : paths.filter(Files::isRegularFile).toList()) {
+        if (path.equals(stateFile) || path.getFileName().toString().endsWith(PARTIAL_FILE_SUFFIX)) {
+          continue;
+        }
+        final var relativePath = directory.relativize(path).toString().replace('\\', '/');
+        localFiles.put(relativePath, new LocalFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+      }
+    }
+    return localFiles;
+  }
+
+  private Map<String, RemoteFile> listRemoteFiles(final String prefix) {
+    final var request = ListObjectsV2Request.builder()
+        .bucket(awsS3ConfigProperties.getBucketName())
+        .prefix(prefix)
+        .build();
+    final var remoteFiles = new HashMap<String, RemoteFile>();
+    s3Client.listObjectsV2Paginator(request).contents().forEach(object -> {
+      // Keys ending with a slash are "folders" made by the S3 console
+      if (!object.key().endsWith("/")) {
+        remoteFiles.put(object.key().substring(prefix.length()), new RemoteFile(object.size(),
+            unquote(object.eTag()), object.lastModified() == null ? 0 : object.lastModified().toEpochMilli()));
+      }
+    });
+    return remoteFiles;
+  }
+
+  private Plan plan(final String path, final LocalFile local, final RemoteFile remote, final SyncedFile synced,
+      final Direction direction, final boolean deleteExtraneous) throws IOException {
+    final var localChanged = local != null
+        && (synced == null || synced.size() != local.size() || synced.lastModified() != local.lastModified());
+    final var remoteChanged = remote != null && (synced == null || !synced.eTag().equals(remote.eTag()));
+
+    if (local != null && remote != null) {
+      if (!localChanged && !remoteChanged) {
+        return new Plan(path, null, 0, synced);
+      }
+      if (local.size() == remote.size() && remote.eTag().equals(localETag(local))) {
+        return new Plan(path, null, 0, new SyncedFile(local.size(), local.lastModified(), remote.eTag()));
+      }
+      final var upload = switch (direction) {
+        case UPLOAD -> true;
+        case DOWNLOAD -> false;
+        case BOTH -> localChanged != remoteChanged ? localChanged : local.lastModified() >= remote.lastModified();
+      };
+      return upload ? new Plan(path, Type.UPLOAD, local.size(), null)
+          : new Plan(path, Type.DOWNLOAD, remote.size(), null);
+    }
+
+    if (local != null) {
+      // In both directions, a file synced before which is now missing in the bucket was deleted from the bucket
+      final var deleted = direction == Direction.DOWNLOAD || (direction == Direction.BOTH && !localChanged);
+      if (deleted) {
+        return deleteExtraneous ? new Plan(path, Type.DELETE_LOCAL, local.size(), null)
+            : direction == Direction.DOWNLOAD ? new Plan(path, null, 0, null)
+            : new Plan(path, Type.UPLOAD, local.size(), null);
+      }
+      return new Plan(path, Type.UPLOAD, local.size(), null);
+    }
+
+    final var deleted = direction == Direction.UPLOAD || (direction == Direction.BOTH && !remoteChanged);
+    if (deleted) {
+      return deleteExtraneous ? new Plan(path, Type.DELETE_REMOTE, remote.size(), null)
+          : direction == Direction.UPLOAD ? new Plan(path, null, 0, null)
+          : new Plan(path, Type.DOWNLOAD, remote.size(), null);
+    }
+    return new Plan(path, Type.DOWNLOAD, remote.size(), null);
+  }
+
+  private SyncAction execute(final SyncAction action, final Path directory, final String prefix,
+      final LocalFile local, final RemoteFile remote, final Map<String, SyncedFile> newState) {
+    final var key = prefix + action.path();
+    try {
+      switch (action.type()) {
+        case UPLOAD -> {
+          try (InputStream inputStream = Files.newInputStream(local.path())) {
+            fileStorageService.uploadFile(key, inputStream, local.size());
+          }
+          fileChangeBus.publishWritten(key);
+          final var eTag = s3Client.headObject(HeadObjectRequest.builder()
+              .bucket(awsS3ConfigProperties.getBucketName())
+              .key(key)
+              .build()).eTag();
+          newState.put(action.path(), new SyncedFile(local.size(), local.lastModified(), unquote(eTag)));
+          transferred("upload", local.size());
+        }
+        case DOWNLOAD -> {
+          final var target = download(directory, action.path(), key, remote);
+          newState.put(action.path(), new SyncedFile(Files.size(target), remote.lastModified(), remote.eTag()));
+          transferred("download", remote.size());
+        }
+        case DELETE_LOCAL -> Files.deleteIfExists(local.path());
+        case DELETE_REMOTE -> {
+          fileStorageService.deleteFile(key);
+          fileChangeBus.publishDeleted(key);
+        }
+      }
+      Counter.builder(METRIC_FILES)
+          .description("Files uploaded, downloaded or deleted by syncs")
+          .tag("action", action.type().name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry)
+          .increment();
+      return action.withResult(true, null);
+    } catch (Exception ex) {
+      if (action.type() == Type.UPLOAD || action.type() == Type.DOWNLOAD) {
+        remainingBytes.addAndGet(-action.size());
+      }
+      return action.withResult(false, ex.getMessage());
+    }
+  }
+
+  private Path download(final Path directory, final String path, final String key, final RemoteFile remote)
+      throws IOException {
+    final var target = directory.resolve(path).normalize();
+    if (!target.startsWith(directory)) {
+      throw new IOException("Key " + key + " would be written outside of the synced directory");
+    }
+    Files.createDirectories(target.getParent());
+    // Written aside then renamed, so that a failed download does not leave a truncated file behind
+    final var partialFile = target.resolveSibling(target.getFileName() + PARTIAL_FILE_SUFFIX);
+    try {
+      try (InputStream inputStream = fileStorageService.getFile(key)) {
+        Files.copy(inputStream, partialFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.setLastModifiedTime(partialFile, FileTime.fromMillis(remote.lastModified()));
+      moveAtomically(partialFile, target);
+    } finally {
+      Files.deleteIfExists(partialFile);
+    }
+    return target;
+  }
+
+  private void transferred(final String direction, final long bytes) {
+    remainingBytes.addAndGet(-bytes);
+    Counter.builder(METRIC_BYTES)
+        .description("Bytes transferred by syncs")
+        .baseUnit("bytes")
+        .tag("direction", direction)
+        .register(meterRegistry)
+        .increment(bytes);
+  }
+
+  /**
+   * Returns the ETag S3 computes for the given content when uploaded by this service.
+   */
+  private String localETag(final LocalFile local) throws IOException {
+    final var partSize = multipartUploader.partSize();
+    final var multipart = multipartUploader.isMultipart(local.size());
+    final var fileDigest = md5();
+    final var partDigest = md5();
+    var parts = 0;
+    try (InputStream inputStream = Files.newInputStream(local.path())) {
+      final var buffer = new byte[64 * 1024];
+      long partRemaining = partSize;
+      int read;
+      while ((read = inputStream.read(buffer, 0, (int) Math.min(buffer.length,
+          multipart ? partRemaining : buffer.length))) > 0) {
+        if (!multipart) {
+          fileDigest.update(buffer, 0, read);
+          continue;
+        }
+        partDigest.update(buffer, 0, read);
+        partRemaining -= read;
+        if (partRemaining == 0) {
+          fileDigest.update(partDigest.digest());
+          parts++;
+          partRemaining = partSize;
+        }
+      }
+      if (multipart && (partRemaining < partSize || parts == 0)) {
+        fileDigest.update(partDigest.digest());
+        parts++;
+      }
+    }
+    final var hex = HexFormat.of().formatHex(fileDigest.digest());
+    return multipart ? hex + "-" + parts : hex;
+  }
+
+  private Map<String, SyncedFile> loadState(final Path directory) throws IOException {
+    final var stateFile = directory.resolve(syncConfigProperties.getStateFileName());
+    final var syncedFiles = new HashMap<String, SyncedFile>();
+    if (!Files.exists(stateFile)) {
+      return syncedFiles;
+    }
+    final var properties = new Properties();
+    try (InputStream inputStream = Files.newInputStream(stateFile)) {
+      properties.load(inputStream);
+    }
+    properties.forEach((path, value) -> {
+      final var fields = value.toString().split("\t");
+      syncedFiles.put(path.toString(), new SyncedFile(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+          fields[2]));
+    });
+    return syncedFiles;
+  }
+
+  private void saveState(final Path directory, final Map<String, SyncedFile> syncedFiles) throws IOException {
+    final var properties = new Properties();
+    syncedFiles.forEach((path, synced) ->
+        properties.setProperty(path, synced.size() + "\t" + synced.lastModified() + "\t" + synced.eTag()));
+    final var stateFile = directory.resolve(syncConfigProperties.getStateFileName());
+    final var partialFile = stateFile.resolveSibling(stateFile.getFileName() + PARTIAL_FILE_SUFFIX);
+    try (var outputStream = Files.newOutputStream(partialFile)) {
+      properties.store(outputStream, null);
+    }
+    moveAtomically(partialFile, stateFile);
+  }
+
+  private static void moveAtomically(final Path source, final Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static SyncReport report(final int unchanged, final List<SyncAction> results) {
+    var transferred = 0;
+    var deleted = 0;
+    var failed = 0;
+    var bytesTransferred = 0L;
+    for (final var result : results) {
+      if (!result.done()) {
+        failed++;
+      } else if (result.type() == Type.UPLOAD || result.type() == Type.DOWNLOAD) {
+        transferred++;
+        bytesTransferred += result.size();
+      } else {
+        deleted++;
+      }
+    }
+    return new SyncReport(false, unchanged, transferred, deleted, failed, bytesTransferred, List.copyOf(results));
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static String unquote(final String eTag) {
+    return eTag == null ? "" : eTag.replace("\"", "");
+  }
+
+  private record LocalFile(Path path, long size, long lastModified) {
+
+  }
+
+  private record RemoteFile(long size, String eTag, long lastModified) {
+
+  }
+
+  /**
+   * State of a file at the end of the last sync it was part of, when both sides were identical.
+   */
+  private record SyncedFile(long size, long lastModified, String eTag) {
+
+  }
+
+  /**
+   * What to do with a file: nothing (null type), a transfer or a deletion; unchanged files come with their state.
+   */
+  private record Plan(String path, Type type, long size, SyncedFile synced) {
+
+  }
+
+}
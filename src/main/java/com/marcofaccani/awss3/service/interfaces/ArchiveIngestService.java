@@ -0,0 +1,11 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import java.io.InputStream;
+
+import com.marcofaccani.awss3.model.IngestReport;
+
+public interface ArchiveIngestService {
+
+  IngestReport ingest(InputStream archive, String prefix);
+
+}
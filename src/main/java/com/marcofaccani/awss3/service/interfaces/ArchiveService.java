@@ -0,0 +1,15 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.marcofaccani.awss3.model.ArchiveRequest;
+
+public interface ArchiveService {
+
+  List<String> resolveFileNames(ArchiveRequest archiveRequest);
+
+  void writeArchive(List<String> fileNames, OutputStream outputStream) throws IOException;
+
+}
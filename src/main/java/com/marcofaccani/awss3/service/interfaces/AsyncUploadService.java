@@ -0,0 +1,12 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import com.marcofaccani.awss3.model.AsyncUploadStatus;
+import org.springframework.web.multipart.MultipartFile;
+
+public interface AsyncUploadService {
+
+  AsyncUploadStatus submit(MultipartFile file);
+
+  AsyncUploadStatus getStatus(String uploadId);
+
+}
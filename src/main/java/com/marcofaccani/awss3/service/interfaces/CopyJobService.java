@@ -0,0 +1,12 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import com.marcofaccani.awss3.model.CopyJobRequest;
+import com.marcofaccani.awss3.model.CopyJobStatus;
+
+public interface CopyJobService {
+
+  CopyJobStatus submit(CopyJobRequest copyJobRequest);
+
+  CopyJobStatus getStatus(String jobId);
+
+}
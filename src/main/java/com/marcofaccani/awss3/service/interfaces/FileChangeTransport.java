@@ -0,0 +1,20 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import java.util.function.Consumer;
+
+import com.marcofaccani.awss3.model.FileChange;
+
+/**
+ * Carries the {@link FileChange}s published by an instance to the other ones, on a best effort basis: the changes
+ * lost, or delivered out of order, are told apart by their sequence.
+ */
+public interface FileChangeTransport {
+
+  void send(FileChange change);
+
+  /**
+   * Hands the changes received from the other instances to {@code receiver}.
+   */
+  void start(Consumer<FileChange> receiver);
+
+}
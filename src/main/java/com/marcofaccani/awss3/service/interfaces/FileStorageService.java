@@ -1,7 +1,13 @@
 package com.marcofaccani.awss3.service.interfaces;
 
+import java.io.InputStream;
 import java.util.List;
+import java.util.Optional;
 
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.model.FileRange;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import org.springframework.http.HttpRange;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
@@ -10,11 +16,52 @@ public interface FileStorageService {
 
   void uploadFile(MultipartFile file);
 
+  void uploadFile(String fileName, InputStream inputStream, long contentLength);
+
   void deleteFile(String fileName);
 
+  /**
+   * Copies a file to another name without its content flowing through this service, overwriting the target if any.
+   * Copying a file onto itself is rejected.
+   */
+  void copyFile(String sourceFileName, String targetFileName);
+
+  /**
+   * Renames a file: as S3 has no rename, the file is copied then deleted, hence never onto itself.
+   */
+  default void moveFile(String sourceFileName, String targetFileName) {
+    if (sourceFileName.equals(targetFileName)) {
+      throw new InvalidCopyRequestException(String.format(FileStorageServiceImpl.ERR_MSG_COPY_ONTO_ITSELF,
+          sourceFileName));
+    }
+    copyFile(sourceFileName, targetFileName);
+    deleteFile(sourceFileName);
+  }
+
   ResponseInputStream<GetObjectResponse> getFile(String fileName);
 
+  /**
+   * Same as {@link #getFile(String)}, but the content may be returned encoded with one of the given HTTP content
+   * codings (e.g. gzip), in which case it is set as content encoding of the response.
+   */
+  default ResponseInputStream<GetObjectResponse> getFile(String fileName, List<String> acceptedEncodings) {
+    return getFile(fileName);
+  }
+
+  /**
+   * Reads a single byte range of a file, or returns empty if ranges of this file can't be read, in which case the whole
+   * file is to be served instead.
+   */
+  default Optional<FileRange> getFileRange(String fileName, HttpRange range) {
+    return Optional.empty();
+  }
+
   String generatePreSignedUrlOfFile(String fileName, long expirationTimeInMinutes);
 
   List<String> listFilesInBucket();
+
+  /**
+   * Lists in order the files whose name starts with the given prefix, stopping after the given number of files.
+   */
+  List<String> listFiles(String prefix, int maxFiles);
 }
@@ -0,0 +1,10 @@
+package com.marcofaccani.awss3.service.interfaces;
+
+import com.marcofaccani.awss3.model.SyncReport;
+import com.marcofaccani.awss3.model.SyncRequest;
+
+public interface SyncService {
+
+  SyncReport sync(SyncRequest syncRequest);
+
+}
@@ -0,0 +1,242 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts the bytes going through it with AES-GCM. The stream is cut in segments encrypted and authenticated one by
+ * one (as in the STREAM construction), so that neither side has to hold the whole object in memory, which a single
+ * GCM message would require on decryption. Each segment nonce is made of a random per-object prefix and the segment
+ * number, and the last segment is flagged in its associated data so that a truncated object is detected.
+ * <p>
+ * Layout: version (1 byte), segment size (4 bytes), nonce prefix (8 bytes), then the segments, each followed by its
+ * 16 bytes tag.
+ */
+public class AesGcmStage implements TransformStage {
+
+  public static final String NAME = "aes-gcm";
+  public static final String ERR_MSG_DECRYPTION_FAILED = "Decryption of segment %d failed: object is corrupted or was encrypted with another key";
+
+  private static final byte VERSION = 1;
+  private static final int NONCE_PREFIX_LENGTH = 8;
+  private static final int TAG_LENGTH = 16;
+  // Bound of the segment size read from objects, which may have been encrypted with another configured size
+  private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final byte[] LAST_SEGMENT = {1};
+  private static final byte[] NOT_LAST_SEGMENT = {0};
+
+  private final SecretKey key;
+  private final int segmentSize;
+  private final SecureRandom random = new SecureRandom();
+
+  public AesGcmStage(final SecretKey key, final int segmentSize) {
+    this.key = key;
+    this.segmentSize = segmentSize;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public OutputStream encode(final OutputStream out, final Map<String, String> metadata) throws IOException {
+    final var noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    random.nextBytes(noncePrefix);
+    out.write(ByteBuffer.allocate(1 + Integer.BYTES + NONCE_PREFIX_LENGTH)
+        .put(VERSION)
+        .putInt(segmentSize)
+        .put(noncePrefix)
+        .array());
+    return new EncryptingOutputStream(out, noncePrefix);
+  }
+
+  @Override
+  public InputStream decode(final InputStream in, final Map<String, String> metadata) throws IOException {
+    final var header = new DataInputStream(in);
+    final var version = header.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported encryption format version " + version);
+    }
+    final var encryptedSegmentSize = header.readInt();
+    if (encryptedSegmentSize <= 0 || encryptedSegmentSize > Math.max(segmentSize, MAX_SEGMENT_SIZE)) {
+      throw new IOException("Invalid encryption segment size " + encryptedSegmentSize);
+    }
+    final var noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    header.readFully(noncePrefix);
+    return new DecryptingInputStream(in, noncePrefix, encryptedSegmentSize);
+  }
+
+  private Cipher cipher(final int mode, final byte[] noncePrefix, final int segment, final boolean last)
+      throws IOException {
+    final var nonce = ByteBuffer.allocate(NONCE_PREFIX_LENGTH + Integer.BYTES).put(noncePrefix).putInt(segment).array();
+    try {
+      final var cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(last ? LAST_SEGMENT : NOT_LAST_SEGMENT);
+      return cipher;
+    } catch (GeneralSecurityException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  private class EncryptingOutputStream extends FilterOutputStream {
+
+    private final byte[] noncePrefix;
+    private final byte[] plaintext = new byte[segmentSize];
+    private final byte[] ciphertext = new byte[segmentSize + TAG_LENGTH];
+    private int length;
+    private int segment;
+    private boolean closed;
+
+    EncryptingOutputStream(final OutputStream out, final byte[] noncePrefix) {
+      super(out);
+      this.noncePrefix = noncePrefix;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int offset, int remaining) throws IOException {
+      while (remaining > 0) {
+        // A full segment is only sealed once more bytes come in, as the last one has to be flagged
+        if (length == segmentSize) {
+          seal(false);
+        }
+        final var copied = Math.min(remaining, segmentSize - length);
+        System.arraycopy(bytes, offset, plaintext, length, copied);
+        length += copied;
+        offset += copied;
+        remaining -= copied;
+      }
+    }
+
+    @Override
+    public void flush() {
+      // Segments are sealed when full: flushing a partial one would make it look like the last
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      seal(true);
+      out.close();
+    }
+
+    private void seal(final boolean last) throws IOException {
+      try {
+        final var sealed = cipher(Cipher.ENCRYPT_MODE, noncePrefix, segment++, last)
+            .doFinal(plaintext, 0, length, ciphertext, 0);
+        out.write(ciphertext, 0, sealed);
+        length = 0;
+      } catch (GeneralSecurityException ex) {
+        throw new IOException(ex);
+      }
+    }
+
+  }
+
+  private class DecryptingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final byte[] noncePrefix;
+    // One byte more than an encrypted segment, to tell whether the segment read is the last one
+    private final byte[] ciphertext;
+    private final byte[] plaintext;
+    private int carried;
+    private int segment;
+    private boolean lastRead;
+    private int length;
+    private int position;
+
+    DecryptingInputStream(final InputStream in, final byte[] noncePrefix, final int segmentSize) {
+      this.in = in;
+      this.noncePrefix = noncePrefix;
+      this.ciphertext = new byte[segmentSize + TAG_LENGTH + 1];
+      this.plaintext = new byte[segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      return plaintext[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      final var read = Math.min(len, length - position);
+      System.arraycopy(plaintext, position, bytes, offset, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+      while (position == length) {
+        if (lastRead) {
+          return false;
+        }
+        openSegment();
+      }
+      return true;
+    }
+
+    private void openSegment() throws IOException {
+      final var read = carried + in.readNBytes(ciphertext, carried, ciphertext.length - carried);
+      lastRead = read < ciphertext.length;
+      final var segmentLength = lastRead ? read : read - 1;
+      if (segmentLength < TAG_LENGTH) {
+        throw new EOFException("Encrypted object is truncated");
+      }
+      try {
+        length = cipher(Cipher.DECRYPT_MODE, noncePrefix, segment, lastRead)
+            .doFinal(ciphertext, 0, segmentLength, plaintext, 0);
+        position = 0;
+      } catch (GeneralSecurityException ex) {
+        throw new IOException(String.format(ERR_MSG_DECRYPTION_FAILED, segment), ex);
+      }
+      segment++;
+      if (!lastRead) {
+        ciphertext[0] = ciphertext[read - 1];
+        carried = 1;
+      }
+    }
+
+  }
+
+}
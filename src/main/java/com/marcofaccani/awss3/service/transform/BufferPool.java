@@ -0,0 +1,35 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Recycles the fixed-size buffers used to move bytes through the pipeline, so that a transfer does not allocate a
+ * new set of buffers. Buffers are allocated on demand when the pool is empty and dropped when it is full.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> buffers;
+
+  public BufferPool(final int bufferSize, final int capacity) {
+    this.bufferSize = bufferSize;
+    this.buffers = new ArrayBlockingQueue<>(Math.max(1, capacity));
+  }
+
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  public byte[] acquire() {
+    final var buffer = buffers.poll();
+    return buffer != null ? buffer : new byte[bufferSize];
+  }
+
+  public void release(final byte[] buffer) {
+    if (buffer.length == bufferSize) {
+      buffers.offer(buffer);
+    }
+  }
+
+}
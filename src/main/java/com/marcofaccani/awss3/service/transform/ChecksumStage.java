@@ -0,0 +1,157 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes a checksum of the bytes going through it, records it in the object metadata on upload and verifies it once
+ * the whole object has been read on download. Put first in the pipeline, it covers the original content of the file.
+ */
+public class ChecksumStage implements TransformStage {
+
+  public static final String CRC32C_NAME = "crc32c";
+  public static final String SHA256_NAME = "sha256";
+  public static final String ERR_MSG_CHECKSUM_MISMATCH = "%s checksum mismatch: expected %s, computed %s";
+
+  private final String name;
+  private final Supplier<Accumulator> accumulatorFactory;
+
+  private ChecksumStage(final String name, final Supplier<Accumulator> accumulatorFactory) {
+    this.name = name;
+    this.accumulatorFactory = accumulatorFactory;
+  }
+
+  public static ChecksumStage crc32c() {
+    return new ChecksumStage(CRC32C_NAME, () -> {
+      final var crc = new CRC32C();
+      return new Accumulator() {
+        @Override
+        public void update(final byte[] bytes, final int offset, final int length) {
+          crc.update(bytes, offset, length);
+        }
+
+        @Override
+        public String value() {
+          return String.format("%08x", crc.getValue());
+        }
+      };
+    });
+  }
+
+  public static ChecksumStage sha256() {
+    return new ChecksumStage(SHA256_NAME, () -> {
+      final var digest = newSha256Digest();
+      return new Accumulator() {
+        @Override
+        public void update(final byte[] bytes, final int offset, final int length) {
+          digest.update(bytes, offset, length);
+        }
+
+        @Override
+        public String value() {
+          return HexFormat.of().formatHex(digest.digest());
+        }
+      };
+    });
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public OutputStream encode(final OutputStream out, final Map<String, String> metadata) {
+    final var accumulator = accumulatorFactory.get();
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        accumulator.update(bytes, offset, length);
+        out.write(bytes, offset, length);
+      }
+
+      @Override
+      public void close() throws IOException {
+        metadata.put(metadataKey(), accumulator.value());
+        super.close();
+      }
+    };
+  }
+
+  @Override
+  public InputStream decode(final InputStream in, final Map<String, String> metadata) {
+    final var expected = metadata.get(metadataKey());
+    final var accumulator = accumulatorFactory.get();
+    return new FilterInputStream(in) {
+      private boolean verified;
+
+      @Override
+      public int read() throws IOException {
+        final var single = new byte[1];
+        final var read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xff;
+      }
+
+      @Override
+      public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        final var read = in.read(bytes, offset, length);
+        if (read > 0) {
+          accumulator.update(bytes, offset, read);
+        } else if (read < 0 && !verified) {
+          verified = true;
+          final var actual = accumulator.value();
+          if (expected != null && !expected.equals(actual)) {
+            throw new IOException(String.format(ERR_MSG_CHECKSUM_MISMATCH, name, expected, actual));
+          }
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(final long n) throws IOException {
+        // Skipped bytes must be checksummed too
+        return readNBytes((int) Math.min(n, Integer.MAX_VALUE)).length;
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+
+  private String metadataKey() {
+    return TransformPipeline.METADATA_PREFIX + name;
+  }
+
+  private static MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private interface Accumulator {
+
+    void update(byte[] bytes, int offset, int length);
+
+    String value();
+
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.marcofaccani.awss3.config.CompressionConfigProperties;
+import com.marcofaccani.awss3.exceptions.ObjectTransformException;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which uploads are stored compressed: those whose content type (declared by the client, or guessed from the
+ * file name) is one of the configured compressible types. Compression is added to the configured transform stages,
+ * after the checksums (which cover the original content) and before encryption (encrypted bytes do not compress).
+ */
+@Component
+public class CompressionPolicy {
+
+  public static final String ERR_MSG_UNSUPPORTED_ALGORITHM = "Unsupported compression algorithm %s, expected gzip or zstd";
+
+  private final CompressionConfigProperties compressionConfigProperties;
+  private final List<MediaType> compressibleTypes;
+
+  public CompressionPolicy(final CompressionConfigProperties compressionConfigProperties) {
+    this.compressionConfigProperties = compressionConfigProperties;
+    this.compressibleTypes = compressionConfigProperties.getCompressibleTypes() == null
+        ? List.of()
+        : compressionConfigProperties.getCompressibleTypes().stream().map(MediaType::parseMediaType).toList();
+    if (compressionConfigProperties.isEnabled()
+        && !TransformPipeline.isCompression(compressionConfigProperties.getAlgorithm())) {
+      throw new ObjectTransformException(
+          String.format(ERR_MSG_UNSUPPORTED_ALGORITHM, compressionConfigProperties.getAlgorithm()));
+    }
+  }
+
+  /**
+   * Returns the declared content type, or the one matching the file extension when the client did not declare any.
+   */
+  public Optional<MediaType> contentType(final String fileName, final String declaredContentType) {
+    if (declaredContentType != null && !declaredContentType.isBlank()) {
+      try {
+        final var mediaType = MediaType.parseMediaType(declaredContentType);
+        if (!MediaType.APPLICATION_OCTET_STREAM.equalsTypeAndSubtype(mediaType)) {
+          return Optional.of(mediaType);
+        }
+      } catch (InvalidMediaTypeException ex) {
+        // Fall back to the file extension
+      }
+    }
+    return fileName == null ? Optional.empty() : MediaTypeFactory.getMediaType(fileName);
+  }
+
+  /**
+   * Returns the stages to apply to an upload, given the configured ones.
+   */
+  public List<String> stagesFor(final Optional<MediaType> contentType, final long contentLength,
+      final List<String> configuredStages) {
+    if (!compressionConfigProperties.isEnabled()
+        || (contentLength >= 0 && contentLength < compressionConfigProperties.getMinSize().toBytes())
+        || configuredStages.stream().anyMatch(TransformPipeline::isCompression)
+        || contentType.filter(type -> compressibleTypes.stream().anyMatch(compressible -> compressible.includes(type))).isEmpty()) {
+      return configuredStages;
+    }
+    final var stages = new ArrayList<>(configuredStages);
+    var position = 0;
+    while (position < stages.size() && TransformPipeline.isChecksum(stages.get(position))) {
+      position++;
+    }
+    stages.add(position, compressionConfigProperties.getAlgorithm());
+    return stages;
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Compresses the bytes going through it, with gzip (portable, any tool can read the object back) or zstd (much faster
+ * at a similar ratio).
+ */
+public class CompressionStage implements TransformStage {
+
+  public static final String GZIP_NAME = "gzip";
+  public static final String ZSTD_NAME = "zstd";
+
+  private final String name;
+  private final int bufferSize;
+
+  private CompressionStage(final String name, final int bufferSize) {
+    this.name = name;
+    this.bufferSize = bufferSize;
+  }
+
+  public static CompressionStage gzip(final int bufferSize) {
+    return new CompressionStage(GZIP_NAME, bufferSize);
+  }
+
+  public static CompressionStage zstd(final int bufferSize) {
+    return new CompressionStage(ZSTD_NAME, bufferSize);
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public OutputStream encode(final OutputStream out, final Map<String, String> metadata) throws IOException {
+    return GZIP_NAME.equals(name) ? new GZIPOutputStream(out, bufferSize) : new ZstdOutputStream(out);
+  }
+
+  @Override
+  public InputStream decode(final InputStream in, final Map<String, String> metadata) throws IOException {
+    return GZIP_NAME.equals(name) ? new GZIPInputStream(in, bufferSize) : new ZstdInputStream(in);
+  }
+
+}
@@ -0,0 +1,113 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the output of the pipeline until it is uploaded (S3 needs its length upfront): in pooled buffers up to
+ * {@code memoryThreshold} bytes, then in a temporary file.
+ */
+class SpoolOutputStream extends OutputStream {
+
+  private final BufferPool bufferPool;
+  private final long memoryThreshold;
+  private final List<byte[]> buffers = new ArrayList<>();
+  private int lastBufferLength;
+  private long length;
+  private Path file;
+  private OutputStream fileOut;
+
+  SpoolOutputStream(final BufferPool bufferPool, final long memoryThreshold) {
+    this.bufferPool = bufferPool;
+    this.memoryThreshold = memoryThreshold;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(final byte[] bytes, int offset, int remaining) throws IOException {
+    if (fileOut == null && length + remaining > memoryThreshold) {
+      spillToFile();
+    }
+    length += remaining;
+    if (fileOut != null) {
+      fileOut.write(bytes, offset, remaining);
+      return;
+    }
+    while (remaining > 0) {
+      if (buffers.isEmpty() || lastBufferLength == bufferPool.bufferSize()) {
+        buffers.add(bufferPool.acquire());
+        lastBufferLength = 0;
+      }
+      final var copied = Math.min(remaining, bufferPool.bufferSize() - lastBufferLength);
+      System.arraycopy(bytes, offset, buffers.get(buffers.size() - 1), lastBufferLength, copied);
+      lastBufferLength += copied;
+      offset += copied;
+      remaining -= copied;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fileOut != null) {
+      fileOut.close();
+    }
+  }
+
+  long length() {
+    return length;
+  }
+
+  InputStream newInputStream() throws IOException {
+    if (file != null) {
+      return Files.newInputStream(file);
+    }
+    return memoryInputStream();
+  }
+
+  private InputStream memoryInputStream() {
+    final var streams = new ArrayList<InputStream>();
+    for (int i = 0; i < buffers.size(); i++) {
+      final var bufferLength = i == buffers.size() - 1 ? lastBufferLength : bufferPool.bufferSize();
+      streams.add(new ByteArrayInputStream(buffers.get(i), 0, bufferLength));
+    }
+    return new SequenceInputStream(Collections.enumeration(streams));
+  }
+
+  /**
+   * Gives the buffers back to the pool and deletes the temporary file, if any.
+   */
+  void discard() {
+    buffers.forEach(bufferPool::release);
+    buffers.clear();
+    try {
+      close();
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException ex) {
+      // Temporary file, left to the OS
+    }
+  }
+
+  private void spillToFile() throws IOException {
+    file = Files.createTempFile("transform-", ".spool");
+    fileOut = new BufferedOutputStream(Files.newOutputStream(file), bufferPool.bufferSize());
+    memoryInputStream().transferTo(fileOut);
+    buffers.forEach(bufferPool::release);
+    buffers.clear();
+  }
+
+}
@@ -0,0 +1,242 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.marcofaccani.awss3.config.TransformConfigProperties;
+import com.marcofaccani.awss3.exceptions.ObjectTransformException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * Applies the configured {@link TransformStage}s (checksum, compression, encryption...) to objects in a single pass:
+ * the stages are chained streams, so each byte of the file is read once and goes through all of them before landing
+ * in a spool made of pooled buffers. The stages applied are recorded in the object metadata, so that objects are
+ * reverted with the stages they were written with, whatever the current configuration is.
+ */
+@Log4j2
+@Component
+public class TransformPipeline {
+
+  public static final String METADATA_PREFIX = "transform-";
+  public static final String METADATA_STAGES = METADATA_PREFIX + "stages";
+  public static final String METADATA_PLAIN_LENGTH = METADATA_PREFIX + "plain-length";
+  public static final String ERR_MSG_UNKNOWN_STAGE = "Unknown transform stage %s";
+  public static final String ERR_MSG_MISSING_ENCRYPTION_KEY = "Stage %s requires app.aws.s3.transform.encryption-key to be set";
+  public static final String ERR_MSG_INVALID_ENCRYPTION_KEY = "Encryption key must be a base64 encoded 128, 192 or 256 bits AES key";
+  public static final String MSG_PIPELINE_CONFIGURED = "Uploads are transformed with stages %s";
+
+  private final TransformConfigProperties transformConfigProperties;
+  private final BufferPool bufferPool;
+  private final List<String> stageNames;
+
+  public TransformPipeline(final TransformConfigProperties transformConfigProperties) {
+    this.transformConfigProperties = transformConfigProperties;
+    this.bufferPool = new BufferPool((int) transformConfigProperties.getBufferSize().toBytes(),
+        transformConfigProperties.getBufferPoolSize());
+    final var configuredStages = transformConfigProperties.getStages() == null
+        ? List.<String>of()
+        : transformConfigProperties.getStages();
+    // Fail at boot rather than on first upload
+    configuredStages.forEach(this::stage);
+    this.stageNames = List.copyOf(configuredStages);
+    if (!stageNames.isEmpty()) {
+      log.info(String.format(MSG_PIPELINE_CONFIGURED, stageNames));
+    }
+  }
+
+  public static boolean isChecksum(final String stageName) {
+    return ChecksumStage.CRC32C_NAME.equals(stageName) || ChecksumStage.SHA256_NAME.equals(stageName);
+  }
+
+  public static boolean isCompression(final String stageName) {
+    return CompressionStage.GZIP_NAME.equals(stageName) || CompressionStage.ZSTD_NAME.equals(stageName);
+  }
+
+  /**
+   * Returns the HTTP content coding (gzip, zstd) of the stored bytes, when the only stage altering them is a
+   * compression: such objects can be served as they are to clients accepting that coding.
+   */
+  public static Optional<String> contentCoding(final Map<String, String> metadata) {
+    final var altering = stageNames(metadata).stream().filter(name -> !isChecksum(name)).toList();
+    return altering.size() == 1 && isCompression(altering.get(0)) ? Optional.of(altering.get(0)) : Optional.empty();
+  }
+
+  /**
+   * Stages applied to uploads by default.
+   */
+  public List<String> stageNames() {
+    return stageNames;
+  }
+
+  /**
+   * Runs the content through the configured stages.
+   */
+  public EncodedContent encode(final InputStream inputStream) throws IOException {
+    return encode(inputStream, stageNames);
+  }
+
+  /**
+   * Runs the content through the given stages. The returned content must be closed once uploaded, to give its buffers
+   * back to the pool.
+   */
+  public EncodedContent encode(final InputStream inputStream, final List<String> names) throws IOException {
+    final var stages = names.stream().map(this::stage).toList();
+    final var metadata = new HashMap<String, String>();
+    metadata.put(METADATA_STAGES, String.join(",", names));
+    final var spool = new SpoolOutputStream(bufferPool, transformConfigProperties.getSpoolMemoryThreshold().toBytes());
+    final var buffer = bufferPool.acquire();
+    try {
+      long plainLength = 0;
+      try (var out = encodingStream(stages, spool, metadata)) {
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+          plainLength += read;
+        }
+      }
+      metadata.put(METADATA_PLAIN_LENGTH, Long.toString(plainLength));
+      return new EncodedContent(spool, metadata);
+    } catch (IOException | RuntimeException ex) {
+      spool.discard();
+      throw ex;
+    } finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+  /**
+   * Reverts the stages recorded in the metadata of the object, if any.
+   */
+  public ResponseInputStream<GetObjectResponse> decode(final ResponseInputStream<GetObjectResponse> object)
+      throws IOException {
+    return decode(object, List.of());
+  }
+
+  /**
+   * Reverts the stages recorded in the metadata of the object, if any, unless the object is only compressed with one
+   * of the accepted content codings: its bytes are then returned as they are, with the coding as content encoding.
+   */
+  public ResponseInputStream<GetObjectResponse> decode(final ResponseInputStream<GetObjectResponse> object,
+      final List<String> acceptedCodings) throws IOException {
+    final var response = object.response();
+    if (!response.metadata().containsKey(METADATA_STAGES)) {
+      return object;
+    }
+    final var coding = contentCoding(response.metadata());
+    if (coding.filter(name -> acceptedCodings.contains(name) || acceptedCodings.contains("*")).isPresent()) {
+      return new ResponseInputStream<>(response.toBuilder().contentEncoding(coding.get()).build(),
+          AbortableInputStream.create(object, object::abort));
+    }
+    final var decoded = decode(object, response.metadata());
+    final var plainLength = response.metadata().get(METADATA_PLAIN_LENGTH);
+    final var decodedResponse = response.toBuilder()
+        .contentEncoding(null)
+        .contentLength(plainLength == null ? null : Long.parseLong(plainLength))
+        .build();
+    return new ResponseInputStream<>(decodedResponse, AbortableInputStream.create(decoded, object::abort));
+  }
+
+  public InputStream decode(final InputStream inputStream, final Map<String, String> metadata) throws IOException {
+    final var objectStages = stageNames(metadata).stream().map(this::stage).toList();
+    var decoded = inputStream;
+    for (int i = objectStages.size() - 1; i >= 0; i--) {
+      decoded = objectStages.get(i).decode(decoded, metadata);
+    }
+    return decoded;
+  }
+
+  private static OutputStream encodingStream(final List<TransformStage> stages, final OutputStream sink,
+      final Map<String, String> metadata) throws IOException {
+    var out = sink;
+    for (int i = stages.size() - 1; i >= 0; i--) {
+      out = stages.get(i).encode(out, metadata);
+    }
+    return out;
+  }
+
+  private static List<String> stageNames(final Map<String, String> metadata) {
+    final var names = metadata.getOrDefault(METADATA_STAGES, "");
+    return names.isEmpty() ? List.of() : Arrays.asList(names.split(","));
+  }
+
+  private TransformStage stage(final String name) {
+    final var bufferSize = bufferPool.bufferSize();
+    return switch (name) {
+      case ChecksumStage.CRC32C_NAME -> ChecksumStage.crc32c();
+      case ChecksumStage.SHA256_NAME -> ChecksumStage.sha256();
+      case CompressionStage.GZIP_NAME -> CompressionStage.gzip(bufferSize);
+      case CompressionStage.ZSTD_NAME -> CompressionStage.zstd(bufferSize);
+      case AesGcmStage.NAME -> new AesGcmStage(encryptionKey(), bufferSize);
+      default -> throw new ObjectTransformException(String.format(ERR_MSG_UNKNOWN_STAGE, name));
+    };
+  }
+
+  private SecretKeySpec encryptionKey() {
+    final var encodedKey = transformConfigProperties.getEncryptionKey();
+    if (encodedKey == null || encodedKey.isBlank()) {
+      throw new ObjectTransformException(String.format(ERR_MSG_MISSING_ENCRYPTION_KEY, AesGcmStage.NAME));
+    }
+    try {
+      final var key = Base64.getDecoder().decode(encodedKey.trim());
+      if (key.length != 16 && key.length != 24 && key.length != 32) {
+        throw new ObjectTransformException(ERR_MSG_INVALID_ENCRYPTION_KEY);
+      }
+      return new SecretKeySpec(key, "AES");
+    } catch (IllegalArgumentException ex) {
+      throw new ObjectTransformException(ERR_MSG_INVALID_ENCRYPTION_KEY);
+    }
+  }
+
+  /**
+   * Transformed content, along with the metadata to store with the object.
+   */
+  public static class EncodedContent implements AutoCloseable {
+
+    private final SpoolOutputStream spool;
+    private final Map<String, String> metadata;
+
+    private EncodedContent(final SpoolOutputStream spool, final Map<String, String> metadata) {
+      this.spool = spool;
+      this.metadata = Map.copyOf(metadata);
+    }
+
+    public Map<String, String> metadata() {
+      return metadata;
+    }
+
+    public long length() {
+      return spool.length();
+    }
+
+    /**
+     * Opens a new stream over the content, which can be read as many times as needed (e.g. on upload retries).
+     */
+    public InputStream newInputStream() {
+      try {
+        return spool.newInputStream();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    public void close() {
+      spool.discard();
+    }
+
+  }
+
+}
@@ -0,0 +1,31 @@
+package com.marcofaccani.awss3.service.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * A step of the {@link TransformPipeline}, applied to the bytes of an object on their way to S3 and reverted on their
+ * way back. Stages are streaming: they never hold more than a buffer of the object in memory.
+ */
+public interface TransformStage {
+
+  /**
+   * Name recorded in the object metadata, hence used to pick the stage reverting the transformation when the object is
+   * read: it must never change.
+   */
+  String name();
+
+  /**
+   * Wraps the stream the transformed bytes are written to. Values the stage needs to revert the transformation can be
+   * put in {@code metadata} until the returned stream is closed.
+   */
+  OutputStream encode(OutputStream out, Map<String, String> metadata) throws IOException;
+
+  /**
+   * Wraps the stream of transformed bytes, given the metadata recorded by {@link #encode}.
+   */
+  InputStream decode(InputStream in, Map<String, String> metadata) throws IOException;
+
+}
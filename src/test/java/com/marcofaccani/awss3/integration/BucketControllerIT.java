@@ -1,7 +1,6 @@
 package com.marcofaccani.awss3.integration;
 
-import java.io.IOException;
-
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server;
 import com.marcofaccani.awss3.service.BucketServiceImpl;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,9 +17,6 @@ import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
-import org.testcontainers.containers.localstack.LocalStackContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.utility.DockerImageName;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
@@ -31,7 +27,6 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.testcontainers.containers.localstack.LocalStackContainer.Service.S3;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @AutoConfigureWebTestClient
@@ -39,22 +34,16 @@ public class BucketControllerIT {
 
   private static final String BUCKET_NAME = "dummy-bucket-name";
 
-  @Container
-  static LocalStackContainer localStack;
-
-  static {
-    final var dockerImageName = DockerImageName.parse("localstack/localstack:2.1");
-    localStack = new LocalStackContainer(dockerImageName).withServices(S3);
-    localStack.start();
-  }
+  static final FakeS3Server fakeS3 = FakeS3Server.start();
 
   @DynamicPropertySource
   static void overrideConfiguration(DynamicPropertyRegistry registry) {
     registry.add("app.aws.s3.bucket-name", () -> BUCKET_NAME);
-    registry.add("spring.cloud.aws.endpoint", () -> localStack.getEndpointOverride(S3));
-    registry.add("spring.cloud.aws.region.static", localStack::getRegion);
-    registry.add("spring.cloud.aws.credentials.access-key", localStack::getAccessKey);
-    registry.add("spring.cloud.aws.credentials.secret-key", localStack::getSecretKey);
+    registry.add("spring.cloud.aws.endpoint", fakeS3::endpoint);
+    registry.add("spring.cloud.aws.s3.path-style-access-enabled", () -> true);
+    registry.add("spring.cloud.aws.region.static", () -> FakeS3Server.REGION);
+    registry.add("spring.cloud.aws.credentials.access-key", () -> FakeS3Server.ACCESS_KEY);
+    registry.add("spring.cloud.aws.credentials.secret-key", () -> FakeS3Server.SECRET_KEY);
   }
 
   private String baseUrl;
@@ -70,9 +59,9 @@ public class BucketControllerIT {
 
 
   @BeforeEach
-  void setup() throws IOException, InterruptedException {
+  void setup() {
     baseUrl = "http://localhost:" + appPort + "/storage/buckets";
-    localStack.execInContainer("awslocal", "s3", "mb", "s3://" + BUCKET_NAME);
+    fakeS3.createBucket(BUCKET_NAME);
   }
 
   @AfterEach
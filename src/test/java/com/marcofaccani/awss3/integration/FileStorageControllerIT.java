@@ -1,9 +1,13 @@
 package com.marcofaccani.awss3.integration;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.stream.IntStream;
 
+import com.marcofaccani.awss3.controller.FileStorageController;
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server;
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server.Operation;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,14 +19,12 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
-import org.testcontainers.containers.localstack.LocalStackContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.utility.DockerImageName;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
@@ -36,7 +38,6 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.testcontainers.containers.localstack.LocalStackContainer.Service.S3;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @AutoConfigureWebTestClient
@@ -46,27 +47,21 @@ public class FileStorageControllerIT {
   private static final String ORIGINAL_FILE_NAME = "dummyFileName.txt";
   private static final String ORIGINAL_FILE_CONTENT = "Hello, World!";
 
-  @Container
-  static LocalStackContainer localStack;
-
-  static {
-    final var dockerImageName = DockerImageName.parse("localstack/localstack:2.1");
-    localStack = new LocalStackContainer(dockerImageName).withServices(S3);
-    localStack.start();
-  }
+  static final FakeS3Server fakeS3 = FakeS3Server.start();
 
   @BeforeAll
-  static void createBucket() throws IOException, InterruptedException {
-    localStack.execInContainer("awslocal", "s3", "mb", "s3://" + BUCKET_NAME);
+  static void createBucket() {
+    fakeS3.createBucket(BUCKET_NAME);
   }
 
   @DynamicPropertySource
   static void overrideConfiguration(DynamicPropertyRegistry registry) {
     registry.add("app.aws.s3.bucket-name", () -> BUCKET_NAME);
-    registry.add("spring.cloud.aws.endpoint", () -> localStack.getEndpointOverride(S3));
-    registry.add("spring.cloud.aws.region.static", localStack::getRegion);
-    registry.add("spring.cloud.aws.credentials.access-key", localStack::getAccessKey);
-    registry.add("spring.cloud.aws.credentials.secret-key", localStack::getSecretKey);
+    registry.add("spring.cloud.aws.endpoint", fakeS3::endpoint);
+    registry.add("spring.cloud.aws.s3.path-style-access-enabled", () -> true);
+    registry.add("spring.cloud.aws.region.static", () -> FakeS3Server.REGION);
+    registry.add("spring.cloud.aws.credentials.access-key", () -> FakeS3Server.ACCESS_KEY);
+    registry.add("spring.cloud.aws.credentials.secret-key", () -> FakeS3Server.SECRET_KEY);
   }
 
   private String baseUrl;
@@ -180,6 +175,74 @@ public class FileStorageControllerIT {
 
   }
 
+  @Nested
+  class GetFileRangeIT {
+
+    @Test
+    void shouldGetFileRangeFromCachedBlocks() {
+      uploadFileToS3(ORIGINAL_FILE_NAME, ORIGINAL_FILE_CONTENT);
+      getRange("bytes=7-11")
+          .expectBody(String.class)
+          .isEqualTo("World");
+      final var getRequests = fakeS3.requests(Operation.GET_OBJECT);
+
+      getRange("bytes=0-4")
+          .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 0-4/13")
+          .expectBody(String.class)
+          .isEqualTo("Hello");
+
+      assertEquals(getRequests, fakeS3.requests(Operation.GET_OBJECT));
+    }
+
+    @Test
+    void shouldReturn416WhenRangeIsNotSatisfiable() {
+      uploadFileToS3(ORIGINAL_FILE_NAME, ORIGINAL_FILE_CONTENT);
+
+      webTestClient.get()
+          .uri(baseUrl + "/{fileName}", ORIGINAL_FILE_NAME)
+          .header(HttpHeaders.RANGE, "bytes=13-")
+          .exchange()
+          .expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    private WebTestClient.ResponseSpec getRange(final String range) {
+      return webTestClient.get()
+          .uri(baseUrl + "/{fileName}", ORIGINAL_FILE_NAME)
+          .header(HttpHeaders.RANGE, range)
+          .exchange()
+          .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT);
+    }
+
+  }
+
+  @Nested
+  class StaleFileIT {
+
+    @Test
+    void shouldServeStaleFileWhenS3Fails() {
+      uploadFileToS3(ORIGINAL_FILE_NAME, ORIGINAL_FILE_CONTENT);
+      webTestClient.get()
+          .uri(baseUrl + "/{fileName}", ORIGINAL_FILE_NAME)
+          .exchange()
+          .expectStatus().isOk()
+          .expectHeader().doesNotExist(HttpHeaders.WARNING);
+
+      fakeS3.slowDown(Operation.GET_OBJECT, 1);
+      try {
+        webTestClient.get()
+            .uri(baseUrl + "/{fileName}", ORIGINAL_FILE_NAME)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.WARNING, FileStorageController.WARNING_STALE)
+            .expectBody(String.class)
+            .isEqualTo(ORIGINAL_FILE_CONTENT);
+      } finally {
+        fakeS3.slowDown(Operation.GET_OBJECT, 0);
+      }
+    }
+
+  }
+
   @Nested
   class ListFilesInBucketIT {
 
@@ -222,6 +285,13 @@ public class FileStorageControllerIT {
       final var preSignedUrl = response.getResponseBody();
       assertNotNull(preSignedUrl);
       assertFalse(preSignedUrl.isBlank());
+
+      WebTestClient.bindToServer().build().get()
+          .uri(URI.create(preSignedUrl))
+          .exchange()
+          .expectStatus().isOk()
+          .expectBody(String.class)
+          .isEqualTo(ORIGINAL_FILE_CONTENT);
     }
   }
 
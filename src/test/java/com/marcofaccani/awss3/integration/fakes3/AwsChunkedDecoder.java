@@ -0,0 +1,58 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the {@code aws-chunked} content encoding the SDK uses to stream signed payloads: chunks made of a
+ * {@code <hex size>;chunk-signature=<signature>} line followed by the data, the last one being empty and followed by
+ * optional trailing checksums. Chunk signatures are not verified.
+ */
+final class AwsChunkedDecoder {
+
+  private AwsChunkedDecoder() {
+  }
+
+  static boolean isAwsChunked(final String contentSha256, final String contentEncoding) {
+    return (contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+        || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+  }
+
+  static byte[] decode(final InputStream inputStream) throws IOException {
+    final var decoded = new ByteArrayOutputStream();
+    while (true) {
+      final var header = readLine(inputStream);
+      if (header == null) {
+        throw new IOException("Truncated aws-chunked payload");
+      }
+      final var size = Integer.parseInt(header.split(";", 2)[0].trim(), 16);
+      if (size == 0) {
+        // Trailers, if any, are left unread
+        return decoded.toByteArray();
+      }
+      final var chunk = inputStream.readNBytes(size);
+      if (chunk.length < size) {
+        throw new IOException("Truncated aws-chunked payload");
+      }
+      decoded.write(chunk);
+      readLine(inputStream);
+    }
+  }
+
+  private static String readLine(final InputStream inputStream) throws IOException {
+    final var line = new ByteArrayOutputStream();
+    int b;
+    while ((b = inputStream.read()) != -1) {
+      if (b == '\n') {
+        final var bytes = line.toByteArray();
+        final var length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+      }
+      line.write(b);
+    }
+    return null;
+  }
+
+}
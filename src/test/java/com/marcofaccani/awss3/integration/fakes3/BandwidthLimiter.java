@@ -0,0 +1,93 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a transfer so that it doesn't exceed a given rate, like a single S3 connection would: the bytes are let
+ * through in slices and the stream sleeps whenever it gets ahead of the rate.
+ */
+final class BandwidthLimiter {
+
+  private static final int SLICE_SIZE = 16 * 1024;
+
+  private final long bytesPerSecond;
+  private final long start = System.nanoTime();
+  private long bytes;
+
+  private BandwidthLimiter(final long bytesPerSecond) {
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  static InputStream limit(final InputStream inputStream, final long bytesPerSecond) {
+    if (bytesPerSecond <= 0) {
+      return inputStream;
+    }
+    final var limiter = new BandwidthLimiter(bytesPerSecond);
+    return new FilterInputStream(inputStream) {
+
+      @Override
+      public int read() throws IOException {
+        final var read = super.read();
+        if (read >= 0) {
+          limiter.pace(1);
+        }
+        return read;
+      }
+
+      @Override
+      public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        final var read = super.read(buffer, offset, Math.min(length, SLICE_SIZE));
+        if (read > 0) {
+          limiter.pace(read);
+        }
+        return read;
+      }
+
+    };
+  }
+
+  static OutputStream limit(final OutputStream outputStream, final long bytesPerSecond) {
+    if (bytesPerSecond <= 0) {
+      return outputStream;
+    }
+    final var limiter = new BandwidthLimiter(bytesPerSecond);
+    return new FilterOutputStream(outputStream) {
+
+      @Override
+      public void write(final int b) throws IOException {
+        out.write(b);
+        limiter.pace(1);
+      }
+
+      @Override
+      public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+        for (int written = 0; written < length; written += SLICE_SIZE) {
+          final var slice = Math.min(SLICE_SIZE, length - written);
+          out.write(buffer, offset + written, slice);
+          limiter.pace(slice);
+        }
+      }
+
+    };
+  }
+
+  private void pace(final int transferred) throws IOException {
+    bytes += transferred;
+    final var aheadNanos = TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond - (System.nanoTime() - start);
+    if (aheadNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while pacing the transfer");
+      }
+    }
+  }
+
+}
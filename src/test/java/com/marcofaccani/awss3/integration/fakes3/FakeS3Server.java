@@ -0,0 +1,798 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-JVM stand-in for S3, answering the path-style requests of the SDK for the calls this service makes: buckets,
+ * objects (ranged GETs included), ListObjectsV2, server-side copies and multipart uploads. Pre-signed URLs are verified
+ * like S3 does, the other requests are accepted without checking their signature.
+ * <p>
+ * To test performance and resilience, each operation can be given a latency distribution and injected 503 SlowDown
+ * errors, and transfers can be capped to a bandwidth. The number of requests received per operation is recorded.
+ */
+public class FakeS3Server implements AutoCloseable {
+
+  public static final String ACCESS_KEY = "fake-access-key";
+  public static final String SECRET_KEY = "fake-secret-key";
+  public static final String REGION = "eu-west-3";
+
+  public enum Operation {
+    LIST_BUCKETS, HEAD_BUCKET, CREATE_BUCKET, DELETE_BUCKET,
+    LIST_OBJECTS, HEAD_OBJECT, GET_OBJECT, PUT_OBJECT, COPY_OBJECT, DELETE_OBJECT, DELETE_OBJECTS,
+    CREATE_MULTIPART_UPLOAD, UPLOAD_PART, UPLOAD_PART_COPY, COMPLETE_MULTIPART_UPLOAD, ABORT_MULTIPART_UPLOAD
+  }
+
+  private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+  private static final String XMLNS = " xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"";
+  private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+  private static final Pattern PART = Pattern.compile(
+      "<Part>.*?<ETag>(.*?)</ETag>.*?<PartNumber>(\\d+)</PartNumber>.*?</Part>"
+          + "|<Part>.*?<PartNumber>(\\d+)</PartNumber>.*?<ETag>(.*?)</ETag>.*?</Part>", Pattern.DOTALL);
+  private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+  // Headers stored with an object and returned when it is read
+  private static final List<String> OBJECT_HEADERS = List.of("content-type", "content-encoding", "content-disposition",
+      "content-language", "cache-control", "expires");
+
+  private record StoredObject(byte[] content, String eTag, Map<String, String> headers, Instant lastModified) {
+
+  }
+
+  private record Bucket(Instant creationDate, NavigableMap<String, StoredObject> objects) {
+
+  }
+
+  private record Part(byte[] content, byte[] md5) {
+
+  }
+
+  private record MultipartUpload(String bucket, String key, Map<String, String> headers, Map<Integer, Part> parts) {
+
+  }
+
+  private record Request(String method, String rawPath, String bucket, String key, Map<String, String> query,
+      Headers headers, HttpExchange exchange) {
+
+    String header(final String name) {
+      return headers.getFirst(name);
+    }
+
+  }
+
+  private record Response(int status, Map<String, String> headers, byte[] body) {
+
+    static Response empty(final int status) {
+      return new Response(status, new LinkedHashMap<>(), null);
+    }
+
+    static Response xml(final String xml) {
+      final var headers = new LinkedHashMap<String, String>();
+      headers.put("Content-Type", "application/xml");
+      return new Response(200, headers, (XML_HEADER + xml).getBytes(StandardCharsets.UTF_8));
+    }
+
+    Response header(final String name, final String value) {
+      headers.put(name, value);
+      return this;
+    }
+
+  }
+
+  private final Map<String, Bucket> buckets = new ConcurrentSkipListMap<>();
+  private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+  private final Map<Operation, Latency> latencies = new ConcurrentHashMap<>();
+  private final Map<Operation, Double> slowDownRates = new ConcurrentHashMap<>();
+  private final Map<Operation, AtomicInteger> pendingSlowDowns = new ConcurrentHashMap<>();
+  private final Map<Operation, LongAdder> requestCounts = new ConcurrentHashMap<>();
+  private final PresignedUrlVerifier presignedUrlVerifier;
+  private final ExecutorService executor;
+  private final HttpServer server;
+  private volatile Latency defaultLatency = Latency.none();
+  private volatile long bandwidth;
+
+  private FakeS3Server(final Clock clock) throws IOException {
+    this.presignedUrlVerifier = new PresignedUrlVerifier(ACCESS_KEY, SECRET_KEY, clock);
+    final var threadCounter = new AtomicInteger();
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      final var thread = new Thread(runnable, "fake-s3-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  public static FakeS3Server start() {
+    return start(Clock.systemUTC());
+  }
+
+  public static FakeS3Server start(final Clock clock) {
+    try {
+      return new FakeS3Server(clock);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Could not start the fake S3 server", ex);
+    }
+  }
+
+  public URI endpoint() {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+  }
+
+  /**
+   * Latency of all the operations without one of their own.
+   */
+  public FakeS3Server latency(final Latency latency) {
+    this.defaultLatency = latency;
+    return this;
+  }
+
+  public FakeS3Server latency(final Operation operation, final Latency latency) {
+    latencies.put(operation, latency);
+    return this;
+  }
+
+  /**
+   * Caps the rate of each upload and download, in bytes per second (0 for no cap).
+   */
+  public FakeS3Server bandwidth(final long bytesPerSecond) {
+    this.bandwidth = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Answers the given share of the requests of an operation with a 503 SlowDown error.
+   */
+  public FakeS3Server slowDown(final Operation operation, final double probability) {
+    slowDownRates.put(operation, probability);
+    return this;
+  }
+
+  /**
+   * Answers the next {@code count} requests of an operation with a 503 SlowDown error.
+   */
+  public FakeS3Server slowDownNext(final Operation operation, final int count) {
+    pendingSlowDowns.computeIfAbsent(operation, op -> new AtomicInteger()).addAndGet(count);
+    return this;
+  }
+
+  public long requests(final Operation operation) {
+    final var count = requestCounts.get(operation);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * Drops all the buckets, uploads, faults and counters.
+   */
+  public void reset() {
+    buckets.clear();
+    uploads.clear();
+    latencies.clear();
+    slowDownRates.clear();
+    pendingSlowDowns.clear();
+    requestCounts.clear();
+    defaultLatency = Latency.none();
+    bandwidth = 0;
+  }
+
+  public FakeS3Server createBucket(final String bucket) {
+    buckets.putIfAbsent(bucket, new Bucket(Instant.now(), new ConcurrentSkipListMap<>()));
+    return this;
+  }
+
+  public FakeS3Server putObject(final String bucket, final String key, final byte[] content) {
+    createBucket(bucket);
+    buckets.get(bucket).objects().put(key, new StoredObject(content, eTag(md5(content)), Map.of(), Instant.now()));
+    return this;
+  }
+
+  public Optional<byte[]> object(final String bucket, final String key) {
+    return Optional.ofNullable(buckets.get(bucket))
+        .map(existing -> existing.objects().get(key))
+        .map(StoredObject::content);
+  }
+
+  public List<String> keys(final String bucket) {
+    final var existing = buckets.get(bucket);
+    return existing == null ? List.of() : List.copyOf(existing.objects().keySet());
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    try (exchange) {
+      final var request = parse(exchange);
+      final var operation = operation(request);
+      Response response;
+      if (operation == null) {
+        response = error(405, "MethodNotAllowed", "The specified method is not allowed against this resource.");
+      } else {
+        requestCounts.computeIfAbsent(operation, op -> new LongAdder()).increment();
+        sleep(latencies.getOrDefault(operation, defaultLatency));
+        if (shouldSlowDown(operation)) {
+          response = error(503, "SlowDown", "Please reduce your request rate.");
+        } else {
+          try {
+            response = dispatch(operation, request);
+          } catch (IOException ex) {
+            throw ex;
+          } catch (Exception ex) {
+            response = error(500, "InternalError", String.valueOf(ex.getMessage()));
+          }
+        }
+      }
+      send(exchange, request.method().equals("HEAD"), response);
+    }
+  }
+
+  private static Request parse(final HttpExchange exchange) {
+    final var uri = exchange.getRequestURI();
+    final var path = uri.getRawPath().substring(1);
+    final var slash = path.indexOf('/');
+    final var bucket = decode(slash < 0 ? path : path.substring(0, slash));
+    final var key = slash < 0 || slash == path.length() - 1 ? null : decode(path.substring(slash + 1));
+    final var query = new LinkedHashMap<String, String>();
+    if (uri.getRawQuery() != null) {
+      for (var param : uri.getRawQuery().split("&")) {
+        final var parts = param.split("=", 2);
+        query.put(decode(parts[0]), parts.length > 1 ? decode(parts[1]) : "");
+      }
+    }
+    return new Request(exchange.getRequestMethod(), uri.getRawPath(), bucket, key, query,
+        exchange.getRequestHeaders(), exchange);
+  }
+
+  private static Operation operation(final Request request) {
+    final var copy = request.header("x-amz-copy-source") != null;
+    final var uploadId = request.query().containsKey("uploadId");
+    if (request.bucket().isEmpty()) {
+      return request.method().equals("GET") ? Operation.LIST_BUCKETS : null;
+    }
+    if (request.key() == null) {
+      return switch (request.method()) {
+        case "HEAD" -> Operation.HEAD_BUCKET;
+        case "PUT" -> Operation.CREATE_BUCKET;
+        case "DELETE" -> Operation.DELETE_BUCKET;
+        case "GET" -> Operation.LIST_OBJECTS;
+        case "POST" -> request.query().containsKey("delete") ? Operation.DELETE_OBJECTS : null;
+        default -> null;
+      };
+    }
+    return switch (request.method()) {
+      case "GET" -> Operation.GET_OBJECT;
+      case "HEAD" -> Operation.HEAD_OBJECT;
+      case "PUT" -> uploadId
+          ? (copy ? Operation.UPLOAD_PART_COPY : Operation.UPLOAD_PART)
+          : (copy ? Operation.COPY_OBJECT : Operation.PUT_OBJECT);
+      case "DELETE" -> uploadId ? Operation.ABORT_MULTIPART_UPLOAD : Operation.DELETE_OBJECT;
+      case "POST" -> request.query().containsKey("uploads") ? Operation.CREATE_MULTIPART_UPLOAD
+          : uploadId ? Operation.COMPLETE_MULTIPART_UPLOAD : null;
+      default -> null;
+    };
+  }
+
+  private Response dispatch(final Operation operation, final Request request) throws IOException {
+    if (PresignedUrlVerifier.isPresigned(request.query())) {
+      final var errorCode = presignedUrlVerifier.verify(request.method(), request.rawPath(), request.query(),
+          request.headers());
+      if (errorCode != null) {
+        return error(403, errorCode, "Pre-signed URL refused: " + errorCode);
+      }
+    }
+    return switch (operation) {
+      case LIST_BUCKETS -> listBuckets();
+      case HEAD_BUCKET -> bucket(request.bucket()) == null ? noSuchBucket() : Response.empty(200);
+      case CREATE_BUCKET -> createBucket(request);
+      case DELETE_BUCKET -> deleteBucket(request);
+      case LIST_OBJECTS -> listObjects(request);
+      case HEAD_OBJECT, GET_OBJECT -> getObject(request);
+      case PUT_OBJECT -> putObject(request);
+      case COPY_OBJECT -> copyObject(request);
+      case DELETE_OBJECT -> deleteObject(request);
+      case DELETE_OBJECTS -> deleteObjects(request);
+      case CREATE_MULTIPART_UPLOAD -> createMultipartUpload(request);
+      case UPLOAD_PART -> uploadPart(request);
+      case UPLOAD_PART_COPY -> uploadPartCopy(request);
+      case COMPLETE_MULTIPART_UPLOAD -> completeMultipartUpload(request);
+      case ABORT_MULTIPART_UPLOAD -> uploads.remove(request.query().get("uploadId")) == null
+          ? noSuchUpload() : Response.empty(204);
+    };
+  }
+
+  private Response listBuckets() {
+    final var xml = new StringBuilder("<ListAllMyBucketsResult" + XMLNS + "><Owner><ID>fake</ID>"
+        + "<DisplayName>fake</DisplayName></Owner><Buckets>");
+    buckets.forEach((name, bucket) -> xml.append("<Bucket><Name>").append(escape(name)).append("</Name><CreationDate>")
+        .append(isoDate(bucket.creationDate())).append("</CreationDate></Bucket>"));
+    return Response.xml(xml.append("</Buckets></ListAllMyBucketsResult>").toString());
+  }
+
+  private Response createBucket(final Request request) {
+    final var created = new Bucket(Instant.now(), new ConcurrentSkipListMap<>());
+    if (buckets.putIfAbsent(request.bucket(), created) != null) {
+      return error(409, "BucketAlreadyOwnedByYou", "Your previous request to create the named bucket succeeded.");
+    }
+    return Response.empty(200).header("Location", "/" + request.bucket());
+  }
+
+  private Response deleteBucket(final Request request) {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    if (!bucket.objects().isEmpty()) {
+      return error(409, "BucketNotEmpty", "The bucket you tried to delete is not empty.");
+    }
+    buckets.remove(request.bucket());
+    return Response.empty(204);
+  }
+
+  private Response listObjects(final Request request) {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var query = request.query();
+    final var prefix = query.getOrDefault("prefix", "");
+    final var delimiter = query.get("delimiter");
+    final var maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+    final var urlEncoded = "url".equals(query.get("encoding-type"));
+    String from = query.get("start-after");
+    if (query.containsKey("continuation-token")) {
+      from = new String(Base64.getDecoder().decode(query.get("continuation-token")), StandardCharsets.UTF_8);
+    }
+
+    final var contents = new ArrayList<Map.Entry<String, StoredObject>>();
+    final var commonPrefixes = new LinkedHashSet<String>();
+    final var candidates = from == null || from.compareTo(prefix) < 0
+        ? bucket.objects().tailMap(prefix, true) : bucket.objects().tailMap(from, false);
+    String last = null;
+    var truncated = false;
+    for (var entry : candidates.entrySet()) {
+      final var key = entry.getKey();
+      if (!key.startsWith(prefix)) {
+        break;
+      }
+      final var delimiterIndex = delimiter == null || delimiter.isEmpty()
+          ? -1 : key.indexOf(delimiter, prefix.length());
+      final var commonPrefix = delimiterIndex < 0 ? null : key.substring(0, delimiterIndex + delimiter.length());
+      if (commonPrefix != null && commonPrefixes.contains(commonPrefix)) {
+        continue;
+      }
+      if (contents.size() + commonPrefixes.size() == maxKeys) {
+        truncated = true;
+        break;
+      }
+      if (commonPrefix != null) {
+        commonPrefixes.add(commonPrefix);
+        // Resumes after all the keys rolled up in the common prefix
+        last = commonPrefix + Character.MAX_VALUE;
+      } else {
+        contents.add(entry);
+        last = key;
+      }
+    }
+
+    final var xml = new StringBuilder("<ListBucketResult" + XMLNS + ">")
+        .append("<Name>").append(escape(request.bucket())).append("</Name>")
+        .append("<Prefix>").append(listedName(prefix, urlEncoded)).append("</Prefix>")
+        .append("<KeyCount>").append(contents.size() + commonPrefixes.size()).append("</KeyCount>")
+        .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+        .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+    if (delimiter != null) {
+      xml.append("<Delimiter>").append(listedName(delimiter, urlEncoded)).append("</Delimiter>");
+    }
+    if (urlEncoded) {
+      xml.append("<EncodingType>url</EncodingType>");
+    }
+    if (query.containsKey("continuation-token")) {
+      xml.append("<ContinuationToken>").append(query.get("continuation-token")).append("</ContinuationToken>");
+    }
+    if (truncated) {
+      xml.append("<NextContinuationToken>")
+          .append(Base64.getEncoder().encodeToString(last.getBytes(StandardCharsets.UTF_8)))
+          .append("</NextContinuationToken>");
+    }
+    contents.forEach(entry -> xml.append("<Contents><Key>").append(listedName(entry.getKey(), urlEncoded))
+        .append("</Key><LastModified>").append(isoDate(entry.getValue().lastModified()))
+        .append("</LastModified><ETag>").append(escape(entry.getValue().eTag()))
+        .append("</ETag><Size>").append(entry.getValue().content().length)
+        .append("</Size><StorageClass>STANDARD</StorageClass></Contents>"));
+    commonPrefixes.forEach(commonPrefix -> xml.append("<CommonPrefixes><Prefix>")
+        .append(listedName(commonPrefix, urlEncoded)).append("</Prefix></CommonPrefixes>"));
+    return Response.xml(xml.append("</ListBucketResult>").toString());
+  }
+
+  private Response getObject(final Request request) {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var object = bucket.objects().get(request.key());
+    if (object == null) {
+      return error(404, "NoSuchKey", "The specified key does not exist.");
+    }
+    final var ifMatch = request.header("If-Match");
+    if (ifMatch != null && !ifMatch.equals("*") && !unquote(ifMatch).equals(unquote(object.eTag()))) {
+      return error(412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold");
+    }
+    final var ifNoneMatch = request.header("If-None-Match");
+    if (ifNoneMatch != null && (ifNoneMatch.equals("*") || unquote(ifNoneMatch).equals(unquote(object.eTag())))) {
+      return Response.empty(304).header("ETag", object.eTag());
+    }
+
+    final var length = object.content().length;
+    var status = 200;
+    var start = 0;
+    var end = length - 1;
+    final var range = request.header("Range");
+    if (range != null) {
+      final var matcher = RANGE.matcher(range.trim());
+      if (matcher.matches()) {
+        if (matcher.group(1).isEmpty()) {
+          start = Math.max(0, length - Integer.parseInt(matcher.group(2)));
+        } else {
+          start = Integer.parseInt(matcher.group(1));
+          end = matcher.group(2).isEmpty() ? length - 1 : Math.min(length - 1, Integer.parseInt(matcher.group(2)));
+        }
+        if (start >= length) {
+          return error(416, "InvalidRange", "The requested range is not satisfiable")
+              .header("Content-Range", "bytes */" + length);
+        }
+        status = 206;
+      }
+    }
+
+    final var body = Arrays.copyOfRange(object.content(), start, end + 1);
+    final var response = new Response(status, new LinkedHashMap<>(object.headers()), body)
+        .header("ETag", object.eTag())
+        .header("Last-Modified", HTTP_DATE.format(object.lastModified()))
+        .header("Accept-Ranges", "bytes");
+    response.headers().putIfAbsent("content-type", "binary/octet-stream");
+    if (status == 206) {
+      response.header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+    }
+    return response;
+  }
+
+  private Response putObject(final Request request) throws IOException {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var content = readBody(request);
+    final var object = new StoredObject(content, eTag(md5(content)), objectHeaders(request.headers()),
+        Instant.now());
+    bucket.objects().put(request.key(), object);
+    return Response.empty(200).header("ETag", object.eTag());
+  }
+
+  private Response copyObject(final Request request) {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var source = copySource(request);
+    if (source == null) {
+      return error(404, "NoSuchKey", "The specified key does not exist.");
+    }
+    final var headers = "REPLACE".equals(request.header("x-amz-metadata-directive"))
+        ? objectHeaders(request.headers()) : source.headers();
+    final var copy = new StoredObject(source.content(), source.eTag(), headers, Instant.now());
+    bucket.objects().put(request.key(), copy);
+    return Response.xml("<CopyObjectResult" + XMLNS + "><LastModified>" + isoDate(copy.lastModified())
+        + "</LastModified><ETag>" + escape(copy.eTag()) + "</ETag></CopyObjectResult>");
+  }
+
+  private Response deleteObject(final Request request) {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    bucket.objects().remove(request.key());
+    return Response.empty(204);
+  }
+
+  private Response deleteObjects(final Request request) throws IOException {
+    final var bucket = bucket(request.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var body = new String(readBody(request), StandardCharsets.UTF_8);
+    final var quiet = body.contains("<Quiet>true</Quiet>");
+    final var xml = new StringBuilder("<DeleteResult" + XMLNS + ">");
+    final var matcher = KEY.matcher(body);
+    while (matcher.find()) {
+      final var key = unescape(matcher.group(1));
+      bucket.objects().remove(key);
+      if (!quiet) {
+        xml.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+      }
+    }
+    return Response.xml(xml.append("</DeleteResult>").toString());
+  }
+
+  private Response createMultipartUpload(final Request request) {
+    if (bucket(request.bucket()) == null) {
+      return noSuchBucket();
+    }
+    final var uploadId = UUID.randomUUID().toString();
+    uploads.put(uploadId, new MultipartUpload(request.bucket(), request.key(), objectHeaders(request.headers()),
+        new ConcurrentSkipListMap<>()));
+    return Response.xml("<InitiateMultipartUploadResult" + XMLNS + "><Bucket>" + escape(request.bucket())
+        + "</Bucket><Key>" + escape(request.key()) + "</Key><UploadId>" + uploadId
+        + "</UploadId></InitiateMultipartUploadResult>");
+  }
+
+  private Response uploadPart(final Request request) throws IOException {
+    final var upload = upload(request);
+    if (upload == null) {
+      return noSuchUpload();
+    }
+    final var content = readBody(request);
+    final var part = new Part(content, md5(content));
+    upload.parts().put(Integer.parseInt(request.query().get("partNumber")), part);
+    return Response.empty(200).header("ETag", eTag(part.md5()));
+  }
+
+  private Response uploadPartCopy(final Request request) {
+    final var upload = upload(request);
+    if (upload == null) {
+      return noSuchUpload();
+    }
+    final var source = copySource(request);
+    if (source == null) {
+      return error(404, "NoSuchKey", "The specified key does not exist.");
+    }
+    var content = source.content();
+    final var range = request.header("x-amz-copy-source-range");
+    if (range != null) {
+      final var matcher = RANGE.matcher(range.trim());
+      if (!matcher.matches() || matcher.group(1).isEmpty() || matcher.group(2).isEmpty()
+          || Long.parseLong(matcher.group(2)) >= content.length) {
+        return error(400, "InvalidArgument", "The x-amz-copy-source-range value must be of the form "
+            + "bytes=first-last where first and last are the zero-based offsets of the first and last bytes to copy");
+      }
+      content = Arrays.copyOfRange(content, Integer.parseInt(matcher.group(1)),
+          Integer.parseInt(matcher.group(2)) + 1);
+    }
+    final var part = new Part(content, md5(content));
+    upload.parts().put(Integer.parseInt(request.query().get("partNumber")), part);
+    return Response.xml("<CopyPartResult" + XMLNS + "><LastModified>" + isoDate(Instant.now())
+        + "</LastModified><ETag>" + escape(eTag(part.md5())) + "</ETag></CopyPartResult>");
+  }
+
+  private Response completeMultipartUpload(final Request request) throws IOException {
+    final var upload = upload(request);
+    if (upload == null) {
+      return noSuchUpload();
+    }
+    final var bucket = bucket(upload.bucket());
+    if (bucket == null) {
+      return noSuchBucket();
+    }
+    final var body = new String(readBody(request), StandardCharsets.UTF_8);
+    final var matcher = PART.matcher(body);
+    final var content = new ByteArrayOutputStream();
+    final var md5s = new ByteArrayOutputStream();
+    var parts = 0;
+    var previousPartNumber = 0;
+    while (matcher.find()) {
+      final var partNumber = Integer.parseInt(matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+      final var eTag = unescape(matcher.group(1) != null ? matcher.group(1) : matcher.group(4));
+      if (partNumber <= previousPartNumber) {
+        return error(400, "InvalidPartOrder", "The list of parts was not in ascending order.");
+      }
+      final var part = upload.parts().get(partNumber);
+      if (part == null || !unquote(eTag).equals(unquote(eTag(part.md5())))) {
+        return error(400, "InvalidPart", "One or more of the specified parts could not be found.");
+      }
+      content.write(part.content());
+      md5s.write(part.md5());
+      previousPartNumber = partNumber;
+      parts++;
+    }
+    if (parts == 0) {
+      return error(400, "MalformedXML", "The XML you provided was not well-formed.");
+    }
+    final var eTag = "\"" + HexFormat.of().formatHex(md5(md5s.toByteArray())) + "-" + parts + "\"";
+    bucket.objects().put(upload.key(), new StoredObject(content.toByteArray(), eTag, upload.headers(),
+        Instant.now()));
+    uploads.remove(request.query().get("uploadId"));
+    return Response.xml("<CompleteMultipartUploadResult" + XMLNS + "><Location>" + endpoint() + "/"
+        + escape(upload.bucket()) + "/" + escape(upload.key()) + "</Location><Bucket>" + escape(upload.bucket())
+        + "</Bucket><Key>" + escape(upload.key()) + "</Key><ETag>" + escape(eTag)
+        + "</ETag></CompleteMultipartUploadResult>");
+  }
+
+  private Bucket bucket(final String name) {
+    return buckets.get(name);
+  }
+
+  private MultipartUpload upload(final Request request) {
+    final var upload = uploads.get(request.query().get("uploadId"));
+    return upload != null && upload.bucket().equals(request.bucket()) && upload.key().equals(request.key())
+        ? upload : null;
+  }
+
+  private StoredObject copySource(final Request request) {
+    var source = decode(request.header("x-amz-copy-source"));
+    source = source.startsWith("/") ? source.substring(1) : source;
+    final var versionIndex = source.indexOf("?versionId=");
+    source = versionIndex < 0 ? source : source.substring(0, versionIndex);
+    final var slash = source.indexOf('/');
+    final var bucket = slash < 0 ? null : bucket(source.substring(0, slash));
+    return bucket == null ? null : bucket.objects().get(source.substring(slash + 1));
+  }
+
+  private byte[] readBody(final Request request) throws IOException {
+    final var body = BandwidthLimiter.limit(request.exchange().getRequestBody(), bandwidth);
+    if (AwsChunkedDecoder.isAwsChunked(request.header("x-amz-content-sha256"), request.header("Content-Encoding"))) {
+      return AwsChunkedDecoder.decode(body);
+    }
+    return body.readAllBytes();
+  }
+
+  private static Map<String, String> objectHeaders(final Headers headers) {
+    final var objectHeaders = new LinkedHashMap<String, String>();
+    headers.forEach((name, values) -> {
+      final var lowerCaseName = name.toLowerCase(Locale.ROOT);
+      if (OBJECT_HEADERS.contains(lowerCaseName) || lowerCaseName.startsWith("x-amz-meta-")) {
+        objectHeaders.put(lowerCaseName, String.join(",", values));
+      }
+    });
+    // aws-chunked only describes how the payload was sent
+    final var contentEncoding = Optional.ofNullable(objectHeaders.remove("content-encoding")).stream()
+        .flatMap(value -> Arrays.stream(value.split(",")))
+        .map(String::trim)
+        .filter(coding -> !coding.isEmpty() && !coding.equals("aws-chunked"))
+        .collect(Collectors.joining(","));
+    if (!contentEncoding.isEmpty()) {
+      objectHeaders.put("content-encoding", contentEncoding);
+    }
+    return objectHeaders;
+  }
+
+  private boolean shouldSlowDown(final Operation operation) {
+    final var pending = pendingSlowDowns.get(operation);
+    if (pending != null && pending.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+      return true;
+    }
+    final var rate = slowDownRates.get(operation);
+    return rate != null && ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  private static void sleep(final Latency latency) {
+    final var delay = latency.next(ThreadLocalRandom.current());
+    if (delay.isZero() || delay.isNegative()) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(delay.toNanos());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void send(final HttpExchange exchange, final boolean head, final Response response) throws IOException {
+    // The connection is closed instead of kept alive if the request body wasn't read up to its end
+    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    final var responseHeaders = exchange.getResponseHeaders();
+    response.headers().forEach(responseHeaders::set);
+    responseHeaders.set("x-amz-request-id", UUID.randomUUID().toString().replace("-", "").toUpperCase(Locale.ROOT));
+    final var length = response.body() == null ? 0 : response.body().length;
+    if (head) {
+      // Left to the handler for HEAD requests
+      responseHeaders.set("Content-Length", String.valueOf(length));
+    }
+    if (head || length == 0) {
+      exchange.sendResponseHeaders(response.status(), -1);
+      return;
+    }
+    exchange.sendResponseHeaders(response.status(), length);
+    try (var body = BandwidthLimiter.limit(exchange.getResponseBody(), bandwidth)) {
+      body.write(response.body());
+    }
+  }
+
+  private static Response noSuchBucket() {
+    return error(404, "NoSuchBucket", "The specified bucket does not exist");
+  }
+
+  private static Response noSuchUpload() {
+    return error(404, "NoSuchUpload", "The specified multipart upload does not exist.");
+  }
+
+  private static Response error(final int status, final String code, final String message) {
+    final var response = Response.xml("<Error><Code>" + code + "</Code><Message>" + escape(message)
+        + "</Message></Error>");
+    return new Response(status, response.headers(), response.body());
+  }
+
+  private static byte[] md5(final byte[] content) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(content);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static String eTag(final byte[] md5) {
+    return "\"" + HexFormat.of().formatHex(md5) + "\"";
+  }
+
+  private static String unquote(final String eTag) {
+    return eTag.replace("\"", "");
+  }
+
+  private static String isoDate(final Instant instant) {
+    return instant.truncatedTo(ChronoUnit.MILLIS).toString();
+  }
+
+  private static String decode(final String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String listedName(final String name, final boolean urlEncoded) {
+    return urlEncoded
+        ? URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20").replace("%2F", "/")
+        : escape(name);
+  }
+
+  private static String escape(final String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+        .replace("'", "&apos;");
+  }
+
+  private static String unescape(final String value) {
+    return value.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">")
+        .replace("&amp;", "&");
+  }
+
+}
@@ -0,0 +1,243 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server.Operation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FakeS3ServerTest {
+
+  private static final String BUCKET = "bucket";
+  private static final StaticCredentialsProvider CREDENTIALS = StaticCredentialsProvider.create(
+      AwsBasicCredentials.create(FakeS3Server.ACCESS_KEY, FakeS3Server.SECRET_KEY));
+  private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+
+  private static FakeS3Server server;
+  private static S3Client s3Client;
+
+  @BeforeAll
+  static void startServer() {
+    server = FakeS3Server.start();
+    s3Client = S3Client.builder()
+        .endpointOverride(server.endpoint())
+        .region(Region.of(FakeS3Server.REGION))
+        .credentialsProvider(CREDENTIALS)
+        .forcePathStyle(true)
+        .httpClientBuilder(ApacheHttpClient.builder())
+        .build();
+  }
+
+  @AfterAll
+  static void stopServer() {
+    s3Client.close();
+    server.close();
+  }
+
+  @BeforeEach
+  void setup() {
+    server.reset();
+    s3Client.createBucket(builder -> builder.bucket(BUCKET));
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.reset();
+  }
+
+  @Test
+  void shouldStoreAndServeObjects() {
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("dir/file name.txt").contentType("text/plain")
+        .metadata(Map.of("owner", "me")), RequestBody.fromString("Hello, World!"));
+
+    final var object = s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("dir/file name.txt"));
+
+    assertEquals("Hello, World!", object.asUtf8String());
+    assertEquals("text/plain", object.response().contentType());
+    assertEquals(Map.of("owner", "me"), object.response().metadata());
+    assertEquals(13L, s3Client.headObject(builder -> builder.bucket(BUCKET).key("dir/file name.txt"))
+        .contentLength());
+    assertArrayEquals("Hello, World!".getBytes(StandardCharsets.UTF_8),
+        server.object(BUCKET, "dir/file name.txt").orElseThrow());
+  }
+
+  @Test
+  void shouldServeRanges() {
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("file"), RequestBody.fromString("0123456789"));
+
+    assertEquals("2345", s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("file")
+        .range("bytes=2-5")).asUtf8String());
+    assertEquals("789", s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("file")
+        .range("bytes=-3")).asUtf8String());
+  }
+
+  @Test
+  void shouldReportMissingBucketsAndKeys() {
+    assertThrows(NoSuchKeyException.class,
+        () -> s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("missing")));
+    assertThrows(NoSuchBucketException.class,
+        () -> s3Client.listObjectsV2(builder -> builder.bucket("missing")));
+    assertEquals(404, assertThrows(S3Exception.class,
+        () -> s3Client.headBucket(builder -> builder.bucket("missing"))).statusCode());
+  }
+
+  @Test
+  void shouldListPagesWithCommonPrefixes() {
+    for (var key : List.of("a/1", "a/2", "b", "c", "d/1", "e")) {
+      s3Client.putObject(builder -> builder.bucket(BUCKET).key(key), RequestBody.fromString(key));
+    }
+
+    final var pages = s3Client.listObjectsV2Paginator(builder -> builder.bucket(BUCKET).delimiter("/").maxKeys(2))
+        .stream().toList();
+
+    assertEquals(3, pages.size());
+    assertEquals(List.of("b", "c", "e"), pages.stream()
+        .flatMap(page -> page.contents().stream()).map(S3Object::key).toList());
+    assertEquals(List.of("a/", "d/"), pages.stream()
+        .flatMap(page -> page.commonPrefixes().stream()).map(CommonPrefix::prefix).toList());
+    assertEquals(List.of("a/1", "a/2"), s3Client.listObjectsV2(builder -> builder.bucket(BUCKET).prefix("a/"))
+        .contents().stream().map(S3Object::key).toList());
+  }
+
+  @Test
+  void shouldAssembleMultipartUploads() {
+    final var firstPart = new byte[5 * 1024 * 1024];
+    Arrays.fill(firstPart, (byte) 'a');
+    final var uploadId = s3Client.createMultipartUpload(builder -> builder.bucket(BUCKET).key("big")).uploadId();
+    final var first = s3Client.uploadPart(builder -> builder.bucket(BUCKET).key("big").uploadId(uploadId)
+        .partNumber(1), RequestBody.fromBytes(firstPart)).eTag();
+    final var second = s3Client.uploadPart(builder -> builder.bucket(BUCKET).key("big").uploadId(uploadId)
+        .partNumber(2), RequestBody.fromString("end")).eTag();
+
+    final var eTag = s3Client.completeMultipartUpload(builder -> builder.bucket(BUCKET).key("big").uploadId(uploadId)
+        .multipartUpload(upload -> upload.parts(CompletedPart.builder().partNumber(1).eTag(first).build(),
+            CompletedPart.builder().partNumber(2).eTag(second).build()))).eTag();
+
+    assertTrue(eTag.endsWith("-2\""));
+    assertEquals(firstPart.length + 3L, server.object(BUCKET, "big").orElseThrow().length);
+    assertEquals(1, server.requests(Operation.COMPLETE_MULTIPART_UPLOAD));
+  }
+
+  @Test
+  void shouldCopyAndDeleteObjects() {
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("source"), RequestBody.fromString("content"));
+
+    s3Client.copyObject(builder -> builder.sourceBucket(BUCKET).sourceKey("source")
+        .destinationBucket(BUCKET).destinationKey("copy"));
+    assertEquals("content", s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("copy")).asUtf8String());
+
+    s3Client.deleteObjects(builder -> builder.bucket(BUCKET).delete(delete -> delete.objects(
+        object -> object.key("source"), object -> object.key("copy"))));
+    assertEquals(List.of(), server.keys(BUCKET));
+  }
+
+  @Test
+  void shouldVerifyPresignedUrls() throws IOException, InterruptedException {
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("shared"), RequestBody.fromString("shared content"));
+    final var url = presign(server.endpoint(), "shared", Duration.ofMinutes(5));
+
+    final var valid = fetch(url);
+    final var tampered = fetch(URI.create(url.toString().replace("shared?", "other?")));
+
+    assertEquals(200, valid.statusCode());
+    assertEquals("shared content", valid.body());
+    assertEquals(403, tampered.statusCode());
+    assertTrue(tampered.body().contains("SignatureDoesNotMatch"));
+  }
+
+  @Test
+  void shouldRefuseExpiredPresignedUrls() throws IOException, InterruptedException {
+    try (var later = FakeS3Server.start(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(10)))) {
+      later.createBucket(BUCKET);
+      final var response = fetch(presign(later.endpoint(), "shared", Duration.ofMinutes(5)));
+
+      assertEquals(403, response.statusCode());
+      assertTrue(response.body().contains("AccessDenied"));
+    }
+  }
+
+  @Test
+  void shouldInjectLatency() {
+    server.latency(Operation.HEAD_BUCKET, Latency.fixed(Duration.ofMillis(200)));
+
+    final var start = System.nanoTime();
+    s3Client.headBucket(builder -> builder.bucket(BUCKET));
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 200);
+  }
+
+  @Test
+  void shouldInjectSlowDownErrors() {
+    server.slowDownNext(Operation.PUT_OBJECT, 2);
+
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("file"), RequestBody.fromString("content"));
+
+    assertEquals(3, server.requests(Operation.PUT_OBJECT));
+
+    server.slowDown(Operation.GET_OBJECT, 1.0);
+    final var exception = assertThrows(S3Exception.class,
+        () -> s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("file")));
+    assertEquals(503, exception.statusCode());
+    assertEquals("SlowDown", exception.awsErrorDetails().errorCode());
+  }
+
+  @Test
+  void shouldCapBandwidth() {
+    s3Client.putObject(builder -> builder.bucket(BUCKET).key("file"), RequestBody.fromBytes(new byte[128 * 1024]));
+    server.bandwidth(256 * 1024);
+
+    final var start = System.nanoTime();
+    s3Client.getObjectAsBytes(builder -> builder.bucket(BUCKET).key("file"));
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 400);
+  }
+
+  private static URI presign(final URI endpoint, final String key, final Duration expiration) {
+    try (var presigner = S3Presigner.builder()
+        .endpointOverride(endpoint)
+        .region(Region.of(FakeS3Server.REGION))
+        .credentialsProvider(CREDENTIALS)
+        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+        .build()) {
+      return URI.create(presigner.presignGetObject(builder -> builder.signatureDuration(expiration)
+          .getObjectRequest(request -> request.bucket(BUCKET).key(key))).url().toString());
+    }
+  }
+
+  private static HttpResponse<String> fetch(final URI url) throws IOException, InterruptedException {
+    return HTTP_CLIENT.send(HttpRequest.newBuilder(url).build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+}
@@ -0,0 +1,38 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+/**
+ * Distribution of the time {@link FakeS3Server} waits before answering a request.
+ */
+@FunctionalInterface
+public interface Latency {
+
+  // z-score of the 99th percentile of the standard normal distribution
+  double Z_99 = 2.326;
+
+  Duration next(RandomGenerator random);
+
+  static Latency none() {
+    return random -> Duration.ZERO;
+  }
+
+  static Latency fixed(final Duration latency) {
+    return random -> latency;
+  }
+
+  static Latency uniform(final Duration min, final Duration max) {
+    return random -> Duration.ofNanos(random.nextLong(min.toNanos(), max.toNanos() + 1));
+  }
+
+  /**
+   * Log-normal distribution, the usual shape of S3 latencies: most requests close to the median and a long tail.
+   */
+  static Latency logNormal(final Duration median, final Duration p99) {
+    final var mu = Math.log(median.toNanos());
+    final var sigma = (Math.log(p99.toNanos()) - mu) / Z_99;
+    return random -> Duration.ofNanos((long) Math.exp(mu + sigma * random.nextGaussian()));
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.marcofaccani.awss3.integration.fakes3;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies the AWS Signature V4 of pre-signed URLs (query string authentication), as S3 does.
+ */
+class PresignedUrlVerifier {
+
+  static final String SIGNATURE_PARAM = "X-Amz-Signature";
+
+  private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+  private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+  private final String accessKey;
+  private final String secretKey;
+  private final Clock clock;
+
+  PresignedUrlVerifier(final String accessKey, final String secretKey, final Clock clock) {
+    this.accessKey = accessKey;
+    this.secretKey = secretKey;
+    this.clock = clock;
+  }
+
+  static boolean isPresigned(final Map<String, String> query) {
+    return query.containsKey(SIGNATURE_PARAM);
+  }
+
+  /**
+   * Returns the S3 error code the request is refused with, or null if the signature is valid and not expired.
+   */
+  String verify(final String method, final String rawPath, final Map<String, String> query,
+      final Map<String, List<String>> headers) {
+    if (!ALGORITHM.equals(query.get("X-Amz-Algorithm"))) {
+      return "AuthorizationQueryParametersError";
+    }
+    final var credential = query.getOrDefault("X-Amz-Credential", "").split("/", 2);
+    if (credential.length < 2 || !credential[0].equals(accessKey)) {
+      return "InvalidAccessKeyId";
+    }
+    final var scope = credential[1];
+    final var amzDate = query.getOrDefault("X-Amz-Date", "");
+    final var signedHeaders = query.getOrDefault("X-Amz-SignedHeaders", "host");
+
+    final var canonicalQuery = query.entrySet().stream()
+        .filter(param -> !param.getKey().equals(SIGNATURE_PARAM))
+        .map(param -> encode(param.getKey()) + "=" + encode(param.getValue()))
+        .sorted()
+        .collect(Collectors.joining("&"));
+    final var canonicalHeaders = new StringBuilder();
+    for (var header : signedHeaders.split(";")) {
+      final var values = headers.getOrDefault(header, List.of());
+      canonicalHeaders.append(header).append(':').append(String.join(",", values).trim()).append('\n');
+    }
+    final var canonicalRequest = String.join("\n", method, rawPath, canonicalQuery, canonicalHeaders.toString(),
+        signedHeaders, "UNSIGNED-PAYLOAD");
+    final var stringToSign = String.join("\n", ALGORITHM, amzDate, scope, hex(sha256(canonicalRequest)));
+
+    final var scopeParts = scope.split("/");
+    var signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), scopeParts[0]);
+    for (int i = 1; i < scopeParts.length; i++) {
+      signingKey = hmac(signingKey, scopeParts[i]);
+    }
+    final var expected = hex(hmac(signingKey, stringToSign));
+    if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+        query.get(SIGNATURE_PARAM).getBytes(StandardCharsets.UTF_8))) {
+      return "SignatureDoesNotMatch";
+    }
+
+    final var signedAt = LocalDateTime.parse(amzDate, AMZ_DATE).toInstant(ZoneOffset.UTC);
+    final var expiresIn = Long.parseLong(query.getOrDefault("X-Amz-Expires", "0"));
+    if (Instant.now(clock).isAfter(signedAt.plusSeconds(expiresIn))) {
+      return "AccessDenied";
+    }
+    return null;
+  }
+
+  /**
+   * URI encoding of the canonical request: everything but the unreserved characters is percent-encoded.
+   */
+  private static String encode(final String value) {
+    final var encoded = new StringBuilder();
+    for (var b : value.getBytes(StandardCharsets.UTF_8)) {
+      final var c = (char) (b & 0xff);
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || "-_.~".indexOf(c) >= 0) {
+        encoded.append(c);
+      } else {
+        encoded.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static byte[] hmac(final byte[] key, final String data) {
+    try {
+      final var mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static byte[] sha256(final String data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static String hex(final byte[] bytes) {
+    return HexFormat.of().formatHex(bytes);
+  }
+
+}
@@ -0,0 +1,303 @@
+package com.marcofaccani.awss3.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.random.RandomGenerator;
+
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Clients sending requests to the storage endpoints in a loop, picking each operation and object size at random
+ * according to their weights, and recording the latency of each request.
+ */
+final class LoadGenerator {
+
+  enum Operation {
+    DOWNLOAD("download"), UPLOAD("upload"), LIST("list"), BUCKET_EXISTS("bucket-exists");
+
+    private final String name;
+
+    Operation(final String name) {
+      this.name = name;
+    }
+
+    static Operation fromName(final String name) {
+      return Arrays.stream(values())
+          .filter(operation -> operation.name.equals(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown operation " + name));
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * What was measured between {@link #startMeasurement()} and {@link #stop()}.
+   */
+  record Measurement(Duration elapsed, Map<Operation, Histogram> latencies, Map<Operation, Long> errors,
+      long downloadedBytes, long uploadedBytes, JvmSnapshot jvmBefore, JvmSnapshot jvmAfter) {
+
+  }
+
+  /**
+   * Cumulated GC activity and allocations of the JVM (the app, the fake S3 and the clients all run in it).
+   */
+  record JvmSnapshot(long gcCount, long gcMillis, long allocatedBytes) {
+
+    static JvmSnapshot take() {
+      var gcCount = 0L;
+      var gcMillis = 0L;
+      for (var collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(0, collector.getCollectionCount());
+        gcMillis += Math.max(0, collector.getCollectionTime());
+      }
+      // Bytes allocated by the live threads: those of the threads which ended meanwhile are missed
+      final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      final var allocatedBytes = Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+          .filter(bytes -> bytes > 0)
+          .sum();
+      return new JvmSnapshot(gcCount, gcMillis, allocatedBytes);
+    }
+
+  }
+
+  private static final String BOUNDARY = "load-test-boundary";
+  // Uploads overwrite a few keys per client, so that the fake S3 doesn't grow during the test
+  private static final int UPLOAD_KEYS_PER_CLIENT = 8;
+  private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+  private final LoadTestOptions options;
+  private final URI baseUrl;
+  private final String bucketName;
+  private final HttpClient httpClient;
+  private final Map<DataSize, byte[]> contents = new LinkedHashMap<>();
+  private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+  private final LongAdder downloadedBytes = new LongAdder();
+  private final LongAdder uploadedBytes = new LongAdder();
+  private final WeightedChoice<Operation> operations;
+  private final WeightedChoice<DataSize> sizes;
+  private ExecutorService clients;
+  private volatile boolean running;
+  private long measurementStart;
+  private JvmSnapshot jvmBefore;
+
+  LoadGenerator(final LoadTestOptions options, final URI baseUrl, final String bucketName) {
+    this.options = options;
+    this.baseUrl = baseUrl;
+    this.bucketName = bucketName;
+    this.httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+    this.operations = new WeightedChoice<>(options.mix());
+    this.sizes = new WeightedChoice<>(options.sizes());
+    final var random = new Random(42);
+    options.sizes().keySet().forEach(size -> {
+      final var content = new byte[Math.toIntExact(size.toBytes())];
+      random.nextBytes(content);
+      contents.put(size, content);
+    });
+    for (var operation : Operation.values()) {
+      recorders.put(operation, new Recorder(HIGHEST_LATENCY_MICROS, 3));
+      errors.put(operation, new LongAdder());
+    }
+  }
+
+  /**
+   * Stores the objects downloaded during the test straight into the fake S3.
+   */
+  void preload(final FakeS3Server fakeS3) {
+    contents.forEach((size, content) -> {
+      for (int i = 0; i < options.objectsPerSize(); i++) {
+        fakeS3.putObject(bucketName, downloadKey(size, i), content);
+      }
+    });
+  }
+
+  void start() {
+    running = true;
+    clients = Executors.newFixedThreadPool(options.concurrency(), runnable -> new Thread(runnable, "load-client"));
+    for (int i = 0; i < options.concurrency(); i++) {
+      final var clientId = i;
+      clients.execute(() -> runClient(clientId));
+    }
+  }
+
+  /**
+   * Ends the warm-up: what was recorded until then is dropped.
+   */
+  void startMeasurement() {
+    recorders.values().forEach(Recorder::reset);
+    errors.values().forEach(LongAdder::reset);
+    downloadedBytes.reset();
+    uploadedBytes.reset();
+    jvmBefore = JvmSnapshot.take();
+    measurementStart = System.nanoTime();
+  }
+
+  Measurement stop() throws InterruptedException {
+    final var elapsed = Duration.ofNanos(System.nanoTime() - measurementStart);
+    final var jvmAfter = JvmSnapshot.take();
+    final var latencies = new EnumMap<Operation, Histogram>(Operation.class);
+    final var errorCounts = new EnumMap<Operation, Long>(Operation.class);
+    recorders.forEach((operation, recorder) -> latencies.put(operation, recorder.getIntervalHistogram()));
+    errors.forEach((operation, count) -> errorCounts.put(operation, count.sum()));
+    final var measurement = new Measurement(elapsed, latencies, errorCounts, downloadedBytes.sum(),
+        uploadedBytes.sum(), jvmBefore, jvmAfter);
+
+    running = false;
+    clients.shutdown();
+    if (!clients.awaitTermination(1, TimeUnit.MINUTES)) {
+      clients.shutdownNow();
+    }
+    return measurement;
+  }
+
+  private void runClient(final int clientId) {
+    final var random = ThreadLocalRandom.current();
+    // With a target rate, each client sends a request every interval, whether the previous ones were slow or not
+    final var interval = options.rate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(options.concurrency()) / options.rate())
+        : 0;
+    var due = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0);
+    var sent = 0L;
+    while (running) {
+      if (interval > 0 && !sleepUntil(due)) {
+        return;
+      }
+      final var start = interval > 0 ? due : System.nanoTime();
+      final var operation = operations.next(random);
+      final var succeeded = send(operation, clientId, sent++, random);
+      final var latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      recorders.get(operation).recordValue(Math.min(latencyMicros, HIGHEST_LATENCY_MICROS));
+      if (!succeeded) {
+        errors.get(operation).increment();
+      }
+      due += interval;
+    }
+  }
+
+  private boolean send(final Operation operation, final int clientId, final long sent,
+      final RandomGenerator random) {
+    try {
+      return switch (operation) {
+        case DOWNLOAD -> {
+          final var size = sizes.next(random);
+          final var key = downloadKey(size, random.nextInt(options.objectsPerSize()));
+          final var ok = get("/storage/files/" + key);
+          if (ok) {
+            downloadedBytes.add(size.toBytes());
+          }
+          yield ok;
+        }
+        case UPLOAD -> {
+          final var size = sizes.next(random);
+          final var ok = upload("upload-" + clientId + "-" + sent % UPLOAD_KEYS_PER_CLIENT, contents.get(size));
+          if (ok) {
+            uploadedBytes.add(size.toBytes());
+          }
+          yield ok;
+        }
+        case LIST -> get("/storage/files");
+        case BUCKET_EXISTS -> get("/storage/buckets/" + bucketName);
+      };
+    } catch (IOException ex) {
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private boolean get(final String path) throws IOException, InterruptedException {
+    final var request = HttpRequest.newBuilder(baseUrl.resolve(path)).GET().build();
+    return isSuccessful(httpClient.send(request, BodyHandlers.discarding()).statusCode());
+  }
+
+  private boolean upload(final String fileName, final byte[] content) throws IOException, InterruptedException {
+    final var head = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + fileName
+        + "\"\r\nContent-Type: application/octet-stream\r\n\r\n";
+    final var tail = "\r\n--" + BOUNDARY + "--\r\n";
+    final var request = HttpRequest.newBuilder(baseUrl.resolve("/storage/files/upload"))
+        .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+        .POST(BodyPublishers.concat(
+            BodyPublishers.ofString(head, StandardCharsets.UTF_8),
+            BodyPublishers.ofByteArray(content),
+            BodyPublishers.ofString(tail, StandardCharsets.UTF_8)))
+        .build();
+    return isSuccessful(httpClient.send(request, BodyHandlers.discarding()).statusCode());
+  }
+
+  private static boolean isSuccessful(final int statusCode) {
+    return statusCode >= 200 && statusCode < 300;
+  }
+
+  private boolean sleepUntil(final long due) {
+    final var delay = due - System.nanoTime();
+    if (delay > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return running;
+  }
+
+  private static String downloadKey(final DataSize size, final int index) {
+    return "download-" + size.toBytes() + "-" + index;
+  }
+
+  private static final class WeightedChoice<T> {
+
+    private final List<T> values = new ArrayList<>();
+    private final int[] cumulatedWeights;
+
+    WeightedChoice(final Map<T, Integer> weights) {
+      this.cumulatedWeights = new int[weights.size()];
+      var total = 0;
+      for (var entry : weights.entrySet()) {
+        total += entry.getValue();
+        cumulatedWeights[values.size()] = total;
+        values.add(entry.getKey());
+      }
+    }
+
+    T next(final RandomGenerator random) {
+      final var drawn = random.nextInt(cumulatedWeights[cumulatedWeights.length - 1]);
+      var index = Arrays.binarySearch(cumulatedWeights, drawn + 1);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return values.get(index);
+    }
+
+  }
+
+}
@@ -0,0 +1,100 @@
+package com.marcofaccani.awss3.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+
+import com.marcofaccani.awss3.Application;
+import com.marcofaccani.awss3.integration.fakes3.FakeS3Server;
+import com.marcofaccani.awss3.integration.fakes3.Latency;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Measures how many uploads and downloads per second one instance of the app sustains: the app is started against
+ * the in-process {@link FakeS3Server} and driven through its HTTP endpoints by concurrent clients (see
+ * {@link LoadTestOptions}). Run it with {@code ./gradlew loadTest}.
+ * <p>
+ * The report (throughput, latency percentiles, GC and allocations) is written in the output directory along with the
+ * latency distributions, and compared with the baseline, which {@code --update-baseline} replaces.
+ */
+public final class LoadTest {
+
+  private static final String BUCKET_NAME = "load-test-bucket";
+
+  private LoadTest() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final var options = LoadTestOptions.parse(args);
+    final int regressions;
+    try (var fakeS3 = FakeS3Server.start()) {
+      fakeS3.latency(s3Latency(options)).bandwidth(options.s3Bandwidth()).createBucket(BUCKET_NAME);
+      try (var app = startApp(fakeS3)) {
+        final var port = app.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+        final var generator = new LoadGenerator(options, URI.create("http://localhost:" + port), BUCKET_NAME);
+        generator.preload(fakeS3);
+
+        System.out.printf("Warming up for %s, then measuring for %s with %d clients%n", options.warmup(),
+            options.duration(), options.concurrency());
+        generator.start();
+        Thread.sleep(options.warmup().toMillis());
+        generator.startMeasurement();
+        Thread.sleep(options.duration().toMillis());
+        final var measurement = generator.stop();
+
+        final var report = LoadTestReport.of(options, measurement);
+        report.print(System.out);
+        report.write(options.outputDir().resolve("report.json"));
+        LoadTestReport.writeDistributions(options.outputDir(), measurement);
+        regressions = compareWithBaseline(options, report);
+      }
+    }
+    // Non-daemon threads of the app and of the HTTP client would keep the JVM alive
+    System.exit(regressions > 0 && options.failOnRegression() ? 1 : 0);
+  }
+
+  private static ConfigurableApplicationContext startApp(final FakeS3Server fakeS3) {
+    return new SpringApplicationBuilder(Application.class)
+        .bannerMode(Banner.Mode.OFF)
+        .run("--server.port=0",
+            "--app.aws.s3.bucket-name=" + BUCKET_NAME,
+            "--spring.cloud.aws.endpoint=" + fakeS3.endpoint(),
+            "--spring.cloud.aws.s3.path-style-access-enabled=true",
+            "--spring.cloud.aws.region.static=" + FakeS3Server.REGION,
+            "--spring.cloud.aws.credentials.access-key=" + FakeS3Server.ACCESS_KEY,
+            "--spring.cloud.aws.credentials.secret-key=" + FakeS3Server.SECRET_KEY,
+            "--logging.level.root=WARN",
+            // Threads of the app pools outliving the context at shutdown are expected
+            "--logging.level.org.apache.catalina.loader=ERROR");
+  }
+
+  private static Latency s3Latency(final LoadTestOptions options) {
+    if (options.s3LatencyMedian().isZero()) {
+      return Latency.none();
+    }
+    if (options.s3LatencyP99().compareTo(options.s3LatencyMedian()) <= 0) {
+      return Latency.fixed(options.s3LatencyMedian());
+    }
+    return Latency.logNormal(options.s3LatencyMedian(), options.s3LatencyP99());
+  }
+
+  private static int compareWithBaseline(final LoadTestOptions options, final LoadTestReport report)
+      throws IOException {
+    if (options.updateBaseline()) {
+      report.write(options.baseline());
+      System.out.println("\nBaseline " + options.baseline() + " updated");
+      return 0;
+    }
+    if (!options.baseline().toFile().exists()) {
+      System.out.println("\nNo baseline at " + options.baseline() + ", run with --update-baseline to save one");
+      return 0;
+    }
+    final var comparison = report.compareWith(LoadTestReport.read(options.baseline()), options.tolerance());
+    System.out.printf("%nCompared with %s (tolerance %.0f%%):%n", options.baseline(), options.tolerance() * 100);
+    comparison.lines().forEach(System.out::println);
+    System.out.println(comparison.regressions() + " regression(s)");
+    return comparison.regressions();
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.marcofaccani.awss3.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Options of the load test, given as {@code --name=value} arguments (the last one wins):
+ * <ul>
+ *   <li>{@code duration} (30s) and {@code warmup} (10s): length of the measurement and of the warm-up before it</li>
+ *   <li>{@code concurrency} (32): number of clients sending requests in a loop</li>
+ *   <li>{@code rate} (0): target of requests per second of all the clients; 0 sends each request as soon as the
+ *   previous one completed, otherwise latencies are measured from the time each request was due, so that a slow
+ *   server isn't hidden by clients waiting for it (coordinated omission)</li>
+ *   <li>{@code mix} (download:70,upload:25,list:3,bucket-exists:2): weights of the operations, i.e. the read/write
+ *   ratio</li>
+ *   <li>{@code sizes} (4KB:40,64KB:30,1MB:20,8MB:10): weights of the object sizes downloaded and uploaded</li>
+ *   <li>{@code objects-per-size} (16): objects of each size stored before the test, to be downloaded</li>
+ *   <li>{@code s3-latency-median} (5ms), {@code s3-latency-p99} (50ms) and {@code s3-bandwidth} (0, no cap, in bytes
+ *   per second per transfer): behaviour of the fake S3</li>
+ *   <li>{@code output-dir} (build/results/load-test): where the report and the latency distributions are written</li>
+ *   <li>{@code baseline} (load-test-baseline.json): report the results are compared with, {@code update-baseline}
+ *   (false) replaces it with the results, {@code tolerance} (0.15) is the relative change of throughput or p99
+ *   latency reported as a regression and {@code fail-on-regression} (false) makes the run fail on regressions</li>
+ * </ul>
+ */
+record LoadTestOptions(
+    Duration duration,
+    Duration warmup,
+    int concurrency,
+    double rate,
+    Map<LoadGenerator.Operation, Integer> mix,
+    Map<DataSize, Integer> sizes,
+    int objectsPerSize,
+    Duration s3LatencyMedian,
+    Duration s3LatencyP99,
+    long s3Bandwidth,
+    Path outputDir,
+    Path baseline,
+    boolean updateBaseline,
+    double tolerance,
+    boolean failOnRegression
+) {
+
+  private static final Map<String, String> DEFAULTS = Map.ofEntries(
+      Map.entry("duration", "30s"),
+      Map.entry("warmup", "10s"),
+      Map.entry("concurrency", "32"),
+      Map.entry("rate", "0"),
+      Map.entry("mix", "download:70,upload:25,list:3,bucket-exists:2"),
+      Map.entry("sizes", "4KB:40,64KB:30,1MB:20,8MB:10"),
+      Map.entry("objects-per-size", "16"),
+      Map.entry("s3-latency-median", "5ms"),
+      Map.entry("s3-latency-p99", "50ms"),
+      Map.entry("s3-bandwidth", "0"),
+      Map.entry("output-dir", "build/results/load-test"),
+      Map.entry("baseline", "load-test-baseline.json"),
+      Map.entry("update-baseline", "false"),
+      Map.entry("tolerance", "0.15"),
+      Map.entry("fail-on-regression", "false"));
+
+  static LoadTestOptions parse(final String... args) {
+    final var values = new LinkedHashMap<>(DEFAULTS);
+    for (var arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Options are given as --name=value, got " + arg);
+      }
+      final var option = arg.substring(2).split("=", 2);
+      if (!DEFAULTS.containsKey(option[0])) {
+        throw new IllegalArgumentException("Unknown option " + option[0] + ", expected one of " + DEFAULTS.keySet());
+      }
+      // A flag without value is set to true
+      values.put(option[0], option.length > 1 ? option[1] : "true");
+    }
+
+    final var options = new LoadTestOptions(
+        DurationStyle.detectAndParse(values.get("duration")),
+        DurationStyle.detectAndParse(values.get("warmup")),
+        Integer.parseInt(values.get("concurrency")),
+        Double.parseDouble(values.get("rate")),
+        weights(values.get("mix"), LoadGenerator.Operation::fromName),
+        weights(values.get("sizes"), DataSize::parse),
+        Integer.parseInt(values.get("objects-per-size")),
+        DurationStyle.detectAndParse(values.get("s3-latency-median")),
+        DurationStyle.detectAndParse(values.get("s3-latency-p99")),
+        DataSize.parse(values.get("s3-bandwidth")).toBytes(),
+        Path.of(values.get("output-dir")),
+        Path.of(values.get("baseline")),
+        Boolean.parseBoolean(values.get("update-baseline")),
+        Double.parseDouble(values.get("tolerance")),
+        Boolean.parseBoolean(values.get("fail-on-regression")));
+    if (options.concurrency() < 1 || options.duration().isZero() || options.objectsPerSize() < 1) {
+      throw new IllegalArgumentException("concurrency, duration and objects-per-size must be positive");
+    }
+    return options;
+  }
+
+  /**
+   * Options defining the workload, recorded in the report to tell whether two reports can be compared.
+   */
+  Map<String, String> workload() {
+    final var workload = new LinkedHashMap<String, String>();
+    workload.put("duration", duration.toString());
+    workload.put("concurrency", String.valueOf(concurrency));
+    workload.put("rate", String.valueOf(rate));
+    workload.put("mix", mix.toString());
+    workload.put("sizes", sizes.toString());
+    workload.put("s3-latency", s3LatencyMedian + " median, " + s3LatencyP99 + " p99");
+    workload.put("s3-bandwidth", String.valueOf(s3Bandwidth));
+    return workload;
+  }
+
+  private static <T> Map<T, Integer> weights(final String value, final Function<String, T> parser) {
+    final var weights = new LinkedHashMap<T, Integer>();
+    for (var entry : value.split(",")) {
+      final var parts = entry.trim().split(":");
+      final var weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+      if (weight > 0) {
+        weights.put(parser.apply(parts[0].trim()), weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("No positive weight in " + value);
+    }
+    return weights;
+  }
+
+}
@@ -0,0 +1,170 @@
+package com.marcofaccani.awss3.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Results of a load test, written as JSON so that they can be kept as a baseline and compared with later runs.
+ * Latencies are in milliseconds.
+ */
+record LoadTestReport(
+    Map<String, String> workload,
+    Map<String, String> environment,
+    double seconds,
+    double throughput,
+    double downloadMbPerSecond,
+    double uploadMbPerSecond,
+    Map<String, OperationStats> operations,
+    JvmStats jvm
+) {
+
+  record OperationStats(long requests, long errors, double throughput, double meanMs, double p50Ms, double p90Ms,
+      double p99Ms, double p999Ms, double maxMs) {
+
+    static OperationStats of(final Histogram latencies, final long errors, final double seconds) {
+      return new OperationStats(latencies.getTotalCount(), errors, round(latencies.getTotalCount() / seconds),
+          millis(latencies.getMean()), millis(latencies.getValueAtPercentile(50)),
+          millis(latencies.getValueAtPercentile(90)), millis(latencies.getValueAtPercentile(99)),
+          millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+    }
+
+  }
+
+  /**
+   * GC activity and allocations of the whole JVM during the measurement.
+   */
+  record JvmStats(long gcCount, long gcMillis, double gcTimeRatio, double allocatedMb, double allocationMbPerSecond) {
+
+  }
+
+  record Comparison(List<String> lines, int regressions) {
+
+  }
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+  private static final double MB = DataSize.ofMegabytes(1).toBytes();
+
+  static LoadTestReport of(final LoadTestOptions options, final LoadGenerator.Measurement measurement) {
+    final var seconds = measurement.elapsed().toNanos() / 1e9;
+    final var operations = new LinkedHashMap<String, OperationStats>();
+    measurement.latencies().forEach((operation, latencies) -> {
+      if (latencies.getTotalCount() > 0) {
+        operations.put(operation.toString(),
+            OperationStats.of(latencies, measurement.errors().get(operation), seconds));
+      }
+    });
+    final var requests = operations.values().stream().mapToLong(OperationStats::requests).sum();
+
+    final var before = measurement.jvmBefore();
+    final var after = measurement.jvmAfter();
+    final var gcMillis = after.gcMillis() - before.gcMillis();
+    final var allocatedMb = (after.allocatedBytes() - before.allocatedBytes()) / MB;
+    final var jvm = new JvmStats(after.gcCount() - before.gcCount(), gcMillis, round(gcMillis / 1000.0 / seconds),
+        round(allocatedMb), round(allocatedMb / seconds));
+
+    final var environment = new LinkedHashMap<String, String>();
+    environment.put("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+    environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+    environment.put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+    environment.put("maxHeapMb", String.valueOf(Runtime.getRuntime().maxMemory() / (long) MB));
+
+    return new LoadTestReport(options.workload(), environment, round(seconds), round(requests / seconds),
+        round(measurement.downloadedBytes() / MB / seconds), round(measurement.uploadedBytes() / MB / seconds),
+        operations, jvm);
+  }
+
+  static LoadTestReport read(final Path path) throws IOException {
+    return OBJECT_MAPPER.readValue(path.toFile(), LoadTestReport.class);
+  }
+
+  void write(final Path path) throws IOException {
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    OBJECT_MAPPER.writeValue(path.toFile(), this);
+  }
+
+  /**
+   * Writes the full latency distribution of each operation in HdrHistogram's percentile format (.hgrm), which can be
+   * plotted to compare runs.
+   */
+  static void writeDistributions(final Path directory, final LoadGenerator.Measurement measurement)
+      throws IOException {
+    Files.createDirectories(directory);
+    for (var entry : measurement.latencies().entrySet()) {
+      if (entry.getValue().getTotalCount() > 0) {
+        try (var out = new PrintStream(Files.newOutputStream(directory.resolve(entry.getKey() + ".hgrm")))) {
+          // Recorded in microseconds, written in milliseconds
+          entry.getValue().outputPercentileDistribution(out, 1000.0);
+        }
+      }
+    }
+  }
+
+  void print(final PrintStream out) {
+    out.printf("%n%-14s %9s %7s %9s %8s %8s %8s %8s %8s %8s%n", "operation", "requests", "errors", "req/s",
+        "mean", "p50", "p90", "p99", "p99.9", "max (ms)");
+    operations.forEach((operation, stats) -> out.printf("%-14s %9d %7d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+        operation, stats.requests(), stats.errors(), stats.throughput(), stats.meanMs(), stats.p50Ms(),
+        stats.p90Ms(), stats.p99Ms(), stats.p999Ms(), stats.maxMs()));
+    out.printf("%nthroughput: %.1f req/s, downloads: %.1f MB/s, uploads: %.1f MB/s%n", throughput,
+        downloadMbPerSecond, uploadMbPerSecond);
+    out.printf("GC: %d collections, %d ms (%.1f%% of the time), allocations: %.0f MB/s%n", jvm.gcCount(),
+        jvm.gcMillis(), jvm.gcTimeRatio() * 100, jvm.allocationMbPerSecond());
+  }
+
+  /**
+   * Compares the throughput and p99 latency of each operation with those of the baseline; a change beyond the
+   * tolerance in the wrong direction is a regression.
+   */
+  Comparison compareWith(final LoadTestReport baseline, final double tolerance) {
+    final var lines = new ArrayList<String>();
+    if (!workload.equals(baseline.workload())) {
+      lines.add("The workload differs from the one of the baseline " + baseline.workload() + ", not compared");
+      return new Comparison(lines, 0);
+    }
+    var regressions = 0;
+    regressions += compare(lines, "throughput", baseline.throughput(), throughput, tolerance, true);
+    for (var entry : operations.entrySet()) {
+      final var base = baseline.operations().get(entry.getKey());
+      if (base != null) {
+        regressions += compare(lines, entry.getKey() + " req/s", base.throughput(), entry.getValue().throughput(),
+            tolerance, true);
+        regressions += compare(lines, entry.getKey() + " p99 (ms)", base.p99Ms(), entry.getValue().p99Ms(),
+            tolerance, false);
+      }
+    }
+    regressions += compare(lines, "allocations (MB/s)", baseline.jvm().allocationMbPerSecond(),
+        jvm.allocationMbPerSecond(), tolerance, false);
+    return new Comparison(lines, regressions);
+  }
+
+  private static int compare(final List<String> lines, final String metric, final double baseline,
+      final double current, final double tolerance, final boolean higherIsBetter) {
+    final var change = baseline == 0 ? 0 : (current - baseline) / baseline;
+    final var regression = higherIsBetter ? change < -tolerance : change > tolerance;
+    lines.add(String.format("%-10s %-28s %10.2f -> %10.2f (%+.1f%%)", regression ? "REGRESSION" : "", metric,
+        baseline, current, change * 100));
+    return regression ? 1 : 0;
+  }
+
+  private static double millis(final double micros) {
+    return round(micros / 1000);
+  }
+
+  private static double round(final double value) {
+    return Math.round(value * 100) / 100.0;
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.marcofaccani.awss3.unit.controller;
+
+import java.util.List;
+
+import com.marcofaccani.awss3.controller.ArchiveController;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.model.ArchiveRequest;
+import com.marcofaccani.awss3.model.IngestEntryResult;
+import com.marcofaccani.awss3.model.IngestReport;
+import com.marcofaccani.awss3.service.interfaces.ArchiveIngestService;
+import com.marcofaccani.awss3.service.interfaces.ArchiveService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(ArchiveController.class)
+class ArchiveControllerTest {
+
+  private final String BASE_URL = "/storage/archive";
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private ArchiveService archiveService;
+
+  @MockBean
+  private ArchiveIngestService archiveIngestService;
+
+  @Test
+  void shouldStreamArchiveOfPrefix() throws Exception {
+    when(archiveService.resolveFileNames(new ArchiveRequest(null, "logs/"))).thenReturn(List.of("logs/1.log"));
+
+    final var result = mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "?prefix=logs/"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+        .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\""));
+
+    verify(archiveService).writeArchive(eq(List.of("logs/1.log")), any());
+  }
+
+  @Test
+  void shouldStreamArchiveOfListedFiles() throws Exception {
+    when(archiveService.resolveFileNames(new ArchiveRequest(List.of("a.txt", "b.txt"), null)))
+        .thenReturn(List.of("a.txt", "b.txt"));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"fileNames\": [\"a.txt\", \"b.txt\"]}"))
+        .andExpect(status().isOk());
+  }
+
+  @Test
+  void shouldRejectInvalidRequest() throws Exception {
+    when(archiveService.resolveFileNames(any())).thenThrow(new InvalidArchiveRequestException("no file"));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void shouldIngestArchive() throws Exception {
+    when(archiveIngestService.ingest(any(), eq("imported/"))).thenReturn(new IngestReport(1, 1, 0, null,
+        List.of(new IngestEntryResult("imported/a.txt", 3, true, null))));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/ingest?prefix=imported/")
+            .contentType("application/zip")
+            .content(new byte[]{1, 2, 3}))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.uploaded").value(1))
+        .andExpect(jsonPath("$.results[0].fileName").value("imported/a.txt"));
+  }
+
+  @Test
+  void shouldRejectUnsupportedArchive() throws Exception {
+    when(archiveIngestService.ingest(any(), isNull())).thenThrow(new InvalidArchiveRequestException("not a ZIP"));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/ingest").content(new byte[]{1, 2, 3}))
+        .andExpect(status().isBadRequest());
+  }
+
+}
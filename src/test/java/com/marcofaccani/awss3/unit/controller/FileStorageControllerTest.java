@@ -1,19 +1,53 @@
 package com.marcofaccani.awss3.unit.controller;
 
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Optional;
+
+import com.marcofaccani.awss3.config.BandwidthConfigProperties;
 import com.marcofaccani.awss3.controller.FileStorageController;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.RangeNotSatisfiableException;
+import com.marcofaccani.awss3.model.AsyncUploadStatus;
+import com.marcofaccani.awss3.model.AsyncUploadStatus.State;
+import com.marcofaccani.awss3.model.CopyJobRequest;
+import com.marcofaccani.awss3.model.CopyJobStatus;
+import com.marcofaccani.awss3.model.FileRange;
+import com.marcofaccani.awss3.service.BandwidthScheduler;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.KeyAnalytics;
+import com.marcofaccani.awss3.service.StaleFileCache;
+import com.marcofaccani.awss3.service.StaleFileCache.Served;
+import com.marcofaccani.awss3.service.interfaces.AsyncUploadService;
+import com.marcofaccani.awss3.service.interfaces.CopyJobService;
 import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -27,6 +61,34 @@ class FileStorageControllerTest {
   @MockBean
   private FileStorageService fileStorageService;
 
+  @MockBean
+  private AsyncUploadService asyncUploadService;
+
+  @MockBean
+  private CopyJobService copyJobService;
+
+  @MockBean
+  private StaleFileCache staleFileCache;
+
+  @MockBean
+  private FileChangeBus fileChangeBus;
+
+  @MockBean
+  private KeyAnalytics keyAnalytics;
+
+  @MockBean
+  private BandwidthScheduler bandwidthScheduler;
+
+  private final BandwidthScheduler unshapedScheduler = new BandwidthScheduler(new BandwidthConfigProperties(false,
+      DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)),
+      new SimpleMeterRegistry());
+
+  @BeforeEach
+  void setup() {
+    when(bandwidthScheduler.open(any(), any())).thenAnswer(
+        invocation -> unshapedScheduler.open(invocation.getArgument(0), invocation.getArgument(1)));
+  }
+
   private final String BASE_URL = "/storage/files";
   private final String FILE_NAME = "dummyFileName";
 
@@ -37,6 +99,81 @@ class FileStorageControllerTest {
     mockMvc.perform(MockMvcRequestBuilders.multipart(BASE_URL + "/upload").file(multipartFile))
         .andExpect(status().isOk());
     verify(fileStorageService).uploadFile(multipartFile);
+    verify(keyAnalytics).recordUpload(multipartFile.getOriginalFilename(), 0);
+  }
+
+  @Test
+  void shouldUploadFileAsync() throws Exception {
+    final var multipartFile = new MockMultipartFile("file", "filename.txt", "text/plain", new byte[]{});
+    when(asyncUploadService.submit(multipartFile))
+        .thenReturn(new AsyncUploadStatus("dummyUploadId", "filename.txt", State.QUEUED, 0, null));
+
+    mockMvc.perform(MockMvcRequestBuilders.multipart(BASE_URL + "/upload/async").file(multipartFile))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.uploadId").value("dummyUploadId"));
+    verify(asyncUploadService).submit(multipartFile);
+  }
+
+  @Test
+  void shouldGetAsyncUploadStatus() throws Exception {
+    when(asyncUploadService.getStatus("dummyUploadId"))
+        .thenReturn(new AsyncUploadStatus("dummyUploadId", "filename.txt", State.COMPLETED, 1, null));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/upload/async/{uploadId}", "dummyUploadId")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state").value("COMPLETED"));
+    verify(asyncUploadService).getStatus("dummyUploadId");
+  }
+
+  @Test
+  void shouldCopyFile() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/" + FILE_NAME + "/copy?targetFileName=copy"))
+        .andExpect(status().isOk());
+    verify(fileStorageService).copyFile(FILE_NAME, "copy");
+  }
+
+  @Test
+  void shouldMoveFile() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/" + FILE_NAME + "/move?targetFileName=renamed"))
+        .andExpect(status().isOk());
+    verify(fileStorageService).moveFile(FILE_NAME, "renamed");
+    verify(fileChangeBus).publishWritten("renamed");
+    verify(fileChangeBus).publishDeleted(FILE_NAME);
+  }
+
+  @Test
+  void shouldRejectMoveOntoItself() throws Exception {
+    doThrow(new InvalidCopyRequestException("dummy error message"))
+        .when(fileStorageService).moveFile(FILE_NAME, FILE_NAME);
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/" + FILE_NAME + "/move?targetFileName=" + FILE_NAME))
+        .andExpect(status().isBadRequest());
+    verify(fileChangeBus, never()).publishDeleted(FILE_NAME);
+  }
+
+  @Test
+  void shouldSubmitCopyJob() throws Exception {
+    final var copyJobRequest = new CopyJobRequest("logs/", "archive/logs/", true);
+    when(copyJobService.submit(copyJobRequest)).thenReturn(
+        new CopyJobStatus("dummyJobId", copyJobRequest, CopyJobStatus.State.QUEUED, 0, 0, 0, null));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL + "/copy-jobs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"sourcePrefix\": \"logs/\", \"targetPrefix\": \"archive/logs/\", \"move\": true}"))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.jobId").value("dummyJobId"));
+  }
+
+  @Test
+  void shouldGetCopyJobStatus() throws Exception {
+    when(copyJobService.getStatus("dummyJobId")).thenReturn(new CopyJobStatus("dummyJobId",
+        new CopyJobRequest("logs/", "old/", false), CopyJobStatus.State.COMPLETED, 2, 2, 0, null));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/copy-jobs/dummyJobId"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state").value("COMPLETED"))
+        .andExpect(jsonPath("$.copied").value(2));
   }
 
   @Test
@@ -47,26 +184,133 @@ class FileStorageControllerTest {
         .andReturn();
 
     verify(fileStorageService).deleteFile(FILE_NAME);
+    verify(fileChangeBus).publishDeleted(FILE_NAME);
+  }
+
+  private static ResponseInputStream<GetObjectResponse> object(final String contentEncoding) {
+    return new ResponseInputStream<>(GetObjectResponse.builder().contentEncoding(contentEncoding).build(),
+        AbortableInputStream.create(new ByteArrayInputStream(new byte[0])));
   }
 
   @Test
   void shouldGetFile() throws Exception {
+    when(staleFileCache.getFile(FILE_NAME, List.of())).thenReturn(new Served<>(object(null), false));
+
     mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
             .accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.WARNING))
+        .andReturn();
+
+    verify(staleFileCache).getFile(FILE_NAME, List.of());
+  }
+
+  @Test
+  void shouldGetFileWithAcceptedContentEncoding() throws Exception {
+    when(staleFileCache.getFile(FILE_NAME, List.of("zstd", "gzip"))).thenReturn(new Served<>(object("gzip"), false));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.ACCEPT_ENCODING, "zstd, gzip;q=0.5, br;q=0"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING));
+
+    verify(staleFileCache).getFile(FILE_NAME, List.of("zstd", "gzip"));
+  }
+
+  @Test
+  void shouldMarkStaleFile() throws Exception {
+    when(staleFileCache.getFile(FILE_NAME, List.of())).thenReturn(new Served<>(object(null), true));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.WARNING, FileStorageController.WARNING_STALE));
+  }
+
+  @Test
+  void shouldGetFileRange() throws Exception {
+    when(fileStorageService.getFileRange(eq(FILE_NAME), any(HttpRange.class)))
+        .thenReturn(Optional.of(new FileRange(10, 19, 100, new ByteArrayInputStream(new byte[10]))));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.RANGE, "bytes=10-19"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/100"))
+        .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10));
+
+    verify(fileStorageService).getFileRange(FILE_NAME, HttpRange.createByteRange(10, 19));
+    verify(staleFileCache, never()).getFile(any(), any());
+  }
+
+  @Test
+  void shouldRecordBytesServed() throws Exception {
+    when(fileStorageService.getFileRange(eq(FILE_NAME), any(HttpRange.class)))
+        .thenReturn(Optional.of(new FileRange(10, 19, 100, new ByteArrayInputStream(new byte[10]))));
+
+    final var result = mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.RANGE, "bytes=10-19"))
         .andReturn();
+    mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+        .andExpect(status().isPartialContent());
 
-    verify(fileStorageService).getFile(FILE_NAME);
+    verify(keyAnalytics).recordDownload(FILE_NAME, 10);
+    verify(bandwidthScheduler).open("127.0.0.1", 10L);
+  }
+
+  @Test
+  void shouldGetWholeFileWhenRangeCannotBeRead() throws Exception {
+    when(fileStorageService.getFileRange(eq(FILE_NAME), any(HttpRange.class))).thenReturn(Optional.empty());
+    when(staleFileCache.getFile(FILE_NAME, List.of())).thenReturn(new Served<>(object(null), false));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.RANGE, "bytes=10-19"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE));
+  }
+
+  @Test
+  void shouldIgnoreMultipleRanges() throws Exception {
+    when(staleFileCache.getFile(FILE_NAME, List.of())).thenReturn(new Served<>(object(null), false));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.RANGE, "bytes=0-9, 20-29"))
+        .andExpect(status().isOk());
+
+    verify(fileStorageService, never()).getFileRange(any(), any());
+  }
+
+  @Test
+  void shouldRejectUnsatisfiableRange() throws Exception {
+    when(fileStorageService.getFileRange(eq(FILE_NAME), any(HttpRange.class)))
+        .thenThrow(new RangeNotSatisfiableException("dummy error message"));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/{fileName}", FILE_NAME)
+            .header(HttpHeaders.RANGE, "bytes=100-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable());
   }
 
   @Test
   void shouldListBucketFiles() throws Exception {
+    when(staleFileCache.listFiles()).thenReturn(new Served<>(List.of(FILE_NAME), false));
+
     mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL)
             .accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0]").value(FILE_NAME))
+        .andExpect(header().doesNotExist(HttpHeaders.WARNING))
         .andReturn();
 
-    verify(fileStorageService).listFilesInBucket();
+    verify(staleFileCache).listFiles();
+  }
+
+  @Test
+  void shouldMarkStaleListing() throws Exception {
+    when(staleFileCache.listFiles()).thenReturn(new Served<>(List.of(FILE_NAME), true));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0]").value(FILE_NAME))
+        .andExpect(header().string(HttpHeaders.WARNING, FileStorageController.WARNING_STALE));
   }
 
   @Test
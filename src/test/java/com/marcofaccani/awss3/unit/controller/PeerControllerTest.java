@@ -0,0 +1,113 @@
+package com.marcofaccani.awss3.unit.controller;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import com.marcofaccani.awss3.controller.PeerController;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.HttpFileChangeTransport;
+import com.marcofaccani.awss3.service.PeerCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(PeerController.class)
+class PeerControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private PeerCache peerCache;
+
+  @MockBean
+  private FileChangeBus fileChangeBus;
+
+  private final String FILE_NAME = "dummyFileName";
+
+  @BeforeEach
+  void setup() {
+    when(peerCache.isMember("127.0.0.1")).thenReturn(true);
+  }
+
+  @Test
+  void shouldServeOwnedFile() throws Exception {
+    when(peerCache.getOwnedFile(FILE_NAME, List.of("zstd", "gzip"))).thenReturn(new ResponseInputStream<>(
+        GetObjectResponse.builder().contentLength(4L).contentEncoding("gzip").build(),
+        AbortableInputStream.create(new ByteArrayInputStream(new byte[4]))));
+
+    mockMvc.perform(MockMvcRequestBuilders.get(PeerCache.PEER_PATH + "{fileName}", FILE_NAME)
+            .header(HttpHeaders.ACCEPT_ENCODING, "zstd, gzip"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4));
+
+    verify(peerCache).getOwnedFile(FILE_NAME, List.of("zstd", "gzip"));
+  }
+
+  @Test
+  void shouldReturn404WhenFileDoesNotExist() throws Exception {
+    when(peerCache.getOwnedFile(FILE_NAME, List.of()))
+        .thenThrow(NoSuchKeyException.builder().message("dummy error message").build());
+
+    mockMvc.perform(MockMvcRequestBuilders.get(PeerCache.PEER_PATH + "{fileName}", FILE_NAME))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  void shouldForbidRequestsFromOutsideTheRing() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get(PeerCache.PEER_PATH + "{fileName}", FILE_NAME)
+            .with(request -> {
+              request.setRemoteAddr("10.0.0.9");
+              return request;
+            }))
+        .andExpect(status().isForbidden());
+    mockMvc.perform(MockMvcRequestBuilders.post(HttpFileChangeTransport.CHANGES_PATH)
+            .with(request -> {
+              request.setRemoteAddr("10.0.0.9");
+              return request;
+            })
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"origin\": \"dummyOrigin\", \"sequence\": 3, \"type\": \"DELETED\", \"fileName\": \"%s\"}"
+                .formatted(FILE_NAME)))
+        .andExpect(status().isForbidden());
+
+    verify(peerCache, never()).getOwnedFile(anyString(), anyList());
+    verify(fileChangeBus, never()).receive(any());
+  }
+
+  @Test
+  void shouldReceiveChange() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.post(HttpFileChangeTransport.CHANGES_PATH)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"origin\": \"dummyOrigin\", \"sequence\": 3, \"type\": \"WRITTEN\", \"fileName\": \"%s\"}"
+                .formatted(FILE_NAME)))
+        .andExpect(status().isOk());
+
+    verify(fileChangeBus).receive(new FileChange("dummyOrigin", 3, FileChange.Type.WRITTEN, FILE_NAME));
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.marcofaccani.awss3.unit.controller;
+
+import java.util.List;
+
+import com.marcofaccani.awss3.controller.SyncController;
+import com.marcofaccani.awss3.exceptions.InvalidSyncRequestException;
+import com.marcofaccani.awss3.model.SyncAction;
+import com.marcofaccani.awss3.model.SyncAction.Type;
+import com.marcofaccani.awss3.model.SyncReport;
+import com.marcofaccani.awss3.model.SyncRequest;
+import com.marcofaccani.awss3.model.SyncRequest.Direction;
+import com.marcofaccani.awss3.service.interfaces.SyncService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(SyncController.class)
+class SyncControllerTest {
+
+  private final String BASE_URL = "/storage/sync";
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private SyncService syncService;
+
+  @Test
+  void shouldSync() throws Exception {
+    when(syncService.sync(new SyncRequest("data", "backup/", Direction.UPLOAD, true, false))).thenReturn(
+        new SyncReport(true, 3, 0, 0, 0, 0, List.of(new SyncAction("a.txt", Type.UPLOAD, 10, false, null))));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"localDirectory\": \"data\", \"prefix\": \"backup/\", \"direction\": \"UPLOAD\", "
+                + "\"dryRun\": true}"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.unchanged").value(3))
+        .andExpect(jsonPath("$.actions[0].type").value("UPLOAD"));
+  }
+
+  @Test
+  void shouldRejectInvalidRequest() throws Exception {
+    when(syncService.sync(any())).thenThrow(new InvalidSyncRequestException("not a directory"));
+
+    mockMvc.perform(MockMvcRequestBuilders.post(BASE_URL)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"localDirectory\": \"missing\"}"))
+        .andExpect(status().isBadRequest());
+  }
+
+}
@@ -0,0 +1,100 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.WarmupConfigProperties;
+import com.marcofaccani.awss3.model.HotKey;
+import com.marcofaccani.awss3.service.AccessJournal;
+import com.marcofaccani.awss3.service.KeyAnalytics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AccessJournalTest {
+
+  private final KeyAnalytics keyAnalytics = mock(KeyAnalytics.class);
+  private AccessJournal underTest;
+
+  @TempDir
+  private Path directory;
+
+  private AccessJournal journal(final boolean enabled, final String journalFile) {
+    underTest = new AccessJournal(new WarmupConfigProperties(enabled, journalFile, Duration.ofHours(1), 10, 1, 10,
+        Duration.ofSeconds(1), List.of()), keyAnalytics);
+    return underTest;
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private void downloads(final List<HotKey> hotKeys) {
+    when(keyAnalytics.hotKeys(KeyAnalytics.OPERATION_DOWNLOAD, KeyAnalytics.METRIC_REQUESTS)).thenReturn(hotKeys);
+  }
+
+  @Test
+  void shouldReadKeysRecorded() {
+    final var hotKeys = List.of(new HotKey("logs/a.log", 42), new HotKey("é.txt", 7));
+    downloads(hotKeys);
+    final var journalFile = directory.resolve("journal/access.journal");
+
+    journal(true, journalFile.toString()).record();
+
+    assertEquals(hotKeys, underTest.read());
+    assertFalse(Files.exists(journalFile.resolveSibling("access.journal.tmp")));
+  }
+
+  @Test
+  void shouldKeepPreviousJournalWithoutDownloads() {
+    downloads(List.of(new HotKey("logs/a.log", 42)));
+    final var journalFile = directory.resolve("access.journal").toString();
+    journal(true, journalFile).record();
+    underTest.preDestroy();
+
+    downloads(List.of());
+    journal(true, journalFile).record();
+
+    assertEquals(List.of(new HotKey("logs/a.log", 42)), underTest.read());
+  }
+
+  @Test
+  void shouldRecordAtShutdown() {
+    downloads(List.of(new HotKey("logs/a.log", 42)));
+    final var journalFile = directory.resolve("access.journal");
+
+    journal(true, journalFile.toString()).preDestroy();
+
+    assertTrue(Files.exists(journalFile));
+  }
+
+  @Test
+  void shouldReadNothingFromInvalidJournal() throws IOException {
+    final var journalFile = directory.resolve("access.journal");
+    Files.writeString(journalFile, "dummy content");
+
+    assertTrue(journal(true, journalFile.toString()).read().isEmpty());
+  }
+
+  @Test
+  void shouldKeepNoJournalWhenDisabled() {
+    downloads(List.of(new HotKey("logs/a.log", 42)));
+    final var journalFile = directory.resolve("access.journal");
+
+    journal(false, journalFile.toString()).record();
+
+    assertFalse(Files.exists(journalFile));
+    assertTrue(underTest.read().isEmpty());
+  }
+
+}
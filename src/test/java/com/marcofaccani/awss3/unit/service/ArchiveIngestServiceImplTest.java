@@ -0,0 +1,211 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.marcofaccani.awss3.config.IngestConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.service.ArchiveIngestServiceImpl;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ArchiveIngestServiceImplTest {
+
+  private static final int MEMORY_ENTRY_SIZE = 1024;
+
+  private final FileStorageService fileStorageService = mock(FileStorageService.class);
+  private final Map<String, byte[]> uploads = new ConcurrentHashMap<>();
+
+  private ArchiveIngestServiceImpl underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = new ArchiveIngestServiceImpl(new IngestConfigProperties(4, DataSize.ofBytes(MEMORY_ENTRY_SIZE),
+        DataSize.ofKilobytes(4)), fileStorageService, mock(FileChangeBus.class));
+    doAnswer(invocation -> {
+      final InputStream inputStream = invocation.getArgument(1);
+      final var content = inputStream.readAllBytes();
+      assertEquals(invocation.<Long>getArgument(2), content.length);
+      if (invocation.<String>getArgument(0).endsWith("fail.bin")) {
+        throw S3Exception.builder().message("dummy error message").build();
+      }
+      uploads.put(invocation.getArgument(0), content);
+      return null;
+    }).when(fileStorageService).uploadFile(anyString(), any(InputStream.class), anyLong());
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private static Map<String, byte[]> files() {
+    final var files = new LinkedHashMap<String, byte[]>();
+    for (final var size : new int[]{0, 10, MEMORY_ENTRY_SIZE, MEMORY_ENTRY_SIZE + 1, 10 * MEMORY_ENTRY_SIZE}) {
+      final var bytes = new byte[size];
+      new Random(size).nextBytes(bytes);
+      files.put("dir/file-" + size + ".bin", bytes);
+    }
+    return files;
+  }
+
+  private static byte[] zip(final Map<String, byte[]> files) throws IOException {
+    final var archive = new ByteArrayOutputStream();
+    try (var zip = new ZipOutputStream(archive)) {
+      zip.putNextEntry(new ZipEntry("dir/"));
+      for (final var file : files.entrySet()) {
+        // Written as a stream: sizes are only known from the data descriptor following each entry
+        zip.putNextEntry(new ZipEntry(file.getKey()));
+        zip.write(file.getValue());
+        zip.closeEntry();
+      }
+    }
+    return archive.toByteArray();
+  }
+
+  private static byte[] tar(final Map<String, byte[]> files) throws IOException {
+    final var archive = new ByteArrayOutputStream();
+    try (var tar = new TarArchiveOutputStream(archive)) {
+      tar.putArchiveEntry(new TarArchiveEntry("dir/"));
+      tar.closeArchiveEntry();
+      for (final var file : files.entrySet()) {
+        final var entry = new TarArchiveEntry(file.getKey());
+        entry.setSize(file.getValue().length);
+        tar.putArchiveEntry(entry);
+        tar.write(file.getValue());
+        tar.closeArchiveEntry();
+      }
+    }
+    return archive.toByteArray();
+  }
+
+  private static byte[] gzip(final byte[] bytes) throws IOException {
+    final var compressed = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(bytes);
+    }
+    return compressed.toByteArray();
+  }
+
+  private void assertUploaded(final Map<String, byte[]> files, final String prefix) {
+    assertEquals(files.keySet().stream().map(name -> prefix + name).sorted().toList(),
+        uploads.keySet().stream().sorted().toList());
+    files.forEach((name, content) -> assertArrayEquals(content, uploads.get(prefix + name)));
+  }
+
+  @Nested
+  class FormatTest {
+
+    @Test
+    void shouldIngestZip() throws IOException {
+      final var files = files();
+
+      final var report = underTest.ingest(new ByteArrayInputStream(zip(files)), "imported/");
+
+      assertUploaded(files, "imported/");
+      assertEquals(files.size(), report.entries());
+      assertEquals(files.size(), report.uploaded());
+      assertNull(report.error());
+      // In archive order
+      assertEquals(files.keySet().stream().map(name -> "imported/" + name).toList(),
+          report.results().stream().map(result -> result.fileName()).toList());
+    }
+
+    @Test
+    void shouldIngestTar() throws IOException {
+      final var files = files();
+
+      final var report = underTest.ingest(new ByteArrayInputStream(tar(files)), null);
+
+      assertUploaded(files, "");
+      assertEquals(files.size(), report.uploaded());
+    }
+
+    @Test
+    void shouldIngestCompressedTar() throws IOException {
+      final var files = files();
+
+      final var report = underTest.ingest(new ByteArrayInputStream(gzip(tar(files))), null);
+
+      assertUploaded(files, "");
+      assertEquals(files.size(), report.uploaded());
+    }
+
+    @Test
+    void shouldRejectUnknownFormat() {
+      final var notAnArchive = "just some text".getBytes(StandardCharsets.UTF_8);
+
+      assertThrows(InvalidArchiveRequestException.class,
+          () -> underTest.ingest(new ByteArrayInputStream(notAnArchive), null));
+    }
+
+  }
+
+  @Nested
+  class FailureTest {
+
+    @Test
+    void shouldReportFailedEntriesAndGoOn() throws IOException {
+      final var files = files();
+      files.put("fail.bin", new byte[10]);
+      files.put("last.bin", new byte[10]);
+
+      final var report = underTest.ingest(new ByteArrayInputStream(tar(files)), null);
+
+      assertEquals(files.size() - 1, report.uploaded());
+      assertEquals(1, report.failed());
+      final var failure = report.results().get(files.size() - 2);
+      assertEquals("fail.bin", failure.fileName());
+      assertFalse(failure.uploaded());
+      assertEquals("dummy error message", failure.errorMessage());
+      assertNotNull(uploads.get("last.bin"));
+    }
+
+    @Test
+    void shouldReportTruncatedArchive() throws IOException {
+      final var archive = tar(files());
+
+      final var report = underTest.ingest(new ByteArrayInputStream(Arrays.copyOf(archive, 3000)), null);
+
+      // Cut in the middle of the third file
+      assertNotNull(report.error());
+      assertEquals(2, report.uploaded());
+      assertEquals(1, report.failed());
+      assertNotNull(report.results().get(2).errorMessage());
+    }
+
+  }
+
+}
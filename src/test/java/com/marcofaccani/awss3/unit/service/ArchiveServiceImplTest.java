@@ -0,0 +1,182 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.marcofaccani.awss3.config.ArchiveConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidArchiveRequestException;
+import com.marcofaccani.awss3.model.ArchiveRequest;
+import com.marcofaccani.awss3.service.ArchiveServiceImpl;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ArchiveServiceImplTest {
+
+  private final FileStorageService fileStorageService = mock(FileStorageService.class);
+  private final Map<String, byte[]> files = new LinkedHashMap<>();
+
+  private ArchiveServiceImpl underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = new ArchiveServiceImpl(new ArchiveConfigProperties(2, DataSize.ofKilobytes(1), 4, 3,
+        List.of("png", "zip")), fileStorageService);
+    when(fileStorageService.getFile(anyString())).thenAnswer(invocation -> {
+      final var content = files.get(invocation.<String>getArgument(0));
+      if (content == null) {
+        throw NoSuchKeyException.builder().message("not found").build();
+      }
+      return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+          AbortableInputStream.create(new ByteArrayInputStream(content)));
+    });
+    when(fileStorageService.listFiles(anyString(), anyInt())).thenAnswer(invocation -> files.keySet().stream()
+        .filter(fileName -> fileName.startsWith(invocation.getArgument(0)))
+        .sorted()
+        .limit(invocation.<Integer>getArgument(1))
+        .toList());
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private static byte[] randomBytes(final int size) {
+    final var bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  private Map<String, ZipEntry> readArchive(final byte[] archive, final Map<String, byte[]> contents)
+      throws IOException {
+    final var entries = new LinkedHashMap<String, ZipEntry>();
+    try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), entry);
+        contents.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+    return entries;
+  }
+
+  @Nested
+  class WriteArchiveTest {
+
+    @Test
+    void shouldArchiveFilesInOrder() throws IOException {
+      files.put("notes.txt", "some notes".getBytes(StandardCharsets.UTF_8));
+      files.put("small.png", randomBytes(100));
+      files.put("large.png", randomBytes(10_000));
+      files.put("large.txt", "line\n".repeat(2000).getBytes(StandardCharsets.UTF_8));
+      files.put("dir/../../escape.zip", randomBytes(10));
+      final var output = new ByteArrayOutputStream();
+
+      underTest.writeArchive(List.copyOf(files.keySet()), output);
+
+      final var contents = new LinkedHashMap<String, byte[]>();
+      final var entries = readArchive(output.toByteArray(), contents);
+      assertEquals(List.of("notes.txt", "small.png", "large.png", "large.txt", "dir/escape.zip"),
+          List.copyOf(entries.keySet()));
+      assertArrayEquals(files.get("large.png"), contents.get("large.png"));
+      assertArrayEquals(files.get("large.txt"), contents.get("large.txt"));
+      assertEquals(ZipEntry.STORED, entries.get("small.png").getMethod());
+      assertEquals(ZipEntry.DEFLATED, entries.get("notes.txt").getMethod());
+      // Too large to be prefetched: deflated without compression
+      assertEquals(ZipEntry.DEFLATED, entries.get("large.png").getMethod());
+    }
+
+    @Test
+    void shouldNameEntriesOfFilesMappedToSameNameApart() throws IOException {
+      files.put("a/../b.txt", "first".getBytes(StandardCharsets.UTF_8));
+      files.put("b.txt", "second".getBytes(StandardCharsets.UTF_8));
+      files.put("./b.txt", "third".getBytes(StandardCharsets.UTF_8));
+      files.put("b (1).txt", "fourth".getBytes(StandardCharsets.UTF_8));
+      final var output = new ByteArrayOutputStream();
+
+      underTest.writeArchive(List.copyOf(files.keySet()), output);
+
+      final var contents = new LinkedHashMap<String, byte[]>();
+      final var entries = readArchive(output.toByteArray(), contents);
+      assertEquals(List.of("a/b.txt", "b.txt", "b (1).txt", "b (1) (1).txt"), List.copyOf(entries.keySet()));
+      assertArrayEquals("third".getBytes(StandardCharsets.UTF_8), contents.get("b (1).txt"));
+    }
+
+    @Test
+    void shouldFailOnMissingFile() {
+      files.put("present.txt", new byte[10]);
+
+      assertThrows(IOException.class,
+          () -> underTest.writeArchive(List.of("present.txt", "missing.txt"), new ByteArrayOutputStream()));
+    }
+
+  }
+
+  @Nested
+  class ResolveFileNamesTest {
+
+    @Test
+    void shouldResolveListedFilesOnce() {
+      assertEquals(List.of("a", "b"), underTest.resolveFileNames(new ArchiveRequest(List.of("a", "b", "a"), "x")));
+    }
+
+    @Test
+    void shouldResolveFilesByPrefix() {
+      files.put("logs/1.log", new byte[1]);
+      files.put("logs/2.log", new byte[1]);
+      files.put("data.csv", new byte[1]);
+
+      assertEquals(List.of("logs/1.log", "logs/2.log"), underTest.resolveFileNames(new ArchiveRequest(null, "logs/")));
+    }
+
+    @Test
+    void shouldRejectEmptyAndTooLargeArchives() {
+      assertThrows(InvalidArchiveRequestException.class,
+          () -> underTest.resolveFileNames(new ArchiveRequest(null, "nothing/")));
+      assertThrows(InvalidArchiveRequestException.class,
+          () -> underTest.resolveFileNames(new ArchiveRequest(List.of(), null)));
+      assertThrows(InvalidArchiveRequestException.class,
+          () -> underTest.resolveFileNames(new ArchiveRequest(List.of("a", "b", "c", "d"), null)));
+    }
+
+    @Test
+    void shouldRejectPrefixMatchingTooManyFiles() {
+      for (int i = 0; i < 4; i++) {
+        files.put("logs/" + i + ".log", new byte[1]);
+      }
+
+      final var ex = assertThrows(InvalidArchiveRequestException.class,
+          () -> underTest.resolveFileNames(new ArchiveRequest(null, "logs/")));
+
+      assertEquals(String.format(ArchiveServiceImpl.ERR_MSG_TOO_MANY_MATCHING_FILES, "logs/", 3), ex.getMessage());
+      verify(fileStorageService).listFiles("logs/", 4);
+    }
+
+  }
+
+}
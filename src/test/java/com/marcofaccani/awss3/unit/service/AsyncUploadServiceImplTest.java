@@ -0,0 +1,207 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.AsyncUploadConfigProperties;
+import com.marcofaccani.awss3.exceptions.AsyncUploadNotFoundException;
+import com.marcofaccani.awss3.model.AsyncUploadStatus.State;
+import com.marcofaccani.awss3.service.AsyncUploadServiceImpl;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class AsyncUploadServiceImplTest {
+
+  private static final String FILE_NAME = "filename.txt";
+  private static final byte[] FILE_CONTENT = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+  @TempDir
+  private Path spoolDirectory;
+
+  private FileStorageService fileStorageService;
+
+  private AsyncUploadServiceImpl underTest;
+
+  @BeforeEach
+  void setup() throws IOException {
+    fileStorageService = mock(FileStorageService.class);
+    underTest = newService(3);
+    underTest.postConstruct();
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    underTest.preDestroy();
+  }
+
+  private AsyncUploadServiceImpl newService(final int maxAttempts) {
+    return newService(10, maxAttempts, Duration.ofMillis(1));
+  }
+
+  private AsyncUploadServiceImpl newService(final int queueCapacity, final int maxAttempts,
+      final Duration retryBackoff) {
+    final var properties = new AsyncUploadConfigProperties(spoolDirectory.toString(), 1, queueCapacity, maxAttempts,
+        retryBackoff);
+    return new AsyncUploadServiceImpl(properties, fileStorageService, mock(FileChangeBus.class));
+  }
+
+  private void awaitState(final String uploadId, final State expectedState) throws InterruptedException {
+    final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (underTest.getStatus(uploadId).state() != expectedState && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expectedState, underTest.getStatus(uploadId).state());
+  }
+
+  @Nested
+  class SubmitTest {
+
+    @Test
+    void shouldUploadSpooledFileAndCleanSpoolDirectory() throws Exception {
+      final var uploadedContent = new byte[1][];
+      doAnswer(invocation -> {
+        uploadedContent[0] = invocation.<InputStream>getArgument(1).readAllBytes();
+        return null;
+      }).when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), eq((long) FILE_CONTENT.length));
+
+      final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+
+      assertEquals(FILE_NAME, status.fileName());
+      awaitState(status.uploadId(), State.COMPLETED);
+      assertEquals(new String(FILE_CONTENT, StandardCharsets.UTF_8),
+          new String(uploadedContent[0], StandardCharsets.UTF_8));
+      try (var spoolFiles = Files.list(spoolDirectory)) {
+        assertEquals(0, spoolFiles.count());
+      }
+    }
+
+    @Test
+    void shouldRetryFailedTransfers() throws Exception {
+      doThrow(new RuntimeException("dummy error message"))
+          .doNothing()
+          .when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+
+      final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+
+      awaitState(status.uploadId(), State.COMPLETED);
+      assertEquals(2, underTest.getStatus(status.uploadId()).attempts());
+    }
+
+    @Test
+    void shouldReportRetryingUntilLastAttempt() throws Exception {
+      underTest.preDestroy();
+      underTest = newService(10, 2, Duration.ofMillis(500));
+      underTest.postConstruct();
+      doThrow(new RuntimeException("dummy error message"))
+          .doNothing()
+          .when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+
+      final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+
+      awaitState(status.uploadId(), State.RETRYING);
+      awaitState(status.uploadId(), State.COMPLETED);
+    }
+
+    @Test
+    void shouldKeepSpooledFileWhenAllAttemptsFail() throws Exception {
+      doThrow(new RuntimeException("dummy error message"))
+          .when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+
+      final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+
+      verify(fileStorageService, timeout(5000).times(3)).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+      awaitState(status.uploadId(), State.FAILED);
+      assertTrue(underTest.getStatus(status.uploadId()).errorMessage().contains("dummy error message"));
+      assertTrue(Files.exists(spoolDirectory.resolve(status.uploadId() + AsyncUploadServiceImpl.DATA_FILE_SUFFIX)));
+    }
+
+  }
+
+  @Nested
+  class RecoveryTest {
+
+    @Test
+    void shouldResumeSpooledUploadsAtBoot() throws Exception {
+      doThrow(new RuntimeException("dummy error message"))
+          .when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+      final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+      awaitState(status.uploadId(), State.FAILED);
+      underTest.preDestroy();
+
+      fileStorageService = mock(FileStorageService.class);
+      underTest = newService(1);
+      underTest.postConstruct();
+
+      awaitState(status.uploadId(), State.COMPLETED);
+      verify(fileStorageService, times(1)).uploadFile(eq(FILE_NAME), any(InputStream.class),
+          eq((long) FILE_CONTENT.length));
+    }
+
+    @Test
+    void shouldResumeMoreSpooledUploadsThanQueueCapacity() throws Exception {
+      doThrow(new RuntimeException("dummy error message"))
+          .when(fileStorageService).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+      final var uploadIds = new ArrayList<String>();
+      for (int i = 0; i < 5; i++) {
+        final var status = underTest.submit(new MockMultipartFile("file", FILE_NAME, "text/plain", FILE_CONTENT));
+        awaitState(status.uploadId(), State.FAILED);
+        uploadIds.add(status.uploadId());
+      }
+      underTest.preDestroy();
+
+      fileStorageService = mock(FileStorageService.class);
+      underTest = newService(1, 1, Duration.ofMillis(1));
+      underTest.postConstruct();
+
+      for (final var uploadId : uploadIds) {
+        awaitState(uploadId, State.COMPLETED);
+      }
+      verify(fileStorageService, times(5)).uploadFile(eq(FILE_NAME), any(InputStream.class), anyLong());
+    }
+
+    @Test
+    void shouldDiscardPartiallySpooledFiles() throws Exception {
+      underTest.preDestroy();
+      final var partialFile = spoolDirectory.resolve("dummyId" + AsyncUploadServiceImpl.PARTIAL_FILE_SUFFIX);
+      Files.write(partialFile, FILE_CONTENT);
+
+      underTest = newService(1);
+      underTest.postConstruct();
+
+      assertFalse(Files.exists(partialFile));
+    }
+
+  }
+
+  @Test
+  void shouldThrowWhenUploadIdIsUnknown() {
+    assertThrows(AsyncUploadNotFoundException.class, () -> underTest.getStatus("unknownId"));
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marcofaccani.awss3.config.BandwidthConfigProperties;
+import com.marcofaccani.awss3.service.BandwidthScheduler;
+import com.marcofaccani.awss3.service.BandwidthScheduler.TrafficClass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthSchedulerTest {
+
+  private static final int CHUNK = 1024;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private BandwidthScheduler underTest;
+
+  private BandwidthScheduler scheduler(final boolean enabled, final long globalRate, final long clientRate) {
+    underTest = new BandwidthScheduler(new BandwidthConfigProperties(enabled, DataSize.ofBytes(globalRate),
+        DataSize.ofBytes(clientRate), DataSize.ofBytes(CHUNK), DataSize.ofKilobytes(4)), meterRegistry);
+    return underTest;
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private static long transfer(final BandwidthScheduler.Transfer transfer, final int chunks)
+      throws InterruptedIOException {
+    final var start = System.nanoTime();
+    try (transfer) {
+      for (int i = 0; i < chunks; i++) {
+        transfer.acquire(CHUNK);
+      }
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private double bytes(final TrafficClass trafficClass) {
+    return meterRegistry.get(BandwidthScheduler.METRIC_BYTES).tag("class", trafficClass.name().toLowerCase(Locale.ROOT))
+        .counter().count();
+  }
+
+  @Test
+  void shouldOnlyCountBytesWhenDisabled() throws InterruptedIOException {
+    final var underTest = scheduler(false, 1, 1);
+
+    final var elapsed = transfer(underTest.open("client", 100_000L), 100);
+
+    assertTrue(elapsed < 1000);
+    assertEquals(100 * CHUNK, bytes(TrafficClass.LARGE));
+  }
+
+  @Test
+  void shouldClassifyTransfersBySize() {
+    final var underTest = scheduler(false, 1, 1);
+
+    assertEquals(TrafficClass.SMALL, underTest.open("client", 4096L).getTrafficClass());
+    assertEquals(TrafficClass.LARGE, underTest.open("client", 4097L).getTrafficClass());
+    assertEquals(TrafficClass.LARGE, underTest.open("client", null).getTrafficClass());
+  }
+
+  @Test
+  void shouldLimitGlobalRate() throws InterruptedIOException {
+    // 10 KB burst, then 100 KB/s
+    final var underTest = scheduler(true, 100 * CHUNK, 1000 * CHUNK);
+
+    final var elapsed = transfer(underTest.open("client", null), 50);
+
+    assertTrue(elapsed >= 350, elapsed + " ms");
+  }
+
+  @Test
+  void shouldLimitClientRate() throws Exception {
+    final var underTest = scheduler(true, 1000 * CHUNK, 100 * CHUNK);
+
+    final var limited = CompletableFuture.supplyAsync(() -> uncheckedTransfer(underTest.open("greedy", null), 50));
+    // Within the burst of the client
+    final var other = transfer(underTest.open("other", null), 10);
+
+    assertTrue(other < 200, other + " ms");
+    assertTrue(limited.get(5, TimeUnit.SECONDS) >= 350);
+  }
+
+  @Test
+  void shouldServeSmallTransfersFirst() throws Exception {
+    final var underTest = scheduler(true, 20 * CHUNK, 1000 * CHUNK);
+    final var large = underTest.open("client", null);
+    final var largeChunks = new AtomicLong();
+    final var done = new AtomicBoolean();
+    final var largeTransfer = CompletableFuture.runAsync(() -> {
+      try (large) {
+        while (!done.get()) {
+          large.acquire(CHUNK);
+          largeChunks.incrementAndGet();
+        }
+      } catch (InterruptedIOException ex) {
+        // Stopped
+      }
+    });
+    // Burst of the large transfer consumed
+    Thread.sleep(200);
+
+    final var before = largeChunks.get();
+    transfer(underTest.open("client", 4096L), 4);
+    final var largeChunksMeanwhile = largeChunks.get() - before;
+    done.set(true);
+
+    assertTrue(largeChunksMeanwhile <= 1, largeChunksMeanwhile + " chunks");
+    largeTransfer.get(5, TimeUnit.SECONDS);
+  }
+
+  private static long uncheckedTransfer(final BandwidthScheduler.Transfer transfer, final int chunks) {
+    try {
+      return transfer(transfer, chunks);
+    } catch (InterruptedIOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import com.marcofaccani.awss3.config.BlockCacheConfigProperties;
+import com.marcofaccani.awss3.service.BlockCache;
+import com.marcofaccani.awss3.service.BlockCache.Block;
+import com.marcofaccani.awss3.service.BlockCache.BlockKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCacheTest {
+
+  private static final int BLOCK_SIZE = 16;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private BlockCache cache(final int blocks, final String backingFile) {
+    return new BlockCache(new BlockCacheConfigProperties(true, DataSize.ofBytes(BLOCK_SIZE),
+        DataSize.ofBytes((long) blocks * BLOCK_SIZE), backingFile, 2, 1), meterRegistry);
+  }
+
+  private BlockCache cache(final int blocks) {
+    return cache(blocks, "");
+  }
+
+  private static BlockKey key(final long index) {
+    return new BlockKey("dummyBucket", "dummyFileName", "\"dummyETag\"", index);
+  }
+
+  private static byte[] content(final long index, final int length) {
+    final var content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) (index * BLOCK_SIZE + i);
+    }
+    return content;
+  }
+
+  private static Block put(final BlockCache cache, final long index) throws IOException {
+    return cache.put(key(index), BLOCK_SIZE, target -> target.put(content(index, target.remaining())));
+  }
+
+  private static byte[] read(final Block block) {
+    final ByteBuffer content = block.content();
+    final var bytes = new byte[content.remaining()];
+    content.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  void shouldServeBlocksPut() throws IOException {
+    final var underTest = cache(2);
+    underTest.release(underTest.put(key(0), 10, target -> target.put(content(0, target.remaining()))));
+
+    final var block = underTest.get(key(0));
+
+    assertNotNull(block);
+    assertArrayEquals(content(0, 10), read(block));
+    assertNull(underTest.get(key(1)));
+    assertEquals(10, meterRegistry.get(BlockCache.METRIC_SIZE).gauge().value());
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyReadBlocks() throws IOException {
+    final var underTest = cache(2);
+    underTest.release(put(underTest, 0));
+    underTest.release(put(underTest, 1));
+    underTest.release(underTest.get(key(0)));
+
+    underTest.release(put(underTest, 2));
+
+    assertTrue(underTest.contains(key(0)));
+    assertFalse(underTest.contains(key(1)));
+    assertTrue(underTest.contains(key(2)));
+    assertEquals(1, meterRegistry.get(BlockCache.METRIC_EVICTIONS).counter().count());
+  }
+
+  @Test
+  void shouldNotEvictPinnedBlocks() throws IOException {
+    final var underTest = cache(2);
+    final var pinned = put(underTest, 0);
+    underTest.release(put(underTest, 1));
+
+    underTest.release(put(underTest, 2));
+
+    assertArrayEquals(content(0, BLOCK_SIZE), read(pinned));
+    assertTrue(underTest.contains(key(0)));
+    assertFalse(underTest.contains(key(1)));
+    assertTrue(underTest.contains(key(2)));
+    underTest.release(pinned);
+  }
+
+  @Test
+  void shouldLoadOnHeapWhenEveryBlockIsPinned() throws IOException {
+    final var underTest = cache(2);
+    final var first = put(underTest, 0);
+    final var second = put(underTest, 1);
+
+    final var onHeap = put(underTest, 2);
+
+    assertArrayEquals(content(2, BLOCK_SIZE), read(onHeap));
+    assertFalse(underTest.contains(key(2)));
+    assertTrue(underTest.contains(key(0)));
+    assertTrue(underTest.contains(key(1)));
+    underTest.release(onHeap);
+    underTest.release(first);
+    underTest.release(second);
+  }
+
+  @Test
+  void shouldLoadOnHeapWhenDisabled() throws IOException {
+    final var underTest = cache(0);
+
+    final var block = put(underTest, 0);
+
+    assertArrayEquals(content(0, BLOCK_SIZE), read(block));
+    assertFalse(underTest.contains(key(0)));
+  }
+
+  @Test
+  void shouldReuseBlockWhenLoadFails() throws IOException {
+    final var underTest = cache(1);
+
+    assertThrows(IOException.class, () -> underTest.put(key(0), BLOCK_SIZE, target -> {
+      throw new IOException("dummy error message");
+    }));
+    underTest.release(put(underTest, 1));
+
+    assertFalse(underTest.contains(key(0)));
+    assertTrue(underTest.contains(key(1)));
+    assertEquals(0, meterRegistry.get(BlockCache.METRIC_EVICTIONS).counter().count());
+  }
+
+  @Test
+  void shouldKeepBlocksInBackingFile(@TempDir final Path directory) throws IOException {
+    final var backingFile = directory.resolve("blocks");
+    final var underTest = cache(2, backingFile.toString());
+    underTest.release(put(underTest, 0));
+    underTest.release(put(underTest, 1));
+
+    final var block = underTest.get(key(1));
+
+    assertArrayEquals(content(1, BLOCK_SIZE), read(block));
+    underTest.release(block);
+    underTest.preDestroy();
+    assertFalse(backingFile.toFile().exists());
+  }
+
+}
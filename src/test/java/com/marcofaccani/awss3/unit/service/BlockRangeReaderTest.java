@@ -0,0 +1,189 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.BlockCacheConfigProperties;
+import com.marcofaccani.awss3.exceptions.RangeNotSatisfiableException;
+import com.marcofaccani.awss3.model.FileRange;
+import com.marcofaccani.awss3.service.BlockCache;
+import com.marcofaccani.awss3.service.BlockRangeReader;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRange;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlockRangeReaderTest {
+
+  private static final String BUCKET_NAME = "dummyBucket";
+  private static final String FILE_NAME = "dummyFileName";
+  private static final String E_TAG = "\"dummyETag\"";
+  private static final int BLOCK_SIZE = 16;
+  private static final byte[] CONTENT = new byte[100];
+
+  static {
+    for (int i = 0; i < CONTENT.length; i++) {
+      CONTENT[i] = (byte) i;
+    }
+  }
+
+  private final S3Client s3Client = mock(S3Client.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private BlockRangeReader underTest;
+
+  private BlockRangeReader reader(final boolean enabled, final Map<String, String> metadata) {
+    when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder()
+        .eTag(E_TAG)
+        .contentLength((long) CONTENT.length)
+        .metadata(metadata)
+        .build());
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+      final GetObjectRequest request = invocation.getArgument(0);
+      final var bounds = request.range().substring("bytes=".length()).split("-");
+      final var content = Arrays.copyOfRange(CONTENT, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+      return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) content.length).build(),
+          AbortableInputStream.create(new ByteArrayInputStream(content)));
+    });
+    final var blockCacheConfigProperties = new BlockCacheConfigProperties(enabled, DataSize.ofBytes(BLOCK_SIZE),
+        DataSize.ofBytes(BLOCK_SIZE * 16), "", 2, 2);
+    underTest = new BlockRangeReader(new AwsS3ConfigProperties(BUCKET_NAME), blockCacheConfigProperties, s3Client,
+        new S3OperationMetrics(meterRegistry), new BlockCache(blockCacheConfigProperties, meterRegistry),
+        meterRegistry);
+    return underTest;
+  }
+
+  private BlockRangeReader reader() {
+    return reader(true, Map.of());
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (underTest != null) {
+      underTest.preDestroy();
+    }
+  }
+
+  private static HttpRange range(final String range) {
+    return HttpRange.parseRanges(range).get(0);
+  }
+
+  private static byte[] read(final FileRange fileRange) throws IOException {
+    try (var inputStream = fileRange.content()) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  private static GetObjectRequest rangeRequest(final String range) {
+    return argThat(request -> request != null && range.equals(request.range()));
+  }
+
+  private double blocks(final String result) {
+    return meterRegistry.get(BlockRangeReader.METRIC_BLOCKS).tag("result", result).counter().count();
+  }
+
+  @Test
+  void shouldAssembleRangeFromBlocks() throws IOException {
+    final var fileRange = reader().read(FILE_NAME, range("bytes=10-40")).orElseThrow();
+
+    assertEquals("bytes 10-40/100", fileRange.contentRange());
+    assertEquals(31, fileRange.contentLength());
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 10, 41), read(fileRange));
+    verify(s3Client).getObject(rangeRequest("bytes=0-15"));
+    verify(s3Client).getObject(rangeRequest("bytes=16-31"));
+    verify(s3Client).getObject(rangeRequest("bytes=32-47"));
+    verify(s3Client, times(3)).getObject(argThat((GetObjectRequest request) -> E_TAG.equals(request.ifMatch())));
+  }
+
+  @Test
+  void shouldServeCachedBlocksWithoutFetchingThem() throws IOException {
+    final var reader = reader();
+    read(reader.read(FILE_NAME, range("bytes=20-30")).orElseThrow());
+
+    final var fileRange = reader.read(FILE_NAME, range("bytes=18-28")).orElseThrow();
+
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 18, 29), read(fileRange));
+    verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+    assertEquals(1, blocks("hit"));
+    assertEquals(1, blocks("miss"));
+  }
+
+  @Test
+  void shouldServeLastBlockShorterThanBlockSize() throws IOException {
+    final var fileRange = reader().read(FILE_NAME, range("bytes=-10")).orElseThrow();
+
+    assertEquals("bytes 90-99/100", fileRange.contentRange());
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 90, 100), read(fileRange));
+    verify(s3Client).getObject(rangeRequest("bytes=80-95"));
+    verify(s3Client).getObject(rangeRequest("bytes=96-99"));
+  }
+
+  @Test
+  void shouldReadAheadPastRangeWhenReadSequentially() throws IOException {
+    final var reader = reader();
+    read(reader.read(FILE_NAME, range("bytes=0-15")).orElseThrow());
+
+    read(reader.read(FILE_NAME, range("bytes=16-31")).orElseThrow());
+
+    verify(s3Client, timeout(5000)).getObject(rangeRequest("bytes=32-47"));
+    verify(s3Client, timeout(5000)).getObject(rangeRequest("bytes=48-63"));
+  }
+
+  @Test
+  void shouldNotReadAheadPastRandomRange() throws IOException {
+    final var reader = reader();
+    read(reader.read(FILE_NAME, range("bytes=0-15")).orElseThrow());
+
+    read(reader.read(FILE_NAME, range("bytes=50-60")).orElseThrow());
+
+    verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  void shouldReadRangeWithSingleGetWhenDisabled() throws IOException {
+    final var fileRange = reader(false, Map.of()).read(FILE_NAME, range("bytes=10-40")).orElseThrow();
+
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 10, 41), read(fileRange));
+    verify(s3Client).getObject(rangeRequest("bytes=10-40"));
+  }
+
+  @Test
+  void shouldNotReadRangesOfTransformedFiles() {
+    final var fileRange = reader(true, Map.of(TransformPipeline.METADATA_STAGES, "gzip"))
+        .read(FILE_NAME, range("bytes=10-40"));
+
+    assertTrue(fileRange.isEmpty());
+  }
+
+  @Test
+  void shouldRejectUnsatisfiableRange() {
+    final var reader = reader();
+
+    assertThrows(RangeNotSatisfiableException.class, () -> reader.read(FILE_NAME, range("bytes=100-")));
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.BootstrapConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.exceptions.S3UnauthorizedException;
+import com.marcofaccani.awss3.service.BucketBootstrap;
+import com.marcofaccani.awss3.service.BucketBootstrap.State;
+import com.marcofaccani.awss3.service.BucketHealthIndicator;
+import com.marcofaccani.awss3.service.CacheWarmer;
+import com.marcofaccani.awss3.service.S3ConnectionWarmer;
+import com.marcofaccani.awss3.service.interfaces.BucketService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class BucketBootstrapTest {
+
+  private final String BUCKET_NAME = "dummyBucketName";
+
+  private final BucketService bucketService = mock(BucketService.class);
+  private final S3ConnectionWarmer connectionWarmer = mock(S3ConnectionWarmer.class);
+  private final CacheWarmer cacheWarmer = mock(CacheWarmer.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final BucketBootstrap underTest = newBootstrap();
+  private final BucketHealthIndicator healthIndicator = new BucketHealthIndicator(
+      new AwsS3ConfigProperties(BUCKET_NAME), underTest);
+
+  @SuppressWarnings("unchecked")
+  private BucketBootstrap newBootstrap() {
+    final ObjectProvider<BucketService> bucketServiceProvider = mock(ObjectProvider.class);
+    when(bucketServiceProvider.getObject()).thenReturn(bucketService);
+    final ObjectProvider<S3ConnectionWarmer> connectionWarmerProvider = mock(ObjectProvider.class);
+    when(connectionWarmerProvider.getObject()).thenReturn(connectionWarmer);
+    final ObjectProvider<CacheWarmer> cacheWarmerProvider = mock(ObjectProvider.class);
+    when(cacheWarmerProvider.getObject()).thenReturn(cacheWarmer);
+    return new BucketBootstrap(new AwsS3ConfigProperties(BUCKET_NAME),
+        new BootstrapConfigProperties(Duration.ofMillis(10), Duration.ofMillis(20), false), bucketServiceProvider,
+        connectionWarmerProvider, cacheWarmerProvider, mock(ApplicationContext.class), meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private void awaitReady() throws InterruptedException {
+    final var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (underTest.getState() != State.READY && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(State.READY, underTest.getState());
+  }
+
+  @Test
+  void shouldBeOutOfServiceUntilStarted() {
+    assertEquals(Status.OUT_OF_SERVICE, healthIndicator.health().getStatus());
+    assertTrue(Double.isNaN(meterRegistry.get(BucketBootstrap.METRIC_READY_TIME).timeGauge().value()));
+    verifyNoInteractions(bucketService);
+  }
+
+  @Test
+  void shouldCreateBucketWhenItDoesNotExist() throws InterruptedException {
+    when(bucketService.doesBucketExist(BUCKET_NAME)).thenReturn(false);
+
+    underTest.start();
+
+    awaitReady();
+    verify(bucketService).createBucket(BUCKET_NAME);
+    verify(connectionWarmer).warmUp();
+    verify(cacheWarmer).warmUp();
+    final var health = healthIndicator.health();
+    assertEquals(Status.UP, health.getStatus());
+    assertEquals(BUCKET_NAME, health.getDetails().get("bucket"));
+    assertFalse(Double.isNaN(meterRegistry.get(BucketBootstrap.METRIC_READY_TIME).timeGauge().value()));
+  }
+
+  @Test
+  void shouldNotCreateBucketWhenItDoesExists() throws InterruptedException {
+    when(bucketService.doesBucketExist(BUCKET_NAME)).thenReturn(true);
+
+    underTest.start();
+
+    awaitReady();
+    verify(bucketService, never()).createBucket(BUCKET_NAME);
+    assertEquals(1, underTest.getAttempts());
+  }
+
+  @Test
+  void shouldBeDownAndRetryWhileAttemptsFail() {
+    when(bucketService.doesBucketExist(BUCKET_NAME)).thenThrow(new S3UnauthorizedException("dummy error message"));
+
+    underTest.start();
+
+    verify(bucketService, timeout(5000).atLeast(3)).doesBucketExist(BUCKET_NAME);
+    final var health = healthIndicator.health();
+    assertEquals(Status.DOWN, health.getStatus());
+    assertEquals("dummy error message", health.getDetails().get("error"));
+    verifyNoInteractions(connectionWarmer, cacheWarmer);
+  }
+
+  @Test
+  void shouldBeReadyOnceAnAttemptSucceeds() throws InterruptedException {
+    when(bucketService.doesBucketExist(BUCKET_NAME))
+        .thenThrow(new S3UnauthorizedException("dummy error message"))
+        .thenThrow(new S3UnauthorizedException("dummy error message"))
+        .thenReturn(true);
+
+    underTest.start();
+
+    awaitReady();
+    verify(bucketService, times(3)).doesBucketExist(BUCKET_NAME);
+    verify(connectionWarmer).warmUp();
+    assertEquals(3, underTest.getAttempts());
+    assertNull(underTest.getLastError());
+    assertEquals(Status.UP, healthIndicator.health().getStatus());
+  }
+
+  @Test
+  void shouldBeReadyWhenWarmUpFails() throws InterruptedException {
+    when(bucketService.doesBucketExist(BUCKET_NAME)).thenReturn(true);
+    doThrow(new IllegalStateException("dummy error message")).when(connectionWarmer).warmUp();
+    doThrow(new S3GetObjectException("dummy error message")).when(cacheWarmer).warmUp();
+
+    underTest.start();
+
+    awaitReady();
+    verify(cacheWarmer).warmUp();
+    assertEquals(Status.UP, healthIndicator.health().getStatus());
+  }
+
+}
@@ -3,11 +3,14 @@ package com.marcofaccani.awss3.unit.service;
 import com.marcofaccani.awss3.exceptions.S3BucketCreationException;
 import com.marcofaccani.awss3.exceptions.S3UnauthorizedException;
 import com.marcofaccani.awss3.service.BucketServiceImpl;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
 import org.springframework.http.HttpStatus;
@@ -40,6 +43,9 @@ class BucketServiceImplTest {
   @Mock
   private S3Client s3Client;
 
+  @Spy
+  private S3OperationMetrics s3OperationMetrics = new S3OperationMetrics(new SimpleMeterRegistry());
+
   @InjectMocks
   private BucketServiceImpl underTest;
 
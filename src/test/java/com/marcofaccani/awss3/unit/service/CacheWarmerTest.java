@@ -0,0 +1,101 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.WarmupConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.model.HotKey;
+import com.marcofaccani.awss3.service.AccessJournal;
+import com.marcofaccani.awss3.service.CacheWarmer;
+import com.marcofaccani.awss3.service.PeerCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheWarmerTest {
+
+  private final AccessJournal accessJournal = mock(AccessJournal.class);
+  private final PeerCache peerCache = mock(PeerCache.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private CacheWarmer warmer(final boolean enabled, final int topN, final double rate) {
+    return new CacheWarmer(new WarmupConfigProperties(enabled, "", Duration.ofHours(1), topN, 2, rate,
+        Duration.ofSeconds(5), List.of("gzip")), accessJournal, peerCache, meterRegistry);
+  }
+
+  @BeforeEach
+  void setup() {
+    when(accessJournal.read()).thenReturn(List.of(new HotKey("a", 30), new HotKey("b", 20), new HotKey("c", 10)));
+    when(peerCache.isOwner(any())).thenReturn(true);
+    when(peerCache.getOwnedFile(any(), any())).thenAnswer(invocation -> new ResponseInputStream<>(
+        GetObjectResponse.builder().build(), AbortableInputStream.create(new ByteArrayInputStream(new byte[4]))));
+  }
+
+  private double objects(final String result) {
+    return meterRegistry.get(CacheWarmer.METRIC_OBJECTS).tag("result", result).counter().count();
+  }
+
+  @Test
+  void shouldReadHottestFiles() {
+    warmer(true, 2, 1000).warmUp();
+
+    verify(peerCache).getOwnedFile("a", List.of("gzip"));
+    verify(peerCache).getOwnedFile("b", List.of("gzip"));
+    verify(peerCache, never()).getOwnedFile("c", List.of("gzip"));
+    assertEquals(2, objects("loaded"));
+  }
+
+  @Test
+  void shouldOnlyReadFilesOwnedByThisInstance() {
+    when(peerCache.isOwner("a")).thenReturn(false);
+
+    warmer(true, 2, 1000).warmUp();
+
+    verify(peerCache, never()).getOwnedFile("a", List.of("gzip"));
+    verify(peerCache).getOwnedFile("b", List.of("gzip"));
+    verify(peerCache).getOwnedFile("c", List.of("gzip"));
+    assertEquals(2, objects("loaded"));
+  }
+
+  @Test
+  void shouldSpreadReadsAtRate() {
+    final var start = System.nanoTime();
+
+    warmer(true, 3, 10).warmUp();
+
+    // Started at 0, 100 and 200 ms
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 200);
+    assertEquals(3, objects("loaded"));
+  }
+
+  @Test
+  void shouldCountFilesFailingToBeRead() {
+    when(peerCache.getOwnedFile("b", List.of("gzip"))).thenThrow(new S3GetObjectException("dummy error message"));
+
+    warmer(true, 3, 1000).warmUp();
+
+    assertEquals(2, objects("loaded"));
+    assertEquals(1, objects("failed"));
+  }
+
+  @Test
+  void shouldReadNothingWhenDisabled() {
+    warmer(false, 3, 1000).warmUp();
+
+    verify(peerCache, never()).getOwnedFile(any(), any());
+  }
+
+}
@@ -0,0 +1,306 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.ChunkStoreConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
+import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
+import com.marcofaccani.awss3.exceptions.S3PutObjectException;
+import com.marcofaccani.awss3.service.ChunkedFileStorageService;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.S3IndexJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static com.marcofaccani.awss3.unit.service.InMemoryS3.readAll;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.await;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.upload;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+
+class ChunkedFileStorageServiceTest {
+
+  private static final String PREFIX = ".chunks/";
+
+  private final StorageModeFixture fixture = new StorageModeFixture();
+  private final FileStorageServiceImpl plainFileStorageService = fixture.plainFileStorageService();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private ChunkedFileStorageService underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = newService();
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private ChunkedFileStorageService newService() {
+    return newService(Duration.ofHours(1));
+  }
+
+  private ChunkedFileStorageService newService(final Duration gcInterval) {
+    final var properties = new ChunkStoreConfigProperties(PREFIX, DataSize.ofKilobytes(1), DataSize.ofKilobytes(4),
+        DataSize.ofKilobytes(16), 4, 2, 1000, gcInterval);
+    final var service = new ChunkedFileStorageService(new AwsS3ConfigProperties(StorageModeFixture.BUCKET_NAME),
+        properties, plainFileStorageService, fixture.s3Client(), fixture.fileChangeBus(), meterRegistry);
+    service.postConstruct();
+    return service;
+  }
+
+  private long countChunks() {
+    return fixture.countObjects(PREFIX + "chunks/", "");
+  }
+
+  // Through another instance, collecting garbage every few milliseconds
+  private void awaitChunkCount(final long expectedChunks) throws InterruptedException {
+    final var collectingInstance = newService(Duration.ofMillis(10));
+    try {
+      await(() -> countChunks() == expectedChunks);
+    } finally {
+      collectingInstance.preDestroy();
+    }
+  }
+
+  private long countManifests() {
+    return fixture.countObjects(PREFIX + "manifests/", "");
+  }
+
+  private void failJournalAppends() {
+    doThrow(S3Exception.builder().message("dummy error message").build())
+        .when(fixture.s3Client()).putObject(argThat((PutObjectRequest request) -> request != null
+            && request.key().endsWith(S3IndexJournal.SEGMENT_SUFFIX)), any(RequestBody.class));
+  }
+
+  private double uploadedChunks(final String result) {
+    return meterRegistry.get(ChunkedFileStorageService.METRIC_CHUNKS).tag("result", result).counter().count();
+  }
+
+  private static byte[] randomBytes(final int size) {
+    final var bytes = new byte[size];
+    new Random(42).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Nested
+  class UploadFileTest {
+
+    @Test
+    void shouldReassembleUploadedFile() {
+      final var content = randomBytes(200 * 1024);
+
+      upload(underTest, "file.bin", content);
+
+      assertArrayEquals(content, readAll(underTest.getFile("file.bin")));
+      assertEquals(content.length, underTest.getFile("file.bin").response().contentLength());
+      assertEquals(List.of("file.bin"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldOnlyUploadChangedChunksOfNewVersion() {
+      final var original = randomBytes(200 * 1024);
+      final var edited = original.clone();
+      edited[100 * 1024] ^= 1;
+      upload(underTest, "file.bin", original);
+      final var chunksOfOriginal = uploadedChunks("new");
+
+      upload(underTest, "file.bin", edited);
+
+      assertTrue(uploadedChunks("new") - chunksOfOriginal <= 2);
+      assertTrue(uploadedChunks("reused") >= chunksOfOriginal - 2);
+      assertArrayEquals(edited, readAll(underTest.getFile("file.bin")));
+    }
+
+    @Test
+    void shouldDeleteChunksOnlyUsedByPreviousVersion() throws InterruptedException {
+      upload(underTest, "file.bin", randomBytes(100 * 1024));
+      final var chunksOfFirstVersion = countChunks();
+
+      upload(underTest, "file.bin", new byte[10]);
+
+      awaitChunkCount(1);
+      assertTrue(chunksOfFirstVersion > 1);
+    }
+
+    @Test
+    void shouldDeleteManifestAndChunksOfFileNotRecorded() throws InterruptedException {
+      failJournalAppends();
+
+      assertThrows(S3PutObjectException.class, () -> upload(underTest, "file.bin", randomBytes(50 * 1024)));
+
+      assertEquals(0, countManifests());
+      awaitChunkCount(0);
+      assertEquals(List.of(), underTest.listFilesInBucket());
+    }
+
+  }
+
+  @Nested
+  class CopyFileTest {
+
+    @Test
+    void shouldCopyWithoutUploadingChunks() {
+      final var content = randomBytes(100 * 1024);
+      upload(underTest, "file.bin", content);
+      final var chunks = countChunks();
+      final var uploadedChunks = uploadedChunks("new");
+
+      underTest.moveFile("file.bin", "moved.bin");
+
+      assertEquals(chunks, countChunks());
+      assertEquals(uploadedChunks, uploadedChunks("new"));
+      assertArrayEquals(content, readAll(underTest.getFile("moved.bin")));
+      assertEquals(List.of("moved.bin"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldRejectMoveOntoItself() {
+      final var content = randomBytes(50 * 1024);
+      upload(underTest, "file.bin", content);
+
+      assertThrows(InvalidCopyRequestException.class, () -> underTest.moveFile("file.bin", "file.bin"));
+
+      assertArrayEquals(content, readAll(underTest.getFile("file.bin")));
+      assertEquals(List.of("file.bin"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldDeleteManifestOfCopyNotRecorded() {
+      final var content = randomBytes(50 * 1024);
+      upload(underTest, "file.bin", content);
+      failJournalAppends();
+
+      assertThrows(S3CopyObjectException.class, () -> underTest.copyFile("file.bin", "copy.bin"));
+
+      assertEquals(1, countManifests());
+      assertEquals(List.of("file.bin"), underTest.listFilesInBucket());
+      assertArrayEquals(content, readAll(underTest.getFile("file.bin")));
+    }
+
+    @Test
+    void shouldDropManifestOfTargetOverwrittenByPlainFile() throws InterruptedException {
+      upload(underTest, "target.bin", randomBytes(50 * 1024));
+      upload(underTest, "other.bin", new byte[1024]);
+
+      underTest.copyFile("plain.bin", "target.bin");
+      underTest.preDestroy();
+      underTest = newService();
+
+      verify(plainFileStorageService).copyFile("plain.bin", "target.bin");
+      assertEquals(List.of("other.bin"), underTest.listFilesInBucket());
+      assertEquals(1, countManifests());
+      awaitChunkCount(1);
+    }
+
+  }
+
+  @Nested
+  class DeleteFileTest {
+
+    @Test
+    void shouldKeepChunksSharedWithOtherFiles() throws InterruptedException {
+      final var content = randomBytes(100 * 1024);
+      upload(underTest, "first.bin", content);
+      upload(underTest, "second.bin", content);
+      final var chunks = countChunks();
+
+      underTest.deleteFile("first.bin");
+
+      assertEquals(chunks, countChunks());
+      assertArrayEquals(content, readAll(underTest.getFile("second.bin")));
+      verify(plainFileStorageService).deleteFile("first.bin");
+
+      underTest.deleteFile("second.bin");
+      awaitChunkCount(0);
+    }
+
+    @Test
+    void shouldKeepChunksReusedByOtherInstance() throws InterruptedException {
+      final var content = randomBytes(50 * 1024);
+      upload(underTest, "first.bin", content);
+      final var chunks = countChunks();
+      final var otherInstance = newService();
+      try {
+        upload(otherInstance, "second.bin", content);
+
+        // Not told about the second file, this instance deletes what it sees as the last reference
+        underTest.deleteFile("first.bin");
+        final var collectingInstance = newService(Duration.ofMillis(10));
+        Thread.sleep(200);
+        collectingInstance.preDestroy();
+
+        assertEquals(chunks, countChunks());
+        assertArrayEquals(content, readAll(otherInstance.getFile("second.bin")));
+      } finally {
+        otherInstance.preDestroy();
+      }
+    }
+
+  }
+
+  @Nested
+  class IndexTest {
+
+    @Test
+    void shouldReloadFilesAtBoot() {
+      final var content = randomBytes(50 * 1024);
+      upload(underTest, "kept.bin", content);
+      upload(underTest, "deleted.bin", randomBytes(10));
+      underTest.deleteFile("deleted.bin");
+      underTest.preDestroy();
+
+      underTest = newService();
+
+      assertEquals(List.of("kept.bin"), underTest.listFilesInBucket());
+      assertArrayEquals(content, readAll(underTest.getFile("kept.bin")));
+    }
+
+    @Test
+    void shouldPickUpFilesOfOtherInstancesOnChange() throws InterruptedException {
+      upload(underTest, "deleted.bin", randomBytes(10));
+      final var otherInstance = newService();
+      final var content = randomBytes(50 * 1024);
+      try {
+        upload(otherInstance, "other.bin", content);
+        otherInstance.deleteFile("deleted.bin");
+      } finally {
+        otherInstance.preDestroy();
+      }
+
+      fixture.notifyRemoteChange();
+      await(() -> underTest.listFilesInBucket().contains("other.bin"));
+
+      assertEquals(List.of("other.bin"), underTest.listFilesInBucket());
+      assertArrayEquals(content, readAll(underTest.getFile("other.bin")));
+    }
+
+  }
+
+  @Test
+  void shouldRejectPreSignedUrlOfChunkedFile() {
+    upload(underTest, "file.bin", randomBytes(10));
+
+    assertThrows(S3PresignedUrlException.class, () -> underTest.generatePreSignedUrlOfFile("file.bin", 2L));
+  }
+
+}
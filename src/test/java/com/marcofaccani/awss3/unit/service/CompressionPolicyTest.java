@@ -0,0 +1,76 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.marcofaccani.awss3.config.CompressionConfigProperties;
+import com.marcofaccani.awss3.exceptions.ObjectTransformException;
+import com.marcofaccani.awss3.service.transform.CompressionPolicy;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressionPolicyTest {
+
+  private final CompressionPolicy underTest = policy(true);
+
+  private static CompressionPolicy policy(final boolean enabled) {
+    return new CompressionPolicy(new CompressionConfigProperties(enabled, "zstd",
+        List.of("text/*", "application/json", "application/*+json"), DataSize.ofKilobytes(1)));
+  }
+
+  @Nested
+  class ContentTypeTest {
+
+    @Test
+    void shouldUseDeclaredContentType() {
+      assertEquals(MediaType.APPLICATION_JSON, underTest.contentType("file.bin", "application/json").orElseThrow());
+    }
+
+    @Test
+    void shouldGuessContentTypeFromFileName() {
+      assertEquals(MediaType.TEXT_PLAIN, underTest.contentType("app.log", null).orElseThrow());
+      assertEquals("text/csv", underTest.contentType("data.csv", "application/octet-stream").orElseThrow().toString());
+      assertEquals(Optional.empty(), underTest.contentType("file", null));
+    }
+
+  }
+
+  @Nested
+  class StagesForTest {
+
+    @Test
+    void shouldCompressCompressibleTypes() {
+      assertEquals(List.of("zstd"), underTest.stagesFor(Optional.of(MediaType.TEXT_PLAIN), 2048, List.of()));
+      assertEquals(List.of("zstd"),
+          underTest.stagesFor(Optional.of(MediaType.APPLICATION_PROBLEM_JSON), -1, List.of()));
+    }
+
+    @Test
+    void shouldCompressAfterChecksumsAndBeforeEncryption() {
+      assertEquals(List.of("sha256", "zstd", "aes-gcm"),
+          underTest.stagesFor(Optional.of(MediaType.TEXT_PLAIN), 2048, List.of("sha256", "aes-gcm")));
+    }
+
+    @Test
+    void shouldNotCompressOtherContent() {
+      assertEquals(List.of(), underTest.stagesFor(Optional.of(MediaType.IMAGE_PNG), 2048, List.of()));
+      assertEquals(List.of(), underTest.stagesFor(Optional.empty(), 2048, List.of()));
+      assertEquals(List.of(), underTest.stagesFor(Optional.of(MediaType.TEXT_PLAIN), 100, List.of()));
+      assertEquals(List.of("gzip"), underTest.stagesFor(Optional.of(MediaType.TEXT_PLAIN), 2048, List.of("gzip")));
+      assertEquals(List.of(), policy(false).stagesFor(Optional.of(MediaType.TEXT_PLAIN), 2048, List.of()));
+    }
+
+  }
+
+  @Test
+  void shouldRejectUnsupportedAlgorithm() {
+    assertThrows(ObjectTransformException.class, () -> new CompressionPolicy(
+        new CompressionConfigProperties(true, "lz4", List.of("text/*"), DataSize.ofKilobytes(1))));
+  }
+
+}
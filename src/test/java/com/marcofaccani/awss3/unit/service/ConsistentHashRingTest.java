@@ -0,0 +1,58 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.service.ConsistentHashRing;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+
+  private static final List<String> NODES = List.of("http://10.0.0.1:8080", "http://10.0.0.2:8080",
+      "http://10.0.0.3:8080");
+  private static final List<String> KEYS = IntStream.range(0, 30_000).mapToObj(i -> "file-" + i + ".bin").toList();
+
+  @Test
+  void shouldSpreadKeysEvenly() {
+    final var underTest = new ConsistentHashRing(NODES, 128);
+
+    final var keysPerNode = new HashMap<String, Integer>();
+    KEYS.forEach(key -> keysPerNode.merge(underTest.owner(key), 1, Integer::sum));
+
+    assertEquals(NODES.size(), keysPerNode.size());
+    keysPerNode.values().forEach(keys -> assertTrue(Math.abs(keys - KEYS.size() / NODES.size()) < KEYS.size() / 10,
+        () -> "Uneven spread " + keysPerNode));
+  }
+
+  @Test
+  void shouldOnlyMoveKeysToAddedNode() {
+    final var before = new ConsistentHashRing(NODES, 128);
+    final var addedNode = "http://10.0.0.4:8080";
+    final var after = new ConsistentHashRing(
+        List.of(NODES.get(0), NODES.get(1), NODES.get(2), addedNode), 128);
+
+    final var moved = KEYS.stream().filter(key -> !before.owner(key).equals(after.owner(key))).toList();
+
+    moved.forEach(key -> assertEquals(addedNode, after.owner(key)));
+    assertTrue(Math.abs(moved.size() - KEYS.size() / 4) < KEYS.size() / 10);
+  }
+
+  @Test
+  void shouldNotDependOnNodesOrder() {
+    final var underTest = new ConsistentHashRing(NODES, 128);
+    final var reversed = new ConsistentHashRing(List.of(NODES.get(2), NODES.get(1), NODES.get(0)), 128);
+
+    KEYS.stream().limit(1000).forEach(key -> assertEquals(underTest.owner(key), reversed.owner(key)));
+  }
+
+  @Test
+  void shouldHaveNoOwnerWhenEmpty() {
+    assertNull(new ConsistentHashRing(List.of(), 128).owner("dummyFileName"));
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.marcofaccani.awss3.service.ContentDefinedChunker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentDefinedChunkerTest {
+
+  private static final int MIN_CHUNK_SIZE = 1024;
+  private static final int AVERAGE_CHUNK_SIZE = 4096;
+  private static final int MAX_CHUNK_SIZE = 16384;
+
+  private final ContentDefinedChunker underTest = new ContentDefinedChunker(MIN_CHUNK_SIZE, AVERAGE_CHUNK_SIZE,
+      MAX_CHUNK_SIZE);
+
+  private List<byte[]> split(final byte[] content) throws IOException {
+    final var chunks = new ArrayList<byte[]>();
+    final var reader = underTest.reader(new ByteArrayInputStream(content));
+    byte[] chunk;
+    while ((chunk = reader.nextChunk()) != null) {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static byte[] randomBytes(final int size) {
+    final var bytes = new byte[size];
+    new Random(42).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  void shouldSplitIntoChunksWithinBoundsThatReassembleToInput() throws IOException {
+    final var content = randomBytes(1024 * 1024);
+
+    final var chunks = split(content);
+
+    final var reassembled = new ByteArrayOutputStream();
+    chunks.forEach(reassembled::writeBytes);
+    assertArrayEquals(content, reassembled.toByteArray());
+    chunks.subList(0, chunks.size() - 1).forEach(chunk -> assertTrue(
+        chunk.length >= MIN_CHUNK_SIZE && chunk.length <= MAX_CHUNK_SIZE));
+    final var averageSize = content.length / chunks.size();
+    assertTrue(averageSize > MIN_CHUNK_SIZE && averageSize < MAX_CHUNK_SIZE);
+  }
+
+  @Test
+  void shouldKeepMostChunksWhenBytesAreInsertedInTheMiddle() throws IOException {
+    final var original = randomBytes(1024 * 1024);
+    final var edited = new byte[original.length + 10];
+    System.arraycopy(original, 0, edited, 0, original.length / 2);
+    System.arraycopy(original, original.length / 2, edited, original.length / 2 + 10, original.length / 2);
+
+    final var originalChunks = new HashSet<String>();
+    split(original).forEach(chunk -> originalChunks.add(Arrays.toString(chunk)));
+    final var editedChunks = split(edited);
+
+    final var changedChunks = editedChunks.stream()
+        .filter(chunk -> !originalChunks.contains(Arrays.toString(chunk)))
+        .count();
+    assertTrue(changedChunks <= 2, "Changed chunks: " + changedChunks);
+  }
+
+  @Test
+  void shouldReturnNoChunkForEmptyInput() throws IOException {
+    assertEquals(List.of(), split(new byte[0]));
+  }
+
+  @Test
+  void shouldRejectInconsistentSizes() {
+    assertThrows(IllegalArgumentException.class, () -> new ContentDefinedChunker(4096, 1024, 16384));
+  }
+
+}
@@ -0,0 +1,118 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.CopyJobConfigProperties;
+import com.marcofaccani.awss3.exceptions.CopyJobNotFoundException;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3CopyObjectException;
+import com.marcofaccani.awss3.model.CopyJobRequest;
+import com.marcofaccani.awss3.model.CopyJobStatus;
+import com.marcofaccani.awss3.model.CopyJobStatus.State;
+import com.marcofaccani.awss3.service.CopyJobServiceImpl;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CopyJobServiceImplTest {
+
+  private final FileStorageService fileStorageService = mock(FileStorageService.class);
+  private final FileChangeBus fileChangeBus = mock(FileChangeBus.class);
+
+  private CopyJobServiceImpl underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = new CopyJobServiceImpl(new CopyJobConfigProperties(1, 4), fileStorageService, fileChangeBus);
+    when(fileStorageService.listFiles("logs/", Integer.MAX_VALUE)).thenReturn(List.of("logs/2023/b.log", "logs/a.log"));
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private CopyJobStatus awaitEnd(final String jobId) throws InterruptedException {
+    final var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    var status = underTest.getStatus(jobId);
+    while ((status.state() == State.QUEUED || status.state() == State.IN_PROGRESS) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      status = underTest.getStatus(jobId);
+    }
+    return status;
+  }
+
+  @Test
+  void shouldCopyFilesUnderPrefix() throws InterruptedException {
+    final var submitted = underTest.submit(new CopyJobRequest("logs/", "backup/logs/", false));
+
+    final var status = awaitEnd(submitted.jobId());
+
+    assertEquals(State.COMPLETED, status.state());
+    assertEquals(2, status.files());
+    assertEquals(2, status.copied());
+    verify(fileStorageService).copyFile("logs/a.log", "backup/logs/a.log");
+    verify(fileStorageService).copyFile("logs/2023/b.log", "backup/logs/2023/b.log");
+    verify(fileStorageService, never()).copyFile("other/c.log", "backup/other/c.log");
+  }
+
+  @Test
+  void shouldMoveFilesUnderPrefix() throws InterruptedException {
+    final var submitted = underTest.submit(new CopyJobRequest("logs/", "old/", true));
+
+    assertEquals(State.COMPLETED, awaitEnd(submitted.jobId()).state());
+    verify(fileStorageService).moveFile("logs/a.log", "old/a.log");
+    verify(fileStorageService).moveFile("logs/2023/b.log", "old/2023/b.log");
+    verify(fileChangeBus).publishWritten("old/a.log");
+    verify(fileChangeBus).publishDeleted("logs/a.log");
+  }
+
+  @Test
+  void shouldReportFailedFiles() throws InterruptedException {
+    doThrow(new S3CopyObjectException("dummy error message"))
+        .when(fileStorageService).copyFile("logs/a.log", "old/a.log");
+
+    final var status = awaitEnd(underTest.submit(new CopyJobRequest("logs/", "old/", false)).jobId());
+
+    assertEquals(State.FAILED, status.state());
+    assertEquals(1, status.copied());
+    assertEquals(1, status.failed());
+    assertTrue(status.errorMessage().contains("dummy error message"));
+  }
+
+  @Test
+  void shouldRejectSamePrefixes() {
+    assertThrows(InvalidCopyRequestException.class,
+        () -> underTest.submit(new CopyJobRequest("logs/", "logs/", true)));
+    assertThrows(InvalidCopyRequestException.class,
+        () -> underTest.submit(new CopyJobRequest("", "logs/", false)));
+  }
+
+  @Test
+  void shouldRejectOverlappingPrefixes() {
+    assertThrows(InvalidCopyRequestException.class,
+        () -> underTest.submit(new CopyJobRequest("logs/", "logs/old/", true)));
+    assertThrows(InvalidCopyRequestException.class,
+        () -> underTest.submit(new CopyJobRequest("logs/2023/", "logs/", false)));
+    assertThrows(InvalidCopyRequestException.class,
+        () -> underTest.submit(new CopyJobRequest("logs/", null, false)));
+  }
+
+  @Test
+  void shouldThrowWhenJobNotFound() {
+    assertThrows(CopyJobNotFoundException.class, () -> underTest.getStatus("unknown"));
+  }
+
+}
@@ -0,0 +1,249 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.DedupConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.service.DeduplicatingFileStorageService;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.S3IndexJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.await;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.read;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.upload;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class DeduplicatingFileStorageServiceTest {
+
+  private static final String PREFIX = ".dedup/";
+
+  private final StorageModeFixture fixture = new StorageModeFixture();
+  private final InMemoryS3 inMemoryS3 = fixture.inMemoryS3();
+  private final FileStorageServiceImpl plainFileStorageService = fixture.plainFileStorageService();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private DeduplicatingFileStorageService underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = newService(1000);
+  }
+
+  private DeduplicatingFileStorageService newService(final int segmentsPerCheckpoint) {
+    return newService(segmentsPerCheckpoint, Duration.ofHours(1));
+  }
+
+  private DeduplicatingFileStorageService newService(final int segmentsPerCheckpoint, final Duration gcInterval) {
+    final var service = new DeduplicatingFileStorageService(new AwsS3ConfigProperties(StorageModeFixture.BUCKET_NAME),
+        new DedupConfigProperties(PREFIX, segmentsPerCheckpoint, gcInterval), plainFileStorageService,
+        fixture.s3Client(), mock(S3Presigner.class), fixture.fileChangeBus(), meterRegistry);
+    service.postConstruct();
+    return service;
+  }
+
+  private long countBlobs() {
+    return fixture.countObjects(PREFIX + "blobs/", "");
+  }
+
+  // Through another instance, collecting garbage every few milliseconds
+  private void awaitBlobCount(final long expectedBlobs) throws InterruptedException {
+    final var collectingInstance = newService(1000, Duration.ofMillis(10));
+    try {
+      await(() -> countBlobs() == expectedBlobs);
+    } finally {
+      collectingInstance.preDestroy();
+    }
+  }
+
+  @Nested
+  class UploadFileTest {
+
+    @Test
+    void shouldStoreSameContentOnce() {
+      upload(underTest, "first.txt", "same content");
+      upload(underTest, "second.txt", "same content");
+
+      assertEquals(1, countBlobs());
+      assertEquals("same content", read(underTest, "first.txt"));
+      assertEquals("same content", read(underTest, "second.txt"));
+      assertEquals(List.of("first.txt", "second.txt"), underTest.listFilesInBucket());
+      assertEquals(1.0, meterRegistry.get(DeduplicatingFileStorageService.METRIC_UPLOADS).tag("result", "hit")
+          .counter().count());
+      assertEquals("same content".length(), meterRegistry.get(DeduplicatingFileStorageService.METRIC_BYTES_SAVED)
+          .counter().count());
+    }
+
+    @Test
+    void shouldDeleteContentNoLongerReferencedWhenOverwritten() throws InterruptedException {
+      upload(underTest, "file.txt", "v1");
+      upload(underTest, "file.txt", "v2");
+
+      awaitBlobCount(1);
+      assertEquals("v2", read(underTest, "file.txt"));
+    }
+
+  }
+
+  @Nested
+  class CopyFileTest {
+
+    @Test
+    void shouldCopyReferenceOnly() {
+      upload(underTest, "first.txt", "some content");
+
+      underTest.moveFile("first.txt", "moved.txt");
+
+      assertEquals(1, countBlobs());
+      assertEquals("some content", read(underTest, "moved.txt"));
+      assertEquals(List.of("moved.txt"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldRejectMoveOntoItself() throws InterruptedException {
+      upload(underTest, "file.txt", "some content");
+
+      assertThrows(InvalidCopyRequestException.class, () -> underTest.moveFile("file.txt", "file.txt"));
+
+      awaitBlobCount(1);
+      assertEquals("some content", read(underTest, "file.txt"));
+      assertEquals(List.of("file.txt"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldDelegateCopyOfPlainFile() throws InterruptedException {
+      upload(underTest, "target.txt", "old content");
+
+      underTest.copyFile("plain.txt", "target.txt");
+
+      verify(plainFileStorageService).copyFile("plain.txt", "target.txt");
+      awaitBlobCount(0);
+    }
+
+    @Test
+    void shouldDropReferenceOfTargetOverwrittenByPlainFile() throws InterruptedException {
+      upload(underTest, "target.txt", "old content");
+      upload(underTest, "other.txt", "other content");
+
+      underTest.copyFile("plain.txt", "target.txt");
+      underTest = newService(1000);
+
+      assertEquals(List.of("other.txt"), underTest.listFilesInBucket());
+      awaitBlobCount(1);
+    }
+
+    @Test
+    void shouldNotRecordCopyOfPlainFileOverPlainTarget() {
+      final var objects = inMemoryS3.objects().size();
+
+      underTest.copyFile("plain.txt", "target.txt");
+
+      verify(plainFileStorageService).copyFile("plain.txt", "target.txt");
+      assertEquals(objects, inMemoryS3.objects().size());
+    }
+
+  }
+
+  @Nested
+  class DeleteFileTest {
+
+    @Test
+    void shouldKeepContentWhileStillReferenced() {
+      upload(underTest, "first.txt", "same content");
+      upload(underTest, "second.txt", "same content");
+
+      underTest.deleteFile("first.txt");
+
+      assertEquals(1, countBlobs());
+      assertEquals("same content", read(underTest, "second.txt"));
+      verify(plainFileStorageService).deleteFile("first.txt");
+    }
+
+    @Test
+    void shouldDeleteContentWithLastReference() throws InterruptedException {
+      upload(underTest, "first.txt", "same content");
+      upload(underTest, "second.txt", "same content");
+
+      underTest.deleteFile("first.txt");
+      underTest.deleteFile("second.txt");
+
+      awaitBlobCount(0);
+      assertEquals(List.of(), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldKeepContentReusedByOtherInstance() throws InterruptedException {
+      upload(underTest, "first.txt", "same content");
+      final var otherInstance = newService(1000);
+      upload(otherInstance, "second.txt", "same content");
+
+      // Not told about the second file, this instance deletes what it sees as the last reference
+      underTest.deleteFile("first.txt");
+      final var collectingInstance = newService(1000, Duration.ofMillis(10));
+      Thread.sleep(200);
+      collectingInstance.preDestroy();
+
+      assertEquals(1, countBlobs());
+      assertEquals("same content", read(otherInstance, "second.txt"));
+    }
+
+  }
+
+  @Nested
+  class IndexTest {
+
+    @Test
+    void shouldReloadReferencesAtBoot() {
+      upload(underTest, "first.txt", "same content");
+      upload(underTest, "second.txt", "same content");
+      underTest.deleteFile("first.txt");
+
+      underTest = newService(1000);
+
+      assertEquals(List.of("second.txt"), underTest.listFilesInBucket());
+      assertEquals("same content", read(underTest, "second.txt"));
+    }
+
+    @Test
+    void shouldCheckpointIndex() {
+      underTest = newService(2);
+      upload(underTest, "first.txt", "first");
+      upload(underTest, "second.txt", "second");
+      upload(underTest, "third.txt", "third");
+
+      underTest = newService(2);
+
+      assertEquals(List.of("first.txt", "second.txt", "third.txt"), underTest.listFilesInBucket());
+      assertEquals(1, inMemoryS3.objects().keySet().stream()
+          .filter(key -> key.endsWith(S3IndexJournal.SNAPSHOT_SUFFIX))
+          .count());
+    }
+
+    @Test
+    void shouldPickUpReferencesOfOtherInstancesOnChange() throws InterruptedException {
+      upload(underTest, "first.txt", "same content");
+      // Checkpointing at each segment, so that its snapshot is replayed
+      final var otherInstance = newService(1);
+      upload(otherInstance, "second.txt", "same content");
+
+      fixture.notifyRemoteChange();
+      await(() -> underTest.listFilesInBucket().contains("second.txt"));
+      underTest.deleteFile("first.txt");
+
+      assertEquals(List.of("second.txt"), underTest.listFilesInBucket());
+      assertEquals("same content", read(underTest, "second.txt"));
+      assertEquals(1, countBlobs());
+    }
+
+  }
+
+}
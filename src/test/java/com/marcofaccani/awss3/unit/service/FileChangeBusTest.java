@@ -0,0 +1,171 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.marcofaccani.awss3.config.InvalidationConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.model.FileChange.Type;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.interfaces.FileChangeTransport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileChangeBusTest {
+
+  private static final String FILE_NAME = "dummyFileName";
+  private static final String OTHER = "dummyOrigin";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<FileChange> sent = new CopyOnWriteArrayList<>();
+  private final List<FileChange> applied = new CopyOnWriteArrayList<>();
+  private int missed;
+  private Consumer<FileChange> receiver;
+  private FileChangeBus underTest;
+
+  private FileChangeBus bus(final Duration heartbeatInterval) {
+    final var transport = new FileChangeTransport() {
+      @Override
+      public void send(final FileChange change) {
+        sent.add(change);
+      }
+
+      @Override
+      public void start(final Consumer<FileChange> changeReceiver) {
+        receiver = changeReceiver;
+      }
+    };
+    underTest = new FileChangeBus(new InvalidationConfigProperties("dummy", heartbeatInterval, null, 0, null, 0),
+        transport, meterRegistry);
+    underTest.addListener(new FileChangeBus.Listener() {
+      @Override
+      public void onChange(final FileChange change) {
+        applied.add(change);
+      }
+
+      @Override
+      public void onChangesMissed() {
+        missed++;
+      }
+    });
+    return underTest;
+  }
+
+  @BeforeEach
+  void setup() {
+    bus(Duration.ofHours(1));
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private static FileChange change(final long sequence) {
+    return new FileChange(OTHER, sequence, Type.WRITTEN, FILE_NAME);
+  }
+
+  private double counter(final String name, final String tag, final String value) {
+    return meterRegistry.get(name).tag(tag, value).counter().count();
+  }
+
+  @Test
+  void shouldApplyAndSendPublishedChanges() {
+    underTest.publishWritten(FILE_NAME);
+    underTest.publishDeleted(FILE_NAME);
+
+    final var written = new FileChange(underTest.getOrigin(), 1, Type.WRITTEN, FILE_NAME);
+    final var deleted = new FileChange(underTest.getOrigin(), 2, Type.DELETED, FILE_NAME);
+    assertEquals(List.of(written, deleted), applied);
+    assertEquals(List.of(written, deleted), sent);
+    assertEquals(1, counter(FileChangeBus.METRIC_PUBLISHED, "type", "deleted"));
+  }
+
+  @Test
+  void shouldApplyChangesOfOtherInstances() {
+    receiver.accept(change(1));
+    receiver.accept(change(2));
+
+    assertEquals(List.of(change(1), change(2)), applied);
+    assertEquals(0, missed);
+    assertEquals(2, counter(FileChangeBus.METRIC_RECEIVED, "result", "applied"));
+  }
+
+  @Test
+  void shouldIgnoreOwnAndDuplicateChanges() {
+    receiver.accept(change(1));
+
+    receiver.accept(change(1));
+    receiver.accept(new FileChange(underTest.getOrigin(), 5, Type.WRITTEN, FILE_NAME));
+
+    assertEquals(List.of(change(1)), applied);
+    assertEquals(1, counter(FileChangeBus.METRIC_RECEIVED, "result", "duplicate"));
+  }
+
+  @Test
+  void shouldTellMissedChangesFromGap() {
+    receiver.accept(change(1));
+
+    receiver.accept(change(4));
+
+    assertEquals(1, missed);
+    assertEquals(List.of(change(1), change(4)), applied);
+    assertEquals(2, meterRegistry.get(FileChangeBus.METRIC_MISSED).counter().count());
+  }
+
+  @Test
+  void shouldTellMissedChangesFromHeartbeat() {
+    receiver.accept(change(1));
+    receiver.accept(new FileChange(OTHER, 1, Type.HEARTBEAT, null));
+    assertEquals(0, missed);
+
+    receiver.accept(new FileChange(OTHER, 2, Type.HEARTBEAT, null));
+
+    assertEquals(1, missed);
+    assertEquals(List.of(change(1)), applied);
+  }
+
+  @Test
+  void shouldNotTellMissedChangesOfInstanceFirstHeardOf() {
+    receiver.accept(change(7));
+
+    assertEquals(0, missed);
+    assertEquals(List.of(change(7)), applied);
+  }
+
+  @Test
+  void shouldCallRemoteChangeListenersOnChangesOfOtherInstancesOnly() {
+    final var calls = new AtomicInteger();
+    underTest.addRemoteChangeListener(calls::incrementAndGet);
+
+    underTest.publishWritten(FILE_NAME);
+    receiver.accept(change(1));
+    receiver.accept(change(3));
+
+    // Both changes, and the gap before the second one
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  void shouldSendHeartbeats() throws InterruptedException {
+    underTest.preDestroy();
+    bus(Duration.ofMillis(10));
+    underTest.publishWritten(FILE_NAME);
+
+    final var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (sent.stream().noneMatch(change -> change.type() == Type.HEARTBEAT) && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+
+    assertTrue(sent.stream().anyMatch(change -> change.type() == Type.HEARTBEAT && change.sequence() == 1));
+  }
+
+}
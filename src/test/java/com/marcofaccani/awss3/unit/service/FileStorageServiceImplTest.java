@@ -1,5 +1,7 @@
 package com.marcofaccani.awss3.unit.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.time.Duration;
 import java.time.Instant;
@@ -7,26 +9,40 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.TransformConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
 import com.marcofaccani.awss3.service.FileStorageServiceImpl;
-import com.marcofaccani.awss3.service.interfaces.BucketService;
+import com.marcofaccani.awss3.service.MultipartUploader;
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import com.marcofaccani.awss3.service.transform.CompressionPolicy;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.unit.DataSize;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.http.SdkHttpMethod;
 import software.amazon.awssdk.http.SdkHttpRequest;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
@@ -35,12 +51,15 @@ import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -61,38 +80,27 @@ class FileStorageServiceImplTest {
   private AwsS3ConfigProperties awsS3ConfigProperties;
 
   @Mock
-  private BucketService bucketService;
+  private TransformPipeline transformPipeline;
+
+  @Mock
+  private CompressionPolicy compressionPolicy;
+
+  @Mock
+  private MultipartUploader multipartUploader;
+
+  @Spy
+  private S3OperationMetrics s3OperationMetrics = new S3OperationMetrics(new SimpleMeterRegistry());
 
   @InjectMocks
   private FileStorageServiceImpl underTest;
 
   @BeforeEach
-  void setup() {
+  void setup() throws IOException {
     when(awsS3ConfigProperties.getBucketName()).thenReturn(BUCKET_NAME);
+    when(transformPipeline.decode(any(ResponseInputStream.class), anyList())).thenAnswer(returnsFirstArg());
   }
 
 
-  @Nested
-  class PostConstructTest {
-
-    @Test
-    void shouldCreateBucketWhenItDoesNotExist() {
-      when(bucketService.doesBucketExist(BUCKET_NAME)).thenReturn(false);
-
-      assertDoesNotThrow(() -> underTest.postConstruct());
-      verify(bucketService).createBucket(BUCKET_NAME);
-    }
-
-    @Test
-    void shouldNotCreateBucketWhenItDoesExists() {
-      when(bucketService.doesBucketExist(BUCKET_NAME)).thenReturn(true);
-
-      assertDoesNotThrow(() -> underTest.postConstruct());
-      verify(bucketService, never()).createBucket(BUCKET_NAME);
-    }
-
-  }
-
   @Nested
   class UploadFileTest {
 
@@ -136,6 +144,94 @@ class FileStorageServiceImplTest {
       assertEquals(expectedErrMsg, ex.getMessage());
     }
 
+
+    @Test
+    void shouldUploadTransformedFileWithItsMetadata() throws IOException {
+      final var pipeline = new TransformPipeline(new TransformConfigProperties(List.of(),
+          DataSize.ofKilobytes(4), 4, DataSize.ofMegabytes(1), null));
+      when(compressionPolicy.stagesFor(any(), eq(100L), any())).thenReturn(List.of("crc32c", "gzip"));
+      when(transformPipeline.encode(any(), any())).thenAnswer(
+          invocation -> pipeline.encode(invocation.getArgument(0), invocation.getArgument(1)));
+
+      assertDoesNotThrow(() -> underTest.uploadFile(FILE_NAME, new ByteArrayInputStream(new byte[100]), 100));
+
+      verify(s3Client).putObject(
+          argThat((PutObjectRequest request) -> FILE_NAME.equals(request.key())
+              && "crc32c,gzip".equals(request.metadata().get(TransformPipeline.METADATA_STAGES))
+              && "100".equals(request.metadata().get(TransformPipeline.METADATA_PLAIN_LENGTH))
+              && "gzip".equals(request.contentEncoding())),
+          any(RequestBody.class));
+    }
+
+    @Test
+    void shouldUploadLargeFileAsMultipartUpload() throws IOException {
+      final var inputStream = new ByteArrayInputStream(new byte[100]);
+      when(multipartUploader.isMultipart(100)).thenReturn(true);
+
+      assertDoesNotThrow(() -> underTest.uploadFile(FILE_NAME, inputStream, 100));
+
+      verify(multipartUploader).upload(argThat(request -> FILE_NAME.equals(request.key())), eq(inputStream));
+      verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+  }
+
+  @Nested
+  class CopyFileTest {
+
+    @Test
+    void shouldCopyFileServerSide() {
+      when(s3Client.headObject(any(HeadObjectRequest.class)))
+          .thenReturn(HeadObjectResponse.builder().contentLength(100L).build());
+
+      assertDoesNotThrow(() -> underTest.copyFile(FILE_NAME, "copy"));
+
+      final var expectedS3Request = CopyObjectRequest.builder()
+          .sourceBucket(BUCKET_NAME)
+          .sourceKey(FILE_NAME)
+          .destinationBucket(BUCKET_NAME)
+          .destinationKey("copy")
+          .build();
+      verify(s3Client).copyObject(expectedS3Request);
+    }
+
+    @Test
+    void shouldCopyLargeFileWithMultipartCopy() throws IOException {
+      final var head = HeadObjectResponse.builder().contentLength(6L << 30).build();
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(head);
+      when(multipartUploader.isMultipartCopy(6L << 30)).thenReturn(true);
+
+      assertDoesNotThrow(() -> underTest.copyFile(FILE_NAME, "copy"));
+
+      verify(multipartUploader).copy(BUCKET_NAME, FILE_NAME, head, "copy");
+      verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    }
+
+    @Test
+    void shouldRejectMoveOfLargeFileOntoItself() throws IOException {
+      when(multipartUploader.isMultipartCopy(any(Long.class))).thenReturn(true);
+
+      final var ex = assertThrows(InvalidCopyRequestException.class, () -> underTest.moveFile(FILE_NAME, FILE_NAME));
+
+      assertEquals(String.format(FileStorageServiceImpl.ERR_MSG_COPY_ONTO_ITSELF, FILE_NAME), ex.getMessage());
+      verify(multipartUploader, never()).copy(any(), any(), any(), any());
+      verify(s3Client, never()).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    void shouldPropagateExceptionWithCustomErrMsg() {
+      when(s3Client.headObject(any(HeadObjectRequest.class)))
+          .thenReturn(HeadObjectResponse.builder().contentLength(100L).build());
+      final var originalExceptionErrMsg = "dummy error message";
+      when(s3Client.copyObject(any(CopyObjectRequest.class))).thenThrow(
+          new RuntimeException(originalExceptionErrMsg));
+
+      final var ex = assertThrows(RuntimeException.class, () -> underTest.copyFile(FILE_NAME, "copy"));
+      final var expectedErrMsg = String.format(FileStorageServiceImpl.ERR_MSG_COPY_FAILED, FILE_NAME, "copy",
+          originalExceptionErrMsg);
+      assertEquals(expectedErrMsg, ex.getMessage());
+    }
+
   }
 
   @Nested
@@ -176,17 +272,20 @@ class FileStorageServiceImplTest {
 
     @Test
     void shouldGetFile() {
-      final var mockInputStream = mock(ResponseInputStream.class);
+      final var content = "content".getBytes();
+      final var response = GetObjectResponse.builder().contentLength((long) content.length).build();
       final var expectedS3Request = GetObjectRequest.builder()
           .bucket(BUCKET_NAME)
           .key(FILE_NAME)
           .build();
 
-      when(s3Client.getObject(expectedS3Request)).thenReturn(mockInputStream);
+      when(s3Client.getObject(expectedS3Request)).thenReturn(
+          new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(content))));
 
       final var actualInputStream = assertDoesNotThrow(() -> underTest.getFile(FILE_NAME));
 
-      assertEquals(mockInputStream, actualInputStream);
+      assertEquals(response, actualInputStream.response());
+      assertArrayEquals(content, InMemoryS3.readAll(actualInputStream));
       verify(s3Client).getObject(expectedS3Request);
     }
 
@@ -248,6 +347,32 @@ class FileStorageServiceImplTest {
       verify(s3Client).listObjectsV2(expectedS3Request);
     }
 
+    @Test
+    void shouldSkipObjectsUnderInternalPrefix() {
+      final var inMemoryS3 = new InMemoryS3(s3Client);
+      inMemoryS3.put("-before.txt", new byte[0]);
+      IntStream.range(0, 1500).forEach(i -> inMemoryS3.put(".packs/data/" + i + ".pack", new byte[0]));
+      inMemoryS3.put("after.txt", new byte[0]);
+
+      final var actualFilesNamesList = underTest.listFilesInBucket(".packs/");
+
+      assertEquals(List.of("-before.txt", "after.txt"), actualFilesNamesList);
+    }
+
+    @Test
+    void shouldListFilesByPrefixPastFirstPage() {
+      final var inMemoryS3 = new InMemoryS3(s3Client);
+      inMemoryS3.put("data.csv", new byte[0]);
+      IntStream.range(1000, 2500).forEach(i -> inMemoryS3.put("logs/" + i + ".log", new byte[0]));
+      inMemoryS3.put("other.txt", new byte[0]);
+
+      final var actualFilesNamesList = underTest.listFiles("logs/", 1200);
+
+      assertEquals(1200, actualFilesNamesList.size());
+      assertEquals("logs/1000.log", actualFilesNamesList.get(0));
+      assertEquals("logs/2199.log", actualFilesNamesList.get(1199));
+    }
+
   }
 
   @Nested
@@ -0,0 +1,64 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.model.HotKey;
+import com.marcofaccani.awss3.service.HeavyHitterSketch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeavyHitterSketchTest {
+
+  @Test
+  void shouldKeepHeaviestKeysHeaviestFirst() {
+    final var underTest = new HeavyHitterSketch(2, 4, 1024);
+    underTest.add("a", 1);
+    underTest.add("b", 5);
+    underTest.add("c", 3);
+
+    assertEquals(List.of(new HotKey("b", 5), new HotKey("c", 3)), underTest.top());
+  }
+
+  @Test
+  void shouldFindHeavyKeysAmongManyLightOnes() {
+    final var underTest = new HeavyHitterSketch(3, 4, 1024);
+
+    IntStream.range(0, 10_000).forEach(i -> {
+      underTest.add("light-" + i, 1);
+      if (i % 10 == 0) {
+        underTest.add("heavy-" + i % 3, 1);
+      }
+    });
+
+    final var top = underTest.top().stream().map(HotKey::key).toList();
+    assertTrue(top.containsAll(List.of("heavy-0", "heavy-1", "heavy-2")), top.toString());
+    // Overestimated by at most e / width of the total count, with high probability
+    underTest.top().forEach(hotKey -> assertTrue(hotKey.estimate() >= 333 && hotKey.estimate() <= 334 + 30));
+  }
+
+  @Test
+  void shouldLetRecentlyHeavyKeysOvertakeDecayedOnes() {
+    final var underTest = new HeavyHitterSketch(1, 4, 1024);
+    underTest.add("old", 10);
+
+    underTest.decay(0.25);
+    underTest.add("new", 5);
+
+    assertEquals(List.of(new HotKey("new", 5)), underTest.top());
+  }
+
+  @Test
+  void shouldDecayCounts() {
+    final var underTest = new HeavyHitterSketch(2, 4, 1024);
+    underTest.add("a", 8);
+
+    underTest.decay(0.5);
+    underTest.add("a", 1);
+
+    assertEquals(List.of(new HotKey("a", 5)), underTest.top());
+  }
+
+}
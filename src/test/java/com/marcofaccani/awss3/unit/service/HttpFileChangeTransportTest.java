@@ -0,0 +1,126 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marcofaccani.awss3.config.InvalidationConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.model.FileChange.Type;
+import com.marcofaccani.awss3.service.HttpFileChangeTransport;
+import com.marcofaccani.awss3.service.PeerCache;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HttpFileChangeTransportTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<FileChange> receivedByFastPeer = new CopyOnWriteArrayList<>();
+  private final List<FileChange> receivedBySlowPeer = new CopyOnWriteArrayList<>();
+  private final CountDownLatch slowPeerCalled = new CountDownLatch(1);
+  private final CountDownLatch slowPeerReleased = new CountDownLatch(1);
+  private HttpServer fastPeer;
+  private HttpServer slowPeer;
+  private HttpFileChangeTransport underTest;
+
+  @BeforeEach
+  void setup() throws IOException {
+    fastPeer = peer(receivedByFastPeer, false);
+    slowPeer = peer(receivedBySlowPeer, true);
+    final PeerCache peerCache = mock(PeerCache.class);
+    when(peerCache.getOtherMembers()).thenReturn(Set.of(url(fastPeer), url(slowPeer)));
+    @SuppressWarnings("unchecked") final ObjectProvider<PeerCache> peerCacheProvider = mock(ObjectProvider.class);
+    when(peerCacheProvider.getObject()).thenReturn(peerCache);
+    underTest = new HttpFileChangeTransport(
+        new InvalidationConfigProperties("http", Duration.ofHours(1), null, 0, Duration.ofSeconds(30), 2),
+        peerCacheProvider, objectMapper);
+  }
+
+  @AfterEach
+  void tearDown() {
+    slowPeerReleased.countDown();
+    underTest.preDestroy();
+    fastPeer.stop(0);
+    slowPeer.stop(0);
+  }
+
+  private HttpServer peer(final List<FileChange> received, final boolean slow) throws IOException {
+    final var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(HttpFileChangeTransport.CHANGES_PATH, exchange -> {
+      received.add(objectMapper.readValue(exchange.getRequestBody(), FileChange.class));
+      if (slow) {
+        slowPeerCalled.countDown();
+        try {
+          slowPeerReleased.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      exchange.sendResponseHeaders(204, -1);
+      exchange.close();
+    });
+    server.start();
+    return server;
+  }
+
+  private static String url(final HttpServer server) {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  private static FileChange change(final long sequence) {
+    return new FileChange("dummyOrigin", sequence, Type.WRITTEN, "dummyFileName");
+  }
+
+  private static void awaitSize(final List<FileChange> received, final int size) throws InterruptedException {
+    for (int i = 0; i < 500 && received.size() < size; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void shouldNotDelayPeersBehindSlowPeer() throws Exception {
+    underTest.send(change(1));
+    assertTrue(slowPeerCalled.await(5, TimeUnit.SECONDS));
+    underTest.send(change(2));
+
+    awaitSize(receivedByFastPeer, 2);
+
+    assertEquals(List.of(change(1), change(2)), receivedByFastPeer);
+    assertEquals(List.of(change(1)), receivedBySlowPeer);
+  }
+
+  @Test
+  void shouldDropChangesBeyondQueueOfPeer() throws Exception {
+    underTest.send(change(1));
+    assertTrue(slowPeerCalled.await(5, TimeUnit.SECONDS));
+    for (int sequence = 2; sequence <= 4; sequence++) {
+      underTest.send(change(sequence));
+      awaitSize(receivedByFastPeer, sequence);
+    }
+
+    slowPeerReleased.countDown();
+    awaitSize(receivedBySlowPeer, 3);
+    underTest.send(change(5));
+    awaitSize(receivedBySlowPeer, 4);
+
+    // The peer tells it missed the fourth change from the fifth
+    assertEquals(List.of(change(1), change(2), change(3), change(5)), receivedBySlowPeer);
+    awaitSize(receivedByFastPeer, 5);
+    assertEquals(List.of(change(1), change(2), change(3), change(4), change(5)), receivedByFastPeer);
+  }
+
+}
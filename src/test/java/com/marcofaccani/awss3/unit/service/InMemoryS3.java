@@ -0,0 +1,146 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+/**
+ * Backs a mocked {@link S3Client} with an in-memory map of objects, for the services whose behaviour depends on what
+ * they previously wrote to the bucket.
+ */
+public class InMemoryS3 {
+
+  private static final int MAX_KEYS = 1000;
+
+  private final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+  private final Map<String, Instant> lastModified = new ConcurrentHashMap<>();
+
+  public InMemoryS3(final S3Client s3Client) {
+    lenient().when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+      final PutObjectRequest request = invocation.getArgument(0);
+      final RequestBody body = invocation.getArgument(1);
+      try (var inputStream = body.contentStreamProvider().newStream()) {
+        put(request.key(), inputStream.readAllBytes());
+      }
+      return PutObjectResponse.builder().build();
+    });
+    lenient().when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+      final GetObjectRequest request = invocation.getArgument(0);
+      final var content = read(request);
+      return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) content.length).build(),
+          AbortableInputStream.create(new ByteArrayInputStream(content)));
+    });
+    lenient().when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+      final GetObjectRequest request = invocation.getArgument(0);
+      return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), read(request));
+    });
+    lenient().when(s3Client.deleteObject(any(DeleteObjectRequest.class))).thenAnswer(invocation -> {
+      final DeleteObjectRequest request = invocation.getArgument(0);
+      objects.remove(request.key());
+      return DeleteObjectResponse.builder().build();
+    });
+    lenient().when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+      final ListObjectsV2Request request = invocation.getArgument(0);
+      final var prefix = request.prefix() == null ? "" : request.prefix();
+      // Continuation tokens are the last key of the previous page
+      final var startAfter = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+      final var maxKeys = request.maxKeys() == null ? MAX_KEYS : request.maxKeys();
+      final var contents = objects.entrySet().stream()
+          .filter(entry -> entry.getKey().startsWith(prefix))
+          .filter(entry -> startAfter == null || entry.getKey().compareTo(startAfter) > 0)
+          .limit(maxKeys + 1L)
+          .map(entry -> S3Object.builder().key(entry.getKey()).size((long) entry.getValue().length)
+              .eTag(eTag(entry.getValue())).lastModified(lastModified.getOrDefault(entry.getKey(), Instant.EPOCH))
+              .build())
+          .toList();
+      final var truncated = contents.size() > maxKeys;
+      final var page = truncated ? contents.subList(0, maxKeys) : contents;
+      return ListObjectsV2Response.builder().contents(page).isTruncated(truncated)
+          .nextContinuationToken(truncated ? page.get(page.size() - 1).key() : null).build();
+    });
+    lenient().when(s3Client.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+      final HeadObjectRequest request = invocation.getArgument(0);
+      final var content = objects.get(request.key());
+      if (content == null) {
+        throw NoSuchKeyException.builder().message("The specified key does not exist.").build();
+      }
+      return HeadObjectResponse.builder().contentLength((long) content.length).eTag(eTag(content))
+          .lastModified(lastModified.getOrDefault(request.key(), Instant.EPOCH)).build();
+    });
+    lenient().when(s3Client.listObjectsV2Paginator(any(ListObjectsV2Request.class))).thenAnswer(
+        invocation -> new ListObjectsV2Iterable(s3Client, invocation.getArgument(0)));
+  }
+
+  public Map<String, byte[]> objects() {
+    return objects;
+  }
+
+  public void put(final String key, final byte[] content) {
+    objects.put(key, content);
+    lastModified.put(key, Instant.now());
+  }
+
+  /**
+   * ETag of an object uploaded in a single part: the quoted MD5 of its content.
+   */
+  public static String eTag(final byte[] content) {
+    try {
+      return '"' + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)) + '"';
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private byte[] read(final GetObjectRequest request) {
+    final var content = objects.get(request.key());
+    if (content == null) {
+      throw NoSuchKeyException.builder().message("The specified key does not exist.").build();
+    }
+    if (request.range() == null) {
+      return content;
+    }
+    final var bounds = request.range().substring("bytes=".length()).split("-");
+    final var start = Integer.parseInt(bounds[0]);
+    final var end = bounds.length > 1 ? Integer.parseInt(bounds[1]) : content.length - 1;
+    return Arrays.copyOfRange(content, start, Math.min(end + 1, content.length));
+  }
+
+  public static byte[] readAll(final ResponseInputStream<?> inputStream) {
+    try (inputStream) {
+      return inputStream.readAllBytes();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import com.marcofaccani.awss3.config.KeyAnalyticsConfigProperties;
+import com.marcofaccani.awss3.model.HotKey;
+import com.marcofaccani.awss3.service.KeyAnalytics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyAnalyticsTest {
+
+  private KeyAnalytics underTest;
+
+  private KeyAnalytics keyAnalytics(final boolean enabled) {
+    underTest = new KeyAnalytics(new KeyAnalyticsConfigProperties(enabled, 2, 4, 256, Duration.ofHours(1), 0.5));
+    return underTest;
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  @Test
+  void shouldRankKeysByRequestsAndBytes() {
+    final var underTest = keyAnalytics(true);
+    underTest.recordDownload("small", 10);
+    underTest.recordDownload("small", 10);
+    underTest.recordDownload("large", 1000);
+    underTest.recordUpload("uploaded", 5);
+
+    final var hotKeys = underTest.hotKeys();
+
+    assertEquals(Map.of(
+        KeyAnalytics.METRIC_REQUESTS, List.of(new HotKey("small", 2), new HotKey("large", 1)),
+        KeyAnalytics.METRIC_BYTES, List.of(new HotKey("large", 1000), new HotKey("small", 20))),
+        hotKeys.get(KeyAnalytics.OPERATION_DOWNLOAD));
+    assertEquals(List.of(new HotKey("uploaded", 1)),
+        hotKeys.get(KeyAnalytics.OPERATION_UPLOAD).get(KeyAnalytics.METRIC_REQUESTS));
+  }
+
+  @Test
+  void shouldRecordNothingWhenDisabled() {
+    final var underTest = keyAnalytics(false);
+    underTest.recordDownload("small", 10);
+
+    assertTrue(underTest.hotKeys().isEmpty());
+  }
+
+}
@@ -0,0 +1,39 @@
+package com.marcofaccani.awss3.unit.service;
+
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.model.FileChange.Type;
+import com.marcofaccani.awss3.service.MulticastFileChangeTransport;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MulticastFileChangeTransportTest {
+
+  private static FileChange roundTrip(final FileChange change) {
+    final var datagram = MulticastFileChangeTransport.encode(change);
+    return MulticastFileChangeTransport.decode(datagram, datagram.length);
+  }
+
+  @Test
+  void shouldDecodeEncodedChange() {
+    final var change = new FileChange("dummyOrigin", 42, Type.DELETED, "logs/2023/a\nb.log");
+
+    assertEquals(change, roundTrip(change));
+  }
+
+  @Test
+  void shouldDecodeEncodedHeartbeat() {
+    final var heartbeat = new FileChange("dummyOrigin", 42, Type.HEARTBEAT, null);
+
+    assertEquals(heartbeat, roundTrip(heartbeat));
+  }
+
+  @Test
+  void shouldRejectInvalidDatagram() {
+    final var datagram = "dummyOrigin\n42".getBytes();
+
+    assertThrows(IllegalArgumentException.class, () -> MulticastFileChangeTransport.decode(datagram, datagram.length));
+  }
+
+}
@@ -0,0 +1,142 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.marcofaccani.awss3.config.MultipartConfigProperties;
+import com.marcofaccani.awss3.service.MultipartUploader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultipartUploaderTest {
+
+  private static final String BUCKET_NAME = "dummyBucketName";
+  private static final String FILE_NAME = "dummyFileName";
+  private static final String UPLOAD_ID = "uploadId";
+  private static final int PART_SIZE = (int) MultipartUploader.MIN_PART_SIZE;
+
+  private final S3Client s3Client = mock(S3Client.class);
+  private final Map<Integer, Long> uploadedParts = new ConcurrentHashMap<>();
+  private final PutObjectRequest request = PutObjectRequest.builder().bucket(BUCKET_NAME).key(FILE_NAME).build();
+
+  private MultipartUploader underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = new MultipartUploader(new MultipartConfigProperties(DataSize.ofMegabytes(10),
+        DataSize.ofBytes(PART_SIZE), 2, 4, DataSize.ofGigabytes(5), DataSize.ofMegabytes(512)), s3Client);
+    when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+        .thenReturn(CreateMultipartUploadResponse.builder().uploadId(UPLOAD_ID).build());
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+      final UploadPartRequest partRequest = invocation.getArgument(0);
+      final RequestBody body = invocation.getArgument(1);
+      try (var in = body.contentStreamProvider().newStream()) {
+        uploadedParts.put(partRequest.partNumber(), (long) in.readAllBytes().length);
+      }
+      return UploadPartResponse.builder().eTag("etag-" + partRequest.partNumber()).build();
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  @Test
+  void shouldUseMultipartForLargeOrUnknownLengths() {
+    assertFalse(underTest.isMultipart(1024));
+    assertTrue(underTest.isMultipart(DataSize.ofMegabytes(10).toBytes()));
+    assertTrue(underTest.isMultipart(-1));
+  }
+
+  @Test
+  void shouldUploadStreamInParts() throws IOException {
+    underTest.upload(request, new ByteArrayInputStream(new byte[2 * PART_SIZE + 100]));
+
+    assertEquals(Map.of(1, (long) PART_SIZE, 2, (long) PART_SIZE, 3, 100L), uploadedParts);
+    verify(s3Client).completeMultipartUpload(argThat((CompleteMultipartUploadRequest completeRequest) ->
+        UPLOAD_ID.equals(completeRequest.uploadId())
+            && completeRequest.multipartUpload().parts().stream().map(CompletedPart::eTag).toList()
+            .equals(List.of("etag-1", "etag-2", "etag-3"))));
+  }
+
+  @Test
+  void shouldUploadEmptyStreamAsOneEmptyPart() throws IOException {
+    underTest.upload(request, new ByteArrayInputStream(new byte[0]));
+
+    assertEquals(Map.of(1, 0L), uploadedParts);
+  }
+
+  @Test
+  void shouldCopyObjectByRanges() throws IOException {
+    final var copiedRanges = new ConcurrentHashMap<Integer, String>();
+    when(s3Client.uploadPartCopy(any(UploadPartCopyRequest.class))).thenAnswer(invocation -> {
+      final UploadPartCopyRequest partRequest = invocation.getArgument(0);
+      copiedRanges.put(partRequest.partNumber(), partRequest.copySourceRange());
+      return UploadPartCopyResponse.builder()
+          .copyPartResult(CopyPartResult.builder().eTag("etag-" + partRequest.partNumber()).build())
+          .build();
+    });
+    final var size = DataSize.ofMegabytes(1100).toBytes();
+    final var source = HeadObjectResponse.builder().contentLength(size).contentType("text/plain")
+        .metadata(Map.of("transform-stages", "gzip")).build();
+
+    underTest.copy(BUCKET_NAME, FILE_NAME, source, "copy");
+
+    final var partSize = DataSize.ofMegabytes(512).toBytes();
+    assertEquals(Map.of(
+        1, "bytes=0-" + (partSize - 1),
+        2, "bytes=" + partSize + "-" + (2 * partSize - 1),
+        3, "bytes=" + 2 * partSize + "-" + (size - 1)), copiedRanges);
+    verify(s3Client).createMultipartUpload(argThat((CreateMultipartUploadRequest createRequest) ->
+        "copy".equals(createRequest.key()) && "text/plain".equals(createRequest.contentType())
+            && "gzip".equals(createRequest.metadata().get("transform-stages"))));
+    verify(s3Client).completeMultipartUpload(argThat((CompleteMultipartUploadRequest completeRequest) ->
+        completeRequest.multipartUpload().parts().size() == 3));
+  }
+
+  @Test
+  void shouldAbortUploadWhenPartFails() {
+    when(s3Client.uploadPart(argThat((UploadPartRequest partRequest) -> partRequest.partNumber() == 2),
+        any(RequestBody.class))).thenThrow(S3Exception.builder().message("dummy error message").build());
+
+    assertThrows(IOException.class,
+        () -> underTest.upload(request, new ByteArrayInputStream(new byte[3 * PART_SIZE])));
+
+    verify(s3Client).abortMultipartUpload(argThat((AbortMultipartUploadRequest abortRequest) ->
+        UPLOAD_ID.equals(abortRequest.uploadId())));
+    verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+  }
+
+}
@@ -0,0 +1,272 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.PackingConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidCopyRequestException;
+import com.marcofaccani.awss3.exceptions.S3PresignedUrlException;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.PackedFileStorageService;
+import com.marcofaccani.awss3.service.S3IndexJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.await;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.read;
+import static com.marcofaccani.awss3.unit.service.StorageModeFixture.upload;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PackedFileStorageServiceTest {
+
+  private static final String PACK_PREFIX = ".packs/";
+
+  private final StorageModeFixture fixture = new StorageModeFixture();
+  private final InMemoryS3 inMemoryS3 = fixture.inMemoryS3();
+  private final FileStorageServiceImpl plainFileStorageService = fixture.plainFileStorageService();
+
+  private PackedFileStorageService underTest;
+
+  @BeforeEach
+  void setup() {
+    underTest = newService(Duration.ofHours(1), 0.5);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    underTest.preDestroy();
+  }
+
+  private PackedFileStorageService newService(final Duration compactionInterval, final double garbageRatio) {
+    final var packingConfigProperties = new PackingConfigProperties(DataSize.ofBytes(16), DataSize.ofKilobytes(1),
+        Duration.ofMillis(10), PACK_PREFIX, compactionInterval, garbageRatio);
+    final var service = new PackedFileStorageService(new AwsS3ConfigProperties(StorageModeFixture.BUCKET_NAME),
+        packingConfigProperties, plainFileStorageService, fixture.s3Client(), fixture.fileChangeBus());
+    service.postConstruct();
+    return service;
+  }
+
+  private long countObjects(final String suffix) {
+    return fixture.countObjects(PACK_PREFIX, suffix);
+  }
+
+  @Nested
+  class UploadFileTest {
+
+    @Test
+    void shouldPackSmallFiles() {
+      upload(underTest, "first.txt", "first");
+      upload(underTest, "second.txt", "second");
+
+      assertEquals("first", read(underTest, "first.txt"));
+      assertEquals("second", read(underTest, "second.txt"));
+      assertTrue(countObjects(PackedFileStorageService.PACK_SUFFIX) >= 1);
+      verify(plainFileStorageService, never()).uploadFile(any(), any(), anyLong());
+    }
+
+    @Test
+    void shouldStoreLargeFilesAsPlainObjects() {
+      final var content = "a content larger than the threshold".getBytes(StandardCharsets.UTF_8);
+      final var inputStream = new ByteArrayInputStream(content);
+
+      underTest.uploadFile("large.txt", inputStream, content.length);
+
+      verify(plainFileStorageService).uploadFile("large.txt", inputStream, content.length);
+      assertEquals(0, countObjects(PackedFileStorageService.PACK_SUFFIX));
+    }
+
+    @Test
+    void shouldServeLatestVersionOfOverwrittenFile() {
+      upload(underTest, "file.txt", "v1");
+      upload(underTest, "file.txt", "v2");
+
+      assertEquals("v2", read(underTest, "file.txt"));
+    }
+
+  }
+
+  @Nested
+  class CopyFileTest {
+
+    @Test
+    void shouldRejectMoveOntoItself() {
+      upload(underTest, "file.txt", "content");
+
+      assertThrows(InvalidCopyRequestException.class, () -> underTest.moveFile("file.txt", "file.txt"));
+
+      assertEquals("content", read(underTest, "file.txt"));
+      assertEquals(List.of("file.txt"), underTest.listFilesInBucket());
+    }
+
+  }
+
+  @Nested
+  class DeleteFileTest {
+
+    @Test
+    void shouldRemovePackedFileFromIndex() {
+      upload(underTest, "file.txt", "content");
+      when(plainFileStorageService.listFilesInBucket(PACK_PREFIX)).thenReturn(List.of());
+
+      underTest.deleteFile("file.txt");
+
+      assertEquals(List.of(), underTest.listFilesInBucket());
+      verify(plainFileStorageService).deleteFile("file.txt");
+    }
+
+  }
+
+  @Nested
+  class ListBucketFilesTest {
+
+    @Test
+    void shouldMergePackedAndPlainFiles() {
+      upload(underTest, "packed.txt", "content");
+      when(plainFileStorageService.listFilesInBucket(PACK_PREFIX)).thenReturn(List.of("plain.txt"));
+
+      assertEquals(List.of("packed.txt", "plain.txt"), underTest.listFilesInBucket());
+    }
+
+    @Test
+    void shouldListPackedAndPlainFilesByPrefix() {
+      upload(underTest, "logs/b.log", "content");
+      upload(underTest, "logs/d.log", "content");
+      upload(underTest, "other.txt", "content");
+      when(plainFileStorageService.listFiles("logs/", PACK_PREFIX, 3)).thenReturn(List.of("logs/a.log", "logs/c.log"));
+
+      assertEquals(List.of("logs/a.log", "logs/b.log", "logs/c.log"), underTest.listFiles("logs/", 3));
+    }
+
+  }
+
+  @Nested
+  class GeneratePreSignedUrlTest {
+
+    @Test
+    void shouldRejectPackedFiles() {
+      upload(underTest, "file.txt", "content");
+
+      assertThrows(S3PresignedUrlException.class, () -> underTest.generatePreSignedUrlOfFile("file.txt", 2L));
+    }
+
+  }
+
+  @Nested
+  class IndexTest {
+
+    @Test
+    void shouldReloadIndexAtBoot() throws InterruptedException {
+      upload(underTest, "kept.txt", "kept");
+      upload(underTest, "deleted.txt", "deleted");
+      underTest.deleteFile("deleted.txt");
+      underTest.preDestroy();
+      when(plainFileStorageService.listFilesInBucket(PACK_PREFIX)).thenReturn(List.of());
+
+      underTest = newService(Duration.ofHours(1), 0.5);
+
+      assertEquals(List.of("kept.txt"), underTest.listFilesInBucket());
+      assertEquals("kept", read(underTest, "kept.txt"));
+    }
+
+    @Test
+    void shouldKeepSegmentsOfInstancesSharingBucket() throws InterruptedException {
+      final var otherInstance = newService(Duration.ofHours(1), 0.5);
+      upload(underTest, "first.txt", "first");
+      upload(otherInstance, "second.txt", "second");
+      otherInstance.preDestroy();
+      underTest.preDestroy();
+      when(plainFileStorageService.listFilesInBucket(PACK_PREFIX)).thenReturn(List.of());
+
+      underTest = newService(Duration.ofHours(1), 0.5);
+
+      assertEquals(2, countObjects(S3IndexJournal.SEGMENT_SUFFIX));
+      assertEquals("first", read(underTest, "first.txt"));
+      assertEquals("second", read(underTest, "second.txt"));
+    }
+
+    @Test
+    void shouldPickUpFilesOfOtherInstancesOnChange() throws InterruptedException {
+      final var otherInstance = newService(Duration.ofHours(1), 0.5);
+      upload(otherInstance, "other.txt", "other");
+      otherInstance.preDestroy();
+      when(plainFileStorageService.listFilesInBucket(PACK_PREFIX)).thenReturn(List.of());
+
+      fixture.notifyRemoteChange();
+      await(() -> underTest.listFilesInBucket().contains("other.txt"));
+
+      assertEquals(List.of("other.txt"), underTest.listFilesInBucket());
+      assertEquals("other", read(underTest, "other.txt"));
+    }
+
+    @Test
+    void shouldFindFilesMovedByCompactionOfOtherInstance() throws InterruptedException {
+      upload(underTest, "kept.txt", "kept");
+      final var packs = inMemoryS3.objects().keySet().stream()
+          .filter(key -> key.endsWith(PackedFileStorageService.PACK_SUFFIX))
+          .toList();
+
+      final var otherInstance = newService(Duration.ofMillis(20), 0);
+      await(() -> packs.stream().noneMatch(inMemoryS3.objects()::containsKey));
+      otherInstance.preDestroy();
+
+      assertEquals("kept", read(underTest, "kept.txt"));
+    }
+
+    @Test
+    void shouldKeepFilesChangedByOtherInstancesWhenCompacting() throws InterruptedException {
+      upload(underTest, "file.txt", "v1");
+      final var compactingInstance = newService(Duration.ofMillis(20), 0);
+      upload(underTest, "file.txt", "v2");
+      final var packs = inMemoryS3.objects().keySet().stream()
+          .filter(key -> key.endsWith(PackedFileStorageService.PACK_SUFFIX))
+          .toList();
+
+      await(() -> packs.stream().noneMatch(inMemoryS3.objects()::containsKey));
+      compactingInstance.preDestroy();
+      underTest.preDestroy();
+
+      underTest = newService(Duration.ofHours(1), 0.5);
+      assertEquals("v2", read(underTest, "file.txt"));
+    }
+
+    @Test
+    void shouldCompactPacksAndCheckpointIndex() throws InterruptedException {
+      upload(underTest, "kept.txt", "kept");
+      upload(underTest, "overwritten.txt", "a content to overwrite");
+      upload(underTest, "overwritten.txt", "new");
+      final var packsBeforeCompaction = inMemoryS3.objects().keySet().stream()
+          .filter(key -> key.endsWith(PackedFileStorageService.PACK_SUFFIX))
+          .toList();
+      underTest.preDestroy();
+
+      // With a garbage ratio of 0 every pack is compacted, so live files get moved as well
+      underTest = newService(Duration.ofMillis(20), 0);
+      await(() -> packsBeforeCompaction.stream().noneMatch(inMemoryS3.objects()::containsKey));
+      underTest.preDestroy();
+
+      packsBeforeCompaction.forEach(packKey -> assertFalse(inMemoryS3.objects().containsKey(packKey)));
+      assertEquals(1, countObjects(S3IndexJournal.SNAPSHOT_SUFFIX));
+      assertEquals(0, countObjects(S3IndexJournal.SEGMENT_SUFFIX));
+
+      underTest = newService(Duration.ofHours(1), 0.5);
+      assertEquals("kept", read(underTest, "kept.txt"));
+      assertEquals("new", read(underTest, "overwritten.txt"));
+    }
+
+  }
+
+}
@@ -0,0 +1,266 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.config.PeerCacheConfigProperties;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.ConsistentHashRing;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.PeerCache;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PeerCacheTest {
+
+  private static final String SELF = "http://127.0.0.1:1";
+  private static final String FILE_NAME = "dummyFileName";
+  private static final byte[] CONTENT = "dummy content".getBytes(StandardCharsets.UTF_8);
+
+  private final FileStorageService fileStorageService = mock(FileStorageService.class);
+  private final FileChangeBus fileChangeBus = mock(FileChangeBus.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private PeerCache peerCache(final boolean enabled, final List<String> members, final Duration ttl) {
+    return new PeerCache(fileStorageService, new PeerCacheConfigProperties(enabled, SELF, members, "", 0, null, 128,
+        Duration.ofSeconds(2), DataSize.ofBytes(64), DataSize.ofBytes(32), ttl), fileChangeBus, meterRegistry);
+  }
+
+  private FileChangeBus.Listener changeListener() {
+    final var listener = ArgumentCaptor.forClass(FileChangeBus.Listener.class);
+    verify(fileChangeBus).addListener(listener.capture());
+    return listener.getValue();
+  }
+
+  private static ResponseInputStream<GetObjectResponse> object(final byte[] content) {
+    return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) content.length).build(),
+        AbortableInputStream.create(new ByteArrayInputStream(content)));
+  }
+
+  private static byte[] read(final ResponseInputStream<GetObjectResponse> object) throws IOException {
+    try (object) {
+      return object.readAllBytes();
+    }
+  }
+
+  private double counter(final String name, final String tag, final String value) {
+    return meterRegistry.get(name).tag(tag, value).counter().count();
+  }
+
+  @Test
+  void shouldReadFromS3WhenDisabled() throws IOException {
+    when(fileStorageService.getFile(FILE_NAME)).thenReturn(object(CONTENT), object(CONTENT));
+    final var underTest = peerCache(false, List.of(), Duration.ofMinutes(1));
+
+    read(underTest.getFile(FILE_NAME, List.of()));
+    read(underTest.getFile(FILE_NAME, List.of()));
+
+    verify(fileStorageService, times(2)).getFile(FILE_NAME);
+  }
+
+  @Test
+  void shouldTellMembersApartByAddress() {
+    final var underTest = peerCache(true, List.of("http://10.0.0.2:8080", "http://[::2]:8080"), Duration.ofMinutes(1));
+
+    assertTrue(underTest.isMember("127.0.0.1"));
+    assertTrue(underTest.isMember("10.0.0.2"));
+    assertTrue(underTest.isMember("0:0:0:0:0:0:0:2"));
+    assertFalse(underTest.isMember("10.0.0.3"));
+    assertFalse(peerCache(false, List.of(), Duration.ofMinutes(1)).isMember("127.0.0.1"));
+  }
+
+  @Nested
+  class OwnedFileTest {
+
+    @Test
+    void shouldKeepOwnedFiles() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME, List.of("gzip"))).thenReturn(object(CONTENT));
+      final var underTest = peerCache(true, List.of(), Duration.ofMinutes(1));
+
+      assertArrayEquals(CONTENT, read(underTest.getFile(FILE_NAME, List.of("gzip"))));
+      assertArrayEquals(CONTENT, read(underTest.getFile(FILE_NAME, List.of("gzip"))));
+
+      verify(fileStorageService, times(1)).getFile(FILE_NAME, List.of("gzip"));
+      assertEquals(1, counter(PeerCache.METRIC_REQUESTS, "result", "hit"));
+      assertEquals(2, counter(PeerCache.METRIC_GETS, "route", PeerCache.ROUTE_OWNED));
+    }
+
+    @Test
+    void shouldReadFileAgainOnceExpired() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME)).thenReturn(object(CONTENT), object(CONTENT));
+      final var underTest = peerCache(true, List.of(), Duration.ZERO);
+
+      read(underTest.getFile(FILE_NAME, List.of()));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      verify(fileStorageService, times(2)).getFile(FILE_NAME);
+    }
+
+    @Test
+    void shouldReadFileAgainOnceChanged() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME, List.of("gzip"))).thenReturn(object(CONTENT), object(CONTENT));
+      final var underTest = peerCache(true, List.of(), Duration.ofMinutes(1));
+      read(underTest.getFile(FILE_NAME, List.of("gzip")));
+
+      changeListener().onChange(new FileChange("dummyOrigin", 1, FileChange.Type.DELETED, FILE_NAME));
+      read(underTest.getFile(FILE_NAME, List.of("gzip")));
+
+      verify(fileStorageService, times(2)).getFile(FILE_NAME, List.of("gzip"));
+      assertEquals(0, counter(PeerCache.METRIC_REQUESTS, "result", "hit"));
+    }
+
+    @Test
+    void shouldReadEveryFileAgainOnceChangesMissed() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME)).thenReturn(object(CONTENT), object(CONTENT));
+      final var underTest = peerCache(true, List.of(), Duration.ofMinutes(1));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      changeListener().onChangesMissed();
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      verify(fileStorageService, times(2)).getFile(FILE_NAME);
+      assertEquals(CONTENT.length, meterRegistry.get(PeerCache.METRIC_SIZE).gauge().value());
+    }
+
+    @Test
+    void shouldNotKeepLargeFiles() throws IOException {
+      final var largeContent = new byte[33];
+      when(fileStorageService.getFile(FILE_NAME)).thenReturn(object(largeContent), object(largeContent));
+      final var underTest = peerCache(true, List.of(), Duration.ofMinutes(1));
+
+      assertArrayEquals(largeContent, read(underTest.getFile(FILE_NAME, List.of())));
+      assertArrayEquals(largeContent, read(underTest.getFile(FILE_NAME, List.of())));
+
+      verify(fileStorageService, times(2)).getFile(FILE_NAME);
+    }
+
+    @Test
+    void shouldReadFileMissingOnceForConcurrentReads() throws Exception {
+      final var fetching = new CountDownLatch(1);
+      final var release = new CountDownLatch(1);
+      when(fileStorageService.getFile(FILE_NAME)).thenAnswer(invocation -> {
+        fetching.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return object(CONTENT);
+      });
+      final var underTest = peerCache(true, List.of(), Duration.ofMinutes(1));
+
+      final var first = CompletableFuture.supplyAsync(() -> underTest.getOwnedFile(FILE_NAME, List.of()));
+      fetching.await(5, TimeUnit.SECONDS);
+      final var second = CompletableFuture.supplyAsync(() -> underTest.getOwnedFile(FILE_NAME, List.of()));
+      release.countDown();
+
+      assertArrayEquals(CONTENT, read(first.get(5, TimeUnit.SECONDS)));
+      assertArrayEquals(CONTENT, read(second.get(5, TimeUnit.SECONDS)));
+      verify(fileStorageService, times(1)).getFile(FILE_NAME);
+    }
+
+  }
+
+  @Nested
+  class PeerFileTest {
+
+    private HttpServer owner;
+    private String ownerUrl;
+    private String ownedFileName;
+    private volatile int status = 200;
+
+    @BeforeEach
+    void startOwner() throws IOException {
+      owner = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      owner.createContext(PeerCache.PEER_PATH, exchange -> {
+        final var body = status == 200 ? CONTENT : new byte[0];
+        if (status == 200) {
+          exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      });
+      owner.start();
+      ownerUrl = "http://127.0.0.1:" + owner.getAddress().getPort();
+      final var ring = new ConsistentHashRing(List.of(SELF, ownerUrl), 128);
+      ownedFileName = IntStream.range(0, 100).mapToObj(i -> "file-" + i)
+          .filter(fileName -> ring.owner(fileName).equals(ownerUrl))
+          .findFirst().orElseThrow();
+    }
+
+    @AfterEach
+    void stopOwner() {
+      owner.stop(0);
+    }
+
+    @Test
+    void shouldReadFileFromOwner() throws IOException {
+      final var underTest = peerCache(true, List.of(ownerUrl), Duration.ofMinutes(1));
+
+      final var object = underTest.getFile(ownedFileName, List.of("gzip"));
+
+      assertEquals("gzip", object.response().contentEncoding());
+      assertEquals(CONTENT.length, object.response().contentLength());
+      assertArrayEquals(CONTENT, read(object));
+      verify(fileStorageService, never()).getFile(ownedFileName, List.of("gzip"));
+      assertEquals(1, counter(PeerCache.METRIC_GETS, "route", PeerCache.ROUTE_PEER));
+    }
+
+    @Test
+    void shouldListOtherMembers() {
+      final var underTest = peerCache(true, List.of(ownerUrl), Duration.ofMinutes(1));
+
+      assertEquals(Set.of(ownerUrl), underTest.getOtherMembers());
+    }
+
+    @Test
+    void shouldFailWhenOwnerHasNoFile() {
+      status = 404;
+      final var underTest = peerCache(true, List.of(ownerUrl), Duration.ofMinutes(1));
+
+      assertThrows(NoSuchKeyException.class, () -> underTest.getFile(ownedFileName, List.of()));
+      verify(fileStorageService, never()).getFile(ownedFileName);
+    }
+
+    @Test
+    void shouldReadFromS3WhenOwnerFails() throws IOException {
+      status = 500;
+      when(fileStorageService.getFile(ownedFileName)).thenReturn(object(CONTENT));
+      final var underTest = peerCache(true, List.of(ownerUrl), Duration.ofMinutes(1));
+
+      assertArrayEquals(CONTENT, read(underTest.getFile(ownedFileName, List.of())));
+      assertEquals(1, counter(PeerCache.METRIC_GETS, "route", PeerCache.ROUTE_FALLBACK));
+    }
+
+  }
+
+}
@@ -0,0 +1,293 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.ResilienceConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3CircuitOpenException;
+import com.marcofaccani.awss3.service.S3CircuitBreaker;
+import com.marcofaccani.awss3.service.S3CircuitBreaker.State;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3CircuitBreakerTest {
+
+  private static final Duration OPEN_DURATION = Duration.ofMillis(50);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<State> transitions = new ArrayList<>();
+
+  private S3CircuitBreaker breaker(final boolean enabled, final Duration slowCallDuration) {
+    final var breaker = new S3CircuitBreaker(new ResilienceConfigProperties(enabled, 0.5, slowCallDuration, 4, 4,
+        OPEN_DURATION, 2, DataSize.ofMegabytes(1), DataSize.ofKilobytes(64)), meterRegistry);
+    breaker.addListener(transitions::add);
+    return breaker;
+  }
+
+  private S3CircuitBreaker breaker() {
+    return breaker(true, Duration.ofSeconds(5));
+  }
+
+  private static ExecutionAttributes attributes() {
+    final var executionAttributes = new ExecutionAttributes();
+    executionAttributes.putAttribute(SdkExecutionAttribute.OPERATION_NAME, "GetObject");
+    return executionAttributes;
+  }
+
+  private static void succeed(final S3CircuitBreaker breaker) {
+    final var executionAttributes = attributes();
+    breaker.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+    breaker.beforeTransmission(mock(Context.BeforeTransmission.class), executionAttributes);
+    breaker.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+  }
+
+  private static void fail(final S3CircuitBreaker breaker, final Throwable exception) {
+    final var executionAttributes = attributes();
+    breaker.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+    breaker.beforeTransmission(mock(Context.BeforeTransmission.class), executionAttributes);
+    failBeforeTransmission(breaker, exception, executionAttributes);
+  }
+
+  private static void failBeforeTransmission(final S3CircuitBreaker breaker, final Throwable exception,
+      final ExecutionAttributes executionAttributes) {
+    final var failedExecution = mock(Context.FailedExecution.class);
+    when(failedExecution.exception()).thenReturn(exception);
+    breaker.onExecutionFailure(failedExecution, executionAttributes);
+  }
+
+  private static S3Exception serviceError(final int statusCode) {
+    return (S3Exception) S3Exception.builder().statusCode(statusCode).message("dummy error message").build();
+  }
+
+  private double stateGauge(final State state) {
+    return meterRegistry.get(S3CircuitBreaker.METRIC_STATE).tag("state", state.name().toLowerCase()).gauge().value();
+  }
+
+  private void open(final S3CircuitBreaker breaker) {
+    succeed(breaker);
+    succeed(breaker);
+    fail(breaker, serviceError(500));
+    fail(breaker, SdkClientException.create("dummy error message", new SocketException("Connection reset")));
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  void shouldOpenOnceFailureRateReachesThreshold() {
+    final var underTest = breaker();
+    succeed(underTest);
+    succeed(underTest);
+    fail(underTest, serviceError(503));
+    assertEquals(State.CLOSED, underTest.getState());
+
+    fail(underTest, serviceError(500));
+
+    assertEquals(State.OPEN, underTest.getState());
+    assertEquals(1, stateGauge(State.OPEN));
+    assertEquals(0, stateGauge(State.CLOSED));
+    assertThrows(S3CircuitOpenException.class,
+        () -> underTest.beforeExecution(mock(Context.BeforeExecution.class), attributes()));
+    assertEquals(1, meterRegistry.get(S3CircuitBreaker.METRIC_REJECTED).counter().count());
+  }
+
+  @Test
+  void shouldNotCountClientErrorsAsFailures() {
+    final var underTest = breaker();
+
+    for (int i = 0; i < 8; i++) {
+      fail(underTest, serviceError(404));
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldCountNetworkErrorsAndTimeoutsAsFailures() {
+    final var underTest = breaker();
+    succeed(underTest);
+    succeed(underTest);
+
+    fail(underTest, SdkClientException.create("dummy error message", new SocketTimeoutException("Read timed out")));
+    fail(underTest, ApiCallTimeoutException.create(1000));
+
+    assertEquals(State.OPEN, underTest.getState());
+  }
+
+  @Test
+  void shouldNotCountErrorsOfCallerAsFailures() {
+    final var underTest = breaker();
+
+    for (int i = 0; i < 4; i++) {
+      fail(underTest, SdkClientException.create("dummy error message", new IOException("Stream closed")));
+      fail(underTest, SdkClientException.create("dummy error message"));
+      fail(underTest, new IllegalStateException("dummy error message"));
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldNotCountCallsInterruptedAsFailures() {
+    final var underTest = breaker();
+    final var interrupted = AbortedException.builder().message("dummy error message")
+        .cause(new InterruptedException()).build();
+
+    for (int i = 0; i < 8; i++) {
+      fail(underTest, interrupted);
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldNotCountConnectionPoolTimeoutsAsFailures() {
+    final var underTest = breaker();
+    final var poolTimeout = SdkClientException.create("Unable to execute HTTP request: dummy error message",
+        new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"));
+
+    for (int i = 0; i < 8; i++) {
+      fail(underTest, poolTimeout);
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldCountSlowCallsAsFailures() {
+    final var underTest = breaker(true, Duration.ZERO);
+
+    for (int i = 0; i < 4; i++) {
+      succeed(underTest);
+    }
+
+    assertEquals(State.OPEN, underTest.getState());
+  }
+
+  @Test
+  void shouldTimeCallsFromTheirTransmission() throws InterruptedException {
+    final var underTest = breaker(true, Duration.ofMillis(20));
+
+    for (int i = 0; i < 4; i++) {
+      final var executionAttributes = attributes();
+      underTest.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+      // Waiting to be admitted by the scheduler
+      Thread.sleep(40);
+      underTest.beforeTransmission(mock(Context.BeforeTransmission.class), executionAttributes);
+      underTest.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldNotTimeWaitsForConnectionOfPool() throws InterruptedException {
+    final var underTest = breaker(true, Duration.ofMillis(20));
+
+    for (int i = 0; i < 4; i++) {
+      final var executionAttributes = attributes();
+      underTest.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+      // A first attempt failing, then a retry, each waiting for a connection as reported by the HTTP client
+      for (int attempt = 0; attempt < 2; attempt++) {
+        final var attemptMetrics = MetricCollector.create("ApiCallAttempt");
+        executionAttributes.putAttribute(SdkExecutionAttribute.API_CALL_ATTEMPT_METRIC_COLLECTOR, attemptMetrics);
+        underTest.beforeTransmission(mock(Context.BeforeTransmission.class), executionAttributes);
+        Thread.sleep(20);
+        attemptMetrics.createChild("HttpClient")
+            .reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(20));
+      }
+      underTest.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldCloseOnceTrialCallsSucceed() throws InterruptedException {
+    final var underTest = breaker();
+    open(underTest);
+
+    Thread.sleep(OPEN_DURATION.toMillis() * 2);
+    succeed(underTest);
+    assertEquals(State.HALF_OPEN, underTest.getState());
+    succeed(underTest);
+
+    assertEquals(State.CLOSED, underTest.getState());
+    assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+  }
+
+  @Test
+  void shouldLetOnlyTrialCallsThroughWhileHalfOpen() throws InterruptedException {
+    final var underTest = breaker();
+    open(underTest);
+    Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+    underTest.beforeExecution(mock(Context.BeforeExecution.class), attributes());
+    underTest.beforeExecution(mock(Context.BeforeExecution.class), attributes());
+
+    assertThrows(S3CircuitOpenException.class,
+        () -> underTest.beforeExecution(mock(Context.BeforeExecution.class), attributes()));
+  }
+
+  @Test
+  void shouldGiveTrialPermissionBackWhenCallFailsBeforeTransmission() throws InterruptedException {
+    final var underTest = breaker();
+    open(underTest);
+    Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+    for (int i = 0; i < 2; i++) {
+      final var executionAttributes = attributes();
+      underTest.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+      failBeforeTransmission(underTest, AbortedException.builder().message("dummy error message").build(),
+          executionAttributes);
+    }
+    succeed(underTest);
+    succeed(underTest);
+
+    assertEquals(State.CLOSED, underTest.getState());
+  }
+
+  @Test
+  void shouldOpenAgainWhenTrialCallFails() throws InterruptedException {
+    final var underTest = breaker();
+    open(underTest);
+    Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+    fail(underTest, serviceError(503));
+
+    assertEquals(State.OPEN, underTest.getState());
+    assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.OPEN), transitions);
+  }
+
+  @Test
+  void shouldLetCallsThroughWhenDisabled() {
+    final var underTest = breaker(false, Duration.ofSeconds(5));
+
+    for (int i = 0; i < 8; i++) {
+      fail(underTest, serviceError(500));
+    }
+
+    assertEquals(State.CLOSED, underTest.getState());
+    assertDoesNotThrow(() -> underTest.beforeExecution(mock(Context.BeforeExecution.class), attributes()));
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.HttpClientConfigProperties;
+import com.marcofaccani.awss3.service.S3ConnectionWarmer;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3ConnectionWarmerTest {
+
+  private final String BUCKET_NAME = "dummyBucketName";
+
+  private final S3Client s3Client = mock(S3Client.class);
+
+  private S3ConnectionWarmer warmer(final int maxConnections, final int warmupConnections) {
+    final var awsS3ConfigProperties = mock(AwsS3ConfigProperties.class);
+    when(awsS3ConfigProperties.getBucketName()).thenReturn(BUCKET_NAME);
+    return new S3ConnectionWarmer(awsS3ConfigProperties, new HttpClientConfigProperties(maxConnections,
+        Duration.ofSeconds(2), Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofSeconds(60), true, true,
+        null, null, warmupConnections), s3Client);
+  }
+
+  @Test
+  void shouldOpenConnectionsUpToPoolSize() {
+    when(s3Client.headBucket(any(HeadBucketRequest.class)))
+        .thenReturn(HeadBucketResponse.builder().build())
+        .thenThrow(S3Exception.builder().message("dummy error message").build())
+        .thenReturn(HeadBucketResponse.builder().build());
+
+    assertDoesNotThrow(() -> warmer(4, 10).warmUp());
+
+    verify(s3Client, times(4)).headBucket(HeadBucketRequest.builder().bucket(BUCKET_NAME).build());
+  }
+
+  @Test
+  void shouldNotWarmUpByDefault() {
+    warmer(128, 0).warmUp();
+
+    verify(s3Client, never()).headBucket(any(HeadBucketRequest.class));
+  }
+
+}
@@ -0,0 +1,188 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.marcofaccani.awss3.service.S3IndexJournal;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class S3IndexJournalTest {
+
+  private static final String BUCKET_NAME = "dummyBucketName";
+  private static final String PREFIX = "index/";
+
+  private final S3Client s3Client = mock(S3Client.class);
+  private final InMemoryS3 inMemoryS3 = new InMemoryS3(s3Client);
+
+  private S3IndexJournal journal() {
+    return new S3IndexJournal(s3Client, BUCKET_NAME, PREFIX);
+  }
+
+  private List<String> load() {
+    final var records = new ArrayList<String>();
+    journal().load(records::add);
+    return records;
+  }
+
+  private static String records(final Set<String> state) {
+    return state.stream().map(record -> record + '\n').collect(Collectors.joining());
+  }
+
+  @Test
+  void shouldReplaySnapshotAndLaterSegments() {
+    final var underTest = journal();
+    underTest.load(record -> {
+    });
+    underTest.append("first\n");
+    underTest.checkpoint(() -> "first\n");
+    underTest.append("second\n");
+
+    assertEquals(List.of("first", "second"), load());
+    assertEquals(1, underTest.segmentsSinceCheckpoint());
+  }
+
+  @Test
+  void shouldApplyRecordsOfOtherInstancesOnRefresh() {
+    final var underTest = journal();
+    final var records = new ArrayList<String>();
+    underTest.load(records::add);
+    underTest.append("own\n");
+    final var otherInstance = journal();
+    otherInstance.load(record -> {
+    });
+    otherInstance.append("other\n");
+
+    underTest.refresh(records::clear, records::add);
+    underTest.refresh(records::clear, records::add);
+
+    assertEquals(List.of("other"), records);
+  }
+
+  @Test
+  void shouldReplayJournalOnSnapshotOfOtherInstance() {
+    final var underTest = journal();
+    final var records = new ArrayList<String>();
+    underTest.load(records::add);
+    underTest.append("own\n");
+    final var otherInstance = journal();
+    otherInstance.load(record -> {
+    });
+    otherInstance.append("other\n");
+    otherInstance.checkpoint(() -> "own\nother\n");
+
+    underTest.refresh(records::clear, records::add);
+    underTest.append("next\n");
+
+    assertEquals(List.of("own", "other"), records);
+    assertEquals(List.of("own", "other", "next"), load());
+  }
+
+  @Test
+  void shouldReplaySegmentsOfOtherInstancesSortingBeforeSnapshot() {
+    final var underTest = journal();
+    underTest.load(record -> {
+    });
+    final var otherInstance = journal();
+    otherInstance.load(record -> {
+    });
+    underTest.append("first\n");
+    underTest.append("second\n");
+    otherInstance.append("other\n");
+
+    underTest.checkpoint(() -> "first\nsecond\n");
+
+    assertEquals(Set.of("first", "second", "other"), Set.copyOf(load()));
+    final var records = new ArrayList<String>();
+    otherInstance.refresh(records::clear, records::add);
+    assertEquals(Set.of("first", "second", "other"), Set.copyOf(records));
+  }
+
+  @Test
+  void shouldCheckpointOnlyOnLeaseHolder() {
+    final var underTest = journal();
+    underTest.load(record -> {
+    });
+    final var otherInstance = journal();
+    otherInstance.load(record -> {
+    });
+    underTest.append("first\n");
+    otherInstance.append("other\n");
+
+    assertTrue(underTest.checkpoint(() -> "first\n"));
+    assertFalse(otherInstance.checkpoint(() -> "other\n"));
+
+    assertEquals(1, inMemoryS3.objects().keySet().stream()
+        .filter(key -> key.endsWith(S3IndexJournal.SNAPSHOT_SUFFIX))
+        .count());
+    assertEquals(Set.of("first", "other"), Set.copyOf(load()));
+  }
+
+  @Test
+  void shouldTakeOverExpiredLease() {
+    inMemoryS3.put(PREFIX + S3IndexJournal.LEASE_KEY, "dummyInstanceId\t0".getBytes(StandardCharsets.UTF_8));
+
+    assertTrue(journal().acquireLease());
+  }
+
+  @Test
+  void shouldNotApplyRecordsNotPersisted() {
+    doThrow(S3Exception.builder().message("dummy error message").build())
+        .when(s3Client).putObject(argThat((PutObjectRequest request) -> request != null
+            && request.key().endsWith(S3IndexJournal.SEGMENT_SUFFIX)), any(RequestBody.class));
+    final var underTest = journal();
+    final var applied = new AtomicBoolean();
+
+    assertThrows(S3Exception.class, () -> underTest.append("record\n", () -> applied.set(true)));
+
+    assertFalse(applied.get());
+    assertEquals(List.of(), load());
+  }
+
+  @Test
+  void shouldKeepRecordsAppendedDuringCheckpoints() throws Exception {
+    final var underTest = journal();
+    final var state = new ConcurrentSkipListSet<String>();
+    final var appenders = IntStream.range(0, 4)
+        .mapToObj(thread -> CompletableFuture.runAsync(() -> {
+          for (int i = 0; i < 50; i++) {
+            final var record = thread + "-" + i;
+            underTest.append(record + '\n', () -> state.add(record));
+          }
+        }))
+        .toArray(CompletableFuture[]::new);
+    final var appended = CompletableFuture.allOf(appenders);
+    final var checkpointer = CompletableFuture.runAsync(() -> {
+      while (!appended.isDone()) {
+        underTest.checkpoint(() -> records(state));
+      }
+    });
+
+    appended.get(10, TimeUnit.SECONDS);
+    checkpointer.get(10, TimeUnit.SECONDS);
+
+    assertEquals(200, state.size());
+    assertEquals(state, new ConcurrentSkipListSet<>(load()));
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+
+import com.marcofaccani.awss3.service.S3OperationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class S3OperationMetricsTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final S3OperationMetrics underTest = new S3OperationMetrics(meterRegistry);
+
+  private long requests(final String operation, final String outcome, final String errorCode) {
+    final var timer = meterRegistry.find(S3OperationMetrics.METRIC_REQUESTS)
+        .tags("operation", operation, "outcome", outcome, "error.code", errorCode)
+        .timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  private double activeTransfers() {
+    return meterRegistry.get(S3OperationMetrics.METRIC_ACTIVE_TRANSFERS).gauge().value();
+  }
+
+  @Nested
+  class RecordTest {
+
+    @Test
+    void shouldTimeSuccessfulCalls() {
+      assertEquals("result", underTest.record(S3OperationMetrics.OPERATION_HEAD, () -> "result"));
+
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_HEAD, "success", "none"));
+    }
+
+    @Test
+    void shouldTagFailedCallsWithErrorCode() {
+      final var serviceError = NoSuchKeyException.builder()
+          .awsErrorDetails(AwsErrorDetails.builder().errorCode("NoSuchKey").build())
+          .build();
+      assertThrows(NoSuchKeyException.class, () -> underTest.record(S3OperationMetrics.OPERATION_HEAD, () -> {
+        throw serviceError;
+      }));
+      assertThrows(SdkClientException.class, () -> underTest.record(S3OperationMetrics.OPERATION_LIST, () -> {
+        throw SdkClientException.create("timeout");
+      }));
+
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_HEAD, "error", "NoSuchKey"));
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_LIST, "error", "client"));
+      assertEquals(0, requests(S3OperationMetrics.OPERATION_HEAD, "success", "none"));
+    }
+
+  }
+
+  @Nested
+  class TransfersTest {
+
+    @Test
+    void shouldRecordBytesOut() {
+      underTest.recordUpload(100, () -> {
+        assertEquals(1, activeTransfers());
+        return null;
+      });
+
+      assertEquals(0, activeTransfers());
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_PUT, "success", "none"));
+      final var bytesOut = meterRegistry.get(S3OperationMetrics.METRIC_BYTES).tag("direction", "out").summary();
+      assertEquals(1, bytesOut.count());
+      assertEquals(100, bytesOut.totalAmount());
+    }
+
+    @Test
+    void shouldMeterDownloadUntilClosed() throws Exception {
+      final var content = new byte[]{1, 2, 3, 4, 5};
+      final var responseInputStream = underTest.recordDownload(() -> new ResponseInputStream<>(
+          GetObjectResponse.builder().contentLength((long) content.length).build(),
+          AbortableInputStream.create(new ByteArrayInputStream(content))));
+
+      assertEquals(1, activeTransfers());
+      assertEquals(0, meterRegistry.get(S3OperationMetrics.METRIC_FIRST_BYTE).timer().count());
+      assertArrayEquals(content, responseInputStream.readAllBytes());
+      assertEquals(1, meterRegistry.get(S3OperationMetrics.METRIC_FIRST_BYTE).timer().count());
+      assertEquals(5L, responseInputStream.response().contentLength());
+      responseInputStream.close();
+      responseInputStream.close();
+
+      assertEquals(0, activeTransfers());
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_GET, "success", "none"));
+      final var bytesIn = meterRegistry.get(S3OperationMetrics.METRIC_BYTES).tag("direction", "in").summary();
+      assertEquals(1, bytesIn.count());
+      assertEquals(5, bytesIn.totalAmount());
+    }
+
+    @Test
+    void shouldNotCountFailedDownloadAsActive() {
+      assertThrows(NoSuchKeyException.class, () -> underTest.recordDownload(() -> {
+        throw NoSuchKeyException.builder().statusCode(404).build();
+      }));
+
+      assertEquals(0, activeTransfers());
+      assertEquals(1, requests(S3OperationMetrics.OPERATION_GET, "error", "404"));
+    }
+
+  }
+
+}
@@ -0,0 +1,181 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.config.S3SchedulerConfigProperties;
+import com.marcofaccani.awss3.service.S3WorkScheduler;
+import com.marcofaccani.awss3.service.S3WorkScheduler.WorkClass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class S3WorkSchedulerTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private S3WorkScheduler scheduler(final boolean enabled, final int maxCalls, final int reservedCalls) {
+    return new S3WorkScheduler(new S3SchedulerConfigProperties(enabled, maxCalls, reservedCalls, 3, 1), meterRegistry);
+  }
+
+  private double gauge(final String name, final String workClass) {
+    return meterRegistry.get(name).tag("class", workClass).gauge().value();
+  }
+
+  private static CompletableFuture<S3WorkScheduler.Permit> acquireAsync(final S3WorkScheduler scheduler,
+      final WorkClass workClass) {
+    return CompletableFuture.supplyAsync(() -> scheduler.acquire(workClass));
+  }
+
+  private static void awaitWaiting(final SimpleMeterRegistry meterRegistry, final String workClass, final int count)
+      throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      if (meterRegistry.get(S3WorkScheduler.METRIC_WAITING).tag("class", workClass).gauge().value() == count) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("Calls not waiting: " + workClass);
+  }
+
+  @Test
+  void shouldHoldSlotFromBeforeToAfterExecution() {
+    final var underTest = scheduler(true, 2, 0);
+    final var executionAttributes = new ExecutionAttributes();
+
+    underTest.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+    assertEquals(1, gauge(S3WorkScheduler.METRIC_CALLS, "interactive"));
+    underTest.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+    underTest.onExecutionFailure(mock(Context.FailedExecution.class), executionAttributes);
+
+    assertEquals(0, gauge(S3WorkScheduler.METRIC_CALLS, "interactive"));
+    assertEquals(1, meterRegistry.get(S3WorkScheduler.METRIC_QUEUE_TIME).tag("class", "interactive").timer().count());
+  }
+
+  @Test
+  void shouldNotAdmitCallsWhenDisabled() {
+    final var underTest = scheduler(false, 1, 0);
+    final var executionAttributes = new ExecutionAttributes();
+
+    underTest.beforeExecution(mock(Context.BeforeExecution.class), executionAttributes);
+    underTest.beforeExecution(mock(Context.BeforeExecution.class), new ExecutionAttributes());
+    underTest.afterExecution(mock(Context.AfterExecution.class), executionAttributes);
+
+    assertEquals(0, gauge(S3WorkScheduler.METRIC_CALLS, "interactive"));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 2, 3})
+  void shouldRejectReservedCallsLeavingNoneToBackgroundWork(final int reservedCalls) {
+    assertThrows(IllegalArgumentException.class, () -> scheduler(true, 2, reservedCalls));
+  }
+
+  @Test
+  void shouldMakeCallsOfBackgroundThreadsBackgroundWork() throws Exception {
+    final var workClasses = Collections.synchronizedList(new ArrayList<WorkClass>());
+    final var thread = new Thread(S3WorkScheduler.background(() -> {
+      workClasses.add(S3WorkScheduler.currentWorkClass());
+      final var pool = Executors.newSingleThreadExecutor();
+      try {
+        pool.submit(S3WorkScheduler.inCurrentClass(() -> workClasses.add(S3WorkScheduler.currentWorkClass()))).get();
+        pool.submit(() -> workClasses.add(S3WorkScheduler.currentWorkClass())).get();
+      } catch (Exception ex) {
+        throw new IllegalStateException(ex);
+      } finally {
+        pool.shutdownNow();
+      }
+    }));
+
+    thread.start();
+    thread.join(5000);
+
+    assertEquals(List.of(WorkClass.BACKGROUND, WorkClass.BACKGROUND, WorkClass.INTERACTIVE), workClasses);
+    assertEquals(WorkClass.INTERACTIVE, S3WorkScheduler.currentWorkClass());
+  }
+
+  @Test
+  void shouldKeepReservedSlotsForInteractiveCalls() throws Exception {
+    final var underTest = scheduler(true, 2, 1);
+    final var background = underTest.acquire(WorkClass.BACKGROUND);
+
+    final var secondBackground = acquireAsync(underTest, WorkClass.BACKGROUND);
+    awaitWaiting(meterRegistry, "background", 1);
+    final var interactive = underTest.acquire(WorkClass.INTERACTIVE);
+
+    assertFalse(secondBackground.isDone());
+    background.release();
+    secondBackground.get(5, TimeUnit.SECONDS).release();
+    interactive.release();
+    assertEquals(0, gauge(S3WorkScheduler.METRIC_CALLS, "background"));
+  }
+
+  @Test
+  void shouldShareSlotsByWeight() throws Exception {
+    final var underTest = scheduler(true, 1, 0);
+    final var admitted = Collections.synchronizedList(new ArrayList<WorkClass>());
+    final var holder = underTest.acquire(WorkClass.INTERACTIVE);
+    final var waiters = new ArrayList<CompletableFuture<Void>>();
+    final var executor = Executors.newFixedThreadPool(8);
+    for (final var workClass : List.of(WorkClass.INTERACTIVE, WorkClass.BACKGROUND)) {
+      for (int i = 0; i < 4; i++) {
+        waiters.add(CompletableFuture.runAsync(() -> {
+          final var permit = underTest.acquire(workClass);
+          admitted.add(workClass);
+          permit.release();
+        }, executor));
+      }
+      awaitWaiting(meterRegistry, workClass.name().toLowerCase(Locale.ROOT), 4);
+    }
+
+    holder.release();
+    CompletableFuture.allOf(waiters.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+    executor.shutdown();
+
+    // Three interactive calls for each background one while both wait
+    assertEquals(3, admitted.subList(0, 4).stream().filter(WorkClass.INTERACTIVE::equals).count());
+    assertTrue(meterRegistry.get(S3WorkScheduler.METRIC_QUEUE_TIME).tag("class", "background").timer()
+        .totalTime(TimeUnit.NANOSECONDS) > 0);
+  }
+
+  @Test
+  void shouldStopWaitingWhenInterrupted() throws Exception {
+    final var underTest = scheduler(true, 1, 0);
+    final var holder = underTest.acquire(WorkClass.INTERACTIVE);
+    final var failure = new CompletableFuture<Throwable>();
+    final var waiter = new Thread(() -> {
+      try {
+        underTest.acquire(WorkClass.BACKGROUND);
+        failure.complete(null);
+      } catch (RuntimeException ex) {
+        failure.complete(ex);
+      }
+    });
+    waiter.start();
+    awaitWaiting(meterRegistry, "background", 1);
+
+    waiter.interrupt();
+
+    assertInstanceOf(AbortedException.class, failure.get(5, TimeUnit.SECONDS));
+    assertEquals(0, gauge(S3WorkScheduler.METRIC_WAITING, "background"));
+    holder.release();
+    underTest.acquire(WorkClass.BACKGROUND).release();
+    assertEquals(0, gauge(S3WorkScheduler.METRIC_CALLS, "interactive"));
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import com.marcofaccani.awss3.service.SdkMetricsInterceptor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.BackoffStrategy;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SdkMetricsInterceptorTest {
+
+  private static final HeadObjectRequest HEAD_REQUEST = HeadObjectRequest.builder()
+      .bucket("dummyBucketName")
+      .key("dummyFileName")
+      .build();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  // Each attempt is answered with the next status, -1 failing it with an IOException
+  private final Deque<Integer> statuses = new ArrayDeque<>();
+  private final S3Client s3Client = S3Client.builder()
+      .region(Region.EU_WEST_3)
+      .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("key", "secret")))
+      .httpClient(new ScriptedHttpClient())
+      .overrideConfiguration(ClientOverrideConfiguration.builder()
+          .addExecutionInterceptor(new SdkMetricsInterceptor(meterRegistry))
+          .retryPolicy(RetryPolicy.builder()
+              .numRetries(3)
+              .backoffStrategy(BackoffStrategy.none())
+              .throttlingBackoffStrategy(BackoffStrategy.none())
+              .build())
+          .build())
+      .build();
+
+  @AfterEach
+  void tearDown() {
+    s3Client.close();
+  }
+
+  private long attempts(final String status) {
+    final var timer = meterRegistry.find(SdkMetricsInterceptor.METRIC_ATTEMPTS)
+        .tags("operation", "HeadObject", "status", status)
+        .timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  private double counter(final String name) {
+    final var counter = meterRegistry.find(name).tag("operation", "HeadObject").counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+  @Test
+  void shouldRecordAttemptsRetriesAndThrottles() {
+    statuses.addAll(List.of(503, -1, 200));
+
+    assertDoesNotThrow(() -> s3Client.headObject(HEAD_REQUEST));
+
+    assertEquals(1, attempts("503"));
+    assertEquals(1, attempts("io"));
+    assertEquals(1, attempts("200"));
+    assertEquals(2, counter(SdkMetricsInterceptor.METRIC_RETRIES));
+    assertEquals(1, counter(SdkMetricsInterceptor.METRIC_THROTTLES));
+  }
+
+  @Test
+  void shouldRecordFailedCall() {
+    statuses.addAll(List.of(403));
+
+    assertThrows(S3Exception.class, () -> s3Client.headObject(HEAD_REQUEST));
+
+    assertEquals(1, attempts("403"));
+    assertEquals(0, counter(SdkMetricsInterceptor.METRIC_RETRIES));
+    assertEquals(0, counter(SdkMetricsInterceptor.METRIC_THROTTLES));
+  }
+
+  private class ScriptedHttpClient implements SdkHttpClient {
+
+    @Override
+    public ExecutableHttpRequest prepareRequest(final HttpExecuteRequest request) {
+      return new ExecutableHttpRequest() {
+
+        @Override
+        public HttpExecuteResponse call() throws IOException {
+          final int status = statuses.remove();
+          if (status < 0) {
+            throw new IOException("Connection reset");
+          }
+          return HttpExecuteResponse.builder()
+              .response(SdkHttpResponse.builder().statusCode(status).build())
+              .responseBody(AbortableInputStream.create(new ByteArrayInputStream(new byte[0])))
+              .build();
+        }
+
+        @Override
+        public void abort() {
+        }
+
+      };
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+}
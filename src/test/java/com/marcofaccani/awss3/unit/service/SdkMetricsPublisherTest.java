@@ -0,0 +1,58 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.marcofaccani.awss3.service.SdkMetricsPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SdkMetricsPublisherTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SdkMetricsPublisher underTest = new SdkMetricsPublisher(meterRegistry);
+
+  private static MetricCollection apiCall(final int leased, final int available, final int pending,
+      final Duration... acquireDurations) {
+    final var apiCall = MetricCollector.create("ApiCall");
+    for (var acquireDuration : acquireDurations) {
+      final var httpClient = apiCall.createChild("ApiCallAttempt").createChild("HttpClient");
+      httpClient.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, acquireDuration);
+      httpClient.reportMetric(HttpMetric.MAX_CONCURRENCY, 50);
+      httpClient.reportMetric(HttpMetric.LEASED_CONCURRENCY, leased);
+      httpClient.reportMetric(HttpMetric.AVAILABLE_CONCURRENCY, available);
+      httpClient.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+    }
+    return apiCall.collect();
+  }
+
+  private double pool(final String state) {
+    return meterRegistry.get(SdkMetricsPublisher.METRIC_POOL).tag("state", state).gauge().value();
+  }
+
+  @Test
+  void shouldRecordConnectionAcquireOfEachAttempt() {
+    underTest.publish(apiCall(1, 1, 0, Duration.ofMillis(10), Duration.ofMillis(30)));
+
+    final var connectionAcquire = meterRegistry.get(SdkMetricsPublisher.METRIC_CONNECTION_ACQUIRE).timer();
+    assertEquals(2, connectionAcquire.count());
+    assertEquals(40, connectionAcquire.totalTime(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void shouldExposeLastSeenPoolState() {
+    underTest.publish(apiCall(3, 2, 0, Duration.ZERO));
+    underTest.publish(apiCall(50, 0, 7, Duration.ofMillis(5)));
+
+    assertEquals(50, pool("leased"));
+    assertEquals(0, pool("available"));
+    assertEquals(7, pool("pending"));
+    assertEquals(50, pool("max"));
+  }
+
+}
@@ -0,0 +1,254 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.marcofaccani.awss3.config.PeerCacheConfigProperties;
+import com.marcofaccani.awss3.config.ResilienceConfigProperties;
+import com.marcofaccani.awss3.exceptions.S3GetObjectException;
+import com.marcofaccani.awss3.exceptions.S3ListObjectsException;
+import com.marcofaccani.awss3.model.FileChange;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.PeerCache;
+import com.marcofaccani.awss3.service.S3CircuitBreaker;
+import com.marcofaccani.awss3.service.S3CircuitBreaker.State;
+import com.marcofaccani.awss3.service.StaleFileCache;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StaleFileCacheTest {
+
+  private final String FILE_NAME = "dummyFileName";
+  private final byte[] CONTENT = "dummy content".getBytes(StandardCharsets.UTF_8);
+
+  private final FileStorageService fileStorageService = mock(FileStorageService.class);
+  private final S3CircuitBreaker s3CircuitBreaker = mock(S3CircuitBreaker.class);
+  private final FileChangeBus fileChangeBus = mock(FileChangeBus.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private StaleFileCache underTest;
+  private Consumer<State> breakerListener;
+  private FileChangeBus.Listener changeListener;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setup() {
+    final var peerCache = new PeerCache(fileStorageService, new PeerCacheConfigProperties(false, null, List.of(), null,
+        0, null, 0, null, null, null, null), fileChangeBus, meterRegistry);
+    underTest = new StaleFileCache(fileStorageService, peerCache, s3CircuitBreaker, fileChangeBus,
+        new ResilienceConfigProperties(true, 0.5, null, 20, 10, null, 3, DataSize.ofBytes(64), DataSize.ofBytes(32)),
+        meterRegistry);
+    final ArgumentCaptor<Consumer<State>> listener = ArgumentCaptor.forClass(Consumer.class);
+    verify(s3CircuitBreaker).addListener(listener.capture());
+    breakerListener = listener.getValue();
+    final var changes = ArgumentCaptor.forClass(FileChangeBus.Listener.class);
+    verify(fileChangeBus).addListener(changes.capture());
+    changeListener = changes.getValue();
+    when(s3CircuitBreaker.getState()).thenReturn(State.CLOSED);
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private static ResponseInputStream<GetObjectResponse> object(final byte[] content) {
+    return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) content.length).build(),
+        AbortableInputStream.create(new ByteArrayInputStream(content)));
+  }
+
+  private static byte[] read(final StaleFileCache.Served<ResponseInputStream<GetObjectResponse>> served)
+      throws IOException {
+    try (var inputStream = served.value()) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  private void awaitRevalidation() throws InterruptedException {
+    final var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (meterRegistry.find(StaleFileCache.METRIC_REVALIDATIONS).counter() == null
+        && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  private double staleServed(final String operation) {
+    return meterRegistry.get(StaleFileCache.METRIC_STALE_SERVED).tag("operation", operation).counter().count();
+  }
+
+  @Nested
+  class GetFileTest {
+
+    @Test
+    void shouldServeFreshFile() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME)).thenReturn(object(CONTENT));
+
+      final var served = underTest.getFile(FILE_NAME, List.of());
+
+      assertFalse(served.stale());
+      assertArrayEquals(CONTENT, read(served));
+      assertEquals(CONTENT.length, meterRegistry.get(StaleFileCache.METRIC_CACHE_SIZE).gauge().value());
+    }
+
+    @Test
+    void shouldServeStaleFileWhenS3Fails() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME))
+          .thenReturn(object(CONTENT))
+          .thenThrow(new S3GetObjectException("dummy error message"));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      final var served = underTest.getFile(FILE_NAME, List.of());
+
+      assertTrue(served.stale());
+      assertArrayEquals(CONTENT, read(served));
+      assertEquals(1, staleServed(StaleFileCache.OPERATION_GET));
+    }
+
+    @Test
+    void shouldNotServeFileChangedMeanwhile() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME))
+          .thenReturn(object(CONTENT))
+          .thenThrow(new S3GetObjectException("dummy error message"));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      changeListener.onChange(new FileChange("dummyOrigin", 1, FileChange.Type.WRITTEN, FILE_NAME));
+
+      assertThrows(S3GetObjectException.class, () -> underTest.getFile(FILE_NAME, List.of()));
+      assertEquals(0, meterRegistry.get(StaleFileCache.METRIC_CACHE_SIZE).gauge().value());
+    }
+
+    @Test
+    void shouldKeepCopiesPerAcceptedEncodings() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME, List.of("gzip"))).thenReturn(object(CONTENT));
+      when(fileStorageService.getFile(FILE_NAME)).thenThrow(new S3GetObjectException("dummy error message"));
+      read(underTest.getFile(FILE_NAME, List.of("gzip")));
+
+      assertThrows(S3GetObjectException.class, () -> underTest.getFile(FILE_NAME, List.of()));
+    }
+
+    @Test
+    void shouldNotKeepLargeFiles() throws IOException {
+      final var largeContent = new byte[33];
+      when(fileStorageService.getFile(FILE_NAME))
+          .thenReturn(object(largeContent))
+          .thenThrow(new S3GetObjectException("dummy error message"));
+
+      assertArrayEquals(largeContent, read(underTest.getFile(FILE_NAME, List.of())));
+
+      assertThrows(S3GetObjectException.class, () -> underTest.getFile(FILE_NAME, List.of()));
+    }
+
+    @Test
+    void shouldEvictFileWhenItIsGone() throws IOException {
+      when(fileStorageService.getFile(FILE_NAME))
+          .thenReturn(object(CONTENT))
+          .thenThrow(NoSuchKeyException.builder().message("dummy error message").build())
+          .thenThrow(new S3GetObjectException("dummy error message"));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      assertThrows(NoSuchKeyException.class, () -> underTest.getFile(FILE_NAME, List.of()));
+      assertThrows(S3GetObjectException.class, () -> underTest.getFile(FILE_NAME, List.of()));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyReadFilesBeyondCacheSize() throws IOException {
+      for (var fileName : List.of("first", "second", "third")) {
+        when(fileStorageService.getFile(fileName))
+            .thenReturn(object(new byte[30]))
+            .thenThrow(new S3GetObjectException("dummy error message"));
+        read(underTest.getFile(fileName, List.of()));
+      }
+
+      assertThrows(S3GetObjectException.class, () -> underTest.getFile("first", List.of()));
+      assertTrue(underTest.getFile("second", List.of()).stale());
+      assertTrue(underTest.getFile("third", List.of()).stale());
+    }
+
+    @Test
+    void shouldRevalidateStaleFilesOnceCircuitCloses() throws IOException, InterruptedException {
+      final var newContent = "new content".getBytes(StandardCharsets.UTF_8);
+      when(fileStorageService.getFile(FILE_NAME))
+          .thenReturn(object(CONTENT))
+          .thenThrow(new S3GetObjectException("dummy error message"))
+          .thenReturn(object(newContent))
+          .thenThrow(new S3GetObjectException("dummy error message"));
+      read(underTest.getFile(FILE_NAME, List.of()));
+      read(underTest.getFile(FILE_NAME, List.of()));
+
+      breakerListener.accept(State.CLOSED);
+
+      awaitRevalidation();
+      assertEquals(1, meterRegistry.get(StaleFileCache.METRIC_REVALIDATIONS).tag("result", "refreshed").counter()
+          .count());
+      final var served = underTest.getFile(FILE_NAME, List.of());
+      assertTrue(served.stale());
+      assertArrayEquals(newContent, read(served));
+    }
+
+  }
+
+  @Nested
+  class ListFilesTest {
+
+    @Test
+    void shouldServeStaleListingWhenS3Fails() {
+      when(fileStorageService.listFilesInBucket())
+          .thenReturn(List.of(FILE_NAME))
+          .thenThrow(new S3ListObjectsException("dummy error message"));
+      assertFalse(underTest.listFiles().stale());
+
+      final var served = underTest.listFiles();
+
+      assertTrue(served.stale());
+      assertEquals(List.of(FILE_NAME), served.value());
+      assertEquals(1, staleServed(StaleFileCache.OPERATION_LIST));
+    }
+
+    @Test
+    void shouldFailWithoutListingToServe() {
+      when(fileStorageService.listFilesInBucket()).thenThrow(new S3ListObjectsException("dummy error message"));
+
+      assertThrows(S3ListObjectsException.class, () -> underTest.listFiles());
+    }
+
+    @Test
+    void shouldRevalidateStaleListingOnceCircuitCloses() throws InterruptedException {
+      when(fileStorageService.listFilesInBucket())
+          .thenReturn(List.of(FILE_NAME))
+          .thenThrow(new S3ListObjectsException("dummy error message"))
+          .thenReturn(List.of(FILE_NAME, "newFileName"))
+          .thenThrow(new S3ListObjectsException("dummy error message"));
+      underTest.listFiles();
+      underTest.listFiles();
+
+      breakerListener.accept(State.CLOSED);
+
+      awaitRevalidation();
+      assertEquals(List.of(FILE_NAME, "newFileName"), underTest.listFiles().value());
+    }
+
+  }
+
+}
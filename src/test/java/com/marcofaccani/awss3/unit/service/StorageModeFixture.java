@@ -0,0 +1,94 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import static com.marcofaccani.awss3.unit.service.InMemoryS3.readAll;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Collaborators of the storage modes keeping their files and index in the bucket: an {@link InMemoryS3} bucket, a
+ * mocked plain storage service and a mocked {@link FileChangeBus} whose remote change listeners are run on demand, as
+ * if another instance sharing the bucket had changed a file.
+ */
+public class StorageModeFixture {
+
+  public static final String BUCKET_NAME = "dummyBucketName";
+
+  private static final long AWAIT_TIMEOUT_SECONDS = 5;
+
+  private final S3Client s3Client = mock(S3Client.class);
+  private final InMemoryS3 inMemoryS3 = new InMemoryS3(s3Client);
+  private final FileStorageServiceImpl plainFileStorageService = mock(FileStorageServiceImpl.class);
+  private final FileChangeBus fileChangeBus = mock(FileChangeBus.class);
+  private final List<Runnable> remoteChangeListeners = new CopyOnWriteArrayList<>();
+
+  public StorageModeFixture() {
+    doAnswer(invocation -> remoteChangeListeners.add(invocation.getArgument(0)))
+        .when(fileChangeBus).addRemoteChangeListener(any());
+  }
+
+  public S3Client s3Client() {
+    return s3Client;
+  }
+
+  public InMemoryS3 inMemoryS3() {
+    return inMemoryS3;
+  }
+
+  public FileStorageServiceImpl plainFileStorageService() {
+    return plainFileStorageService;
+  }
+
+  public FileChangeBus fileChangeBus() {
+    return fileChangeBus;
+  }
+
+  public void notifyRemoteChange() {
+    remoteChangeListeners.forEach(Runnable::run);
+  }
+
+  public long countObjects(final String prefix, final String suffix) {
+    return inMemoryS3.objects().keySet().stream()
+        .filter(key -> key.startsWith(prefix) && key.endsWith(suffix))
+        .count();
+  }
+
+  public static void upload(final FileStorageService service, final String fileName, final byte[] content) {
+    service.uploadFile(fileName, new ByteArrayInputStream(content), content.length);
+  }
+
+  public static void upload(final FileStorageService service, final String fileName, final String content) {
+    upload(service, fileName, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static String read(final FileStorageService service, final String fileName) {
+    return new String(readAll(service.getFile(fileName)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Waits for a condition fulfilled by background work, failing the test if it is not within a few seconds.
+   */
+  public static void await(final BooleanSupplier condition) throws InterruptedException {
+    final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(AWAIT_TIMEOUT_SECONDS);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        fail("Condition not met within " + AWAIT_TIMEOUT_SECONDS + " seconds");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+}
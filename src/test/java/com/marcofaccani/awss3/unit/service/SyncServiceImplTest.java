@@ -0,0 +1,270 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.marcofaccani.awss3.config.AwsS3ConfigProperties;
+import com.marcofaccani.awss3.config.SyncConfigProperties;
+import com.marcofaccani.awss3.exceptions.InvalidSyncRequestException;
+import com.marcofaccani.awss3.model.SyncAction;
+import com.marcofaccani.awss3.model.SyncAction.Type;
+import com.marcofaccani.awss3.model.SyncRequest;
+import com.marcofaccani.awss3.model.SyncRequest.Direction;
+import com.marcofaccani.awss3.service.FileChangeBus;
+import com.marcofaccani.awss3.service.FileStorageServiceImpl;
+import com.marcofaccani.awss3.service.MultipartUploader;
+import com.marcofaccani.awss3.service.SyncServiceImpl;
+import com.marcofaccani.awss3.service.interfaces.FileStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class SyncServiceImplTest {
+
+  private static final String BUCKET_NAME = "dummyBucketName";
+  private static final String PREFIX = "backup/";
+
+  private final S3Client s3Client = mock(S3Client.class);
+  private final InMemoryS3 inMemoryS3 = new InMemoryS3(s3Client);
+  private final FileStorageServiceImpl fileStorageService = mock(FileStorageServiceImpl.class);
+  private final FileChangeBus fileChangeBus = mock(FileChangeBus.class);
+  private final MultipartUploader multipartUploader = mock(MultipartUploader.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @TempDir
+  private Path root;
+
+  private Path directory;
+  private SyncServiceImpl underTest;
+
+  @BeforeEach
+  void setup() throws IOException {
+    directory = Files.createDirectories(root.resolve("data"));
+    underTest = new SyncServiceImpl(new AwsS3ConfigProperties(BUCKET_NAME),
+        new SyncConfigProperties(root.toString(), 4, ".s3sync"), fileStorageService, fileChangeBus,
+        multipartUploader, s3Client, meterRegistry);
+    when(multipartUploader.partSize()).thenReturn(MultipartUploader.MIN_PART_SIZE);
+    doAnswer(invocation -> {
+      inMemoryS3.put(invocation.getArgument(0), invocation.<InputStream>getArgument(1).readAllBytes());
+      return null;
+    }).when(fileStorageService).uploadFile(anyString(), any(InputStream.class), anyLong());
+    when(fileStorageService.getFile(anyString())).thenAnswer(invocation ->
+        new ResponseInputStream<>(GetObjectResponse.builder().build(), AbortableInputStream.create(
+            new ByteArrayInputStream(inMemoryS3.objects().get(invocation.<String>getArgument(0))))));
+    doAnswer(invocation -> inMemoryS3.objects().remove(invocation.<String>getArgument(0)))
+        .when(fileStorageService).deleteFile(anyString());
+  }
+
+  @AfterEach
+  void tearDown() {
+    underTest.preDestroy();
+  }
+
+  private void writeLocal(final String path, final String content) throws IOException {
+    final var file = directory.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, content);
+  }
+
+  private String readLocal(final String path) throws IOException {
+    return Files.readString(directory.resolve(path));
+  }
+
+  private void putRemote(final String path, final String content) {
+    inMemoryS3.put(PREFIX + path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String readRemote(final String path) {
+    return new String(inMemoryS3.objects().get(PREFIX + path), StandardCharsets.UTF_8);
+  }
+
+  private static SyncRequest request(final Direction direction, final boolean dryRun,
+      final boolean deleteExtraneous) {
+    return new SyncRequest("data", PREFIX, direction, dryRun, deleteExtraneous);
+  }
+
+  @Nested
+  class UploadTest {
+
+    @Test
+    void shouldUploadOnlyChangedFiles() throws IOException {
+      writeLocal("a.txt", "first");
+      writeLocal("sub/b.txt", "second");
+
+      final var firstReport = underTest.sync(request(Direction.UPLOAD, false, false));
+      writeLocal("a.txt", "first, edited");
+      final var secondReport = underTest.sync(request(Direction.UPLOAD, false, false));
+
+      assertEquals(2, firstReport.transferred());
+      assertEquals("second", readRemote("sub/b.txt"));
+      assertEquals(1, secondReport.unchanged());
+      assertEquals(List.of(new SyncAction("a.txt", Type.UPLOAD, 13, true, null)), secondReport.actions());
+      assertEquals("first, edited", readRemote("a.txt"));
+      verify(fileChangeBus, times(2)).publishWritten(PREFIX + "a.txt");
+      verify(fileChangeBus).publishWritten(PREFIX + "sub/b.txt");
+      assertEquals(5 + 6 + 13, meterRegistry.get(SyncServiceImpl.METRIC_BYTES).tag("direction", "upload")
+          .counter().count());
+    }
+
+    @Test
+    void shouldRecognizeIdenticalContentWithoutState() throws IOException {
+      writeLocal("a.txt", "same");
+      putRemote("a.txt", "same");
+
+      final var report = underTest.sync(request(Direction.UPLOAD, false, false));
+
+      assertEquals(1, report.unchanged());
+      assertTrue(report.actions().isEmpty());
+    }
+
+    @Test
+    void shouldDeleteExtraneousRemoteFiles() throws IOException {
+      writeLocal("a.txt", "kept");
+      putRemote("old.txt", "extraneous");
+
+      underTest.sync(request(Direction.UPLOAD, false, true));
+
+      assertEquals(List.of(PREFIX + "a.txt"), List.copyOf(inMemoryS3.objects().keySet()));
+      verify(fileChangeBus).publishDeleted(PREFIX + "old.txt");
+    }
+
+    @Test
+    void shouldOnlyReportActionsOnDryRun() throws IOException {
+      writeLocal("a.txt", "new");
+      putRemote("old.txt", "extraneous");
+
+      final var report = underTest.sync(request(Direction.UPLOAD, true, true));
+
+      assertTrue(report.dryRun());
+      assertEquals(List.of(new SyncAction("a.txt", Type.UPLOAD, 3, false, null),
+          new SyncAction("old.txt", Type.DELETE_REMOTE, 10, false, null)), report.actions());
+      assertEquals(List.of(PREFIX + "old.txt"), List.copyOf(inMemoryS3.objects().keySet()));
+      verifyNoInteractions(fileChangeBus);
+      assertFalse(Files.exists(directory.resolve(".s3sync")));
+    }
+
+  }
+
+  @Nested
+  class DownloadTest {
+
+    @Test
+    void shouldDownloadAndDeleteExtraneousLocalFiles() throws IOException {
+      putRemote("sub/a.txt", "remote");
+      writeLocal("local.txt", "extraneous");
+
+      final var report = underTest.sync(request(Direction.DOWNLOAD, false, true));
+
+      assertEquals(1, report.transferred());
+      assertEquals(1, report.deleted());
+      assertEquals("remote", readLocal("sub/a.txt"));
+      assertFalse(Files.exists(directory.resolve("local.txt")));
+    }
+
+    @Test
+    void shouldCreateMissingDirectory() {
+      putRemote("a.txt", "remote");
+
+      underTest.sync(new SyncRequest("new/dir", PREFIX, Direction.DOWNLOAD, false, false));
+
+      assertTrue(Files.exists(root.resolve("new/dir/a.txt")));
+    }
+
+  }
+
+  @Nested
+  class BothDirectionsTest {
+
+    @Test
+    void shouldTransferTheSideThatChanged() throws IOException {
+      writeLocal("local-edit.txt", "v1");
+      writeLocal("remote-edit.txt", "v1");
+      underTest.sync(request(Direction.BOTH, false, false));
+
+      writeLocal("local-edit.txt", "v2 local");
+      putRemote("remote-edit.txt", "v2 remote");
+      final var report = underTest.sync(request(Direction.BOTH, false, false));
+
+      assertEquals(2, report.transferred());
+      assertEquals("v2 local", readRemote("local-edit.txt"));
+      assertEquals("v2 remote", readLocal("remote-edit.txt"));
+    }
+
+    @Test
+    void shouldPropagateDeletionsWhenDeletingExtraneous() throws IOException {
+      writeLocal("deleted-remotely.txt", "content");
+      writeLocal("deleted-locally.txt", "content");
+      underTest.sync(request(Direction.BOTH, false, true));
+
+      inMemoryS3.objects().remove(PREFIX + "deleted-remotely.txt");
+      Files.delete(directory.resolve("deleted-locally.txt"));
+      final var report = underTest.sync(request(Direction.BOTH, false, true));
+
+      assertEquals(2, report.deleted());
+      assertFalse(Files.exists(directory.resolve("deleted-remotely.txt")));
+      assertTrue(inMemoryS3.objects().isEmpty());
+    }
+
+    @Test
+    void shouldRestoreDeletionsWhenNotDeletingExtraneous() throws IOException {
+      writeLocal("a.txt", "content");
+      underTest.sync(request(Direction.BOTH, false, false));
+
+      inMemoryS3.objects().remove(PREFIX + "a.txt");
+      underTest.sync(request(Direction.BOTH, false, false));
+
+      assertEquals("content", readRemote("a.txt"));
+    }
+
+  }
+
+  @Test
+  void shouldRejectStorageModesOtherThanPlain() throws IOException {
+    writeLocal("a.txt", "first");
+    final var packedFileStorageService = mock(FileStorageService.class);
+    final var packedSyncService = new SyncServiceImpl(new AwsS3ConfigProperties(BUCKET_NAME),
+        new SyncConfigProperties(root.toString(), 4, ".s3sync"), packedFileStorageService, fileChangeBus,
+        multipartUploader, s3Client, meterRegistry);
+
+    try {
+      assertThrows(InvalidSyncRequestException.class,
+          () -> packedSyncService.sync(request(Direction.UPLOAD, false, false)));
+      verifyNoInteractions(packedFileStorageService);
+    } finally {
+      packedSyncService.preDestroy();
+    }
+  }
+
+  @Test
+  void shouldRejectDirectoryOutsideOfRoot() {
+    assertThrows(InvalidSyncRequestException.class,
+        () -> underTest.sync(new SyncRequest("../elsewhere", PREFIX, Direction.UPLOAD, false, false)));
+  }
+
+}
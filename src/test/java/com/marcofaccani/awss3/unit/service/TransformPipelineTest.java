@@ -0,0 +1,265 @@
+package com.marcofaccani.awss3.unit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.marcofaccani.awss3.config.TransformConfigProperties;
+import com.marcofaccani.awss3.exceptions.ObjectTransformException;
+import com.marcofaccani.awss3.service.transform.TransformPipeline;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransformPipelineTest {
+
+  private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+  private static TransformPipeline pipeline(final String stages, final String key) {
+    return new TransformPipeline(new TransformConfigProperties(
+        stages.isEmpty() ? List.of() : Arrays.asList(stages.split(",")),
+        DataSize.ofKilobytes(4), 4, DataSize.ofKilobytes(64), key));
+  }
+
+  private static byte[] content(final int size) {
+    final var bytes = new byte[size];
+    final var random = new Random(42);
+    // Half compressible, half random
+    for (int i = 0; i < size; i++) {
+      bytes[i] = i < size / 2 ? (byte) ('a' + random.nextInt(4)) : (byte) random.nextInt();
+    }
+    return bytes;
+  }
+
+  private static Encoded encode(final TransformPipeline pipeline, final byte[] content) throws IOException {
+    return encode(pipeline, content, pipeline.stageNames());
+  }
+
+  private static Encoded encode(final TransformPipeline pipeline, final byte[] content, final List<String> stages)
+      throws IOException {
+    try (var encodedContent = pipeline.encode(new ByteArrayInputStream(content), stages)) {
+      return new Encoded(encodedContent.newInputStream().readAllBytes(), encodedContent.metadata());
+    }
+  }
+
+  private record Encoded(byte[] bytes, Map<String, String> metadata) {
+
+  }
+
+  @Nested
+  class RoundTripTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"crc32c", "sha256", "gzip", "zstd", "aes-gcm", "sha256,zstd,aes-gcm",
+        "crc32c,gzip,aes-gcm"})
+    void shouldRestoreContent(final String stages) throws IOException {
+      final var pipeline = pipeline(stages, KEY);
+      // Larger than the spool memory threshold and not a multiple of the buffer size
+      final var content = content(100 * 1024 + 7);
+
+      final var encoded = encode(pipeline, content);
+
+      assertEquals(stages, encoded.metadata().get(TransformPipeline.METADATA_STAGES));
+      assertEquals(Integer.toString(content.length), encoded.metadata().get(TransformPipeline.METADATA_PLAIN_LENGTH));
+      assertArrayEquals(content,
+          pipeline.decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata()).readAllBytes());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 4096, 8192})
+    void shouldEncryptContentOfAnySize(final int size) throws IOException {
+      final var pipeline = pipeline("aes-gcm", KEY);
+      final var content = content(size);
+
+      final var encoded = encode(pipeline, content);
+
+      assertArrayEquals(content,
+          pipeline.decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata()).readAllBytes());
+    }
+
+    @Test
+    void shouldCompressContent() throws IOException {
+      final var content = new byte[64 * 1024];
+
+      assertTrue(encode(pipeline("zstd", KEY), content).bytes().length < content.length / 10);
+    }
+
+    @Test
+    void shouldDecodeWithStagesRecordedInMetadata() throws IOException {
+      final var content = content(10_000);
+      final var encoded = encode(pipeline("gzip,aes-gcm", KEY), content);
+
+      final var decoded = pipeline("crc32c", KEY).decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata());
+
+      assertArrayEquals(content, decoded.readAllBytes());
+    }
+
+    @Test
+    void shouldDecodeObjectResponseWithPlainLength() throws IOException {
+      final var pipeline = pipeline("zstd", KEY);
+      final var content = content(10_000);
+      final var encoded = encode(pipeline, content);
+      final var response = GetObjectResponse.builder()
+          .contentLength((long) encoded.bytes().length)
+          .metadata(encoded.metadata())
+          .build();
+
+      final var decoded = pipeline.decode(new ResponseInputStream<>(response,
+          AbortableInputStream.create(new ByteArrayInputStream(encoded.bytes()))));
+
+      assertEquals(content.length, decoded.response().contentLength());
+      assertArrayEquals(content, decoded.readAllBytes());
+    }
+
+    @Test
+    void shouldServeCompressedBytesToClientsAcceptingTheirCoding() throws IOException {
+      final var pipeline = pipeline("", KEY);
+      final var content = content(10_000);
+      final var encoded = encode(pipeline, content, List.of("sha256", "gzip"));
+      final var response = GetObjectResponse.builder().metadata(encoded.metadata()).build();
+
+      final var served = pipeline.decode(new ResponseInputStream<>(response,
+          AbortableInputStream.create(new ByteArrayInputStream(encoded.bytes()))), List.of("br", "gzip"));
+
+      assertEquals("gzip", served.response().contentEncoding());
+      assertArrayEquals(encoded.bytes(), served.readAllBytes());
+    }
+
+    @Test
+    void shouldDecompressForClientsNotAcceptingTheCoding() throws IOException {
+      final var pipeline = pipeline("", KEY);
+      final var content = content(10_000);
+      final var encoded = encode(pipeline, content, List.of("zstd"));
+      final var response = GetObjectResponse.builder().contentEncoding("zstd").metadata(encoded.metadata()).build();
+
+      final var served = pipeline.decode(new ResponseInputStream<>(response,
+          AbortableInputStream.create(new ByteArrayInputStream(encoded.bytes()))), List.of("gzip"));
+
+      assertEquals(null, served.response().contentEncoding());
+      assertArrayEquals(content, served.readAllBytes());
+    }
+
+    @Test
+    void shouldNotServeEncryptedBytes() {
+      final var metadata = Map.of(TransformPipeline.METADATA_STAGES, "gzip,aes-gcm");
+
+      assertTrue(TransformPipeline.contentCoding(metadata).isEmpty());
+      assertEquals("zstd", TransformPipeline.contentCoding(
+          Map.of(TransformPipeline.METADATA_STAGES, "crc32c,zstd")).orElseThrow());
+    }
+
+    @Test
+    void shouldLeaveObjectsWithoutTransformUntouched() throws IOException {
+      final var object = new ResponseInputStream<>(GetObjectResponse.builder().build(),
+          AbortableInputStream.create(new ByteArrayInputStream(new byte[10])));
+
+      assertSame(object, pipeline("zstd", KEY).decode(object));
+    }
+
+  }
+
+  @Nested
+  class IntegrityTest {
+
+    @Test
+    void shouldDetectChecksumMismatch() throws IOException {
+      final var pipeline = pipeline("sha256", KEY);
+      final var encoded = encode(pipeline, content(1000));
+      encoded.bytes()[10] ^= 1;
+
+      final var decoded = pipeline.decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata());
+
+      assertThrows(IOException.class, decoded::readAllBytes);
+    }
+
+    @Test
+    void shouldDetectTamperedCiphertext() throws IOException {
+      final var pipeline = pipeline("aes-gcm", KEY);
+      final var encoded = encode(pipeline, content(10_000));
+      encoded.bytes()[5000] ^= 1;
+
+      final var decoded = pipeline.decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata());
+
+      assertThrows(IOException.class, decoded::readAllBytes);
+    }
+
+    @Test
+    void shouldDetectTruncatedCiphertext() throws IOException {
+      final var pipeline = pipeline("aes-gcm", KEY);
+      final var encoded = encode(pipeline, content(10_000));
+      // Drop the last segment: the one before is not flagged as last
+      final var truncated = Arrays.copyOf(encoded.bytes(), 13 + 2 * (4096 + 16));
+
+      final var decoded = pipeline.decode(new ByteArrayInputStream(truncated), encoded.metadata());
+
+      assertThrows(IOException.class, decoded::readAllBytes);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -1, Integer.MAX_VALUE})
+    void shouldRejectInvalidSegmentSize(final int segmentSize) throws IOException {
+      final var pipeline = pipeline("aes-gcm", KEY);
+      final var encoded = encode(pipeline, content(100));
+      ByteBuffer.wrap(encoded.bytes()).putInt(1, segmentSize);
+
+      assertThrows(IOException.class,
+          () -> pipeline.decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata()).readAllBytes());
+    }
+
+    @Test
+    void shouldNotDecryptWithAnotherKey() throws IOException {
+      final var encoded = encode(pipeline("aes-gcm", KEY), content(100));
+      final var otherKey = new byte[32];
+      otherKey[0] = 1;
+
+      final var decoded = pipeline("aes-gcm", Base64.getEncoder().encodeToString(otherKey))
+          .decode(new ByteArrayInputStream(encoded.bytes()), encoded.metadata());
+
+      assertThrows(IOException.class, decoded::readAllBytes);
+    }
+
+  }
+
+  @Nested
+  class ConfigurationTest {
+
+    @Test
+    void shouldRejectUnknownStage() {
+      assertThrows(ObjectTransformException.class, () -> pipeline("rot13", KEY));
+    }
+
+    @Test
+    void shouldRequireEncryptionKey() {
+      assertThrows(ObjectTransformException.class, () -> pipeline("aes-gcm", null));
+      assertThrows(ObjectTransformException.class, () -> pipeline("aes-gcm", "bm90IGEga2V5"));
+    }
+
+    @Test
+    void shouldRejectObjectsWithUnknownStage() {
+      final var metadata = new HashMap<String, String>();
+      metadata.put(TransformPipeline.METADATA_STAGES, "rot13");
+
+      assertThrows(ObjectTransformException.class,
+          () -> pipeline("", KEY).decode(new ByteArrayInputStream(new byte[0]), metadata));
+    }
+
+  }
+
+}